@@ -0,0 +1,306 @@
+package de.uni_leipzig.asv;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import de.uni_leipzig.asv.web.search.SearchResponse;
+/**
+ * Prft {@link JdbcResultSink} gegen einen JDBC-Treiber, der eine Tabelle im
+ * Speicher nachbildet. Der Treiber nimmt Adressen der Form
+ * <code>jdbc:stub:[Name]</code> an, fhrt <code>INSERT</code>-Anweisungen
+ * mit Transaktionen aus und meldet doppelte Schlssel wie andere
+ * Datenbanken mit dem SQLSTATE <code>23000</code>. Fehler beim Einfgen und
+ * beim Verbinden knnen gezielt ausgelst werden.
+ * <p>
+ * Geprft werden das Sammeln der Suchergebnisse, das Schreiben nach dem
+ * Intervall, das Warten beim Festschreiben, das bergehen von Duplikaten,
+ * das Ersetzen einer verworfenen Verbindung und dass eine Verbindung, die
+ * nicht ersetzt werden konnte, nicht wieder ausgeliehen wird. Bei einem
+ * Fehler endet das Programm mit dem Status <code>1</code>.
+ * 
+ * <pre>
+ * java de.uni_leipzig.asv.JdbcSinkCheck
+ * </pre>
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class JdbcSinkCheck {
+	/**
+	 * Eine Tabelle im Speicher mit ihrem Treiber.
+	 */
+	private static final class StubDatabase implements Driver {
+		private final String url;
+		private final Map<String, String> rows = new HashMap<String, String>();
+		private final AtomicInteger connects = new AtomicInteger();
+		private final AtomicInteger open = new AtomicInteger();
+		private final AtomicInteger statements = new AtomicInteger();
+		private final AtomicInteger closedUses = new AtomicInteger();
+		private final AtomicInteger failInserts = new AtomicInteger();
+		private final AtomicInteger failConnects = new AtomicInteger();
+		private StubDatabase(String name) {
+			this.url = "jdbc:stub:" + name;
+		}
+		private int size() {
+			synchronized (this.rows) {
+				return this.rows.size();
+			}
+		}
+		public Connection connect(String url, Properties info) throws SQLException {
+			if (!this.acceptsURL(url))
+				return null;
+			if (this.failConnects.get() > 0 && this.failConnects.getAndDecrement() > 0)
+				throw new SQLException("connection refused", "08001");
+			this.connects.incrementAndGet();
+			this.open.incrementAndGet();
+			return (Connection) Proxy.newProxyInstance(JdbcSinkCheck.class.getClassLoader(), new Class<?>[] {Connection.class}, new StubConnection(this));
+		}
+		public boolean acceptsURL(String url) {
+			return this.url.equals(url);
+		}
+		public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+			return new DriverPropertyInfo[0];
+		}
+		public int getMajorVersion() {
+			return 1;
+		}
+		public int getMinorVersion() {
+			return 0;
+		}
+		public boolean jdbcCompliant() {
+			return false;
+		}
+		public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+			throw new SQLFeatureNotSupportedException();
+		}
+	}
+	/**
+	 * Eine Verbindung, die eingefgte Zeilen bis zum Festschreiben
+	 * zurckhlt. Nach einem ausgelsten Fehler ist die Verbindung
+	 * geschlossen.
+	 */
+	private static final class StubConnection implements InvocationHandler {
+		private final StubDatabase database;
+		private final Map<String, String> staged = new HashMap<String, String>();
+		private boolean closed = false;
+		private StubConnection(StubDatabase database) {
+			this.database = database;
+		}
+		public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (name.equals("isClosed"))
+				return this.closed;
+			if (name.equals("close")) {
+				if (!this.closed)
+					this.database.open.decrementAndGet();
+				this.closed = true;
+				return null;
+			}
+			if (this.closed) {
+				// rolling back the statement that failed is not a new use
+				if (!name.equals("rollback"))
+					this.database.closedUses.incrementAndGet();
+				throw new SQLException("connection is closed", "08003");
+			}
+			if (name.equals("setAutoCommit"))
+				return null;
+			if (name.equals("commit")) {
+				synchronized (this.database.rows) {
+					this.database.rows.putAll(this.staged);
+				}
+				this.staged.clear();
+				return null;
+			}
+			if (name.equals("rollback")) {
+				this.staged.clear();
+				return null;
+			}
+			if (name.equals("createStatement"))
+				return Proxy.newProxyInstance(JdbcSinkCheck.class.getClassLoader(), new Class<?>[] {Statement.class}, new StubStatement(this, null));
+			if (name.equals("prepareStatement"))
+				return Proxy.newProxyInstance(JdbcSinkCheck.class.getClassLoader(), new Class<?>[] {PreparedStatement.class}, new StubStatement(this, (String) args[0]));
+			throw new UnsupportedOperationException(name);
+		}
+		private synchronized void insert(List<String> keys) throws SQLException {
+			if (this.closed) {
+				this.database.closedUses.incrementAndGet();
+				throw new SQLException("connection is closed", "08003");
+			}
+			this.database.statements.incrementAndGet();
+			if (this.database.failInserts.get() > 0 && this.database.failInserts.getAndDecrement() > 0) {
+				this.closed = true;
+				this.database.open.decrementAndGet();
+				throw new SQLException("connection reset", "08S01");
+			}
+			Map<String, String> inserted = new HashMap<String, String>();
+			synchronized (this.database.rows) {
+				for (String key : keys)
+					if (this.database.rows.containsKey(key) || this.staged.containsKey(key) || inserted.put(key, key) != null)
+						throw new SQLException("duplicate key " + key, "23000");
+			}
+			this.staged.putAll(inserted);
+		}
+	}
+	/**
+	 * Eine Anweisung, die beim Ausfhren die Schlssel der Zeilen an ihre
+	 * Verbindung bergibt. Der Schlssel ist der erste von sieben
+	 * Parametern jeder Zeile.
+	 */
+	private static final class StubStatement implements InvocationHandler {
+		private final StubConnection connection;
+		private final String sql;
+		private final Map<Integer, Object> params = new HashMap<Integer, Object>();
+		private StubStatement(StubConnection connection, String sql) {
+			this.connection = connection;
+			this.sql = sql;
+		}
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (name.equals("close"))
+				return null;
+			if (name.equals("setString") || name.equals("setInt") || name.equals("setNull")) {
+				this.params.put((Integer) args[0], name.equals("setNull") ? null : args[1]);
+				return null;
+			}
+			if (name.equals("executeUpdate")) {
+				if (this.sql == null)
+					return 0;
+				List<String> keys = new ArrayList<String>();
+				for (int i = 1; this.params.containsKey(i); i += 7)
+					keys.add((String) this.params.get(i));
+				this.connection.insert(keys);
+				return keys.size();
+			}
+			throw new UnsupportedOperationException(name);
+		}
+	}
+	private static final class Response extends SearchResponse {
+		private Response(String query, int count) {
+			this.requestedWebSearchEngine = "google";
+			this.requestedQuery = query;
+			for (int i = 0; i < count; i++)
+				this.results.add(new Record(query, i));
+		}
+	}
+	private static final class Record extends SearchResponse.Result {
+		private Record(String query, int index) {
+			this.link = "http://www.example.org/" + query.replace(' ', '/') + "/" + index;
+			this.title = query + " " + index;
+			this.snippet = "snippet " + index;
+		}
+	}
+	private static int databases = 0;
+	private int failures = 0;
+	private void check(boolean condition, String message) {
+		if (!condition) {
+			this.failures++;
+			System.out.println("FAILED " + message);
+		}
+	}
+	private static StubDatabase register() throws SQLException {
+		StubDatabase database = new StubDatabase("check" + JdbcSinkCheck.databases++);
+		DriverManager.registerDriver(database);
+		return database;
+	}
+	private void batches() throws Exception {
+		StubDatabase database = JdbcSinkCheck.register();
+		JdbcResultSink sink = new JdbcResultSink(database.url, null, null, "results", 50, 60 * 1000, 2);
+		for (int i = 0; i < 20; i++)
+			sink.write(new Response("query " + i, 25));
+		sink.checkpoint();
+		this.check(database.size() == 500, "batches: " + database.size() + " of 500 rows committed");
+		this.check(database.statements.get() <= 20, "batches: " + database.statements.get() + " statements for 10 batches");
+		sink.close();
+		this.check(database.open.get() == 0, "batches: " + database.open.get() + " connections left open");
+		System.out.println(String.format("%-12s %4d rows, %3d statements", "batches", database.size(), database.statements.get()));
+	}
+	private void interval() throws Exception {
+		StubDatabase database = JdbcSinkCheck.register();
+		JdbcResultSink sink = new JdbcResultSink(database.url, null, null, "results", 500, 100, 1);
+		sink.write(new Response("interval", 3));
+		long end = System.currentTimeMillis() + 2000;
+		while (database.size() < 3 && System.currentTimeMillis() < end)
+			Thread.sleep(10);
+		this.check(database.size() == 3, "interval: " + database.size() + " of 3 rows committed without a checkpoint");
+		sink.close();
+		System.out.println(String.format("%-12s %4d rows, %3d statements", "interval", database.size(), database.statements.get()));
+	}
+	private void duplicates() throws Exception {
+		StubDatabase database = JdbcSinkCheck.register();
+		JdbcResultSink sink = new JdbcResultSink(database.url, null, null, "results", 100, 60 * 1000, 1);
+		sink.write(new Response("duplicate", 10));
+		sink.checkpoint();
+		sink.write(new Response("duplicate", 10));
+		sink.write(new Response("other", 5));
+		sink.write(new Response("other", 5));
+		sink.checkpoint();
+		this.check(database.size() == 15, "duplicates: " + database.size() + " of 15 rows committed");
+		sink.close();
+		System.out.println(String.format("%-12s %4d rows, %3d statements", "duplicates", database.size(), database.statements.get()));
+	}
+	private void reconnect() throws Exception {
+		StubDatabase database = JdbcSinkCheck.register();
+		JdbcResultSink sink = new JdbcResultSink(database.url, null, null, "results", 100, 60 * 1000, 1);
+		database.failInserts.set(1);
+		sink.write(new Response("reconnect", 10));
+		sink.checkpoint();
+		sink.write(new Response("reconnected", 10));
+		sink.checkpoint();
+		this.check(database.size() == 20, "reconnect: " + database.size() + " of 20 rows committed");
+		this.check(database.connects.get() == 2, "reconnect: " + database.connects.get() + " connections instead of 2");
+		this.check(database.closedUses.get() == 0, "reconnect: closed connection used " + database.closedUses.get() + " times");
+		sink.close();
+		this.check(database.open.get() == 0, "reconnect: " + database.open.get() + " connections left open");
+		System.out.println(String.format("%-12s %4d rows, %3d connections", "reconnect", database.size(), database.connects.get()));
+	}
+	private void refused() throws Exception {
+		StubDatabase database = JdbcSinkCheck.register();
+		JdbcResultSink sink = new JdbcResultSink(database.url, null, null, "results", 10, 60 * 1000, 1);
+		database.failInserts.set(1);
+		database.failConnects.set(1);
+		boolean failed = false;
+		try {
+			// the second batch must get a new connection instead of the closed one
+			sink.write(new Response("refused", 10));
+			sink.write(new Response("refused later", 10));
+			sink.checkpoint();
+		} catch (IOException e) {
+			failed = true;
+		}
+		this.check(failed, "refused: checkpoint did not report the failed batch");
+		try {
+			sink.close();
+		} catch (IOException e) {}
+		this.check(database.closedUses.get() == 0, "refused: closed connection used " + database.closedUses.get() + " times");
+		this.check(database.open.get() == 0, "refused: " + database.open.get() + " connections left open");
+		System.out.println(String.format("%-12s %4d rows, %3d connections", "refused", database.size(), database.connects.get()));
+	}
+	public static void main(String[] args) throws Exception {
+		JdbcSinkCheck check = new JdbcSinkCheck();
+		check.batches();
+		check.interval();
+		check.duplicates();
+		check.reconnect();
+		check.refused();
+		if (check.failures > 0) {
+			System.out.println(check.failures + " checks failed");
+			System.exit(1);
+		}
+		System.out.println("all checks passed");
+	}
+}
@@ -0,0 +1,86 @@
+package de.uni_leipzig.asv;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+import de.uni_leipzig.asv.WebSearchLauncher.OutputFormat;
+import de.uni_leipzig.asv.web.search.SearchResponse;
+/**
+ * Misst fr jedes Ausgabeformat die Anzahl der geschriebenen Bytes und die
+ * Rechenzeit je Suchergebnis. Die Antworten werden zufllig, aber
+ * reproduzierbar erzeugt und hneln in Aufbau und Lnge den Antworten von
+ * Google.
+ * 
+ * <pre>
+ * java de.uni_leipzig.asv.OutputFormatBenchmark [Antworten] [Ergebnisse je Antwort]
+ * </pre>
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class OutputFormatBenchmark {
+	private static final class Response extends SearchResponse {
+		private Response(String query, int count, Random random) {
+			this.requestedQuery = query;
+			for (int i = 0; i < count; i++)
+				this.results.add(new Record(random));
+		}
+	}
+	private static final class Record extends SearchResponse.Result {
+		private Record(Random random) {
+			this.link = "http://www." + OutputFormatBenchmark.words(random, 1, "") + ".de/" + OutputFormatBenchmark.words(random, 3, "/") + ".html";
+			this.title = OutputFormatBenchmark.words(random, 6, " ");
+			this.snippet = OutputFormatBenchmark.words(random, 25, " ") + "; \"" + OutputFormatBenchmark.words(random, 2, " ") + "\" ...";
+		}
+	}
+	private static final class CountingOutputStream extends OutputStream {
+		private long count = 0;
+		public void write(int b) {
+			this.count++;
+		}
+		public void write(byte[] b, int off, int len) {
+			this.count += len;
+		}
+	}
+	private static final String[] WORDS = {"suche", "ergebnis", "leipzig", "universitt", "proxy", "anfrage", "seite", "daten", "wort", "korpus", "sprache", "text", "netz", "ber", "strae", "mller", "the", "of", "and", "search"};
+	private static String words(Random random, int count, String separator) {
+		StringBuilder words = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			if (i > 0)
+				words.append(separator);
+			words.append(OutputFormatBenchmark.WORDS[random.nextInt(OutputFormatBenchmark.WORDS.length)]);
+		}
+		return words.toString();
+	}
+	public static void main(String[] args) throws IOException {
+		int responses = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int results = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		Random random = new Random(42);
+		SearchResponse[] data = new SearchResponse[20];
+		for (int i = 0; i < data.length; i++)
+			data[i] = new Response(OutputFormatBenchmark.words(random, 3, " "), results, random);
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		System.out.println(String.format("%-12s %14s %12s %12s", "format", "bytes", "bytes/result", "ns/result"));
+		for (int round = 0; round < 2; round++) {
+			for (boolean compressed : new boolean[]{false, true}) {
+				for (OutputFormat format : OutputFormat.values()) {
+					WebSearchLauncher.setOutputFormat(format, compressed);
+					CountingOutputStream out = new CountingOutputStream();
+					ResultSink sink = WebSearchLauncher.openSink(out, true, true, true, true);
+					long start = bean.getCurrentThreadCpuTime();
+					for (int i = 0; i < responses; i++) {
+						sink.write(data[i % data.length]);
+						if (i % 100 == 99)
+							sink.checkpoint();
+					}
+					sink.close();
+					long time = bean.getCurrentThreadCpuTime() - start;
+					long total = (long) responses * results;
+					if (round > 0)
+						System.out.println(String.format("%-12s %14d %12.1f %12d", format.name().toLowerCase() + (compressed ? ".gz" : ""), out.count, (double) out.count / total, time / total));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package de.uni_leipzig.asv.load;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import de.uni_leipzig.asv.WebSearchLauncher;
+import de.uni_leipzig.asv.web.metrics.Counter;
+import de.uni_leipzig.asv.web.metrics.Gauge;
+import de.uni_leipzig.asv.web.metrics.Histogram;
+import de.uni_leipzig.asv.web.metrics.MetricsRegistry;
+/**
+ * Ein Lasttest ohne Netzwerk. Startet eine {@link StubSearchEngine} und eine
+ * Flotte von {@link StubProxy}s, fhrt {@link WebSearchLauncher} mit einer
+ * Proxyliste aus diesen Proxies ber eine Folge verschiedener Suchanfragen
+ * aus und gibt anschlieend Suchanfragen je Minute, die Latenz je Seite und
+ * den Verbrauch an Proxies aus. Da Suchmaschine und Proxies mit festen
+ * Startwerten arbeiten, lassen sich nderungen an der Verteilung der
+ * Anfragen oder am Pool ber mehrere Lufe vergleichen.
+ * 
+ * <pre>
+ * java de.uni_leipzig.asv.load.LoadTest [Optionen]
+ * </pre>
+ * 
+ * Optionen des Lasttests sind <code>--engine</code>, <code>--queries</code>,
+ * <code>--workers</code>, <code>--results</code>, <code>--proxies</code>,
+ * <code>--latency</code>, <code>--latency-sigma</code>,
+ * <code>--failure-rate</code>, <code>--stall-rate</code>,
+ * <code>--stall-time</code>, <code>--ban-after</code>, <code>--seed</code>
+ * und <code>--time-limit</code>. Nach der Frist in Sekunden wird der Lauf
+ * mit den bis dahin abgeschlossenen Suchanfragen ausgewertet, etwa wenn alle
+ * Proxies gesperrt sind und ihre Schutzschalter abwarten. Alle anderen Optionen werden an
+ * {@link WebSearchLauncher} weitergereicht, z.B. <code>--hedge=0.95</code>
+ * oder <code>--proxy-rate=1</code>.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class LoadTest {
+	// keeps the quieted logger of HttpClient from being garbage collected
+	private static final Logger HTTP_CLIENT_LOGGER = Logger.getLogger("org.apache.http");
+	private static String get(Map<String, String> options, String name, String defaultValue) {
+		String value = options.remove(name);
+		return value != null ? value : defaultValue;
+	}
+	private static File createTempFile(String prefix, List<String> lines) throws IOException {
+		File file = File.createTempFile(prefix, ".txt");
+		file.deleteOnExit();
+		BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+		try {
+			for (String line : lines) {
+				out.write(line);
+				out.newLine();
+			}
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+	private static double value(String key) {
+		Object metric = MetricsRegistry.getInstance().getMetrics().get(key);
+		return metric instanceof Gauge ? ((Gauge) metric).getValue() : Double.NaN;
+	}
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new HashMap<String, String>();
+		for (String arg : args) {
+			if (!arg.startsWith("--"))
+				throw new IllegalArgumentException("unexpected argument " + arg);
+			int i = arg.indexOf('=');
+			if (i < 0)
+				options.put(arg.substring(2), String.valueOf(true));
+			else
+				options.put(arg.substring(2, i), arg.substring(i + 1));
+		}
+		String engine = LoadTest.get(options, "engine", "google").toLowerCase();
+		if (!engine.equals("google") && !engine.equals("etools"))
+			throw new IllegalArgumentException("engine must be \"google\" or \"etools\"");
+		int queries = Integer.parseInt(LoadTest.get(options, "queries", "100"));
+		int workers = Integer.parseInt(LoadTest.get(options, "workers", "8"));
+		int results = Integer.parseInt(LoadTest.get(options, "results", engine.equals("google") ? "1000" : "400"));
+		int proxyCount = Integer.parseInt(LoadTest.get(options, "proxies", "50"));
+		long seed = Long.parseLong(LoadTest.get(options, "seed", "1"));
+		long timeLimit = Long.parseLong(LoadTest.get(options, "time-limit", "600")) * 1000;
+		StubProxy.Profile profile = new StubProxy.Profile(Double.parseDouble(LoadTest.get(options, "latency", "200")), Double.parseDouble(LoadTest.get(options, "latency-sigma", "0.5")), Double.parseDouble(LoadTest.get(options, "failure-rate", "0.02")), Double.parseDouble(LoadTest.get(options, "stall-rate", "0.005")), Long.parseLong(LoadTest.get(options, "stall-time", "30000")), Double.parseDouble(LoadTest.get(options, "ban-after", "100")));
+		StubSearchEngine searchEngine = new StubSearchEngine(results, results);
+		List<StubProxy> proxies = new ArrayList<StubProxy>();
+		try {
+			searchEngine.start();
+			List<String> proxyList = new ArrayList<String>();
+			for (int i = 0; i < proxyCount; i++) {
+				StubProxy proxy = new StubProxy(profile, seed * 100003 + i);
+				proxy.start();
+				proxies.add(proxy);
+				proxyList.add("127.0.0.1:" + proxy.getPort());
+			}
+			List<String> queryList = new ArrayList<String>();
+			for (int i = 0; i < queries; i++)
+				queryList.add("wortschatz leipzig " + seed + " " + i);
+			File in = LoadTest.createTempFile("queries", queryList);
+			File proxyFile = LoadTest.createTempFile("proxies", proxyList);
+			File out = File.createTempFile("results", ".csv");
+			out.deleteOnExit();
+			List<String> launcherArgs = new ArrayList<String>();
+			launcherArgs.add(engine);
+			launcherArgs.add(in.getPath());
+			launcherArgs.add(out.getPath());
+			launcherArgs.add("true");
+			launcherArgs.add("true");
+			launcherArgs.add("true");
+			launcherArgs.add("true");
+			launcherArgs.add(proxyFile.getPath());
+			launcherArgs.add("--workers=" + workers);
+			launcherArgs.add("--journal=false");
+			launcherArgs.add("--google-url=" + searchEngine.getGoogleURI());
+			launcherArgs.add("--etools-url=" + searchEngine.getEToolsURI());
+			if (!options.containsKey("log")) {
+				launcherArgs.add("--log=warn");
+				LoadTest.HTTP_CLIENT_LOGGER.setLevel(Level.WARNING);
+			}
+			for (Map.Entry<String, String> option : options.entrySet())
+				launcherArgs.add("--" + option.getKey() + "=" + option.getValue());
+			System.out.println("engine " + engine + ", " + queries + " queries, " + workers + " workers, " + proxyCount + " proxies (" + profile + ")");
+			final String[] argv = launcherArgs.toArray(new String[launcherArgs.size()]);
+			Thread launcher = new Thread(new Runnable() {
+				public void run() {
+					WebSearchLauncher.main(argv);
+				}
+			}, "load-test");
+			launcher.setDaemon(true);
+			long start = System.nanoTime();
+			launcher.start();
+			launcher.join(timeLimit);
+			double minutes = (System.nanoTime() - start) / 60e9;
+			if (launcher.isAlive())
+				System.out.println("time limit of " + timeLimit / 1000 + " s reached, partial results:");
+			MetricsRegistry registry = MetricsRegistry.getInstance();
+			Histogram completed = registry.histogram("query.results", "engine", engine);
+			Histogram latency = registry.histogram("request.latency.ms", "engine", engine);
+			Histogram timeToFirstByte = registry.histogram("request.ttfb.ms", "engine", engine);
+			Histogram parseTime = registry.histogram("parse.time.us", "request", engine.equals("google") ? "GoogleSearchRequest" : "EToolsSearchRequest");
+			Counter successes = registry.counter("request.success", "engine", engine);
+			Counter failures = registry.counter("request.failure", "engine", engine);
+			Counter hedges = registry.counter("request.hedged", "engine", engine);
+			double poolSize = LoadTest.value(MetricsRegistry.DOMAIN + ":type=Gauge,name=pool.size,engine=" + engine);
+			long injectedFailures = 0;
+			long injectedStalls = 0;
+			long banned = 0;
+			long bans = 0;
+			for (StubProxy proxy : proxies) {
+				injectedFailures += proxy.getFailureCount();
+				injectedStalls += proxy.getStallCount();
+				bans += proxy.getBanCount();
+				if (proxy.isBanned())
+					banned++;
+			}
+			double removed = Double.isNaN(poolSize) ? 0 : proxyCount - poolSize;
+			System.out.println(String.format("duration   %.1f s", minutes * 60));
+			System.out.println(String.format("queries    %d/%d completed, %.1f/min", completed.getCount(), queries, completed.getCount() / minutes));
+			System.out.println(String.format("pages      %d served, %.1f/min", searchEngine.getPageCount(), searchEngine.getPageCount() / minutes));
+			System.out.println(String.format("latency    p50 %d ms, p90 %d ms, p99 %d ms, max %d ms (%d requests)", latency.getMedian(), latency.get90thPercentile(), latency.get99thPercentile(), latency.getMax(), latency.getCount()));
+			System.out.println(String.format("ttfb       p50 %d ms, p99 %d ms", timeToFirstByte.getMedian(), timeToFirstByte.get99thPercentile()));
+			System.out.println(String.format("parse      p50 %d us, p99 %d us", parseTime.getMedian(), parseTime.get99thPercentile()));
+			System.out.println(String.format("requests   %d succeeded, %d failed, %d hedged", successes.getCount(), failures.getCount(), hedges.getCount()));
+			System.out.println(String.format("burn       %d/%d proxies banned, %.2f/min, %.2f per 100 queries, %d removed from the pool", banned, proxyCount, banned / minutes, completed.getCount() == 0 ? 0 : banned * 100.0 / completed.getCount(), (long) removed));
+			System.out.println(String.format("injected   %d failures, %d stalls, %d ban responses", injectedFailures, injectedStalls, bans));
+		} finally {
+			for (StubProxy proxy : proxies)
+				proxy.stop();
+			searchEngine.stop();
+		}
+		System.exit(0);
+	}
+}
@@ -0,0 +1,207 @@
+package de.uni_leipzig.asv.load;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import de.uni_leipzig.asv.web.SharedHttpClient;
+import de.uni_leipzig.asv.web.proxy.HideMyAssProxyRequest;
+import de.uni_leipzig.asv.web.proxy.Proxy;
+/**
+ * Prft das Einlesen der Proxyliste von HideMyAss gegen einen lokalen
+ * HTTP-Server. Der Server verteilt die Zeilen der aufgezeichneten Seite
+ * <code>bench/fixtures/hidemyass.html</code> auf mehrere Seiten, die sich
+ * berlappen; die Seite {@link #REPEATED_PAGE} wiederholt die vorherige
+ * Seite, nach der letzten Seite mit Zeilen folgen leere Seiten. Die Proxyliste wird nacheinander und
+ * parallel eingelesen, jeweils vollstndig und bis zu einer kleineren
+ * Anzahl. Geprft wird, dass jede Proxy nur einmal geliefert und nur einmal
+ * gemeldet wird, dass beide Arten dieselben Proxies liefern und dass keine
+ * Seite ausgelassen wird. Zuletzt wird die Proxyliste wie beim Auffllen
+ * eines Pools in mehreren Anfragen eingelesen, die jeweils bei der letzten
+ * Seite der vorherigen fortsetzen und sich die bekannten Proxies teilen. Bei einem Fehler endet das Programm mit dem Status
+ * <code>1</code>.
+ * 
+ * <pre>
+ * java de.uni_leipzig.asv.load.ProxyListCheck [Aufzeichnungen]
+ * </pre>
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class ProxyListCheck {
+	private static final int PAGE_SIZE = 10;
+	// consecutive pages share two rows
+	private static final int PAGE_STEP = 8;
+	// a page of known proxies in the middle of the list must not end the crawl
+	private static final int REPEATED_PAGE = 3;
+	// keeps the quieted logger of HttpClient from being garbage collected
+	private static final Logger HTTP_CLIENT_LOGGER = Logger.getLogger("org.apache.http");
+	private final String head;
+	private final String tail;
+	private final List<String> rows = new ArrayList<String>();
+	private final HttpServer server;
+	private int failures = 0;
+	private ProxyListCheck(String html) throws IOException {
+		int body = html.indexOf("<tbody>") + "<tbody>".length();
+		int end = html.indexOf("</tbody>");
+		if (body < "<tbody>".length() || end < body)
+			throw new IOException("fixture has no table body");
+		this.head = html.substring(0, body);
+		this.tail = html.substring(end);
+		String table = html.substring(body, end);
+		for (int i = table.indexOf("<tr"); i >= 0;) {
+			int next = table.indexOf("<tr", i + 1);
+			this.rows.add(next < 0 ? table.substring(i) : table.substring(i, next));
+			i = next;
+		}
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 64);
+		this.server.setExecutor(Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "stub-proxy-list");
+				thread.setDaemon(true);
+				return thread;
+			}
+		}));
+		this.server.createContext("/proxy-list/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					String path = exchange.getRequestURI().getPath();
+					int page = Integer.parseInt(path.substring("/proxy-list/".length()));
+					byte[] content = ProxyListCheck.this.page(page).getBytes(Charset.forName("UTF-8"));
+					exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+					exchange.sendResponseHeaders(200, content.length);
+					OutputStream out = exchange.getResponseBody();
+					out.write(content);
+					out.close();
+				} catch (NumberFormatException e) {
+					exchange.sendResponseHeaders(404, -1);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+	}
+	private String page(int page) {
+		if (page >= ProxyListCheck.REPEATED_PAGE)
+			page--;
+		int start = (page - 1) * ProxyListCheck.PAGE_STEP;
+		return this.table(start, start + ProxyListCheck.PAGE_SIZE);
+	}
+	private String table(int from, int to) {
+		StringBuilder html = new StringBuilder(this.head);
+		for (int i = Math.max(from, 0); i < to && i < this.rows.size(); i++)
+			html.append(this.rows.get(i));
+		return html.append(this.tail).toString();
+	}
+	/**
+	 * Liest alle Proxies der Aufzeichnung direkt aus.
+	 */
+	private Set<Proxy> expected() {
+		Set<Proxy> proxies = new HashSet<Proxy>();
+		for (Element element : Jsoup.parse(this.table(0, this.rows.size())).select("table#listtable > tbody > tr"))
+			proxies.add(new Proxy(HideMyAssProxyRequest.extractHost(element.child(1)), HideMyAssProxyRequest.extractPort(element.child(2)), HideMyAssProxyRequest.extractType(element.child(6))));
+		return proxies;
+	}
+	private void check(boolean condition, String message) {
+		if (!condition) {
+			this.failures++;
+			System.out.println("FAILED " + message);
+		}
+	}
+	private List<Proxy> crawl(String name, int proxyCount, int parallelism) throws IOException {
+		final List<Proxy> reported = Collections.synchronizedList(new ArrayList<Proxy>());
+		HideMyAssProxyRequest request = new HideMyAssProxyRequest(proxyCount, "http://127.0.0.1:" + this.server.getAddress().getPort() + "/proxy-list/");
+		request.setParallelism(parallelism);
+		request.setListener(new HideMyAssProxyRequest.Listener() {
+			public void onProxiesFound(List<Proxy> proxies) {
+				reported.addAll(proxies);
+			}
+		});
+		List<Proxy> proxies = request.submit();
+		System.out.println(String.format("%-22s %3d proxies, %3d reported", name, proxies.size(), reported.size()));
+		this.check(new HashSet<Proxy>(proxies).size() == proxies.size(), name + ": duplicate proxies in the result");
+		this.check(new HashSet<Proxy>(reported).size() == reported.size(), name + ": duplicate proxies reported to the listener");
+		this.check(reported.containsAll(proxies), name + ": proxies missing from the listener");
+		return proxies;
+	}
+	private void run() throws IOException {
+		Set<Proxy> expected = this.expected();
+		System.out.println(this.rows.size() + " rows, " + expected.size() + " distinct proxies");
+		List<Proxy> sequential = this.crawl("sequential", Integer.MAX_VALUE, 1);
+		List<Proxy> parallel = this.crawl("parallel", Integer.MAX_VALUE, HideMyAssProxyRequest.DEFAULT_PARALLELISM);
+		this.check(new HashSet<Proxy>(sequential).equals(expected), "sequential: proxies differ from the fixture");
+		this.check(new HashSet<Proxy>(parallel).equals(expected), "parallel: proxies differ from the fixture");
+		int limit = expected.size() / 2;
+		List<Proxy> sequentialLimited = this.crawl("sequential, limited", limit, 1);
+		List<Proxy> parallelLimited = this.crawl("parallel, limited", limit, HideMyAssProxyRequest.DEFAULT_PARALLELISM);
+		this.check(sequentialLimited.size() == limit, "sequential, limited: expected " + limit + " proxies");
+		this.check(parallelLimited.size() == limit, "parallel, limited: expected " + limit + " proxies");
+		this.check(expected.containsAll(sequentialLimited) && expected.containsAll(parallelLimited), "limited: unknown proxies");
+		this.continued("sequential, continued", expected, 1);
+		this.continued("parallel, continued", expected, HideMyAssProxyRequest.DEFAULT_PARALLELISM);
+	}
+	private void continued(String name, Set<Proxy> expected, int parallelism) throws IOException {
+		Set<Proxy> known = Collections.newSetFromMap(new ConcurrentHashMap<Proxy, Boolean>());
+		// a pool takes the proxies as they are reported, parallel pages may report more than the limit
+		final List<Proxy> proxies = Collections.synchronizedList(new ArrayList<Proxy>());
+		int limit = ProxyListCheck.PAGE_SIZE + 1;
+		int page = 1;
+		int requests = 0;
+		boolean ended = false;
+		// every request must advance, so the list ends after a bounded number of requests
+		while (!ended && requests < expected.size()) {
+			HideMyAssProxyRequest request = new HideMyAssProxyRequest(limit, "http://127.0.0.1:" + this.server.getAddress().getPort() + "/proxy-list/");
+			request.setParallelism(parallelism);
+			request.setFirstPage(page);
+			request.setKnownProxies(known);
+			request.setListener(new HideMyAssProxyRequest.Listener() {
+				public void onProxiesFound(List<Proxy> found) {
+					proxies.addAll(found);
+				}
+			});
+			List<Proxy> found = request.submit();
+			requests++;
+			ended = found.size() < limit && request.isEndReached();
+			page = request.getLastPage();
+		}
+		System.out.println(String.format("%-22s %3d reported, %3d requests", name, proxies.size(), requests));
+		this.check(ended, name + ": end of the list not reached");
+		this.check(new HashSet<Proxy>(proxies).size() == proxies.size(), name + ": duplicate proxies reported to the listener");
+		this.check(new HashSet<Proxy>(proxies).equals(expected), name + ": proxies differ from the fixture");
+		this.check(requests <= expected.size() / limit + 1, name + ": " + requests + " requests, pages were read again");
+	}
+	public static void main(String[] args) throws IOException {
+		File fixtures = new File(args.length > 0 ? args[0] : "bench/fixtures");
+		String html = new String(Files.readAllBytes(new File(fixtures, "hidemyass.html").toPath()), Charset.forName("UTF-8"));
+		ProxyListCheck.HTTP_CLIENT_LOGGER.setLevel(Level.WARNING);
+		ProxyListCheck check = new ProxyListCheck(html);
+		check.server.start();
+		try {
+			check.run();
+		} finally {
+			check.server.stop(0);
+			SharedHttpClient.shutdown();
+		}
+		if (check.failures > 0) {
+			System.out.println(check.failures + " checks failed");
+			System.exit(1);
+		}
+		System.out.println("all checks passed");
+	}
+}
@@ -0,0 +1,219 @@
+package de.uni_leipzig.asv.load;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+/**
+ * Eine lokale HTTP-Proxy, die Anfragen an die {@link StubSearchEngine}
+ * weiterleitet und dabei das Verhalten ffentlicher Proxies nachbildet:
+ * schwankende Latenz, abgebrochene Verbindungen, hngende Verbindungen und
+ * die Sperre durch die Suchmaschine nach einer zuflligen Anzahl von
+ * Anfragen. Eine gesperrte Proxy liefert bei Google den Status
+ * <code>503</code> und bei eTools eine Seite mit dem Titel
+ * <code>Access Banned</code>.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class StubProxy {
+	/**
+	 * Das Verhalten einer Proxy.
+	 * 
+	 * @author Sergej Sintschilin
+	 * @author Quan Nguyen
+	 */
+	public static final class Profile {
+		private final double latency;
+		private final double latencySigma;
+		private final double failureRate;
+		private final double stallRate;
+		private final long stallTime;
+		private final double banAfter;
+		/**
+		 * Erstellt ein Verhalten.
+		 * 
+		 * @param latency
+		 *            der Median der zustzlichen Latenz in Millisekunden
+		 * @param latencySigma
+		 *            die Streuung der logarithmisch normalverteilten Latenz,
+		 *            <code>0</code> fr eine feste Latenz
+		 * @param failureRate
+		 *            der Anteil der Anfragen, deren Verbindung ohne Antwort
+		 *            geschlossen wird
+		 * @param stallRate
+		 *            der Anteil der Anfragen, deren Verbindung hngt
+		 * @param stallTime
+		 *            die Zeit in Millisekunden, nach der eine hngende
+		 *            Verbindung geschlossen wird
+		 * @param banAfter
+		 *            die mittlere Anzahl der Anfragen, nach denen die Proxy
+		 *            gesperrt wird, <code>0</code> fr keine Sperre
+		 */
+		public Profile(double latency, double latencySigma, double failureRate, double stallRate, long stallTime, double banAfter) {
+			if (latency < 0 || latencySigma < 0 || stallTime < 0 || banAfter < 0)
+				throw new IllegalArgumentException();
+			if (failureRate < 0 || stallRate < 0 || failureRate + stallRate > 1)
+				throw new IllegalArgumentException("failure and stall rate must be between 0 and 1");
+			this.latency = latency;
+			this.latencySigma = latencySigma;
+			this.failureRate = failureRate;
+			this.stallRate = stallRate;
+			this.stallTime = stallTime;
+			this.banAfter = banAfter;
+		}
+		@Override
+		public String toString() {
+			return String.format("latency=%.0fms sigma=%.2f failure=%.3f stall=%.3f/%dms ban-after=%.0f", this.latency, this.latencySigma, this.failureRate, this.stallRate, this.stallTime, this.banAfter);
+		}
+	}
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final Profile profile;
+	private final Random random;
+	private final long budget;
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong forwarded = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong stalls = new AtomicLong();
+	private final AtomicLong bans = new AtomicLong();
+	/**
+	 * Erstellt eine Proxy auf einem freien Port von <code>127.0.0.1</code>.
+	 * 
+	 * @param profile
+	 *            das Verhalten
+	 * @param seed
+	 *            der Startwert der Zufallszahlen
+	 * @throws IOException
+	 *             falls der Server nicht erstellt werden konnte
+	 */
+	public StubProxy(Profile profile, long seed) throws IOException {
+		if (profile == null)
+			throw new IllegalArgumentException();
+		this.profile = profile;
+		this.random = new Random(seed);
+		this.budget = profile.banAfter > 0 ? (long) Math.ceil(-profile.banAfter * Math.log(1 - this.random.nextDouble())) : Long.MAX_VALUE;
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 64);
+		this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "stub-proxy");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.server.setExecutor(this.executor);
+		this.server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					StubProxy.this.handle(exchange);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+	}
+	public void start() {
+		this.server.start();
+	}
+	public void stop() {
+		this.server.stop(0);
+		this.executor.shutdownNow();
+	}
+	public int getPort() {
+		return this.server.getAddress().getPort();
+	}
+	public long getRequestCount() {
+		return this.requests.get();
+	}
+	public long getForwardedCount() {
+		return this.forwarded.get();
+	}
+	public long getFailureCount() {
+		return this.failures.get();
+	}
+	public long getStallCount() {
+		return this.stalls.get();
+	}
+	/**
+	 * Gibt die Anzahl der Anfragen zurck, die mit einer Sperre beantwortet
+	 * wurden.
+	 * 
+	 * @return die Anzahl der Sperren
+	 */
+	public long getBanCount() {
+		return this.bans.get();
+	}
+	/**
+	 * berprft, ob die Proxy von der Suchmaschine gesperrt wurde.
+	 * 
+	 * @return <code>true</code>, falls die Proxy gesperrt ist
+	 */
+	public boolean isBanned() {
+		return this.bans.get() > 0;
+	}
+	private void handle(HttpExchange exchange) throws IOException, InterruptedException {
+		this.requests.incrementAndGet();
+		URI target = exchange.getRequestURI();
+		if (target.getHost() == null) {
+			StubProxy.send(exchange, 400, "text/plain", "proxy request expected".getBytes("US-ASCII"));
+			return;
+		}
+		double r = this.random.nextDouble();
+		if (r < this.profile.stallRate) {
+			this.stalls.incrementAndGet();
+			Thread.sleep(this.profile.stallTime);
+			return;
+		}
+		Thread.sleep((long) (this.profile.latency * Math.exp(this.profile.latencySigma * this.random.nextGaussian())));
+		if (r < this.profile.stallRate + this.profile.failureRate) {
+			this.failures.incrementAndGet();
+			return;
+		}
+		if (this.forwarded.incrementAndGet() > this.budget) {
+			this.bans.incrementAndGet();
+			if (target.getRawPath().equals("/search"))
+				StubProxy.send(exchange, 503, "text/html; charset=UTF-8", "<html><head><title>Sorry...</title></head><body>unusual traffic</body></html>".getBytes("UTF-8"));
+			else
+				StubProxy.send(exchange, 200, "text/html; charset=UTF-8", "<html><head><title>Access Banned</title></head><body>Access Banned</body></html>".getBytes("UTF-8"));
+			return;
+		}
+		HttpURLConnection connection = (HttpURLConnection) target.toURL().openConnection(java.net.Proxy.NO_PROXY);
+		connection.setInstanceFollowRedirects(false);
+		int status = connection.getResponseCode();
+		InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		if (in != null) {
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) >= 0)
+				body.write(buffer, 0, n);
+			in.close();
+		}
+		for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet())
+			if ("Set-Cookie".equalsIgnoreCase(header.getKey()))
+				exchange.getResponseHeaders().put("Set-Cookie", header.getValue());
+		StubProxy.send(exchange, status, connection.getContentType(), body.toByteArray());
+	}
+	private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+		if (contentType != null)
+			exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+}
@@ -0,0 +1,272 @@
+package de.uni_leipzig.asv.load;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+/**
+ * Bildet die Ergebnisseiten von Google und eTools auf einem lokalen
+ * HTTP-Server nach. Die Seiten haben den Aufbau, den
+ * {@link de.uni_leipzig.asv.web.search.GoogleSearchRequest} und
+ * {@link de.uni_leipzig.asv.web.search.EToolsSearchRequest} erwarten. Die
+ * Anzahl der Suchergebnisse einer Suchanfrage wird aus der Suchanfrage
+ * bestimmt, sodass wiederholte Lufe dieselben Seiten liefern.
+ * <p>
+ * Google wird unter <code>/search</code>, eTools unter
+ * <code>/searchAdvancedSubmit.do</code> und
+ * <code>/searchAdvanced.do;jsessionid=[Sitzung]</code> angeboten. Mit
+ * {@link #setLatency(long)} wird jede Antwort verzgert, ohne dass die
+ * wartenden Anfragen Threads des Servers belegen.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class StubSearchEngine {
+	private static final String[] WORDS = {"wortschatz", "leipzig", "korpus", "sprache", "universitt", "daten", "text", "wort", "linguistik", "anfrage", "ergebnis", "seite", "netz", "proxy", "suche", "strae", "mller", "corpus", "the", "of", "and"};
+	private static final int GOOGLE_PAGE_SIZE = 100;
+	private static final int ETOOLS_PAGE_SIZE = 40;
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final int googleResults;
+	private final int etoolsResults;
+	private final ConcurrentMap<String, String> sessions = new ConcurrentHashMap<String, String>();
+	private final AtomicLong sessionCounter = new AtomicLong();
+	private final AtomicLong pages = new AtomicLong();
+	private volatile long latency = 0;
+	private ScheduledExecutorService scheduler = null;
+	/**
+	 * Erstellt eine Suchmaschine auf einem freien Port von
+	 * <code>127.0.0.1</code>.
+	 * 
+	 * @param googleResults
+	 *            die hchste Anzahl der Suchergebnisse einer Suchanfrage an
+	 *            Google
+	 * @param etoolsResults
+	 *            die hchste Anzahl der Suchergebnisse einer Suchanfrage an
+	 *            eTools
+	 * @throws IOException
+	 *             falls der Server nicht erstellt werden konnte
+	 */
+	public StubSearchEngine(int googleResults, int etoolsResults) throws IOException {
+		if (googleResults < 1 || etoolsResults < 1)
+			throw new IllegalArgumentException();
+		this.googleResults = googleResults;
+		this.etoolsResults = etoolsResults;
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 256);
+		this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "stub-search-engine");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.server.setExecutor(this.executor);
+		this.server.createContext("/", new HttpHandler() {
+			public void handle(final HttpExchange exchange) throws IOException {
+				if (StubSearchEngine.this.latency > 0) {
+					StubSearchEngine.this.scheduler.schedule(new Runnable() {
+						public void run() {
+							try {
+								StubSearchEngine.this.handle(exchange);
+							} catch (IOException e) {} finally {
+								exchange.close();
+							}
+						}
+					}, StubSearchEngine.this.latency, TimeUnit.MILLISECONDS);
+					return;
+				}
+				try {
+					StubSearchEngine.this.handle(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+	}
+	/**
+	 * Verzgert jede Antwort um die bergebene Zeit. Die Antworten werden auf
+	 * wenigen Threads geplant, sodass auch viele gleichzeitig wartende
+	 * Anfragen den Server nicht belasten.
+	 * 
+	 * @param latency
+	 *            die Verzgerung in Millisekunden, <code>0</code> fr keine
+	 */
+	public synchronized void setLatency(long latency) {
+		if (latency < 0)
+			throw new IllegalArgumentException();
+		if (latency > 0 && this.scheduler == null) {
+			this.scheduler = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "stub-search-engine-latency");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		this.latency = latency;
+	}
+	public void start() {
+		this.server.start();
+	}
+	public synchronized void stop() {
+		this.server.stop(0);
+		this.executor.shutdownNow();
+		if (this.scheduler != null)
+			this.scheduler.shutdownNow();
+	}
+	/**
+	 * Gibt die Adresse der Google-Suche zurck.
+	 * 
+	 * @return die Adresse fr
+	 *         {@link de.uni_leipzig.asv.web.search.GoogleSearchRequest#setBaseURI(String)}
+	 */
+	public String getGoogleURI() {
+		return "http://127.0.0.1:" + this.server.getAddress().getPort() + "/search";
+	}
+	/**
+	 * Gibt die Adresse der eTools-Suche zurck.
+	 * 
+	 * @return die Adresse fr
+	 *         {@link de.uni_leipzig.asv.web.search.EToolsSearchRequest#setBaseURI(String)}
+	 */
+	public String getEToolsURI() {
+		return "http://127.0.0.1:" + this.server.getAddress().getPort() + "/";
+	}
+	/**
+	 * Gibt die Anzahl der ausgelieferten Ergebnisseiten zurck.
+	 * 
+	 * @return die Anzahl der Seiten
+	 */
+	public long getPageCount() {
+		return this.pages.get();
+	}
+	private void handle(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getRawPath();
+		Map<String, String> params = StubSearchEngine.parseQuery(exchange.getRequestURI().getRawQuery());
+		if (path.equals("/search")) {
+			String query = params.get("q");
+			int start = StubSearchEngine.parseInt(params.get("start"), 0);
+			int num = StubSearchEngine.parseInt(params.get("num"), 10);
+			if (query == null) {
+				StubSearchEngine.send(exchange, 400, "text/plain", "missing query".getBytes("US-ASCII"));
+				return;
+			}
+			StubSearchEngine.send(exchange, 200, "text/html; charset=windows-1252", this.google(query, start, num).getBytes("windows-1252"));
+		} else if (path.equals("/searchAdvancedSubmit.do")) {
+			String query = params.get("query");
+			if (query == null) {
+				StubSearchEngine.send(exchange, 400, "text/plain", "missing query".getBytes("US-ASCII"));
+				return;
+			}
+			String session = Long.toHexString(0x4F2A9C1B7EL + this.sessionCounter.incrementAndGet()).toUpperCase();
+			this.sessions.put(session, query);
+			exchange.getResponseHeaders().add("Set-Cookie", "JSESSIONID=" + session + "; Path=/");
+			StubSearchEngine.send(exchange, 200, "text/html; charset=UTF-8", this.etools(query, 1).getBytes("UTF-8"));
+		} else if (path.startsWith("/searchAdvanced.do")) {
+			int i = path.indexOf(";jsessionid=");
+			String query = i < 0 ? null : this.sessions.get(path.substring(i + ";jsessionid=".length()));
+			int page = StubSearchEngine.parseInt(params.get("page"), 1);
+			StubSearchEngine.send(exchange, 200, "text/html; charset=UTF-8", this.etools(query, page).getBytes("UTF-8"));
+		} else
+			StubSearchEngine.send(exchange, 404, "text/plain", "not found".getBytes("US-ASCII"));
+	}
+	private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+	/**
+	 * Bestimmt die Anzahl der Suchergebnisse einer Suchanfrage zwischen
+	 * <code>1</code> und der bergebenen Obergrenze.
+	 */
+	static int resultCount(String query, int limit) {
+		return new Random(query.hashCode()).nextInt(limit) + 1;
+	}
+	private static String text(Random random, int words) {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < words; i++) {
+			if (i > 0)
+				text.append(' ');
+			text.append(StubSearchEngine.WORDS[random.nextInt(StubSearchEngine.WORDS.length)]);
+		}
+		return text.toString();
+	}
+	private String google(String query, int start, int num) throws UnsupportedEncodingException {
+		this.pages.incrementAndGet();
+		int total = StubSearchEngine.resultCount(query, this.googleResults);
+		int end = Math.min(total, start + Math.min(num, StubSearchEngine.GOOGLE_PAGE_SIZE));
+		String q = URLEncoder.encode(query, "UTF-8");
+		StringBuilder html = new StringBuilder(1024 + 1024 * Math.max(0, end - start));
+		html.append("<!doctype html><html><head><meta charset=\"windows-1252\"><title>").append(query).append(" - Google-Suche</title></head><body>");
+		html.append("<div id=\"resultStats\">Ungefhr ").append(total).append(" Ergebnisse</div><div id=\"ires\"><ol>");
+		for (int i = start; i < end; i++) {
+			Random random = new Random(query.hashCode() * 31L + i);
+			String link = "http://www." + StubSearchEngine.WORDS[random.nextInt(StubSearchEngine.WORDS.length)] + "-" + i + ".de/artikel.html?id=" + i + "&lang=de";
+			html.append("<li class=\"g\"><h3 class=\"r\"><a href=\"/url?q=").append(URLEncoder.encode(link, "UTF-8")).append("&amp;sa=U&amp;ei=Xy").append(i).append("\">");
+			html.append(StubSearchEngine.text(random, 5)).append(" <em>").append(query).append("</em></a></h3>");
+			html.append("<div class=\"s\"><div class=\"kv\"><cite>").append(link.substring(7, link.indexOf('?'))).append("</cite></div>");
+			html.append("<span class=\"st\">").append(StubSearchEngine.text(random, 30)).append(" ...<br></span></div></li>");
+		}
+		html.append("</ol></div>");
+		if (start < total) {
+			html.append("<table id=\"nav\"><tr valign=\"top\"><td class=\"b\"></td><td class=\"cur\">").append(start / StubSearchEngine.GOOGLE_PAGE_SIZE + 1).append("</td>");
+			if (end < total)
+				html.append("<td class=\"b\"><a class=\"pn\" href=\"/search?q=").append(q).append("&amp;start=").append(end).append("\">Weiter</a></td><td><a class=\"fl\" href=\"/search?q=").append(q).append("&amp;start=").append(end).append("\">").append(start / StubSearchEngine.GOOGLE_PAGE_SIZE + 2).append("</a></td>");
+			html.append("</tr></table>");
+		} else
+			html.append("<p id=\"ofr\"><i>Es wurden keine weiteren Ergebnisse gefunden.</i></p>");
+		html.append("</body></html>");
+		return html.toString();
+	}
+	private String etools(String query, int page) {
+		this.pages.incrementAndGet();
+		int total = query == null ? 0 : StubSearchEngine.resultCount(query, this.etoolsResults);
+		int start = (page - 1) * StubSearchEngine.ETOOLS_PAGE_SIZE;
+		int end = Math.min(total, start + StubSearchEngine.ETOOLS_PAGE_SIZE);
+		StringBuilder html = new StringBuilder(1024 + 512 * Math.max(0, end - start));
+		html.append("<!DOCTYPE html><html><head><meta http-equiv=\"Content-Type\" content=\"text/html; charset=UTF-8\"><title>eTools.ch - ").append(query == null ? "" : query).append("</title></head><body><table class=\"result\"><tbody>");
+		for (int i = start; i < end; i++) {
+			Random random = new Random(query.hashCode() * 31L + i);
+			String link = "http://www." + StubSearchEngine.WORDS[random.nextInt(StubSearchEngine.WORDS.length)] + "-" + i + ".ch/wiki/Leipzig";
+			html.append("<tr><td class=\"count\">").append(i + 1).append(".</td><td class=\"record\"><a class=\"title\" href=\"").append(link).append("\" target=\"_blank\">").append(StubSearchEngine.text(random, 5)).append("</a>");
+			html.append("<div class=\"text\">").append(StubSearchEngine.text(random, 25)).append("</div><div class=\"attr\"><span class=\"url\">").append(link).append("</span></div></td></tr>");
+		}
+		html.append("</tbody></table></body></html>");
+		return html.toString();
+	}
+	private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+		Map<String, String> params = new HashMap<String, String>();
+		if (query == null)
+			return params;
+		for (String param : query.split("&")) {
+			int i = param.indexOf('=');
+			if (i > 0)
+				params.put(param.substring(0, i), URLDecoder.decode(param.substring(i + 1), "UTF-8"));
+		}
+		return params;
+	}
+	private static int parseInt(String value, int defaultValue) {
+		try {
+			return value == null ? defaultValue : Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package de.uni_leipzig.asv.load;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import de.uni_leipzig.asv.web.SharedHttpClient;
+import de.uni_leipzig.asv.web.VirtualThreads;
+import de.uni_leipzig.asv.web.search.GoogleSearchRequest;
+/**
+ * Vergleicht die Ausfhrung blockierender Suchanfragen auf einem festen Pool
+ * gewhnlicher Threads mit der Ausfhrung auf je einem virtuellen Thread.
+ * Die Suchanfragen laufen ohne Proxy gegen eine {@link StubSearchEngine},
+ * deren Antworten um eine feste Latenz verzgert werden. Im Modus
+ * <code>platform</code> arbeiten so viele Threads die Suchanfragen ab, wie
+ * Anfragen gleichzeitig laufen drfen. Im Modus <code>virtual</code> wird
+ * jede Suchanfrage sofort auf einem eigenen virtuellen Thread gestartet; die
+ * gleichzeitigen Anfragen werden mit
+ * {@link GoogleSearchRequest#setConcurrencyLimit(int)} begrenzt, alle anderen
+ * Suchanfragen warten blockierend.
+ * 
+ * <pre>
+ * java de.uni_leipzig.asv.load.ThreadModeBenchmark [Optionen]
+ * </pre>
+ * 
+ * Optionen sind <code>--queries</code>, <code>--concurrency</code>,
+ * <code>--latency</code> (ms), <code>--results</code> und
+ * <code>--mode=platform/virtual/both</code>. Ausgegeben werden Suchanfragen
+ * je Sekunde, die hchste Anzahl der Threads des Betriebssystems und der
+ * hchste belegte Heap. Ohne Java 21 wird nur der Modus
+ * <code>platform</code> gemessen.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class ThreadModeBenchmark {
+	// keeps the quieted logger of HttpClient from being garbage collected
+	private static final Logger HTTP_CLIENT_LOGGER = Logger.getLogger("org.apache.http");
+	private static String get(Map<String, String> options, String name, String defaultValue) {
+		String value = options.remove(name);
+		return value != null ? value : defaultValue;
+	}
+	private static void run(String mode, ExecutorService executor, List<String> queries, final int results) throws Exception {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		System.gc();
+		threads.resetPeakThreadCount();
+		final AtomicLong peakHeap = new AtomicLong(memory.getHeapMemoryUsage().getUsed());
+		HeapSampler sampler = new HeapSampler(memory, peakHeap);
+		final AtomicLong completed = new AtomicLong();
+		final AtomicLong failed = new AtomicLong();
+		final AtomicReference<Throwable> firstError = new AtomicReference<Throwable>();
+		List<Future<?>> futures = new ArrayList<Future<?>>(queries.size());
+		long start = System.nanoTime();
+		for (final String query : queries) {
+			futures.add(executor.submit(new Runnable() {
+				public void run() {
+					try {
+						new GoogleSearchRequest(query, results).submit();
+						completed.incrementAndGet();
+					} catch (IOException e) {
+						failed.incrementAndGet();
+						firstError.compareAndSet(null, e);
+					}
+				}
+			}));
+		}
+		for (Future<?> future : futures)
+			future.get();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		sampler.stop();
+		executor.shutdown();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+		System.out.println(String.format("%-9s %6d/%d queries, %.1f s, %.1f queries/s, %d failed, peak %d threads, peak heap %d MB", mode, completed.get(), queries.size(), seconds, completed.get() / seconds, failed.get(), threads.getPeakThreadCount(), peakHeap.get() >> 20));
+		if (firstError.get() != null)
+			System.out.println("          first failure: " + firstError.get());
+	}
+	/**
+	 * Ermittelt in kurzen Abstnden den belegten Heap.
+	 */
+	private static final class HeapSampler implements Runnable {
+		private final MemoryMXBean memory;
+		private final AtomicLong peak;
+		private final Thread thread;
+		private volatile boolean running = true;
+		HeapSampler(MemoryMXBean memory, AtomicLong peak) {
+			this.memory = memory;
+			this.peak = peak;
+			this.thread = new Thread(this, "heap-sampler");
+			this.thread.setDaemon(true);
+			this.thread.start();
+		}
+		public void run() {
+			while (this.running) {
+				long used = this.memory.getHeapMemoryUsage().getUsed();
+				if (used > this.peak.get())
+					this.peak.set(used);
+				try {
+					Thread.sleep(20);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+		void stop() throws InterruptedException {
+			this.running = false;
+			this.thread.interrupt();
+			this.thread.join();
+		}
+	}
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new HashMap<String, String>();
+		for (String arg : args) {
+			if (!arg.startsWith("--"))
+				throw new IllegalArgumentException("unexpected argument " + arg);
+			int i = arg.indexOf('=');
+			if (i < 0)
+				options.put(arg.substring(2), String.valueOf(true));
+			else
+				options.put(arg.substring(2, i), arg.substring(i + 1));
+		}
+		int queryCount = Integer.parseInt(ThreadModeBenchmark.get(options, "queries", "5000"));
+		final int concurrency = Integer.parseInt(ThreadModeBenchmark.get(options, "concurrency", "200"));
+		long latency = Long.parseLong(ThreadModeBenchmark.get(options, "latency", "200"));
+		int results = Integer.parseInt(ThreadModeBenchmark.get(options, "results", "100"));
+		String mode = ThreadModeBenchmark.get(options, "mode", "both");
+		if (!options.isEmpty())
+			throw new IllegalArgumentException("unknown options " + options.keySet());
+		if (!mode.equals("platform") && !mode.equals("virtual") && !mode.equals("both"))
+			throw new IllegalArgumentException("mode must be \"platform\", \"virtual\" or \"both\"");
+		ThreadModeBenchmark.HTTP_CLIENT_LOGGER.setLevel(Level.WARNING);
+		StubSearchEngine searchEngine = new StubSearchEngine(results, 1);
+		try {
+			searchEngine.setLatency(latency);
+			searchEngine.start();
+			GoogleSearchRequest.setBaseURI(searchEngine.getGoogleURI());
+			SharedHttpClient.configure(concurrency, concurrency);
+			List<String> queries = new ArrayList<String>();
+			for (int i = 0; i < queryCount; i++)
+				queries.add("wortschatz leipzig " + i);
+			System.out.println(queryCount + " queries, " + concurrency + " concurrent requests, " + latency + " ms latency");
+			if (!mode.equals("virtual")) {
+				ThreadModeBenchmark.run("platform", Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "query-worker");
+						thread.setDaemon(true);
+						return thread;
+					}
+				}), queries, results);
+			}
+			if (!mode.equals("platform")) {
+				if (!VirtualThreads.isSupported()) {
+					System.out.println("virtual   skipped, virtual threads require java 21");
+				} else {
+					GoogleSearchRequest.setConcurrencyLimit(concurrency);
+					try {
+						ThreadModeBenchmark.run("virtual", VirtualThreads.newExecutor("query-worker", true), queries, results);
+					} finally {
+						GoogleSearchRequest.setConcurrencyLimit(0);
+					}
+				}
+			}
+		} finally {
+			SharedHttpClient.shutdown();
+			searchEngine.stop();
+		}
+	}
+}
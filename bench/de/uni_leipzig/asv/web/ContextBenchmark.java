@@ -0,0 +1,206 @@
+package de.uni_leipzig.asv.web;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import org.apache.http.HttpResponse;
+/**
+ * Misst das Lesen der Parameter einer Kontrolleinheit von
+ * {@link MultiRequest}: ber Namen und ber typisierte Schlssel, jeweils fr
+ * einen vorhandenen und einen fehlenden Parameter. Zum Vergleich wird das
+ * frhere Lesen ber Namen nachgebildet, bei dem ein fehlender Parameter
+ * eine {@link NoSuchElementException} warf, die beim Lesen mit
+ * standardmigem Wert gefangen wurde.
+ * <p>
+ * Gemessen wird wie in {@link ParserBenchmark} nach dem Aufwrmen in
+ * mehreren Durchlufen von je einer Sekunde. Ausgegeben werden die
+ * Lesezugriffe je Sekunde, die Dauer je Zugriff und die allokierten Bytes je
+ * Zugriff.
+ * 
+ * <pre>
+ * java de.uni_leipzig.asv.web.ContextBenchmark [Aufwrmen s] [Durchlufe] [Filter]
+ * </pre>
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class ContextBenchmark extends MultiRequest<Void> {
+	// several parameters per case keep the jit from hoisting a single lookup out of the loop
+	private static final int PARAMS = 8;
+	private static final int BATCH = 1024;
+	/**
+	 * Ein gemessener Fall, der eine Folge von Lesezugriffen ausfhrt.
+	 */
+	private static abstract class Case {
+		private final String name;
+		private Case(String name) {
+			this.name = name;
+		}
+		/**
+		 * Liest einen Parameter {@link ContextBenchmark#BATCH} mal.
+		 * 
+		 * @return die Summe der Lngen der gelesenen Werte
+		 */
+		protected abstract long run();
+	}
+	/**
+	 * Bildet die Parameter der Kontrolleinheit vor den typisierten Schlsseln
+	 * nach.
+	 */
+	private static final class PreviousParams {
+		private final Map<String, Object> params = new HashMap<String, Object>();
+		private Object getParamAsObject(String key) {
+			Object value = this.params.get(key);
+			if (value == null)
+				throw new NoSuchElementException();
+			return value;
+		}
+		private String getParamAsString(String key) {
+			Object value = this.getParamAsObject(key);
+			if (value instanceof String)
+				return (String) value;
+			else
+				throw new NoSuchElementException();
+		}
+		private String getParamAsString(String key, String defaultValue) {
+			try {
+				return this.getParamAsString(key);
+			} catch (Exception e) {
+				return defaultValue;
+			}
+		}
+	}
+	private final List<Case> cases = new ArrayList<Case>();
+	private final long warmup;
+	private final int iterations;
+	private final String filter;
+	private ContextBenchmark(long warmup, int iterations, String filter) {
+		this.warmup = warmup;
+		this.iterations = iterations;
+		this.filter = filter;
+	}
+	// an array keeps the lookup of a key as cheap as the lookup of a name
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static MultiRequest.ContextKey<String>[] newKeys(int length) {
+		return new MultiRequest.ContextKey[length];
+	}
+	protected void start(final Context context) throws IOException {
+		final PreviousParams previous = new PreviousParams();
+		final String[] present = new String[ContextBenchmark.PARAMS];
+		final String[] missing = new String[ContextBenchmark.PARAMS];
+		final MultiRequest.ContextKey<String>[] presentKeys = ContextBenchmark.newKeys(ContextBenchmark.PARAMS);
+		final MultiRequest.ContextKey<String>[] missingKeys = ContextBenchmark.newKeys(ContextBenchmark.PARAMS);
+		for (int i = 0; i < ContextBenchmark.PARAMS; i++) {
+			present[i] = "present" + i;
+			missing[i] = "missing" + i;
+			presentKeys[i] = new MultiRequest.ContextKey<String>(present[i]);
+			missingKeys[i] = new MultiRequest.ContextKey<String>(missing[i]);
+			String value = Long.toHexString(0x4F2A9C1B7EL << i);
+			previous.params.put(present[i], value);
+			context.setParamAsString(present[i], value);
+			context.setParam(presentKeys[i], value);
+		}
+		this.cases.add(new Case("previous.present") {
+			protected long run() {
+				long n = 0;
+				for (int i = 0; i < ContextBenchmark.BATCH; i++)
+					n += previous.getParamAsString(present[i & (ContextBenchmark.PARAMS - 1)], "").length();
+				return n;
+			}
+		});
+		this.cases.add(new Case("previous.missing") {
+			protected long run() {
+				long n = 0;
+				for (int i = 0; i < ContextBenchmark.BATCH; i++)
+					n += previous.getParamAsString(missing[i & (ContextBenchmark.PARAMS - 1)], "").length();
+				return n;
+			}
+		});
+		this.cases.add(new Case("name.present") {
+			protected long run() {
+				long n = 0;
+				for (int i = 0; i < ContextBenchmark.BATCH; i++)
+					n += context.getParamAsString(present[i & (ContextBenchmark.PARAMS - 1)], "").length();
+				return n;
+			}
+		});
+		this.cases.add(new Case("name.missing") {
+			protected long run() {
+				long n = 0;
+				for (int i = 0; i < ContextBenchmark.BATCH; i++)
+					n += context.getParamAsString(missing[i & (ContextBenchmark.PARAMS - 1)], "").length();
+				return n;
+			}
+		});
+		this.cases.add(new Case("key.present") {
+			protected long run() {
+				long n = 0;
+				for (int i = 0; i < ContextBenchmark.BATCH; i++)
+					n += context.getParam(presentKeys[i & (ContextBenchmark.PARAMS - 1)], "").length();
+				return n;
+			}
+		});
+		this.cases.add(new Case("key.missing") {
+			protected long run() {
+				long n = 0;
+				for (int i = 0; i < ContextBenchmark.BATCH; i++)
+					n += context.getParam(missingKeys[i & (ContextBenchmark.PARAMS - 1)], "").length();
+				return n;
+			}
+		});
+		this.measure();
+		context.complete();
+	}
+	protected Void handleResponse(HttpResponse response, Void value, Context context) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+	private void measure() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		com.sun.management.ThreadMXBean allocation = bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported() ? (com.sun.management.ThreadMXBean) bean : null;
+		long thread = Thread.currentThread().getId();
+		long sink = 0;
+		System.out.println(String.format("%-17s %14s %10s %10s %12s", "case", "lookups/s", "+-", "ns/lookup", "bytes/lookup"));
+		for (Case c : this.cases) {
+			if (!c.name.contains(this.filter))
+				continue;
+			for (long end = System.currentTimeMillis() + this.warmup; System.currentTimeMillis() < end;)
+				sink += c.run();
+			double[] rates = new double[this.iterations];
+			long lookups = 0;
+			long allocated = 0;
+			long elapsed = 0;
+			for (int i = 0; i < this.iterations; i++) {
+				long bytes = allocation != null ? allocation.getThreadAllocatedBytes(thread) : 0;
+				long start = System.nanoTime();
+				long end = start + 1000 * 1000 * 1000L;
+				long n = 0;
+				long now;
+				do {
+					sink += c.run();
+					n += ContextBenchmark.BATCH;
+				} while ((now = System.nanoTime()) < end);
+				allocated += allocation != null ? allocation.getThreadAllocatedBytes(thread) - bytes : 0;
+				elapsed += now - start;
+				lookups += n;
+				rates[i] = n * 1e9 / (now - start);
+			}
+			double mean = lookups * 1e9 / elapsed;
+			double variance = 0;
+			for (double rate : rates)
+				variance += (rate - mean) * (rate - mean);
+			double deviation = this.iterations > 1 ? Math.sqrt(variance / (this.iterations - 1)) : 0;
+			System.out.println(String.format("%-17s %14.0f %10.0f %10.2f %12s", c.name, mean, deviation, elapsed / (double) lookups, allocation != null ? String.format("%.1f", allocated / (double) lookups) : "n/a"));
+		}
+		if (sink == 42)
+			System.out.println();
+	}
+	public static void main(String[] args) throws IOException {
+		long warmup = (args.length > 0 ? Long.parseLong(args[0]) : 3) * 1000;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		String filter = args.length > 2 ? args[2] : "";
+		new ContextBenchmark(warmup, iterations, filter).submit();
+	}
+}
@@ -0,0 +1,286 @@
+package de.uni_leipzig.asv.web;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import de.uni_leipzig.asv.web.proxy.HideMyAssProxyRequest;
+import de.uni_leipzig.asv.web.proxy.Proxy;
+import de.uni_leipzig.asv.web.search.EToolsSearchRequest;
+import de.uni_leipzig.asv.web.search.GoogleSearchRequest;
+import de.uni_leipzig.asv.web.search.SearchResponse;
+/**
+ * Misst die Behandlung aufgezeichneter Ergebnisseiten durch
+ * {@link GoogleSearchRequest}, {@link EToolsSearchRequest} und
+ * {@link HideMyAssProxyRequest}, jeweils mit dem Scanner und mit Jsoup. Die
+ * Seiten liegen im Verzeichnis der Fixtures und werden als lokale Antworten
+ * ohne Netzwerk an die Behandlung bergeben.
+ * <p>
+ * Nach dem Aufwrmen wird jeder Fall in mehreren Durchlufen von je einer
+ * Sekunde gemessen. Ausgegeben werden die behandelten Seiten und
+ * Suchergebnisse je Sekunde sowie die Allokationsrate und die allokierten
+ * Bytes je Seite. Liefern Scanner und Jsoup fr eine Seite verschiedene
+ * Suchergebnisse (Titel, Link und Beschreibung), wird vor dem Messen
+ * abgebrochen, da die Fixtures dann nicht mehr zu einem der Parser passen.
+ * Liefert ein Durchlauf beim Aufwrmen oder Messen keine Suchergebnisse,
+ * wird ebenfalls abgebrochen.
+ * 
+ * <pre>
+ * java de.uni_leipzig.asv.web.ParserBenchmark [Fixtures] [Aufwrmen s] [Durchlufe] [Filter]
+ * </pre>
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class ParserBenchmark {
+	/**
+	 * Eine Kontrolleinheit ohne Anfragen, die nur die Parameter hlt.
+	 */
+	private static final class StubContext implements MultiRequest.Context {
+		private final Map<String, Object> params = new HashMap<String, Object>();
+		private final Map<MultiRequest.ContextKey<?>, Object> keyedParams = new HashMap<MultiRequest.ContextKey<?>, Object>();
+		private boolean completed = false;
+		public void submit(HttpRequestBase request) {
+			throw new UnsupportedOperationException();
+		}
+		public <T> void submitPages(MultiRequest.PageFactory pages, MultiRequest.PageMerger<T> merger, int parallelism) {
+			throw new UnsupportedOperationException();
+		}
+		public CompletableFuture<Void> submitAsync(HttpRequestBase request) {
+			throw new UnsupportedOperationException();
+		}
+		public CompletableFuture<Void> submitAsync(MultiRequest.PageFactory pages) {
+			throw new UnsupportedOperationException();
+		}
+		public void complete() {
+			this.completed = true;
+		}
+		public boolean isCompleted() {
+			return this.completed;
+		}
+		public String getParamAsString(String key) {
+			return (String) this.params.get(key);
+		}
+		public Integer getParamAsInteger(String key) {
+			return (Integer) this.params.get(key);
+		}
+		public Boolean getParamAsBoolean(String key) {
+			return (Boolean) this.params.get(key);
+		}
+		public String getParamAsString(String key, String defaultValue) {
+			Object value = this.params.get(key);
+			return value instanceof String ? (String) value : defaultValue;
+		}
+		public Integer getParamAsInteger(String key, Integer defaultValue) {
+			Object value = this.params.get(key);
+			return value instanceof Integer ? (Integer) value : defaultValue;
+		}
+		public Boolean getParamAsBoolean(String key, Boolean defaultValue) {
+			Object value = this.params.get(key);
+			return value instanceof Boolean ? (Boolean) value : defaultValue;
+		}
+		public void setParamAsString(String key, String value) {
+			this.params.put(key, value);
+		}
+		public void setParamAsInteger(String key, Integer value) {
+			this.params.put(key, value);
+		}
+		public void setParamAsBoolean(String key, Boolean value) {
+			this.params.put(key, value);
+		}
+		public void removeParam(String key) {
+			this.params.remove(key);
+		}
+		@SuppressWarnings("unchecked")
+		public <T> T getParam(MultiRequest.ContextKey<T> key) {
+			return (T) this.keyedParams.get(key);
+		}
+		public <T> T getParam(MultiRequest.ContextKey<T> key, T defaultValue) {
+			T value = this.getParam(key);
+			return value != null ? value : defaultValue;
+		}
+		public <T> void setParam(MultiRequest.ContextKey<T> key, T value) {
+			this.keyedParams.put(key, value);
+		}
+		public void removeParam(MultiRequest.ContextKey<?> key) {
+			this.keyedParams.remove(key);
+		}
+	}
+	/**
+	 * Ein gemessener Fall: eine Seite und ihre Behandlung.
+	 */
+	private static abstract class Case {
+		private final String name;
+		private final byte[] page;
+		private Case(String name, byte[] page) {
+			this.name = name;
+			this.page = page;
+		}
+		protected HttpResponse createResponse() {
+			HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+			response.setHeader("Set-Cookie", "JSESSIONID=4F2A9C1B7E; Path=/");
+			response.setEntity(new ByteArrayEntity(this.page));
+			return response;
+		}
+		/**
+		 * Behandelt die Seite einmal.
+		 * 
+		 * @return die Anzahl der Suchergebnisse
+		 */
+		protected abstract int run() throws IOException;
+		/**
+		 * Behandelt die Seite einmal und prft, dass Suchergebnisse geliefert
+		 * wurden.
+		 * 
+		 * @return die Anzahl der Suchergebnisse
+		 * @throws IllegalStateException
+		 *             falls keine Suchergebnisse geliefert wurden
+		 */
+		private int runChecked() throws IOException {
+			int results = this.run();
+			if (results == 0)
+				throw new IllegalStateException(this.name + ": no results, fixture does not match the parser");
+			return results;
+		}
+	}
+	private static final class SearchCase extends Case {
+		private final MultiRequest<? extends SearchResponse> request;
+		private final boolean streaming;
+		private SearchCase(String name, byte[] page, MultiRequest<? extends SearchResponse> request, boolean streaming) {
+			super(name, page);
+			this.request = request;
+			this.streaming = streaming;
+		}
+		private SearchResponse parse() throws IOException {
+			GoogleSearchRequest.setStreaming(this.streaming);
+			EToolsSearchRequest.setStreaming(this.streaming);
+			return this.request.handleResponse(this.createResponse(), null, new StubContext());
+		}
+		protected int run() throws IOException {
+			return this.parse().getResultCount();
+		}
+	}
+	private static final class ProxyListCase extends Case {
+		private ProxyListCase(String name, byte[] page) {
+			super(name, page);
+		}
+		protected int run() throws IOException {
+			// a new request each run, since a request skips the proxies it has already found
+			HideMyAssProxyRequest request = new HideMyAssProxyRequest(Integer.MAX_VALUE);
+			List<Proxy> proxies = ((MultiRequest<List<Proxy>>) request).handleResponse(this.createResponse(), null, new StubContext());
+			return proxies.size();
+		}
+	}
+	private static boolean equal(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+	/**
+	 * Vergleicht die Suchergebnisse, die der Scanner und Jsoup aus derselben
+	 * Seite lesen.
+	 * 
+	 * @throws IllegalStateException
+	 *             falls sich die Suchergebnisse unterscheiden
+	 */
+	private static void compare(SearchCase stream, SearchCase dom) throws IOException {
+		// the names are declared by the superclass
+		String streamName = ((Case) stream).name;
+		String domName = ((Case) dom).name;
+		List<SearchResponse.Result> expected = dom.parse().getResults();
+		List<SearchResponse.Result> actual = stream.parse().getResults();
+		if (expected.isEmpty())
+			throw new IllegalStateException(domName + ": no results, fixture does not match the parser");
+		if (actual.size() != expected.size())
+			throw new IllegalStateException(streamName + ": " + actual.size() + " results, " + domName + ": " + expected.size());
+		for (int i = 0; i < expected.size(); i++) {
+			SearchResponse.Result a = actual.get(i);
+			SearchResponse.Result e = expected.get(i);
+			if (!ParserBenchmark.equal(a.getTitle(), e.getTitle()))
+				throw new IllegalStateException(streamName + ": title of result " + i + " is \"" + a.getTitle() + "\", " + domName + ": \"" + e.getTitle() + "\"");
+			if (!ParserBenchmark.equal(a.getLink(), e.getLink()))
+				throw new IllegalStateException(streamName + ": link of result " + i + " is \"" + a.getLink() + "\", " + domName + ": \"" + e.getLink() + "\"");
+			if (!ParserBenchmark.equal(a.getSnippet(), e.getSnippet()))
+				throw new IllegalStateException(streamName + ": snippet of result " + i + " is \"" + a.getSnippet() + "\", " + domName + ": \"" + e.getSnippet() + "\"");
+		}
+	}
+	private static byte[] read(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] content = new byte[(int) file.length()];
+			int length = 0;
+			int n;
+			while (length < content.length && (n = in.read(content, length, content.length - length)) > 0)
+				length += n;
+			return content;
+		} finally {
+			in.close();
+		}
+	}
+	public static void main(String[] args) throws IOException {
+		File fixtures = new File(args.length > 0 ? args[0] : "bench/fixtures");
+		long warmup = (args.length > 1 ? Long.parseLong(args[1]) : 5) * 1000;
+		int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		String filter = args.length > 3 ? args[3] : "";
+		byte[] google = ParserBenchmark.read(new File(fixtures, "google.html"));
+		byte[] etools = ParserBenchmark.read(new File(fixtures, "etools.html"));
+		byte[] hidemyass = ParserBenchmark.read(new File(fixtures, "hidemyass.html"));
+		SearchCase googleStream = new SearchCase("google.stream", google, new GoogleSearchRequest("wortschatz leipzig", GoogleSearchRequest.GENERAL_RESULT_LIMIT), true);
+		SearchCase googleDom = new SearchCase("google.dom", google, new GoogleSearchRequest("wortschatz leipzig", GoogleSearchRequest.GENERAL_RESULT_LIMIT), false);
+		SearchCase etoolsStream = new SearchCase("etools.stream", etools, new EToolsSearchRequest("wortschatz leipzig", EToolsSearchRequest.GENERAL_RESULT_LIMIT), true);
+		SearchCase etoolsDom = new SearchCase("etools.dom", etools, new EToolsSearchRequest("wortschatz leipzig", EToolsSearchRequest.GENERAL_RESULT_LIMIT), false);
+		// both parsers must agree before either is worth measuring
+		ParserBenchmark.compare(googleStream, googleDom);
+		ParserBenchmark.compare(etoolsStream, etoolsDom);
+		List<Case> cases = new ArrayList<Case>();
+		cases.add(googleStream);
+		cases.add(googleDom);
+		cases.add(etoolsStream);
+		cases.add(etoolsDom);
+		cases.add(new ProxyListCase("hidemyass.dom", hidemyass));
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		com.sun.management.ThreadMXBean allocation = bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported() ? (com.sun.management.ThreadMXBean) bean : null;
+		long thread = Thread.currentThread().getId();
+		System.out.println(String.format("%-14s %10s %8s %12s %12s %12s", "case", "pages/s", "+-", "results/s", "alloc MB/s", "bytes/page"));
+		for (Case c : cases) {
+			if (!c.name.contains(filter))
+				continue;
+			for (long end = System.currentTimeMillis() + warmup; System.currentTimeMillis() < end;)
+				c.runChecked();
+			double[] rates = new double[iterations];
+			long pages = 0;
+			long found = 0;
+			long allocated = 0;
+			long elapsed = 0;
+			for (int i = 0; i < iterations; i++) {
+				long bytes = allocation != null ? allocation.getThreadAllocatedBytes(thread) : 0;
+				long start = System.nanoTime();
+				long end = start + 1000 * 1000 * 1000L;
+				long n = 0;
+				long now;
+				do {
+					found += c.runChecked();
+					n++;
+				} while ((now = System.nanoTime()) < end);
+				allocated += allocation != null ? allocation.getThreadAllocatedBytes(thread) - bytes : 0;
+				elapsed += now - start;
+				pages += n;
+				rates[i] = n * 1e9 / (now - start);
+			}
+			double mean = pages * 1e9 / elapsed;
+			double variance = 0;
+			for (double rate : rates)
+				variance += (rate - mean) * (rate - mean);
+			double deviation = iterations > 1 ? Math.sqrt(variance / (iterations - 1)) : 0;
+			System.out.println(String.format("%-14s %10.1f %8.1f %12.0f %12.1f %12s", c.name, mean, deviation, found * 1e9 / elapsed, allocated * 1e9 / elapsed / (1024 * 1024), allocation != null ? String.valueOf(allocated / pages) : "n/a"));
+		}
+	}
+}
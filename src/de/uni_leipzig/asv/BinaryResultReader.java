@@ -0,0 +1,124 @@
+package de.uni_leipzig.asv;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import de.uni_leipzig.asv.web.search.SearchResponse;
+/**
+ * Liest die Antworten, die vom {@link BinaryResultWriter} geschrieben wurden.
+ * Nicht geschriebene Felder werden als <code>null</code> geliefert.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class BinaryResultReader {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final class Response extends SearchResponse {
+		private Response(String query) {
+			this.requestedQuery = query;
+		}
+		private void add(Result result) {
+			this.results.add(result);
+		}
+	}
+	private static final class Record extends SearchResponse.Result {
+		private Record(String link, String title, String snippet) {
+			this.link = link;
+			this.title = title;
+			this.snippet = snippet;
+		}
+	}
+	private final InputStream in;
+	private byte[] buffer = new byte[16 * 1024];
+	private int position = 0;
+	private int limit = 0;
+	/**
+	 * Erstellt einen Leser ber der bergebenen Eingabe.
+	 * 
+	 * @param in
+	 *            die Eingabe
+	 */
+	public BinaryResultReader(InputStream in) {
+		if (in == null)
+			throw new IllegalArgumentException("input may not be null");
+		this.in = in;
+	}
+	/**
+	 * Liest die nchste Antwort.
+	 * 
+	 * @return die Antwort oder <code>null</code>, falls das Ende der Eingabe
+	 *         erreicht ist
+	 * @throws IOException
+	 *             falls die Eingabe nicht gelesen werden konnte oder
+	 *             unvollstndig ist
+	 */
+	public SearchResponse read() throws IOException {
+		int first = this.in.read();
+		if (first < 0)
+			return null;
+		int size = first & 0x7f;
+		for (int shift = 7; (first & 0x80) != 0; shift += 7) {
+			first = this.in.read();
+			if (first < 0)
+				throw new EOFException("truncated record");
+			size |= (first & 0x7f) << shift;
+		}
+		if (this.buffer.length < size)
+			this.buffer = new byte[Math.max(2 * this.buffer.length, size)];
+		for (int read = 0; read < size;) {
+			int count = this.in.read(this.buffer, read, size - read);
+			if (count < 0)
+				throw new EOFException("truncated record");
+			read += count;
+		}
+		this.position = 0;
+		this.limit = size;
+		int fields = this.readByte();
+		Response response = new Response((fields & BinaryResultWriter.QUERY) != 0 ? this.readString() : null);
+		int count = this.readVarInt();
+		for (int i = 0; i < count; i++) {
+			String link = (fields & BinaryResultWriter.LINK) != 0 ? this.readString() : null;
+			String title = (fields & BinaryResultWriter.TITLE) != 0 ? this.readString() : null;
+			String snippet = (fields & BinaryResultWriter.SNIPPET) != 0 ? this.readString() : null;
+			response.add(new Record(link, title, snippet));
+		}
+		if (this.position != this.limit)
+			throw new IOException("corrupt record");
+		return response;
+	}
+	/**
+	 * Schliet die Eingabe.
+	 * 
+	 * @throws IOException
+	 *             falls die Eingabe nicht geschlossen werden konnte
+	 */
+	public void close() throws IOException {
+		this.in.close();
+	}
+	private int readByte() throws IOException {
+		if (this.position >= this.limit)
+			throw new IOException("corrupt record");
+		return this.buffer[this.position++] & 0xff;
+	}
+	private int readVarInt() throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = this.readByte();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("corrupt record");
+	}
+	private String readString() throws IOException {
+		int size = this.readVarInt();
+		if (size == 0)
+			return null;
+		size--;
+		if (size > this.limit - this.position)
+			throw new IOException("corrupt record");
+		String value = new String(this.buffer, this.position, size, BinaryResultReader.UTF8);
+		this.position += size;
+		return value;
+	}
+}
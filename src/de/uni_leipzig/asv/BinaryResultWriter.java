@@ -0,0 +1,151 @@
+package de.uni_leipzig.asv;
+import java.io.IOException;
+import java.io.OutputStream;
+import de.uni_leipzig.asv.web.search.SearchResponse;
+/**
+ * Schreibt die Antworten in einem kompakten binren Format, das mit dem
+ * {@link BinaryResultReader} gelesen werden kann. Jede Antwort bildet einen
+ * Datensatz, dem seine Lnge vorangestellt ist:
+ * 
+ * <pre>
+ * Datensatz  = Lnge Felder [Anfrage] Anzahl { [Link] [Titel] [Ausschnitt] }
+ * Lnge      = VarInt, Anzahl der folgenden Bytes des Datensatzes
+ * Felder     = Byte, Bitmaske der geschriebenen Felder
+ * Anzahl     = VarInt, Anzahl der Suchergebnisse
+ * Zeichen    = VarInt (0 fr null, sonst Lnge + 1) und die Bytes in UTF-8
+ * </pre>
+ * 
+ * Zahlen werden als VarInt mit sieben Bits je Byte geschrieben, das
+ * niederwertigste Byte zuerst.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class BinaryResultWriter implements ResultSink {
+	static final int QUERY = 1;
+	static final int LINK = 2;
+	static final int TITLE = 4;
+	static final int SNIPPET = 8;
+	private static final int PREFIX = 5;
+	private final OutputStream out;
+	private final int fields;
+	private byte[] buffer = new byte[16 * 1024];
+	private int length = 0;
+	/**
+	 * Erstellt einen Schreiber mit den ausgewhlten Feldern.
+	 * 
+	 * @param out
+	 *            die Ausgabe
+	 * @param writeQuery
+	 *            <code>true</code>, falls die Anfrage geschrieben werden soll
+	 * @param writeLink
+	 *            <code>true</code>, falls das Link geschrieben werden soll
+	 * @param writeTitle
+	 *            <code>true</code>, falls der Titel geschrieben werden soll
+	 * @param writeSnippet
+	 *            <code>true</code>, falls der Textausschnitt geschrieben
+	 *            werden soll
+	 */
+	public BinaryResultWriter(OutputStream out, boolean writeQuery, boolean writeLink, boolean writeTitle, boolean writeSnippet) {
+		if (out == null)
+			throw new IllegalArgumentException("output may not be null");
+		this.out = out;
+		this.fields = (writeQuery ? BinaryResultWriter.QUERY : 0) | (writeLink ? BinaryResultWriter.LINK : 0) | (writeTitle ? BinaryResultWriter.TITLE : 0) | (writeSnippet ? BinaryResultWriter.SNIPPET : 0);
+	}
+	public void write(SearchResponse response) throws IOException {
+		this.length = BinaryResultWriter.PREFIX;
+		this.ensureCapacity(1);
+		this.buffer[this.length++] = (byte) this.fields;
+		if ((this.fields & BinaryResultWriter.QUERY) != 0)
+			this.appendString(response.getRequestedQuery());
+		int count = response.getResultCount();
+		this.appendVarInt(count);
+		for (int i = 0; i < count; i++) {
+			SearchResponse.Result result = response.getResult(i);
+			if ((this.fields & BinaryResultWriter.LINK) != 0)
+				this.appendString(result.getLink());
+			if ((this.fields & BinaryResultWriter.TITLE) != 0)
+				this.appendString(result.getTitle());
+			if ((this.fields & BinaryResultWriter.SNIPPET) != 0)
+				this.appendString(result.getSnippet());
+		}
+		int size = this.length - BinaryResultWriter.PREFIX;
+		int start = BinaryResultWriter.PREFIX - BinaryResultWriter.sizeOfVarInt(size);
+		this.length = start;
+		this.appendVarInt(size);
+		this.out.write(this.buffer, start, BinaryResultWriter.PREFIX + size - start);
+	}
+	public void checkpoint() throws IOException {
+		this.out.flush();
+	}
+	public void close() throws IOException {
+		this.out.close();
+	}
+	private static int sizeOfVarInt(int value) {
+		int size = 1;
+		while ((value >>>= 7) != 0)
+			size++;
+		return size;
+	}
+	private void appendVarInt(int value) {
+		this.ensureCapacity(BinaryResultWriter.PREFIX);
+		while ((value & ~0x7f) != 0) {
+			this.buffer[this.length++] = (byte) (value & 0x7f | 0x80);
+			value >>>= 7;
+		}
+		this.buffer[this.length++] = (byte) value;
+	}
+	private void appendString(String value) {
+		if (value == null) {
+			this.appendVarInt(0);
+			return;
+		}
+		int length = value.length();
+		int size = 0;
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c < 0x80)
+				size += 1;
+			else if (c < 0x800)
+				size += 2;
+			else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+				size += 4;
+				i++;
+			} else
+				size += 3;
+		}
+		this.appendVarInt(size + 1);
+		this.ensureCapacity(size);
+		byte[] buffer = this.buffer;
+		int position = this.length;
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c < 0x80)
+				buffer[position++] = (byte) c;
+			else if (c < 0x800) {
+				buffer[position++] = (byte) (0xc0 | c >> 6);
+				buffer[position++] = (byte) (0x80 | c & 0x3f);
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				buffer[position++] = (byte) (0xf0 | codePoint >> 18);
+				buffer[position++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+				buffer[position++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+				buffer[position++] = (byte) (0x80 | codePoint & 0x3f);
+			} else {
+				if (Character.isSurrogate(c))
+					c = (char) 0xfffd;
+				buffer[position++] = (byte) (0xe0 | c >> 12);
+				buffer[position++] = (byte) (0x80 | c >> 6 & 0x3f);
+				buffer[position++] = (byte) (0x80 | c & 0x3f);
+			}
+		}
+		this.length = position;
+	}
+	private void ensureCapacity(int additional) {
+		if (this.length + additional > this.buffer.length) {
+			byte[] buffer = new byte[Math.max(2 * this.buffer.length, this.length + additional)];
+			System.arraycopy(this.buffer, 0, buffer, 0, this.length);
+			this.buffer = buffer;
+		}
+	}
+}
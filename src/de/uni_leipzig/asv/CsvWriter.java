@@ -0,0 +1,175 @@
+package de.uni_leipzig.asv;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import de.uni_leipzig.asv.web.search.SearchResponse;
+/**
+ * Schreibt die Suchergebnisse einer Antwort zeilenweise im CSV-Format mit dem
+ * Trennzeichen <code>;</code>. Die Spalten werden einmalig beim Erstellen
+ * festgelegt, und jede Zeile wird direkt in einen wiederverwendeten Puffer
+ * geschrieben. Anfrage, Titel und Textausschnitt stehen in Anfhrungszeichen,
+ * das Link nur, falls es ein Trennzeichen, ein Anfhrungszeichen oder einen
+ * Zeilenumbruch enthlt. Anfhrungszeichen innerhalb eines Feldes werden
+ * verdoppelt.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class CsvWriter implements ResultSink {
+	private static final int LINK = 1;
+	private static final int TITLE = 2;
+	private static final int SNIPPET = 3;
+	private static final int FLUSH_THRESHOLD = 8192;
+	private static final char[] LINE_SEPARATOR = System.getProperty("line.separator").toCharArray();
+	private final Writer out;
+	private final int[] columns;
+	private final boolean writeQuery;
+	private char[] buffer = new char[CsvWriter.FLUSH_THRESHOLD * 2];
+	private int length = 0;
+	private char[] prefix = new char[256];
+	/**
+	 * Erstellt einen Schreiber mit den ausgewhlten Spalten.
+	 * 
+	 * @param out
+	 *            die Ausgabe
+	 * @param writeQuery
+	 *            <code>true</code>, falls die Anfrage geschrieben werden soll
+	 * @param writeLink
+	 *            <code>true</code>, falls das Link geschrieben werden soll
+	 * @param writeTitle
+	 *            <code>true</code>, falls der Titel geschrieben werden soll
+	 * @param writeSnippet
+	 *            <code>true</code>, falls der Textausschnitt geschrieben
+	 *            werden soll
+	 */
+	public CsvWriter(Writer out, boolean writeQuery, boolean writeLink, boolean writeTitle, boolean writeSnippet) {
+		if (out == null)
+			throw new IllegalArgumentException("output may not be null");
+		this.out = out;
+		this.writeQuery = writeQuery;
+		int count = 0;
+		int[] columns = new int[3];
+		if (writeLink)
+			columns[count++] = CsvWriter.LINK;
+		if (writeTitle)
+			columns[count++] = CsvWriter.TITLE;
+		if (writeSnippet)
+			columns[count++] = CsvWriter.SNIPPET;
+		this.columns = new int[count];
+		System.arraycopy(columns, 0, this.columns, 0, count);
+	}
+	/**
+	 * Schreibt eine Zeile fr jedes Suchergebnis der Antwort in die Ausgabe.
+	 * 
+	 * @param response
+	 *            die Antwort
+	 * @throws IOException
+	 *             falls die Ausgabe nicht geschrieben werden konnte
+	 */
+	public void write(SearchResponse response) throws IOException {
+		int count = response.getResultCount();
+		if (count == 0 || !this.writeQuery && this.columns.length == 0)
+			return;
+		int prefix = 0;
+		if (this.writeQuery) {
+			this.appendField(response.getRequestedQuery(), true);
+			prefix = this.length;
+			if (this.prefix.length < prefix)
+				this.prefix = new char[Math.max(2 * this.prefix.length, prefix)];
+			System.arraycopy(this.buffer, 0, this.prefix, 0, prefix);
+			this.length = 0;
+		}
+		for (int i = 0; i < count; i++) {
+			this.ensureCapacity(prefix);
+			System.arraycopy(this.prefix, 0, this.buffer, this.length, prefix);
+			this.length += prefix;
+			SearchResponse.Result result = response.getResult(i);
+			for (int j = 0; j < this.columns.length; j++) {
+				if (j > 0 || prefix > 0)
+					this.append(';');
+				switch (this.columns[j]) {
+					case LINK :
+						this.appendField(result.getLink(), false);
+						break;
+					case TITLE :
+						this.appendField(result.getTitle(), true);
+						break;
+					case SNIPPET :
+						this.appendField(result.getSnippet(), true);
+						break;
+				}
+			}
+			this.ensureCapacity(CsvWriter.LINE_SEPARATOR.length);
+			System.arraycopy(CsvWriter.LINE_SEPARATOR, 0, this.buffer, this.length, CsvWriter.LINE_SEPARATOR.length);
+			this.length += CsvWriter.LINE_SEPARATOR.length;
+			if (this.length >= CsvWriter.FLUSH_THRESHOLD)
+				this.drain();
+		}
+		this.drain();
+	}
+	public void checkpoint() throws IOException {
+		this.out.flush();
+	}
+	public void close() throws IOException {
+		this.out.close();
+	}
+	/**
+	 * Schreibt die Felder durch <code>;</code> getrennt und unverndert als
+	 * Zeile in die Ausgabe.
+	 * 
+	 * @param fields
+	 *            die Felder
+	 * @param out
+	 *            die Ausgabe
+	 * @throws IOException
+	 *             falls die Ausgabe nicht geschrieben werden konnte
+	 */
+	public static void writeLine(List<String> fields, Writer out) throws IOException {
+		for (int i = 0; i < fields.size(); i++) {
+			if (i > 0)
+				out.write(';');
+			out.write(fields.get(i));
+		}
+		out.write(CsvWriter.LINE_SEPARATOR);
+	}
+	private void appendField(String value, boolean quoted) {
+		if (value == null)
+			value = "";
+		int length = value.length();
+		if (!quoted) {
+			for (int i = 0; i < length && !quoted; i++) {
+				char c = value.charAt(i);
+				quoted = c == ';' || c == '"' || c == '\n' || c == '\r';
+			}
+		}
+		this.ensureCapacity(2 * length + 2);
+		char[] buffer = this.buffer;
+		int position = this.length;
+		if (quoted)
+			buffer[position++] = '"';
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c == '"')
+				buffer[position++] = '"';
+			buffer[position++] = c;
+		}
+		if (quoted)
+			buffer[position++] = '"';
+		this.length = position;
+	}
+	private void append(char c) {
+		this.ensureCapacity(1);
+		this.buffer[this.length++] = c;
+	}
+	private void ensureCapacity(int additional) {
+		if (this.length + additional > this.buffer.length) {
+			char[] buffer = new char[Math.max(2 * this.buffer.length, this.length + additional)];
+			System.arraycopy(this.buffer, 0, buffer, 0, this.length);
+			this.buffer = buffer;
+		}
+	}
+	private void drain() throws IOException {
+		this.out.write(this.buffer, 0, this.length);
+		this.length = 0;
+	}
+}
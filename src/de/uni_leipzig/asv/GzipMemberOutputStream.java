@@ -0,0 +1,73 @@
+package de.uni_leipzig.asv;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+/**
+ * Komprimiert die geschriebenen Daten im GZIP-Format mit der schnellsten
+ * Kompressionsstufe. Jeder Aufruf von
+ * {@link #flush()} schliet das aktuelle GZIP-Element ab, sodass die Ausgabe
+ * an dieser Stelle fr sich vollstndig lesbar ist und spter weitere
+ * Elemente angehngt werden knnen. Eine Folge von Elementen wird von
+ * <code>gzip</code> und {@link java.util.zip.GZIPInputStream} als ein
+ * zusammenhngender Datenstrom gelesen.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class GzipMemberOutputStream extends OutputStream {
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private final OutputStream out;
+	private final OutputStream shield;
+	private GZIPOutputStream member = null;
+	/**
+	 * Erstellt einen komprimierenden Strom ber der bergebenen Ausgabe.
+	 * 
+	 * @param out
+	 *            die Ausgabe
+	 */
+	public GzipMemberOutputStream(final OutputStream out) {
+		this.out = out;
+		this.shield = new OutputStream() {
+			public void write(int b) throws IOException {
+				out.write(b);
+			}
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+			}
+		};
+	}
+	private GZIPOutputStream member() throws IOException {
+		if (this.member == null)
+			this.member = new GZIPOutputStream(this.shield, GzipMemberOutputStream.BUFFER_SIZE) {
+				{
+					this.def.setLevel(Deflater.BEST_SPEED);
+				}
+			};
+		return this.member;
+	}
+	public void write(int b) throws IOException {
+		this.member().write(b);
+	}
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (len > 0)
+			this.member().write(b, off, len);
+	}
+	/**
+	 * Schliet das aktuelle GZIP-Element ab und schreibt es in die Ausgabe.
+	 */
+	public void flush() throws IOException {
+		if (this.member != null) {
+			this.member.close();
+			this.member = null;
+		}
+		this.out.flush();
+	}
+	public void close() throws IOException {
+		try {
+			this.flush();
+		} finally {
+			this.out.close();
+		}
+	}
+}
@@ -0,0 +1,378 @@
+package de.uni_leipzig.asv;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.codec.digest.DigestUtils;
+import de.uni_leipzig.asv.web.search.SearchResponse;
+/**
+ * Schreibt die Suchergebnisse ber JDBC in eine Tabelle der Datenbank. Die
+ * Suchergebnisse werden ber eine beschrnkte Warteschlange an eigene
+ * Schreiber bergeben, die sie gesammelt mit mehrzeiligen
+ * <code>INSERT</code>-Anweisungen einfgen. Jeder Schreiber leiht sich dazu
+ * eine Verbindung aus einem kleinen Pool; eine geschlossene Verbindung wird
+ * nicht zurckgelegt, sondern bei der nchsten Ausleihe durch eine neue
+ * ersetzt. Eine Sammlung wird geschrieben,
+ * sobald sie voll ist oder ihr ltestes Suchergebnis das Intervall
+ * berschritten hat.
+ * <p>
+ * Der Primrschlssel der Tabelle wird aus Anfrage und Link berechnet, sodass
+ * ein Suchergebnis nur einmal eingefgt wird. Bei MySQL werden Duplikate mit
+ * <code>INSERT IGNORE</code> bergangen, bei anderen Datenbanken wird eine
+ * Sammlung mit Duplikaten zeilenweise wiederholt und Verletzungen des
+ * Schlssels werden ignoriert. Die Tabelle wird bei Bedarf angelegt.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class JdbcResultSink implements ResultSink {
+	/**
+	 * Standartmiger Name der Tabelle ist <code>search_results</code>.
+	 */
+	public static final String DEFAULT_TABLE = "search_results";
+	/**
+	 * Standartmige Anzahl der Suchergebnisse einer Sammlung ist
+	 * <code>500</code>.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 500;
+	/**
+	 * Standartmige Zeit in Millisekunden, nach der eine Sammlung sptestens
+	 * geschrieben wird, ist <code>1</code> Sekunde.
+	 */
+	public static final long DEFAULT_INTERVAL = 1000;
+	/**
+	 * Standartmige Anzahl der Verbindungen und Schreiber ist <code>2</code>.
+	 */
+	public static final int DEFAULT_CONNECTIONS = 2;
+	private static final int CAPACITY_BATCHES = 4;
+	private static final String COLUMNS = "result_key, engine, query, result_index, link, title, snippet";
+	private static final String VALUES = "(?, ?, ?, ?, ?, ?, ?)";
+	private static final class Row {
+		private final String key;
+		private final String engine;
+		private final String query;
+		private final int index;
+		private final String link;
+		private final String title;
+		private final String snippet;
+		private Row(String engine, String query, int index, SearchResponse.Result result) {
+			this.key = result == null ? null : DigestUtils.shaHex(query + "\n" + result.getLink());
+			this.engine = engine;
+			this.query = query;
+			this.index = index;
+			this.link = result == null ? null : result.getLink();
+			this.title = result == null ? null : result.getTitle();
+			this.snippet = result == null ? null : result.getSnippet();
+		}
+	}
+	private static final Row END = new Row(null, null, -1, null);
+	private final String url;
+	private final String user;
+	private final String password;
+	private final String table;
+	private final int batchSize;
+	private final long interval;
+	private final boolean mysql;
+	private final BlockingQueue<Row> queue;
+	// one permit per connection, the idle queue only holds open connections
+	private final Semaphore permits;
+	private final ConcurrentLinkedQueue<Connection> idle = new ConcurrentLinkedQueue<Connection>();
+	private final Thread[] writers;
+	private volatile boolean checkpointing = false;
+	private volatile IOException error = null;
+	private long pending = 0;
+	/**
+	 * ffnet die Verbindungen zur Datenbank, legt die Tabelle bei Bedarf an
+	 * und startet die Schreiber.
+	 * 
+	 * @param url
+	 *            die JDBC-Adresse der Datenbank
+	 * @param user
+	 *            der Benutzer oder <code>null</code>
+	 * @param password
+	 *            das Passwort oder <code>null</code>
+	 * @param table
+	 *            der Name der Tabelle
+	 * @param batchSize
+	 *            die Anzahl der Suchergebnisse einer Sammlung
+	 * @param interval
+	 *            die Zeit in Millisekunden, nach der eine Sammlung sptestens
+	 *            geschrieben wird
+	 * @param connections
+	 *            die Anzahl der Verbindungen und Schreiber
+	 * @throws IOException
+	 *             falls keine Verbindung aufgebaut oder die Tabelle nicht
+	 *             angelegt werden konnte
+	 */
+	public JdbcResultSink(String url, String user, String password, String table, int batchSize, long interval, int connections) throws IOException {
+		if (url == null)
+			throw new IllegalArgumentException("url may not be null");
+		if (table == null || !table.matches("[A-Za-z_][A-Za-z0-9_]*"))
+			throw new IllegalArgumentException("invalid table name " + table);
+		if (batchSize < 1)
+			throw new IllegalArgumentException("batch size must be positive");
+		if (interval < 1)
+			throw new IllegalArgumentException("interval must be positive");
+		if (connections < 1)
+			throw new IllegalArgumentException("number of connections must be positive");
+		this.url = url;
+		this.user = user;
+		this.password = password;
+		this.table = table;
+		this.batchSize = batchSize;
+		this.interval = interval;
+		this.mysql = url.startsWith("jdbc:mysql:");
+		this.queue = new ArrayBlockingQueue<Row>(batchSize * JdbcResultSink.CAPACITY_BATCHES);
+		this.permits = new Semaphore(connections);
+		try {
+			for (int i = 0; i < connections; i++)
+				this.idle.add(this.connect());
+			Connection connection = this.idle.peek();
+			Statement statement = connection.createStatement();
+			try {
+				statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + table + " (result_key CHAR(40) NOT NULL PRIMARY KEY, engine VARCHAR(32), query VARCHAR(1024), result_index INT, link TEXT, title TEXT, snippet TEXT)");
+			} finally {
+				statement.close();
+			}
+			connection.commit();
+		} catch (SQLException e) {
+			this.closeConnections();
+			throw new IOException(e);
+		}
+		this.writers = new Thread[connections];
+		for (int i = 0; i < connections; i++) {
+			this.writers[i] = new Thread(new Runnable() {
+				public void run() {
+					JdbcResultSink.this.drain();
+				}
+			}, "jdbc-writer-" + i);
+			this.writers[i].setDaemon(true);
+			this.writers[i].start();
+		}
+	}
+	private Connection connect() throws SQLException {
+		Connection connection = DriverManager.getConnection(this.url, this.user, this.password);
+		connection.setAutoCommit(false);
+		return connection;
+	}
+	public void write(SearchResponse response) throws IOException {
+		int count = response.getResultCount();
+		for (int i = 0; i < count; i++) {
+			if (this.error != null)
+				throw this.error;
+			synchronized (this) {
+				this.pending++;
+			}
+			try {
+				this.queue.put(new Row(response.getRequestedWebSearchEngine(), response.getRequestedQuery(), i, response.getResult(i)));
+			} catch (InterruptedException e) {
+				synchronized (this) {
+					this.pending--;
+				}
+				throw new InterruptedIOException();
+			}
+		}
+	}
+	/**
+	 * Wartet, bis alle bergebenen Suchergebnisse in der Datenbank
+	 * festgeschrieben sind.
+	 */
+	public void checkpoint() throws IOException {
+		this.checkpointing = true;
+		try {
+			synchronized (this) {
+				while (this.pending > 0 && this.error == null)
+					this.wait();
+			}
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} finally {
+			this.checkpointing = false;
+		}
+		if (this.error != null)
+			throw this.error;
+	}
+	public void close() throws IOException {
+		try {
+			this.checkpoint();
+		} finally {
+			try {
+				for (int i = 0; i < this.writers.length; i++)
+					this.queue.put(JdbcResultSink.END);
+				for (Thread writer : this.writers)
+					writer.join();
+			} catch (InterruptedException e) {
+				for (Thread writer : this.writers)
+					writer.interrupt();
+				throw new InterruptedIOException();
+			} finally {
+				this.closeConnections();
+			}
+		}
+	}
+	private void closeConnections() {
+		Connection connection;
+		while ((connection = this.idle.poll()) != null)
+			JdbcResultSink.close(connection);
+	}
+	private static void close(Connection connection) {
+		if (connection == null)
+			return;
+		try {
+			connection.close();
+		} catch (SQLException e) {}
+	}
+	/**
+	 * Leiht eine Verbindung aus dem Pool. Wurde eine Verbindung zuvor
+	 * verworfen, wird an ihrer Stelle eine neue Verbindung aufgebaut.
+	 * 
+	 * @return die Verbindung
+	 * @throws SQLException
+	 *             falls keine neue Verbindung aufgebaut werden konnte
+	 */
+	private Connection take() throws SQLException {
+		Connection connection = this.idle.poll();
+		return connection != null ? connection : this.connect();
+	}
+	/**
+	 * Legt eine Verbindung in den Pool zurck, falls sie noch offen ist, und
+	 * gibt ihren Platz frei.
+	 * 
+	 * @param connection
+	 *            die Verbindung oder <code>null</code>, falls keine
+	 *            aufgebaut werden konnte
+	 */
+	private void release(Connection connection) {
+		try {
+			if (connection != null && !connection.isClosed())
+				this.idle.add(connection);
+			else
+				JdbcResultSink.close(connection);
+		} catch (SQLException e) {
+			JdbcResultSink.close(connection);
+		}
+		this.permits.release();
+	}
+	private void drain() {
+		List<Row> batch = new ArrayList<Row>(this.batchSize);
+		long started = 0;
+		try {
+			while (true) {
+				long timeout = this.checkpointing ? 10 : batch.isEmpty() ? this.interval : Math.max(1, started + this.interval - System.currentTimeMillis());
+				Row row = this.queue.poll(timeout, TimeUnit.MILLISECONDS);
+				if (row == JdbcResultSink.END) {
+					this.flush(batch);
+					return;
+				}
+				if (row != null) {
+					if (batch.isEmpty())
+						started = System.currentTimeMillis();
+					batch.add(row);
+				}
+				if (batch.size() >= this.batchSize || !batch.isEmpty() && (System.currentTimeMillis() - started >= this.interval || this.checkpointing && this.queue.isEmpty()))
+					this.flush(batch);
+			}
+		} catch (InterruptedException e) {}
+	}
+	private void flush(List<Row> batch) throws InterruptedException {
+		if (batch.isEmpty())
+			return;
+		Map<String, Row> rows = new LinkedHashMap<String, Row>();
+		for (Row row : batch)
+			if (!rows.containsKey(row.key))
+				rows.put(row.key, row);
+		this.permits.acquire();
+		Connection connection = null;
+		try {
+			try {
+				connection = this.take();
+				this.insert(connection, rows.values());
+			} catch (SQLException e) {
+				JdbcResultSink.close(connection);
+				connection = null;
+				connection = this.connect();
+				this.insert(connection, rows.values());
+			}
+		} catch (SQLException e) {
+			this.error = new IOException("cannot insert into " + this.table + ": " + e.getMessage(), e);
+		} finally {
+			this.release(connection);
+			synchronized (this) {
+				this.pending -= batch.size();
+				this.notifyAll();
+			}
+			batch.clear();
+		}
+	}
+	private void insert(Connection connection, Collection<Row> rows) throws SQLException {
+		try {
+			this.execute(connection, rows);
+			connection.commit();
+		} catch (SQLException e) {
+			connection.rollback();
+			if (this.mysql || !JdbcResultSink.isDuplicateKey(e))
+				throw e;
+			List<Row> single = new ArrayList<Row>(1);
+			for (Row row : rows) {
+				single.clear();
+				single.add(row);
+				try {
+					this.execute(connection, single);
+					connection.commit();
+				} catch (SQLException f) {
+					connection.rollback();
+					if (!JdbcResultSink.isDuplicateKey(f))
+						throw f;
+				}
+			}
+		}
+	}
+	private void execute(Connection connection, Collection<Row> rows) throws SQLException {
+		StringBuilder sql = new StringBuilder(this.mysql ? "INSERT IGNORE INTO " : "INSERT INTO ");
+		sql.append(this.table).append(" (").append(JdbcResultSink.COLUMNS).append(") VALUES ");
+		for (int i = 0; i < rows.size(); i++)
+			sql.append(i == 0 ? "" : ", ").append(JdbcResultSink.VALUES);
+		PreparedStatement statement = connection.prepareStatement(sql.toString());
+		try {
+			int i = 1;
+			for (Row row : rows) {
+				statement.setString(i++, row.key);
+				JdbcResultSink.setString(statement, i++, row.engine);
+				JdbcResultSink.setString(statement, i++, row.query);
+				statement.setInt(i++, row.index);
+				JdbcResultSink.setString(statement, i++, row.link);
+				JdbcResultSink.setString(statement, i++, row.title);
+				JdbcResultSink.setString(statement, i++, row.snippet);
+			}
+			statement.executeUpdate();
+		} finally {
+			statement.close();
+		}
+	}
+	private static void setString(PreparedStatement statement, int index, String value) throws SQLException {
+		if (value == null)
+			statement.setNull(index, Types.VARCHAR);
+		else
+			statement.setString(index, value);
+	}
+	private static boolean isDuplicateKey(SQLException e) {
+		for (; e != null; e = e.getNextException())
+			if (e.getSQLState() != null && e.getSQLState().startsWith("23"))
+				return true;
+		return false;
+	}
+}
@@ -0,0 +1,243 @@
+package de.uni_leipzig.asv;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+/**
+ * Das Journal einer Ausgabedatei. Nach jeweils mehreren abgeschlossenen
+ * Suchanfragen wird die Ausgabe auf die Platte geschrieben und anschlieend
+ * eine Zeile an das Journal angehngt, die die Lnge der Ausgabe und die
+ * Nummern der seitdem abgeschlossenen Zeilen der Eingabe enthlt. Wird die
+ * Ausfhrung unterbrochen, wird die Ausgabe beim nchsten Start auf die
+ * zuletzt festgehaltene Lnge gekrzt und fortgesetzt, wobei die bereits
+ * abgeschlossenen Zeilen bersprungen werden. Nach einer vollstndigen
+ * Ausfhrung wird das Journal gelscht.
+ * <p>
+ * Die erste Zeile des Journals beschreibt die Ausfhrung, zu der es gehrt,
+ * z.B. Eingabe, Suchmaschine und Ausgabeformat. Eine Ausgabe wird nur
+ * fortgesetzt, wenn diese Zeile mit der Beschreibung der neuen Ausfhrung
+ * bereinstimmt.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class Journal {
+	/**
+	 * Standartmige Anzahl abgeschlossener Suchanfragen, nach der das Journal
+	 * fortgeschrieben wird, ist <code>100</code>.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 100;
+	/**
+	 * Standartmige Zeit in Millisekunden, nach der das Journal sptestens
+	 * fortgeschrieben wird, ist <code>1</code> Sekunde.
+	 */
+	public static final long DEFAULT_INTERVAL = 1000;
+	private final File file;
+	private final FileOutputStream output;
+	private ResultSink sink = null;
+	private final RandomAccessFile journal;
+	private final BitSet completed = new BitSet();
+	private final List<Long> pending = new ArrayList<Long>();
+	private final int resumed;
+	private long lastCommit = System.currentTimeMillis();
+	/**
+	 * ffnet die Ausgabedatei mit ihrem Journal, ohne die Ausfhrung zu
+	 * beschreiben.
+	 * 
+	 * @param out
+	 *            die Ausgabedatei
+	 * @throws IOException
+	 *             falls die Ausgabe oder das Journal nicht geffnet werden
+	 *             konnte
+	 * @see #Journal(File, String)
+	 */
+	public Journal(File out) throws IOException {
+		this(out, null);
+	}
+	/**
+	 * ffnet die Ausgabedatei mit ihrem Journal. Existiert ein Journal, das
+	 * mit derselben Beschreibung angelegt wurde, wird die Ausgabe auf die
+	 * zuletzt festgehaltene Lnge gekrzt und fortgesetzt, sonst wird die
+	 * Ausgabe berschrieben. Ein Journal mit einer anderen Beschreibung wird
+	 * nicht angetastet.
+	 * 
+	 * @param out
+	 *            die Ausgabedatei
+	 * @param header
+	 *            die Beschreibung der Ausfhrung in einer Zeile oder
+	 *            <code>null</code>
+	 * @throws IOException
+	 *             falls die Ausgabe oder das Journal nicht geffnet werden
+	 *             konnte oder das vorhandene Journal zu einer anderen
+	 *             Ausfhrung gehrt
+	 */
+	public Journal(File out, String header) throws IOException {
+		if (header != null && (header.indexOf('\n') >= 0 || header.indexOf('\r') >= 0))
+			throw new IllegalArgumentException("header must be a single line");
+		this.file = new File(out.getPath() + ".journal");
+		byte[] head = header != null ? ("# " + header + "\n").getBytes("UTF-8") : new byte[0];
+		long offset = 0;
+		boolean resume = this.file.isFile() && out.isFile();
+		this.journal = new RandomAccessFile(this.file, "rw");
+		if (resume) {
+			byte[] found = new byte[(int) Math.min(this.journal.length(), head.length)];
+			this.journal.readFully(found);
+			if (!Arrays.equals(found, head)) {
+				// a torn header means that nothing was committed yet
+				if (found.length < head.length && Arrays.equals(found, Arrays.copyOf(head, found.length)))
+					resume = false;
+				else {
+					this.journal.close();
+					throw new IOException("journal " + this.file + " belongs to a different run, delete it to overwrite " + out);
+				}
+			}
+		}
+		if (resume) {
+			long valid = this.journal.getFilePointer();
+			String line;
+			while ((line = this.journal.readLine()) != null) {
+				if (this.journal.getFilePointer() == this.journal.length() && !Journal.endsWithNewline(this.journal))
+					break;
+				String[] fields = line.trim().split(" ");
+				offset = Long.parseLong(fields[0]);
+				for (int i = 1; i < fields.length; i++)
+					this.completed.set(Integer.parseInt(fields[i]));
+				valid = this.journal.getFilePointer();
+			}
+			this.journal.setLength(valid);
+		} else {
+			this.journal.setLength(0);
+			this.journal.write(head);
+			this.journal.getFD().sync();
+		}
+		this.journal.seek(this.journal.length());
+		this.resumed = this.completed.cardinality();
+		this.output = new FileOutputStream(out, resume);
+		if (resume)
+			this.output.getChannel().truncate(offset);
+	}
+	private static boolean endsWithNewline(RandomAccessFile file) throws IOException {
+		long position = file.getFilePointer();
+		file.seek(file.length() - 1);
+		boolean newline = file.read() == '\n';
+		file.seek(position);
+		return newline;
+	}
+	/**
+	 * Gibt den Datenstrom der Ausgabe zurck.
+	 * 
+	 * @return der Datenstrom
+	 */
+	public OutputStream getOutputStream() {
+		return this.output;
+	}
+	/**
+	 * Setzt das Ziel, das in den Datenstrom der Ausgabe schreibt. Vor jedem
+	 * Fortschreiben des Journals werden die gepufferten Daten des Ziels in
+	 * die Ausgabe geschrieben, beim Schlieen wird das Ziel geschlossen.
+	 * 
+	 * @param sink
+	 *            das Ziel
+	 */
+	public synchronized void setSink(ResultSink sink) {
+		this.sink = sink;
+	}
+	/**
+	 * Gibt die Anzahl der Zeilen zurck, die bei einer fortgesetzten
+	 * Ausfhrung bereits abgeschlossen waren.
+	 * 
+	 * @return die Anzahl der bersprungenen Zeilen
+	 */
+	public int getResumedCount() {
+		return this.resumed;
+	}
+	/**
+	 * berprft, ob eine Zeile der Eingabe bereits abgeschlossen ist.
+	 * 
+	 * @param line
+	 *            die Nummer der Zeile, beginnend bei <code>0</code>
+	 * @return <code>true</code>, falls die Ergebnisse der Zeile bereits in
+	 *         der Ausgabe stehen
+	 */
+	public synchronized boolean isCompleted(long line) {
+		return this.completed.get((int) line);
+	}
+	/**
+	 * Meldet eine Zeile der Eingabe als abgeschlossen, nachdem ihre
+	 * Ergebnisse in das Ziel geschrieben wurden. Das Journal wird nach
+	 * einer festen Anzahl von Zeilen oder einer festen Zeit fortgeschrieben.
+	 * 
+	 * @param line
+	 *            die Nummer der Zeile, beginnend bei <code>0</code>
+	 * @throws IOException
+	 *             falls die Ausgabe oder das Journal nicht geschrieben werden
+	 *             konnte
+	 */
+	public synchronized void complete(long line) throws IOException {
+		this.pending.add(line);
+		if (this.pending.size() >= Journal.DEFAULT_BATCH_SIZE || System.currentTimeMillis() - this.lastCommit >= Journal.DEFAULT_INTERVAL)
+			this.commit();
+	}
+	/**
+	 * Schreibt die Ausgabe auf die Platte und hngt die seit dem letzten
+	 * Aufruf abgeschlossenen Zeilen an das Journal an.
+	 * 
+	 * @throws IOException
+	 *             falls die Ausgabe oder das Journal nicht geschrieben werden
+	 *             konnte
+	 */
+	public synchronized void commit() throws IOException {
+		this.lastCommit = System.currentTimeMillis();
+		if (this.pending.isEmpty())
+			return;
+		if (this.sink != null)
+			this.sink.checkpoint();
+		this.output.flush();
+		this.output.getFD().sync();
+		StringBuilder line = new StringBuilder();
+		line.append(this.output.getChannel().size());
+		for (long completed : this.pending) {
+			line.append(' ').append(completed);
+			this.completed.set((int) completed);
+		}
+		line.append('\n');
+		this.journal.write(line.toString().getBytes("US-ASCII"));
+		this.journal.getFD().sync();
+		this.pending.clear();
+	}
+	/**
+	 * Schliet die Ausgabe und das Journal. Nach einer vollstndigen
+	 * Ausfhrung wird das Journal gelscht, sonst werden die abgeschlossenen
+	 * Zeilen festgehalten.
+	 * 
+	 * @param finished
+	 *            <code>true</code>, falls alle Zeilen der Eingabe
+	 *            abgeschlossen sind
+	 * @throws IOException
+	 *             falls die Ausgabe oder das Journal nicht geschrieben werden
+	 *             konnte
+	 */
+	public synchronized void close(boolean finished) throws IOException {
+		try {
+			this.commit();
+		} finally {
+			try {
+				try {
+					if (this.sink != null)
+						this.sink.close();
+				} finally {
+					this.output.close();
+				}
+			} finally {
+				this.journal.close();
+			}
+		}
+		if (finished)
+			this.file.delete();
+	}
+}
@@ -0,0 +1,148 @@
+package de.uni_leipzig.asv;
+import java.io.IOException;
+import java.io.Writer;
+import de.uni_leipzig.asv.web.search.SearchResponse;
+/**
+ * Schreibt die Suchergebnisse einer Antwort im Format JSON Lines. Jedes
+ * Suchergebnis wird als ein JSON-Objekt in einer eigenen Zeile geschrieben,
+ * das die ausgewhlten Felder <code>query</code>, <code>link</code>,
+ * <code>title</code> und <code>snippet</code> enthlt. Fehlende Felder werden
+ * als <code>null</code> geschrieben.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class JsonLinesWriter implements ResultSink {
+	private static final int FLUSH_THRESHOLD = 8192;
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	private final Writer out;
+	private final boolean writeQuery;
+	private final boolean writeLink;
+	private final boolean writeTitle;
+	private final boolean writeSnippet;
+	private char[] buffer = new char[JsonLinesWriter.FLUSH_THRESHOLD * 2];
+	private int length = 0;
+	/**
+	 * Erstellt einen Schreiber mit den ausgewhlten Feldern.
+	 * 
+	 * @param out
+	 *            die Ausgabe
+	 * @param writeQuery
+	 *            <code>true</code>, falls die Anfrage geschrieben werden soll
+	 * @param writeLink
+	 *            <code>true</code>, falls das Link geschrieben werden soll
+	 * @param writeTitle
+	 *            <code>true</code>, falls der Titel geschrieben werden soll
+	 * @param writeSnippet
+	 *            <code>true</code>, falls der Textausschnitt geschrieben
+	 *            werden soll
+	 */
+	public JsonLinesWriter(Writer out, boolean writeQuery, boolean writeLink, boolean writeTitle, boolean writeSnippet) {
+		if (out == null)
+			throw new IllegalArgumentException("output may not be null");
+		this.out = out;
+		this.writeQuery = writeQuery;
+		this.writeLink = writeLink;
+		this.writeTitle = writeTitle;
+		this.writeSnippet = writeSnippet;
+	}
+	public void write(SearchResponse response) throws IOException {
+		int count = response.getResultCount();
+		for (int i = 0; i < count; i++) {
+			SearchResponse.Result result = response.getResult(i);
+			char separator = '{';
+			if (this.writeQuery) {
+				this.appendName(separator, "query");
+				this.appendString(response.getRequestedQuery());
+				separator = ',';
+			}
+			if (this.writeLink) {
+				this.appendName(separator, "link");
+				this.appendString(result.getLink());
+				separator = ',';
+			}
+			if (this.writeTitle) {
+				this.appendName(separator, "title");
+				this.appendString(result.getTitle());
+				separator = ',';
+			}
+			if (this.writeSnippet) {
+				this.appendName(separator, "snippet");
+				this.appendString(result.getSnippet());
+				separator = ',';
+			}
+			if (separator == '{')
+				this.append('{');
+			this.append('}');
+			this.append('\n');
+			if (this.length >= JsonLinesWriter.FLUSH_THRESHOLD)
+				this.drain();
+		}
+		this.drain();
+	}
+	public void checkpoint() throws IOException {
+		this.out.flush();
+	}
+	public void close() throws IOException {
+		this.out.close();
+	}
+	private void appendName(char separator, String name) {
+		this.append(separator);
+		this.appendString(name);
+		this.append(':');
+	}
+	private void appendString(String value) {
+		if (value == null) {
+			this.ensureCapacity(4);
+			"null".getChars(0, 4, this.buffer, this.length);
+			this.length += 4;
+			return;
+		}
+		int length = value.length();
+		this.ensureCapacity(6 * length + 2);
+		char[] buffer = this.buffer;
+		int position = this.length;
+		buffer[position++] = '"';
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				buffer[position++] = '\\';
+				buffer[position++] = c;
+			} else if (c == '\n') {
+				buffer[position++] = '\\';
+				buffer[position++] = 'n';
+			} else if (c == '\r') {
+				buffer[position++] = '\\';
+				buffer[position++] = 'r';
+			} else if (c == '\t') {
+				buffer[position++] = '\\';
+				buffer[position++] = 't';
+			} else if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+				buffer[position++] = '\\';
+				buffer[position++] = 'u';
+				buffer[position++] = JsonLinesWriter.HEX[c >> 12 & 0xf];
+				buffer[position++] = JsonLinesWriter.HEX[c >> 8 & 0xf];
+				buffer[position++] = JsonLinesWriter.HEX[c >> 4 & 0xf];
+				buffer[position++] = JsonLinesWriter.HEX[c & 0xf];
+			} else
+				buffer[position++] = c;
+		}
+		buffer[position++] = '"';
+		this.length = position;
+	}
+	private void append(char c) {
+		this.ensureCapacity(1);
+		this.buffer[this.length++] = c;
+	}
+	private void ensureCapacity(int additional) {
+		if (this.length + additional > this.buffer.length) {
+			char[] buffer = new char[Math.max(2 * this.buffer.length, this.length + additional)];
+			System.arraycopy(this.buffer, 0, buffer, 0, this.length);
+			this.buffer = buffer;
+		}
+	}
+	private void drain() throws IOException {
+		this.out.write(this.buffer, 0, this.length);
+		this.length = 0;
+	}
+}
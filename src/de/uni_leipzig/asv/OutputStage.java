@@ -0,0 +1,131 @@
+package de.uni_leipzig.asv;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import de.uni_leipzig.asv.web.search.SearchResponse;
+/**
+ * Schreibt die Antworten auf einem eigenen Thread, sodass die Ausfhrung der
+ * Suchanfragen nicht auf die Ausgabe wartet. Die Antworten werden ber eine
+ * beschrnkte Warteschlange bergeben und in der Reihenfolge der bergabe
+ * geschrieben. Ist ein Journal angegeben, wird jede geschriebene Zeile der
+ * Eingabe dort als abgeschlossen gemeldet. Nach dem ersten Fehler, auch
+ * einer {@link RuntimeException} des Ziels, werden keine Antworten mehr
+ * geschrieben; der Fehler wird von {@link #write(SearchResponse, long)} und
+ * {@link #close()} geworfen.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class OutputStage {
+	/**
+	 * Standartmige Kapazitt der Warteschlange ist <code>64</code>
+	 * Antworten.
+	 */
+	public static final int DEFAULT_CAPACITY = 64;
+	private static final Log LOG = LogFactory.getLog(OutputStage.class);
+	private static final class Item {
+		private final SearchResponse response;
+		private final long line;
+		private Item(SearchResponse response, long line) {
+			this.response = response;
+			this.line = line;
+		}
+	}
+	private static final Item END = new Item(null, -1);
+	private final ResultSink sink;
+	private final Journal journal;
+	private final BlockingQueue<Item> queue;
+	private final Thread thread;
+	private volatile IOException error = null;
+	/**
+	 * Erstellt die Ausgabe und startet ihren Thread.
+	 * 
+	 * @param sink
+	 *            das Ziel der Antworten
+	 * @param journal
+	 *            das Journal oder <code>null</code>
+	 * @param capacity
+	 *            die Kapazitt der Warteschlange
+	 */
+	public OutputStage(ResultSink sink, Journal journal, int capacity) {
+		if (sink == null)
+			throw new IllegalArgumentException("sink may not be null");
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be positive");
+		this.sink = sink;
+		this.journal = journal;
+		this.queue = new ArrayBlockingQueue<Item>(capacity);
+		this.thread = new Thread(new Runnable() {
+			public void run() {
+				OutputStage.this.drain();
+			}
+		}, "output-writer");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+	private void drain() {
+		try {
+			while (true) {
+				Item item = this.queue.take();
+				if (item == OutputStage.END)
+					return;
+				if (this.error != null)
+					continue;
+				try {
+					if (OutputStage.LOG.isDebugEnabled())
+						OutputStage.LOG.debug("WRITE " + item.response.getResultCount() + " RESULTS FOR \"" + item.response.getRequestedQuery() + "\" TO FILE");
+					this.sink.write(item.response);
+					if (this.journal != null)
+						this.journal.complete(item.line);
+				} catch (IOException e) {
+					this.error = e;
+				} catch (Throwable e) {
+					// the thread keeps draining, so producers do not block on a full queue
+					this.error = new IOException("cannot write results for \"" + item.response.getRequestedQuery() + "\"", e);
+				}
+			}
+		} catch (InterruptedException e) {}
+	}
+	/**
+	 * bergibt eine Antwort an die Ausgabe. Ist die Warteschlange voll, wird
+	 * gewartet.
+	 * 
+	 * @param response
+	 *            die Antwort
+	 * @param line
+	 *            die Nummer der Zeile der Eingabe, beginnend bei
+	 *            <code>0</code>
+	 * @throws IOException
+	 *             falls eine vorherige Antwort nicht geschrieben werden konnte
+	 */
+	public void write(SearchResponse response, long line) throws IOException {
+		if (this.error != null)
+			throw this.error;
+		try {
+			this.queue.put(new Item(response, line));
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		}
+	}
+	/**
+	 * Wartet, bis alle bergebenen Antworten geschrieben sind, und beendet den
+	 * Thread.
+	 * 
+	 * @throws IOException
+	 *             falls eine Antwort nicht geschrieben werden konnte
+	 */
+	public void close() throws IOException {
+		try {
+			this.queue.put(OutputStage.END);
+			this.thread.join();
+		} catch (InterruptedException e) {
+			this.thread.interrupt();
+			throw new InterruptedIOException();
+		}
+		if (this.error != null)
+			throw this.error;
+	}
+}
@@ -0,0 +1,216 @@
+package de.uni_leipzig.asv;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import de.uni_leipzig.asv.WebSearchLauncher.WebSearchEngine;
+import de.uni_leipzig.asv.web.VirtualThreads;
+import de.uni_leipzig.asv.web.search.SearchResponse;
+/**
+ * Fhrt die Suchanfragen einer Eingabe nebenlufig aus. Ein Leser verteilt
+ * die Zeilen der Eingabe an eine feste Anzahl von Arbeitern, deren Antworten
+ * ber eine beschrnkte Warteschlange an einen einzigen Schreiber bergeben
+ * werden. Die Anzahl der gleichzeitig unterwegs befindlichen Anfragen ist
+ * durch ein Fenster begrenzt, sodass ein langsamer Schreiber die Arbeiter
+ * ausbremst. Mit {@link VirtualThreads} laufen die Arbeiter auf virtuellen
+ * Threads, sodass auch zehntausende Arbeiter gleichzeitig auf ihre Anfragen
+ * warten knnen.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class QueryPipeline {
+	/**
+	 * Die Reihenfolge, in der die Antworten geschrieben werden.
+	 */
+	public static enum Order {
+		/**
+		 * In der Reihenfolge der Eingabe.
+		 */
+		INPUT,
+		/**
+		 * In der Reihenfolge der Fertigstellung.
+		 */
+		COMPLETION
+	}
+	private static final class Task {
+		private final long seq;
+		private final long line;
+		private final String query;
+		private SearchResponse response = null;
+		private Exception error = null;
+		private Task(long seq, long line, String query) {
+			this.seq = seq;
+			this.line = line;
+			this.query = query;
+		}
+	}
+	private static final Task END = new Task(-1, -1, null);
+	private final WebSearchEngine engine;
+	private final String proxy;
+	private final int workers;
+	private final Order order;
+	private final int window;
+	/**
+	 * Erstellt eine Pipeline.
+	 * 
+	 * @param engine
+	 *            die Suchmaschine
+	 * @param proxy
+	 *            der Pfad zur Proxyliste oder <code>null</code>
+	 * @param workers
+	 *            die Anzahl der Arbeiter
+	 * @param order
+	 *            die Reihenfolge der Ausgabe
+	 */
+	public QueryPipeline(WebSearchEngine engine, String proxy, int workers, Order order) {
+		if (engine == null || order == null)
+			throw new IllegalArgumentException();
+		if (workers < 1)
+			throw new IllegalArgumentException("number of workers must be positive");
+		this.engine = engine;
+		this.proxy = proxy;
+		this.workers = workers;
+		this.order = order;
+		this.window = workers * 4;
+	}
+	private volatile boolean aborted = false;
+	private volatile Exception readerError = null;
+	/**
+	 * Liest die Suchanfragen zeilenweise aus der Eingabe, fhrt sie aus und
+	 * schreibt die Ergebnisse in die Ausgabe. Die erste gescheiterte Anfrage
+	 * bricht die Ausfhrung ab.
+	 * 
+	 * @throws Exception
+	 *             falls eine Anfrage gescheitert ist oder die Ein- bzw. Ausgabe
+	 *             nicht gelesen bzw. geschrieben werden konnte
+	 */
+	public void run(BufferedReader in, BufferedWriter out, boolean writeQuery, boolean writeLink, boolean writeTitle, boolean writeSnippet) throws Exception {
+		this.run(in, new CsvWriter(out, writeQuery, writeLink, writeTitle, writeSnippet), null);
+	}
+	/**
+	 * Liest die Suchanfragen zeilenweise aus der Eingabe, fhrt sie aus und
+	 * schreibt die Ergebnisse in das Ziel. Ist ein Journal angegeben, werden
+	 * Zeilen, die laut Journal bereits abgeschlossen sind, bersprungen, und
+	 * jede geschriebene Zeile wird im Journal als abgeschlossen gemeldet. Die
+	 * erste gescheiterte Anfrage bricht die Ausfhrung ab.
+	 * 
+	 * @throws Exception
+	 *             falls eine Anfrage gescheitert ist oder die Ein- bzw. Ausgabe
+	 *             nicht gelesen bzw. geschrieben werden konnte
+	 */
+	public void run(BufferedReader in, ResultSink sink, Journal journal) throws Exception {
+		OutputStage stage = new OutputStage(sink, journal, OutputStage.DEFAULT_CAPACITY);
+		try {
+			this.run(in, stage, journal);
+		} catch (Exception e) {
+			try {
+				stage.close();
+			} catch (IOException f) {}
+			throw e;
+		}
+		stage.close();
+	}
+	private void run(final BufferedReader in, OutputStage stage, final Journal journal) throws Exception {
+		final Semaphore permits = new Semaphore(this.window);
+		final BlockingQueue<Task> pending = new ArrayBlockingQueue<Task>(this.window + this.workers);
+		final BlockingQueue<Task> done = new ArrayBlockingQueue<Task>(this.window + this.workers);
+		Thread reader = new Thread(new Runnable() {
+			public void run() {
+				try {
+					String query;
+					long seq = 0;
+					for (long line = 0; !QueryPipeline.this.aborted && (query = in.readLine()) != null; line++) {
+						if (journal != null && journal.isCompleted(line))
+							continue;
+						permits.acquire();
+						pending.put(new Task(seq++, line, query));
+					}
+				} catch (InterruptedException e) {
+					return;
+				} catch (Exception e) {
+					QueryPipeline.this.readerError = e;
+				}
+				try {
+					for (int i = 0; i < QueryPipeline.this.workers; i++)
+						pending.put(QueryPipeline.END);
+				} catch (InterruptedException e) {}
+			}
+		}, "query-reader");
+		ThreadFactory factory = VirtualThreads.isEnabled() ? VirtualThreads.newThreadFactory("query-worker") : null;
+		Thread[] workers = new Thread[this.workers];
+		for (int i = 0; i < workers.length; i++) {
+			Runnable worker = new Runnable() {
+				public void run() {
+					try {
+						while (true) {
+							Task task = pending.take();
+							if (task == QueryPipeline.END)
+								break;
+							if (!QueryPipeline.this.aborted) {
+								try {
+									task.response = QueryPipeline.this.request(task.query);
+								} catch (Exception e) {
+									task.error = e;
+								}
+							}
+							done.put(task);
+						}
+						done.put(QueryPipeline.END);
+					} catch (InterruptedException e) {}
+				}
+			};
+			workers[i] = factory != null ? factory.newThread(worker) : new Thread(worker, "query-worker-" + i);
+		}
+		for (Thread worker : workers) {
+			worker.setDaemon(true);
+			worker.start();
+		}
+		reader.setDaemon(true);
+		reader.start();
+		try {
+			Map<Long, Task> buffer = new HashMap<Long, Task>();
+			long next = 0;
+			int running = this.workers;
+			while (running > 0) {
+				Task task = done.take();
+				if (task == QueryPipeline.END) {
+					running--;
+					continue;
+				}
+				if (task.error != null)
+					throw task.error;
+				if (this.order == Order.COMPLETION) {
+					stage.write(task.response, task.line);
+					permits.release();
+				} else {
+					buffer.put(task.seq, task);
+					while ((task = buffer.remove(next)) != null) {
+						stage.write(task.response, task.line);
+						permits.release();
+						next++;
+					}
+				}
+			}
+			if (this.readerError != null)
+				throw this.readerError;
+		} catch (Exception e) {
+			this.aborted = true;
+			reader.interrupt();
+			for (Thread worker : workers)
+				worker.interrupt();
+			throw e;
+		}
+	}
+	private SearchResponse request(String query) throws Exception {
+		if (this.proxy == null)
+			return WebSearchLauncher.request(this.engine, query);
+		else
+			return WebSearchLauncher.request(this.engine, query, this.proxy);
+	}
+}
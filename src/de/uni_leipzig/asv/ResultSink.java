@@ -0,0 +1,35 @@
+package de.uni_leipzig.asv;
+import java.io.IOException;
+import de.uni_leipzig.asv.web.search.SearchResponse;
+/**
+ * Ein Ziel fr die Suchergebnisse der Antworten in einem bestimmten Format.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public interface ResultSink {
+	/**
+	 * Schreibt die Suchergebnisse einer Antwort.
+	 * 
+	 * @param response
+	 *            die Antwort
+	 * @throws IOException
+	 *             falls die Ausgabe nicht geschrieben werden konnte
+	 */
+	public void write(SearchResponse response) throws IOException;
+	/**
+	 * Schreibt alle gepufferten Daten in die Ausgabe, sodass die bis dahin
+	 * geschriebene Ausgabe fr sich vollstndig lesbar ist.
+	 * 
+	 * @throws IOException
+	 *             falls die Ausgabe nicht geschrieben werden konnte
+	 */
+	public void checkpoint() throws IOException;
+	/**
+	 * Schreibt alle gepufferten Daten in die Ausgabe und schliet sie.
+	 * 
+	 * @throws IOException
+	 *             falls die Ausgabe nicht geschrieben werden konnte
+	 */
+	public void close() throws IOException;
+}
@@ -1,15 +1,31 @@
 package de.uni_leipzig.asv;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import de.uni_leipzig.asv.web.HedgePolicy;
+import de.uni_leipzig.asv.web.MultiRequest;
+import de.uni_leipzig.asv.web.RateLimit;
+import de.uni_leipzig.asv.web.VirtualThreads;
+import de.uni_leipzig.asv.web.cache.ResponseCache;
+import de.uni_leipzig.asv.web.metrics.MetricsRegistry;
+import de.uni_leipzig.asv.web.metrics.MetricsReporter;
+import de.uni_leipzig.asv.web.proxy.ProxyValidator;
 import de.uni_leipzig.asv.web.search.EToolsSearchRequest;
 import de.uni_leipzig.asv.web.search.GoogleSearchRequest;
 import de.uni_leipzig.asv.web.search.ProxyManager;
@@ -18,22 +34,181 @@ public final class WebSearchLauncher {
 	public enum WebSearchEngine {
 		GOOGLE, ETOOLS
 	}
+	public enum OutputFormat {
+		CSV, JSONL, BINARY
+	}
+	private static final Log LOG = LogFactory.getLog(WebSearchLauncher.class);
+	// keeps the configured logger from being garbage collected with its level
+	private static Logger logger = null;
+	private static OutputFormat format = OutputFormat.CSV;
+	private static boolean compressed = false;
+	private static String databaseURL = null;
+	private static String databaseUser = null;
+	private static String databasePassword = null;
+	private static String databaseTable = JdbcResultSink.DEFAULT_TABLE;
+	private static int databaseBatchSize = JdbcResultSink.DEFAULT_BATCH_SIZE;
+	private static long databaseInterval = JdbcResultSink.DEFAULT_INTERVAL;
+	private static int databaseConnections = JdbcResultSink.DEFAULT_CONNECTIONS;
+	/**
+	 * Setzt das Format der Ausgabedatei.
+	 * 
+	 * @param format
+	 *            das Format
+	 * @param compressed
+	 *            <code>true</code>, falls die Ausgabe mit GZIP komprimiert
+	 *            werden soll
+	 */
+	public static void setOutputFormat(OutputFormat format, boolean compressed) {
+		if (format == null)
+			throw new IllegalArgumentException("format may not be null");
+		WebSearchLauncher.format = format;
+		WebSearchLauncher.compressed = compressed;
+	}
+	/**
+	 * Schreibt die Suchergebnisse statt in die Ausgabedatei über JDBC in eine
+	 * Datenbank. Die Ausgabedatei bleibt leer und dient nur als Ort des
+	 * Journals.
+	 * 
+	 * @param url
+	 *            die JDBC-Adresse der Datenbank
+	 * @param user
+	 *            der Benutzer oder <code>null</code>
+	 * @param password
+	 *            das Passwort oder <code>null</code>
+	 * @param table
+	 *            der Name der Tabelle
+	 * @param batchSize
+	 *            die Anzahl der Suchergebnisse einer Sammlung
+	 * @param interval
+	 *            die Zeit in Millisekunden, nach der eine Sammlung spätestens
+	 *            geschrieben wird
+	 * @param connections
+	 *            die Anzahl der Verbindungen
+	 */
+	public static void setOutputDatabase(String url, String user, String password, String table, int batchSize, long interval, int connections) {
+		if (url == null)
+			throw new IllegalArgumentException("url may not be null");
+		WebSearchLauncher.databaseURL = url;
+		WebSearchLauncher.databaseUser = user;
+		WebSearchLauncher.databasePassword = password;
+		WebSearchLauncher.databaseTable = table;
+		WebSearchLauncher.databaseBatchSize = batchSize;
+		WebSearchLauncher.databaseInterval = interval;
+		WebSearchLauncher.databaseConnections = connections;
+	}
+	/**
+	 * Setzt die Stufe, ab der die Meldungen aller Klassen unter
+	 * <code>de.uni_leipzig.asv</code> ausgegeben werden. Wirkt sich nur aus,
+	 * wenn Commons Logging das Logging des JDK verwendet, was ohne weitere
+	 * Logging-Bibliothek im Klassenpfad der Fall ist.
+	 * 
+	 * @param level
+	 *            die Stufe <code>debug</code>, <code>info</code>,
+	 *            <code>warn</code> oder <code>off</code>
+	 */
+	public static synchronized void setLogLevel(String level) {
+		Map<String, Level> levels = new HashMap<String, Level>();
+		levels.put("debug", Level.FINE);
+		levels.put("info", Level.INFO);
+		levels.put("warn", Level.WARNING);
+		levels.put("off", Level.OFF);
+		Level l = levels.get(level.toLowerCase());
+		if (l == null)
+			throw new IllegalArgumentException("log level must be \"debug\", \"info\", \"warn\" or \"off\"");
+		WebSearchLauncher.logger = Logger.getLogger("de.uni_leipzig.asv");
+		WebSearchLauncher.logger.setLevel(l);
+		if (l.intValue() < Level.INFO.intValue())
+			for (Handler handler : Logger.getLogger("").getHandlers())
+				handler.setLevel(l);
+	}
 	public static void launch(WebSearchEngine engine, File in, File out, boolean writeQuery, boolean writeLink, boolean writeTitle, boolean writeSnippet, String proxy) throws Exception {
-		BufferedReader reader = null;
-		BufferedWriter writer = null;
+		WebSearchLauncher.launch(engine, in, out, writeQuery, writeLink, writeTitle, writeSnippet, proxy, 1, QueryPipeline.Order.INPUT);
+	}
+	public static void launch(WebSearchEngine engine, File in, File out, boolean writeQuery, boolean writeLink, boolean writeTitle, boolean writeSnippet, String proxy, int workers, QueryPipeline.Order order) throws Exception {
+		WebSearchLauncher.launch(engine, in, out, writeQuery, writeLink, writeTitle, writeSnippet, proxy, workers, order, true);
+	}
+	public static void launch(WebSearchEngine engine, File in, File out, boolean writeQuery, boolean writeLink, boolean writeTitle, boolean writeSnippet, String proxy, int workers, QueryPipeline.Order order, boolean journaled) throws Exception {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(in), "UTF-8"));
+		Journal journal = null;
+		OutputStream stream = null;
+		ResultSink sink = null;
+		boolean finished = false;
 		try {
-			reader = new BufferedReader(new InputStreamReader(new FileInputStream(in), "UTF-8"));
-			writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(out), "UTF-8"));
-			//writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(output, String.format("%05d", i) + "." + "csv")), "UTF-8"));
-			if(proxy == null)
-				WebSearchLauncher.launch(engine, reader, writer, writeQuery, writeLink, writeTitle, writeSnippet);
-			else
-				WebSearchLauncher.launch(engine, reader, writer, writeQuery, writeLink, writeTitle, writeSnippet,proxy);
+			if (journaled) {
+				journal = new Journal(out, WebSearchLauncher.describeRun(engine, in, writeQuery, writeLink, writeTitle, writeSnippet));
+				if (journal.getResumedCount() > 0)
+					WebSearchLauncher.LOG.info("RESUME : " + journal.getResumedCount() + " queries already completed");
+				sink = WebSearchLauncher.openSink(journal.getOutputStream(), writeQuery, writeLink, writeTitle, writeSnippet);
+				journal.setSink(sink);
+			} else {
+				stream = new FileOutputStream(out);
+				sink = WebSearchLauncher.openSink(stream, writeQuery, writeLink, writeTitle, writeSnippet);
+			}
+			new QueryPipeline(engine, proxy, workers, order).run(reader, sink, journal);
+			finished = true;
 		} finally {
-			if (reader != null)
-				reader.close();
-			if (writer != null)
-				writer.close();
+			reader.close();
+			if (journal != null)
+				journal.close(finished);
+			else {
+				try {
+					if (sink != null)
+						sink.close();
+				} finally {
+					if (stream != null)
+						stream.close();
+				}
+			}
+		}
+	}
+	/**
+	 * Beschreibt eine Ausführung für die erste Zeile ihres Journals: die
+	 * Eingabe mit Größe und Zeitpunkt der letzten Änderung, die Suchmaschine,
+	 * das Ausgabeformat oder die Datenbank und die geschriebenen Felder.
+	 * 
+	 * @return die Beschreibung in einer Zeile
+	 */
+	private static String describeRun(WebSearchEngine engine, File in, boolean writeQuery, boolean writeLink, boolean writeTitle, boolean writeSnippet) {
+		StringBuilder header = new StringBuilder();
+		header.append("in=").append(in.getAbsolutePath());
+		header.append(" size=").append(in.length());
+		header.append(" modified=").append(in.lastModified());
+		header.append(" engine=").append(engine);
+		if (WebSearchLauncher.databaseURL != null)
+			header.append(" jdbc=").append(WebSearchLauncher.databaseURL).append(" table=").append(WebSearchLauncher.databaseTable);
+		else
+			header.append(" format=").append(WebSearchLauncher.format).append(" compressed=").append(WebSearchLauncher.compressed);
+		header.append(" query=").append(writeQuery);
+		header.append(" link=").append(writeLink);
+		header.append(" title=").append(writeTitle);
+		header.append(" snippet=").append(writeSnippet);
+		return header.toString().replace('\n', ' ').replace('\r', ' ');
+	}
+	/**
+	 * Erstellt ein Ziel im eingestellten Ausgabeformat über dem übergebenen
+	 * Datenstrom. Ist eine Datenbank eingestellt, wird der Datenstrom nicht
+	 * benutzt.
+	 * 
+	 * @param out
+	 *            der Datenstrom
+	 * @return das Ziel
+	 * @throws IOException
+	 *             falls das Ziel nicht erstellt werden konnte
+	 */
+	public static ResultSink openSink(OutputStream out, boolean writeQuery, boolean writeLink, boolean writeTitle, boolean writeSnippet) throws IOException {
+		if (WebSearchLauncher.databaseURL != null)
+			return new JdbcResultSink(WebSearchLauncher.databaseURL, WebSearchLauncher.databaseUser, WebSearchLauncher.databasePassword, WebSearchLauncher.databaseTable, WebSearchLauncher.databaseBatchSize, WebSearchLauncher.databaseInterval, WebSearchLauncher.databaseConnections);
+		if (WebSearchLauncher.compressed)
+			out = new GzipMemberOutputStream(out);
+		switch (WebSearchLauncher.format) {
+			case CSV :
+				return new CsvWriter(new BufferedWriter(new OutputStreamWriter(out, "UTF-8")), writeQuery, writeLink, writeTitle, writeSnippet);
+			case JSONL :
+				return new JsonLinesWriter(new BufferedWriter(new OutputStreamWriter(out, "UTF-8")), writeQuery, writeLink, writeTitle, writeSnippet);
+			case BINARY :
+				return new BinaryResultWriter(new BufferedOutputStream(out), writeQuery, writeLink, writeTitle, writeSnippet);
+			default :
+				throw new IllegalArgumentException();
 		}
 	}
 	public static void launch(WebSearchEngine engine, BufferedReader in, BufferedWriter out, boolean writeQuery, boolean writeLink, boolean writeTitle, boolean writeSnippet) throws Exception {
@@ -59,7 +234,7 @@ public final class WebSearchLauncher {
 	
 	// local proxy ----------------
 	public static void launch(WebSearchEngine engine, BufferedReader in, BufferedWriter out, boolean writeQuery, boolean writeLink, boolean writeTitle, boolean writeSnippet, String proxy) throws Exception {
-		System.out.println("Local Proxy");
+		WebSearchLauncher.LOG.info("Local Proxy");
 		String query;
 		while ((query = in.readLine()) != null) {
 			WebSearchLauncher.writeSearchResponse(WebSearchLauncher.request(engine, query, proxy), out, writeQuery, writeLink, writeTitle, writeSnippet);
@@ -89,35 +264,38 @@ public final class WebSearchLauncher {
 		return response;
 	}
 	public static void writeSearchResponse(SearchResponse response, BufferedWriter out, boolean writeQuery, boolean writeLink, boolean writeTitle, boolean writeSnippet) throws Exception {
-		List<SearchResponse.Result> results = response.getResults();
-		System.out.println(">>>> WRITE " + results.size() + " RESULTS FOR \"" + response.getRequestedQuery() + "\" TO FILE");
-		for (SearchResponse.Result result : results) {
-			List<String> fields = new ArrayList<String>();
-			if (writeQuery)
-				fields.add("\"" + response.getRequestedQuery() + "\"");
-			if (writeLink)
-				fields.add(result.getLink());
-			if (writeTitle)
-				fields.add("\"" + result.getTitle() + "\"");
-			if (writeSnippet)
-				fields.add("\"" + result.getSnippet() + "\"");
-			WebSearchLauncher.writeCSVLine(fields, out);
-		}
+		if (WebSearchLauncher.LOG.isDebugEnabled())
+			WebSearchLauncher.LOG.debug("WRITE " + response.getResultCount() + " RESULTS FOR \"" + response.getRequestedQuery() + "\" TO FILE");
+		new CsvWriter(out, writeQuery, writeLink, writeTitle, writeSnippet).write(response);
 	}
 	public static void writeCSVLine(List<String> fields, BufferedWriter out) throws Exception {
-		fields = new ArrayList<String>(fields);
-		while (!fields.isEmpty()) {
-			String field = fields.remove(0);
-			out.write(field);
-			if (!fields.isEmpty())
-				out.write(";");
-			else
-				out.newLine();
-		}
+		CsvWriter.writeLine(fields, out);
 	}
 	public static void main(String[] args) {
 		try {
-			System.out.println("size: "+args.length);
+			Map<String, String> options = new HashMap<String, String>();
+			{
+				List<String> positional = new ArrayList<String>();
+				for (String arg : args) {
+					if (arg.startsWith("--")) {
+						int i = arg.indexOf('=');
+						if (i < 0)
+							options.put(arg.substring(2), String.valueOf(true));
+						else
+							options.put(arg.substring(2, i), arg.substring(i + 1));
+					} else
+						positional.add(arg);
+				}
+				args = positional.toArray(new String[positional.size()]);
+			}
+			if (options.containsKey("log"))
+				WebSearchLauncher.setLogLevel(options.get("log"));
+			// before the first request class is loaded, which creates the shared pools
+			if (options.containsKey("virtual-threads") && Boolean.parseBoolean(options.get("virtual-threads"))) {
+				if (!VirtualThreads.setEnabled(true))
+					WebSearchLauncher.LOG.warn("virtual threads require java 21, using platform threads");
+			}
+			WebSearchLauncher.LOG.debug("size: " + args.length);
 			WebSearchEngine engine;
 			File in;
 			File out;
@@ -126,6 +304,9 @@ public final class WebSearchLauncher {
 			boolean writeTitle;
 			boolean writeSnippet;
 			String proxy = null;
+			int workers = 1;
+			QueryPipeline.Order order = QueryPipeline.Order.INPUT;
+			boolean journaled = true;
 			{
 				Map<String, WebSearchEngine> map = new HashMap<String, WebSearchEngine>();
 				map.put("google", WebSearchEngine.GOOGLE);
@@ -158,7 +339,136 @@ public final class WebSearchLauncher {
 			{
 				proxy = args[7];
 			}
-			WebSearchLauncher.launch(engine, in, out, writeQuery, writeLink, writeTitle, writeSnippet,proxy);
+			if (options.containsKey("workers")) {
+				workers = Integer.parseInt(options.get("workers"));
+				if (workers < 1)
+					throw new IllegalArgumentException("number of workers must be positive");
+			}
+			if (options.containsKey("order")) {
+				order = QueryPipeline.Order.valueOf(options.get("order").toUpperCase());
+			}
+			if (options.containsKey("journal")) {
+				journaled = Boolean.parseBoolean(options.get("journal"));
+			}
+			if (options.containsKey("format")) {
+				String format = options.get("format").toUpperCase();
+				boolean compressed = format.endsWith(".GZ");
+				if (compressed)
+					format = format.substring(0, format.length() - 3);
+				WebSearchLauncher.setOutputFormat(OutputFormat.valueOf(format), compressed);
+			}
+			if (options.containsKey("jdbc")) {
+				String table = JdbcResultSink.DEFAULT_TABLE;
+				int batchSize = JdbcResultSink.DEFAULT_BATCH_SIZE;
+				long interval = JdbcResultSink.DEFAULT_INTERVAL;
+				int connections = JdbcResultSink.DEFAULT_CONNECTIONS;
+				if (options.containsKey("jdbc-table"))
+					table = options.get("jdbc-table");
+				if (options.containsKey("jdbc-batch"))
+					batchSize = Integer.parseInt(options.get("jdbc-batch"));
+				if (options.containsKey("jdbc-interval"))
+					interval = Long.parseLong(options.get("jdbc-interval"));
+				if (options.containsKey("jdbc-connections"))
+					connections = Integer.parseInt(options.get("jdbc-connections"));
+				WebSearchLauncher.setOutputDatabase(options.get("jdbc"), options.get("jdbc-user"), options.get("jdbc-password"), table, batchSize, interval, connections);
+			}
+			if (options.containsKey("proxy-rate") || options.containsKey("proxy-burst") || options.containsKey("engine-rate") || options.containsKey("engine-burst")) {
+				RateLimit defaults = engine == WebSearchEngine.GOOGLE ? GoogleSearchRequest.DEFAULT_RATE_LIMIT : EToolsSearchRequest.DEFAULT_RATE_LIMIT;
+				double proxyRate = defaults.getProxyRate();
+				int proxyBurst = defaults.getProxyBurst();
+				double engineRate = defaults.getEngineRate();
+				int engineBurst = defaults.getEngineBurst();
+				if (options.containsKey("proxy-rate"))
+					proxyRate = Double.parseDouble(options.get("proxy-rate"));
+				if (options.containsKey("proxy-burst"))
+					proxyBurst = Integer.parseInt(options.get("proxy-burst"));
+				if (options.containsKey("engine-rate"))
+					engineRate = Double.parseDouble(options.get("engine-rate"));
+				if (options.containsKey("engine-burst"))
+					engineBurst = Integer.parseInt(options.get("engine-burst"));
+				RateLimit rateLimit = new RateLimit(proxyRate, proxyBurst, engineRate, engineBurst);
+				if (engine == WebSearchEngine.GOOGLE)
+					GoogleSearchRequest.setRateLimit(rateLimit);
+				else
+					EToolsSearchRequest.setRateLimit(rateLimit);
+			}
+			if (options.containsKey("engine-concurrency")) {
+				int permits = Integer.parseInt(options.get("engine-concurrency"));
+				if (engine == WebSearchEngine.GOOGLE)
+					GoogleSearchRequest.setConcurrencyLimit(permits);
+				else
+					EToolsSearchRequest.setConcurrencyLimit(permits);
+			}
+			if (options.containsKey("page-parallelism")) {
+				int parallelism = Integer.parseInt(options.get("page-parallelism"));
+				if (engine == WebSearchEngine.GOOGLE)
+					GoogleSearchRequest.setParallelism(parallelism);
+				else
+					EToolsSearchRequest.setParallelism(parallelism);
+			}
+			if (options.containsKey("async")) {
+				ProxyManager.setAsync(Boolean.parseBoolean(options.get("async")));
+			}
+			if (options.containsKey("recent")) {
+				ProxyManager.setRecentLimit(Integer.parseInt(options.get("recent")));
+			}
+			if (options.containsKey("low-watermark")) {
+				ProxyManager.setLowWatermark(Integer.parseInt(options.get("low-watermark")));
+			}
+			if (options.containsKey("check-url")) {
+				int concurrency = ProxyValidator.DEFAULT_CONCURRENCY;
+				int timeout = ProxyValidator.DEFAULT_TIMEOUT;
+				if (options.containsKey("check-concurrency"))
+					concurrency = Integer.parseInt(options.get("check-concurrency"));
+				if (options.containsKey("check-timeout"))
+					timeout = Integer.parseInt(options.get("check-timeout"));
+				ProxyManager.setProxyCheck(options.get("check-url"), concurrency, timeout);
+			}
+			if (options.containsKey("google-url")) {
+				GoogleSearchRequest.setBaseURI(options.get("google-url"));
+			}
+			if (options.containsKey("etools-url")) {
+				EToolsSearchRequest.setBaseURI(options.get("etools-url"));
+			}
+			if (options.containsKey("parser")) {
+				String parser = options.get("parser");
+				if (!parser.equalsIgnoreCase("stream") && !parser.equalsIgnoreCase("dom"))
+					throw new IllegalArgumentException("parser must be \"stream\" or \"dom\"");
+				GoogleSearchRequest.setStreaming(parser.equalsIgnoreCase("stream"));
+				EToolsSearchRequest.setStreaming(parser.equalsIgnoreCase("stream"));
+			}
+			if (options.containsKey("hedge")) {
+				double budget = HedgePolicy.DEFAULT_BUDGET;
+				if (options.containsKey("hedge-budget"))
+					budget = Double.parseDouble(options.get("hedge-budget"));
+				ProxyManager.setHedging(Double.parseDouble(options.get("hedge")), budget);
+			}
+			if (options.containsKey("cache")) {
+				long ttl = ResponseCache.DEFAULT_TTL;
+				long maxSize = ResponseCache.DEFAULT_MAX_SIZE;
+				if (options.containsKey("cache-ttl"))
+					ttl = Long.parseLong(options.get("cache-ttl")) * 60 * 60 * 1000;
+				if (options.containsKey("cache-size"))
+					maxSize = Long.parseLong(options.get("cache-size")) * 1024 * 1024;
+				MultiRequest.setResponseCache(new ResponseCache(new File(options.get("cache")), ttl, maxSize));
+			}
+			MetricsReporter reporter = null;
+			if (options.containsKey("metrics")) {
+				long interval = MetricsReporter.DEFAULT_INTERVAL;
+				if (options.containsKey("metrics-interval"))
+					interval = Long.parseLong(options.get("metrics-interval")) * 1000;
+				reporter = new MetricsReporter(MetricsRegistry.getInstance(), new File(options.get("metrics")), interval);
+				reporter.start();
+			}
+			try {
+				WebSearchLauncher.launch(engine, in, out, writeQuery, writeLink, writeTitle, writeSnippet, proxy, workers, order, journaled);
+			} finally {
+				if (reporter != null)
+					reporter.stop();
+			}
+			if (MultiRequest.getResponseCache() != null)
+				WebSearchLauncher.LOG.info("CACHE : " + MultiRequest.getResponseCache());
+			WebSearchLauncher.LOG.info("DUPLICATES : coalesced=" + ProxyManager.getInstance().getCoalescedCount() + " recent=" + ProxyManager.getInstance().getRecentHitCount());
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
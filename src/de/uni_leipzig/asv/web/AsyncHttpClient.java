@@ -0,0 +1,251 @@
+package de.uni_leipzig.asv.web;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Function;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.cookie.CookieOrigin;
+import org.apache.http.cookie.CookieSpec;
+import org.apache.http.cookie.MalformedCookieException;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.EnglishReasonPhraseCatalog;
+import org.apache.http.impl.cookie.BrowserCompatSpec;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import de.uni_leipzig.asv.web.proxy.Proxy;
+/**
+ * Der gemeinsame nicht blockierende Client fr
+ * {@link MultiRequest#submitAsync()}. Die Anfragen werden vom HttpClient des
+ * JDK ber NIO ausgefhrt, sodass viele Anfragen ber verschiedene Proxies
+ * gleichzeitig laufen knnen, ohne dass jede einen Thread belegt. Anfragen
+ * und Antworten werden in die Darstellung von HttpClient umgewandelt, damit
+ * die bestehenden Antwortbehandler unverndert verwendet werden knnen; die
+ * Antwort wird dabei vollstndig gepuffert.
+ * <p>
+ * Da der HttpClient des JDK seine Proxy beim Erstellen festlegt, wird je
+ * Proxy ein Client mit eigenem Selektor erstellt. Vorgehalten werden
+ * hchstens {@link #DEFAULT_CLIENT_LIMIT} Clients; der am lngsten nicht
+ * verwendete Client und die Clients von Proxies, die aus einem Pool entfernt
+ * wurden, werden verworfen. Ein verworfener Client beendet seinen Selektor,
+ * sobald seine laufenden Anfragen abgeschlossen sind und er nicht mehr
+ * erreichbar ist. Alle Clients teilen sich einen kleinen Pool von Threads,
+ * auf dem auch die Antworten geparst werden. SOCKS-Proxies werden nicht
+ * untersttzt.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class AsyncHttpClient {
+	/**
+	 * Standartmige Anzahl der Threads ist die Anzahl der Prozessoren.
+	 */
+	public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+	/**
+	 * Hchste Anzahl der vorgehaltenen Clients fr Proxies ist
+	 * <code>64</code>.
+	 */
+	public static final int DEFAULT_CLIENT_LIMIT = 64;
+	// headers that are set by the JDK client itself and may not be copied
+	private static final String[] RESTRICTED_HEADERS = {"Connection", "Content-Length", "Expect", "Host", "Upgrade"};
+	private static int threads = AsyncHttpClient.DEFAULT_THREADS;
+	private static ScheduledExecutorService executor = null;
+	private static HttpClient direct = null;
+	// each client owns a selector thread, so only the recently used ones are kept
+	private static final Map<Proxy, HttpClient> clients = new LinkedHashMap<Proxy, HttpClient>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		protected boolean removeEldestEntry(Map.Entry<Proxy, HttpClient> eldest) {
+			return this.size() > AsyncHttpClient.DEFAULT_CLIENT_LIMIT;
+		}
+	};
+	private AsyncHttpClient() {}
+	/**
+	 * Setzt die Anzahl der Threads. Die Anzahl wird erst bei der nchsten
+	 * Erstellung der Clients bernommen.
+	 * 
+	 * @param threads
+	 *            die Anzahl der Threads
+	 */
+	public static synchronized void configure(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException();
+		AsyncHttpClient.threads = threads;
+	}
+	/**
+	 * Gibt den gemeinsamen Pool der Threads zurck und erstellt ihn bei Bedarf.
+	 * Auf ihm werden die Antworten behandelt und verzgerte Versuche geplant.
+	 * 
+	 * @return der Pool der Threads
+	 */
+	static synchronized ScheduledExecutorService getExecutor() {
+		if (AsyncHttpClient.executor == null) {
+			ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(AsyncHttpClient.threads, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "async-request");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			executor.setRemoveOnCancelPolicy(true);
+			AsyncHttpClient.executor = executor;
+		}
+		return AsyncHttpClient.executor;
+	}
+	private static HttpClient getClient(Proxy proxy) {
+		if (proxy == null) {
+			synchronized (AsyncHttpClient.class) {
+				if (AsyncHttpClient.direct == null)
+					AsyncHttpClient.direct = AsyncHttpClient.createClient(null);
+				return AsyncHttpClient.direct;
+			}
+		}
+		synchronized (AsyncHttpClient.clients) {
+			HttpClient client = AsyncHttpClient.clients.get(proxy);
+			if (client == null) {
+				client = AsyncHttpClient.createClient(proxy);
+				AsyncHttpClient.clients.put(proxy, client);
+			}
+			return client;
+		}
+	}
+	/**
+	 * Verwirft den Client einer Proxy, etwa weil sie aus dem Pool entfernt
+	 * wurde. Laufende Anfragen ber die Proxy werden nicht abgebrochen.
+	 * 
+	 * @param proxy
+	 *            die Proxy
+	 */
+	static void remove(Proxy proxy) {
+		synchronized (AsyncHttpClient.clients) {
+			AsyncHttpClient.clients.remove(proxy);
+		}
+	}
+	private static HttpClient createClient(Proxy proxy) {
+		HttpClient.Builder builder = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).followRedirects(HttpClient.Redirect.NORMAL).connectTimeout(Duration.ofMillis(SharedHttpClient.DEFAULT_CONNECTION_TIMEOUT)).executor(AsyncHttpClient.getExecutor());
+		if (proxy != null)
+			builder.proxy(ProxySelector.of(new InetSocketAddress(proxy.getHost(), proxy.getPort())));
+		return builder.build();
+	}
+	/**
+	 * Fhrt eine Anfrage aus, ohne den aufrufenden Thread zu blockieren.
+	 * 
+	 * @param request
+	 *            die Anfrage
+	 * @param proxy
+	 *            die Proxy oder <code>null</code> fr eine direkte Anfrage
+	 * @param cookieStore
+	 *            die Cookies der Anfrage oder <code>null</code>
+	 * @param timeToFirstByte
+	 *            nimmt die Dauer bis zum Empfang der Antwortkpfe in
+	 *            Millisekunden auf
+	 * @return die vollstndig empfangene Antwort
+	 */
+	static CompletableFuture<HttpResponse> execute(HttpRequestBase request, Proxy proxy, final CookieStore cookieStore, final long[] timeToFirstByte) {
+		if (proxy != null && proxy.getType() == Proxy.Type.SOCKS) {
+			CompletableFuture<HttpResponse> future = new CompletableFuture<HttpResponse>();
+			future.completeExceptionally(new IOException("socks proxies are not supported by the async client"));
+			return future;
+		}
+		final URI uri = request.getURI();
+		final CookieOrigin origin = new CookieOrigin(uri.getHost(), uri.getPort() >= 0 ? uri.getPort() : "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80, uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath(), "https".equalsIgnoreCase(uri.getScheme()));
+		final CookieSpec cookieSpec = new BrowserCompatSpec();
+		HttpRequest.Builder builder = HttpRequest.newBuilder(uri).timeout(Duration.ofMillis(SharedHttpClient.DEFAULT_SO_TIMEOUT));
+		for (Header header : request.getAllHeaders())
+			if (!AsyncHttpClient.isRestricted(header.getName()))
+				builder.header(header.getName(), header.getValue());
+		if (cookieStore != null) {
+			List<Cookie> cookies = new ArrayList<Cookie>();
+			for (Cookie cookie : cookieStore.getCookies())
+				if (cookieSpec.match(cookie, origin))
+					cookies.add(cookie);
+			if (!cookies.isEmpty())
+				for (Header header : cookieSpec.formatCookies(cookies))
+					builder.header(header.getName(), header.getValue());
+		}
+		try {
+			HttpEntity entity = request instanceof HttpEntityEnclosingRequest ? ((HttpEntityEnclosingRequest) request).getEntity() : null;
+			builder.method(request.getMethod(), entity == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofByteArray(EntityUtils.toByteArray(entity)));
+		} catch (IOException e) {
+			CompletableFuture<HttpResponse> future = new CompletableFuture<HttpResponse>();
+			future.completeExceptionally(e);
+			return future;
+		}
+		final long start = System.currentTimeMillis();
+		return AsyncHttpClient.getClient(proxy).sendAsync(builder.build(), new java.net.http.HttpResponse.BodyHandler<byte[]>() {
+			public java.net.http.HttpResponse.BodySubscriber<byte[]> apply(java.net.http.HttpResponse.ResponseInfo info) {
+				timeToFirstByte[0] = System.currentTimeMillis() - start;
+				return java.net.http.HttpResponse.BodySubscribers.ofByteArray();
+			}
+		}).thenApply(new Function<java.net.http.HttpResponse<byte[]>, HttpResponse>() {
+			public HttpResponse apply(java.net.http.HttpResponse<byte[]> r) {
+				int status = r.statusCode();
+				HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, status, EnglishReasonPhraseCatalog.INSTANCE.getReason(status, null));
+				String contentType = null;
+				for (Map.Entry<String, List<String>> header : r.headers().map().entrySet()) {
+					if (header.getKey().startsWith(":"))
+						continue;
+					for (String value : header.getValue()) {
+						response.addHeader(header.getKey(), value);
+						if (header.getKey().equalsIgnoreCase("Content-Type"))
+							contentType = value;
+						else if (cookieStore != null && header.getKey().equalsIgnoreCase("Set-Cookie"))
+							AsyncHttpClient.storeCookies(cookieSpec, origin, cookieStore, value);
+					}
+				}
+				ByteArrayEntity entity = new ByteArrayEntity(r.body());
+				entity.setContentType(contentType);
+				response.setEntity(entity);
+				return response;
+			}
+		});
+	}
+	private static boolean isRestricted(String name) {
+		for (String restricted : AsyncHttpClient.RESTRICTED_HEADERS)
+			if (restricted.equalsIgnoreCase(name))
+				return true;
+		return false;
+	}
+	private static void storeCookies(CookieSpec cookieSpec, CookieOrigin origin, CookieStore cookieStore, String value) {
+		try {
+			for (Cookie cookie : cookieSpec.parse(new BasicHeader("Set-Cookie", value), origin)) {
+				try {
+					cookieSpec.validate(cookie, origin);
+					cookieStore.addCookie(cookie);
+				} catch (MalformedCookieException e) {}
+			}
+		} catch (MalformedCookieException e) {}
+	}
+	/**
+	 * Beendet den Pool der Threads und verwirft alle Clients. Ein spterer
+	 * Aufruf erstellt neue Clients.
+	 */
+	public static synchronized void shutdown() {
+		synchronized (AsyncHttpClient.clients) {
+			AsyncHttpClient.clients.clear();
+		}
+		AsyncHttpClient.direct = null;
+		if (AsyncHttpClient.executor != null) {
+			AsyncHttpClient.executor.shutdownNow();
+			AsyncHttpClient.executor = null;
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package de.uni_leipzig.asv.web;
+import java.util.Arrays;
+/**
+ * Die Richtlinie fr abgesicherte Anfragen. Liegt nach einem Perzentil der
+ * zuletzt gemessenen Latenzen noch keine Antwort vor, wird dieselbe Anfrage
+ * zustzlich ber eine zweite Proxy gesendet. Damit die Last nicht
+ * verdoppelt wird, erhlt jede Anfrage nur einen Bruchteil einer zustzlichen
+ * Anfrage als Guthaben, jede zustzliche Anfrage verbraucht ein ganzes.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class HedgePolicy {
+	/**
+	 * Standartmiges Perzentil ist <code>0.95</code>.
+	 */
+	public static final double DEFAULT_PERCENTILE = 0.95;
+	/**
+	 * Standartmiger Anteil zustzlicher Anfragen ist <code>0.1</code>.
+	 */
+	public static final double DEFAULT_BUDGET = 0.1;
+	/**
+	 * Anzahl der zuletzt gemessenen Latenzen, aus denen das Perzentil
+	 * bestimmt wird.
+	 */
+	public static final int SAMPLE_SIZE = 256;
+	/**
+	 * Mindestanzahl der Messungen, bevor zustzliche Anfragen gesendet werden.
+	 */
+	public static final int MIN_SAMPLES = 20;
+	/**
+	 * Hchstes angespartes Guthaben in zustzlichen Anfragen.
+	 */
+	public static final double MAX_CREDIT = 10;
+	private final double percentile;
+	private final double budget;
+	private final long[] samples = new long[HedgePolicy.SAMPLE_SIZE];
+	private final long[] sorted = new long[HedgePolicy.SAMPLE_SIZE];
+	private int sampleCount = 0;
+	private int next = 0;
+	private long delay = -1;
+	private boolean dirty = false;
+	private double credit = 0;
+	private long requests = 0;
+	private long hedges = 0;
+	/**
+	 * Erstellt eine Richtlinie mit dem bergebenen Perzentil und Anteil.
+	 * 
+	 * @param percentile
+	 *            das Perzentil der Latenz zwischen <code>0</code> und
+	 *            <code>1</code>, nach dem eine zustzliche Anfrage gesendet
+	 *            wird
+	 * @param budget
+	 *            der hchste Anteil zustzlicher Anfragen zwischen
+	 *            <code>0</code> und <code>1</code>
+	 */
+	public HedgePolicy(double percentile, double budget) {
+		if (percentile <= 0 || percentile >= 1)
+			throw new IllegalArgumentException("percentile must be between 0 and 1");
+		if (budget <= 0 || budget > 1)
+			throw new IllegalArgumentException("budget must be between 0 and 1");
+		this.percentile = percentile;
+		this.budget = budget;
+	}
+	/**
+	 * Erfasst die Latenz einer erfolgreichen Anfrage.
+	 * 
+	 * @param latency
+	 *            die Latenz in Millisekunden
+	 */
+	public synchronized void onLatency(long latency) {
+		this.samples[this.next] = latency;
+		this.next = (this.next + 1) % HedgePolicy.SAMPLE_SIZE;
+		if (this.sampleCount < HedgePolicy.SAMPLE_SIZE)
+			this.sampleCount++;
+		this.dirty = true;
+	}
+	/**
+	 * Meldet eine neue Anfrage an und gibt die Wartezeit zurck, nach der
+	 * eine zustzliche Anfrage gesendet werden soll.
+	 * 
+	 * @return die Wartezeit in Millisekunden oder <code>-1</code>, falls noch
+	 *         zu wenige Latenzen gemessen wurden
+	 */
+	synchronized long onRequest() {
+		this.requests++;
+		this.credit = Math.min(this.credit + this.budget, HedgePolicy.MAX_CREDIT);
+		if (this.sampleCount < HedgePolicy.MIN_SAMPLES)
+			return -1;
+		if (this.dirty) {
+			System.arraycopy(this.samples, 0, this.sorted, 0, this.sampleCount);
+			Arrays.sort(this.sorted, 0, this.sampleCount);
+			this.delay = this.sorted[Math.min((int) (this.percentile * this.sampleCount), this.sampleCount - 1)];
+			this.dirty = false;
+		}
+		return this.delay;
+	}
+	/**
+	 * Verbraucht das Guthaben einer zustzlichen Anfrage.
+	 * 
+	 * @return <code>true</code>, falls das Guthaben ausreicht
+	 */
+	synchronized boolean tryHedge() {
+		if (this.credit < 1)
+			return false;
+		this.credit -= 1;
+		this.hedges++;
+		return true;
+	}
+	/**
+	 * Gibt die Anzahl der angemeldeten Anfragen zurck.
+	 * 
+	 * @return die Anzahl der Anfragen
+	 */
+	public synchronized long getRequestCount() {
+		return this.requests;
+	}
+	/**
+	 * Gibt die Anzahl der gesendeten zustzlichen Anfragen zurck.
+	 * 
+	 * @return die Anzahl der zustzlichen Anfragen
+	 */
+	public synchronized long getHedgeCount() {
+		return this.hedges;
+	}
+	@Override
+	public synchronized String toString() {
+		return String.format("hedges=%d/%d delay=%dms", this.hedges, this.requests, this.delay);
+	}
+}
@@ -1,19 +1,48 @@
 package de.uni_leipzig.asv.web;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.client.CookieStore;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpRequestBase;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.params.HttpConnectionParams;
-import org.apache.http.params.HttpParams;
+import org.apache.http.client.protocol.ClientContext;
+import org.apache.http.entity.BufferedHttpEntity;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import de.uni_leipzig.asv.web.cache.ResponseCache;
+import de.uni_leipzig.asv.web.metrics.Counter;
+import de.uni_leipzig.asv.web.metrics.Histogram;
+import de.uni_leipzig.asv.web.metrics.MetricsRegistry;
 /**
  * Eine gekapselte Menge von aufeinanderfolgenden Anfragen.
  * 
+ * Die Anzahl der behandelten Seiten und die Dauer ihres Parsens werden je
+ * Unterklasse in der {@link MetricsRegistry} erfasst.
+ * 
  * @author Sergej Sintschilin
  * @author Quan Nguyen
  * 
@@ -21,11 +50,45 @@ import org.apache.http.params.HttpParams;
  *            ein der durch die Antwort der Anfrage bestimmter Rckgabewert
  */
 public abstract class MultiRequest<R> {
+	private static final ExecutorService PAGE_EXECUTOR = VirtualThreads.newExecutor("page-request");
 	/**
 	 * Standardmiger Konstruktor ohne ProxySwitcher. Alle Anfragen werden
-	 * direkt an den HttpClient weitergeleitet.
+	 * direkt an den gemeinsamen HttpClient weitergeleitet.
+	 * 
+	 * @see SharedHttpClient
+	 */
+	public MultiRequest() {
+		String name = this.getClass().getSimpleName();
+		if (name.isEmpty())
+			name = this.getClass().getName();
+		this.parseTime = MetricsRegistry.getInstance().histogram("parse.time.us", "request", name);
+		this.pages = MetricsRegistry.getInstance().counter("pages", "request", name);
+	}
+	private final Histogram parseTime;
+	private final Counter pages;
+	private static volatile ResponseCache cache = null;
+	// asynchronous requests waiting for a permit of a concurrency limit, weak so replaced limits are dropped
+	private static final Map<Semaphore, Queue<CompletableFuture<Void>>> waiting = Collections.synchronizedMap(new WeakHashMap<Semaphore, Queue<CompletableFuture<Void>>>());
+	/**
+	 * Setzt den Cache, in dem die Antworten aller Anfragen abgelegt werden,
+	 * fr die {@link #getCacheKey(HttpRequestBase)} einen Schlssel liefert.
+	 * Bei einem Treffer wird die Anfrage nicht versendet und keine Proxy
+	 * ausgeliehen.
+	 * 
+	 * @param cache
+	 *            der Cache oder <code>null</code>
 	 */
-	public MultiRequest() {}
+	public static void setResponseCache(ResponseCache cache) {
+		MultiRequest.cache = cache;
+	}
+	/**
+	 * Gibt den Cache der Antworten zurck.
+	 * 
+	 * @return der Cache oder <code>null</code>
+	 */
+	public static ResponseCache getResponseCache() {
+		return MultiRequest.cache;
+	}
 	private ProxySwitcher<R> ps = null;
 	/**
 	 * Setzt einen ProxySwitcher fest, durch den alle Anfragen an den HttpClient
@@ -53,6 +116,30 @@ public abstract class MultiRequest<R> {
 		context.complete();
 		return context.getResponse();
 	}
+	/**
+	 * Sendet die gekapselte Menge von Anfragen wie {@link #submit()}, ohne
+	 * den aufrufenden Thread zu blockieren. Die Anfragen werden ber den
+	 * {@link AsyncHttpClient} gesendet, sodass viele Anfragen ber
+	 * verschiedene Proxies gleichzeitig laufen knnen, whrend nur wenige
+	 * Threads die Antworten behandeln.
+	 * 
+	 * @return die geparsten Ergebnisse, sobald alle Anfragen behandelt wurden
+	 */
+	public final CompletableFuture<R> submitAsync() {
+		final ContextImpl<R> context = new ContextImpl<R>(this);
+		CompletableFuture<?> started;
+		try {
+			started = this.startAsync(context);
+		} catch (IOException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		return started.thenApply(new Function<Object, R>() {
+			public R apply(Object ignored) {
+				context.complete();
+				return context.getResponse();
+			}
+		});
+	}
 	/**
 	 * Startet das Versenden der Anfragen.
 	 * 
@@ -63,6 +150,29 @@ public abstract class MultiRequest<R> {
 	 *             Fehler beim Parsen der Suchergebnisse auftrat
 	 */
 	protected abstract void start(Context context) throws IOException;
+	/**
+	 * Startet das Versenden der Anfragen, ohne zu blockieren. Unterklassen
+	 * sollten die Methode mit {@link Context#submitAsync(PageFactory)}
+	 * berschreiben. Standartmig wird {@link #start(Context)} auf einem
+	 * eigenen Thread ausgefhrt, der dabei blockiert wird.
+	 * 
+	 * @param context
+	 *            die Kontrolleinheit zwischen den Anfragen
+	 * @return wird abgeschlossen, sobald alle Anfragen behandelt wurden
+	 * @throws IOException
+	 *             falls die erste Anfrage nicht erstellt werden konnte
+	 */
+	protected CompletableFuture<?> startAsync(final Context context) throws IOException {
+		return CompletableFuture.runAsync(new Runnable() {
+			public void run() {
+				try {
+					MultiRequest.this.start(context);
+				} catch (IOException e) {
+					throw new CompletionException(e);
+				}
+			}
+		}, MultiRequest.PAGE_EXECUTOR);
+	}
 	/**
 	 * Die Kontrolleinheit zwischen den Anfragen.
 	 * 
@@ -80,6 +190,55 @@ public abstract class MultiRequest<R> {
 		 *             Fehler beim Parsen der Suchergebnisse auftrat
 		 */
 		public void submit(HttpRequestBase request) throws IOException;
+		/**
+		 * Sendet die Anfragen mehrerer Seiten nebenlufig an den HttpClient.
+		 * Jede Seite wird mit einer eigenen Kontrolleinheit, die eine Kopie
+		 * der aktuellen Parameter erhlt, und ohne vorher geparstes Ergebnis
+		 * behandelt. Die Ergebnisse der Seiten werden in der Reihenfolge der
+		 * Seiten mit dem bergebenen {@link PageMerger} zusammengefhrt. Setzt
+		 * die Behandlung einer Seite ihre Arbeit als abgeschlossen, werden
+		 * keine spteren Seiten mehr angefordert und laufende Anfragen
+		 * spterer Seiten abgebrochen. Dasselbe gilt, sobald die Arbeit beim
+		 * Zusammenfhren als abgeschlossen gesetzt wird. Der Fehler einer Seite
+		 * wird erst geworfen, wenn alle vorherigen Seiten zusammengefhrt
+		 * wurden, sodass Fehler von Seiten hinter der letzten Seite ohne
+		 * Wirkung bleiben.
+		 * 
+		 * @param pages
+		 *            die Erzeugung der Anfragen der einzelnen Seiten
+		 * @param merger
+		 *            das Zusammenfhren der Ergebnisse, dessen Typ dem Ergebnis
+		 *            der Anfrage entsprechen muss
+		 * @param parallelism
+		 *            die maximale Anzahl gleichzeitiger Anfragen
+		 * @throws IOException
+		 *             falls eine Anfrage nicht versendet werden konnte oder ein
+		 *             Fehler beim Parsen der Suchergebnisse auftrat
+		 */
+		public <T> void submitPages(PageFactory pages, PageMerger<T> merger, int parallelism) throws IOException;
+		/**
+		 * Sendet die vorbereitete Anfrage an den {@link AsyncHttpClient}, ohne
+		 * zu blockieren. Die Anfrage darf bis zum Abschluss nicht verndert
+		 * werden.
+		 * 
+		 * @param request
+		 *            vorbereitete Anfrage
+		 * @return wird abgeschlossen, sobald die Antwort behandelt wurde
+		 */
+		public CompletableFuture<Void> submitAsync(HttpRequestBase request);
+		/**
+		 * Sendet die Anfragen mehrerer Seiten nacheinander an den
+		 * {@link AsyncHttpClient}, ohne zu blockieren. Die Anfrage einer Seite
+		 * wird erst erstellt, nachdem die vorherige Seite behandelt wurde,
+		 * sodass sie von den dabei gesetzten Parametern abhngen darf. Es
+		 * werden keine weiteren Seiten angefordert, sobald die Arbeit als
+		 * abgeschlossen gesetzt wird.
+		 * 
+		 * @param pages
+		 *            die Erzeugung der Anfragen der einzelnen Seiten
+		 * @return wird abgeschlossen, sobald die letzte Seite behandelt wurde
+		 */
+		public CompletableFuture<Void> submitAsync(PageFactory pages);
 		/**
 		 * Setzt die Arbeit als abgeschlossen.
 		 */
@@ -184,43 +343,319 @@ public abstract class MultiRequest<R> {
 		 *            der Name des Parameters
 		 */
 		public void removeParam(String key);
+		/**
+		 * Gibt den Wert eines Parameters zurck.
+		 * 
+		 * @param key
+		 *            der Schlssel des Parameters
+		 * @return der Wert des Parameters oder <code>null</code>, falls der
+		 *         Parameter nicht existiert
+		 */
+		public <T> T getParam(ContextKey<T> key);
+		/**
+		 * Gibt den Wert eines Parameters zurck. Falls der Parameter nicht
+		 * existiert, wird der standardmige Wert zurckgegeben.
+		 * 
+		 * @param key
+		 *            der Schlssel des Parameters
+		 * @param defaultValue
+		 *            standartmiger Rckgabewert
+		 * @return der Wert des Parameters
+		 */
+		public <T> T getParam(ContextKey<T> key, T defaultValue);
+		/**
+		 * Setzt den Wert eines Parameters.
+		 * 
+		 * @param key
+		 *            der Schlssel des Parameters
+		 * @param value
+		 *            der Wert des Parameters
+		 */
+		public <T> void setParam(ContextKey<T> key, T value);
+		/**
+		 * Lscht einen Parameter.
+		 * 
+		 * @param key
+		 *            der Schlssel des Parameters
+		 */
+		public void removeParam(ContextKey<?> key);
+	}
+	/**
+	 * Der typisierte Schlssel eines Parameters der Kontrolleinheit. Jeder
+	 * Schlssel erhlt beim Erstellen einen festen Platz, sodass ein Parameter
+	 * ohne Suche in einer Tabelle und ohne Ausnahmen gelesen wird. Schlssel
+	 * sollten daher nur einmal als Konstanten erstellt werden. Parameter mit
+	 * Schlsseln sind von den Parametern mit Namen getrennt.
+	 * 
+	 * @author Sergej Sintschilin
+	 * @author Quan Nguyen
+	 */
+	protected static final class ContextKey<T> {
+		private static final AtomicInteger COUNT = new AtomicInteger();
+		private final String name;
+		private final int index;
+		/**
+		 * Erstellt einen Schlssel.
+		 * 
+		 * @param name
+		 *            der Name des Parameters, nur fr die Ausgabe
+		 */
+		public ContextKey(String name) {
+			if (name == null)
+				throw new IllegalArgumentException();
+			this.name = name;
+			this.index = ContextKey.COUNT.getAndIncrement();
+		}
+		@Override
+		public String toString() {
+			return this.name;
+		}
+	}
+	/**
+	 * Das Zusammenfhren der Ergebnisse nebenlufig angeforderter Seiten fr
+	 * {@link Context#submitPages}.
+	 * 
+	 * @author Sergej Sintschilin
+	 * @author Quan Nguyen
+	 */
+	protected static interface PageMerger<R> {
+		/**
+		 * Fhrt das geparste Ergebnis einer Seite mit dem bisherigen Ergebnis
+		 * zusammen. Die Methode wird in der Reihenfolge der Seiten aufgerufen.
+		 * 
+		 * @param value
+		 *            das bisher zusammengefhrte Ergebnis
+		 * @param page
+		 *            das geparste Ergebnis der nchsten Seite
+		 * @param context
+		 *            die Kontrolleinheit zwischen den Anfragen
+		 * @return das zusammengefhrte Ergebnis
+		 * @throws IOException
+		 *             falls die Ergebnisse nicht zusammengefhrt werden konnten
+		 */
+		public R merge(R value, R page, Context context) throws IOException;
+	}
+	/**
+	 * Die Erzeugung der Anfragen einzelner Seiten, deren Adressen im Voraus
+	 * bekannt sind.
+	 * 
+	 * @author Sergej Sintschilin
+	 * @author Quan Nguyen
+	 */
+	protected static interface PageFactory {
+		/**
+		 * Erstellt die Anfrage einer Seite.
+		 * 
+		 * @param index
+		 *            der Index der Seite, beginnend bei <code>0</code>
+		 * @return die Anfrage oder <code>null</code>, falls es keine Seite mit
+		 *         diesem Index gibt
+		 * @throws IOException
+		 *             falls die Anfrage nicht erstellt werden konnte
+		 */
+		public HttpRequestBase createRequest(int index) throws IOException;
 	}
 	private static final class ContextImpl<R> implements Context, ResponseHandler<R> {
 		private MultiRequest<R> root;
 		private HttpClient client;
+		private HttpContext httpContext;
+		private boolean completed = false;
 		private R response = null;
 		public ContextImpl(MultiRequest<R> root) {
 			this.root = root;
-			final HttpParams httpParams = new BasicHttpParams();
-			HttpConnectionParams.setConnectionTimeout(httpParams, 5 * 1000);
-			HttpConnectionParams.setSoTimeout(httpParams, 10 * 1000);
-			this.client = new DefaultHttpClient(httpParams);
+			this.client = SharedHttpClient.getInstance();
+			this.httpContext = new BasicHttpContext();
+			this.httpContext.setAttribute(ClientContext.COOKIE_STORE, new BasicCookieStore());
+		}
+		private ContextImpl(ContextImpl<R> parent) {
+			this.root = parent.root;
+			this.client = parent.client;
+			this.httpContext = new BasicHttpContext();
+			this.httpContext.setAttribute(ClientContext.COOKIE_STORE, parent.httpContext.getAttribute(ClientContext.COOKIE_STORE));
+			if (parent.params != null)
+				this.params = new HashMap<String, Object>(parent.params);
+			this.slots = parent.slots.clone();
 		}
 		public void submit(HttpRequestBase request) throws IOException {
-			if (this.client != null)
-				this.response = this.root.request(this.client, this, request);
+			if (!this.completed)
+				this.response = this.root.request(this.client, this.httpContext, this, request);
 		}
-		public void complete() {
-			if (this.client != null) {
-				this.client.getConnectionManager().shutdown();
-				this.client = null;
+		public CompletableFuture<Void> submitAsync(HttpRequestBase request) {
+			if (this.completed)
+				return CompletableFuture.completedFuture(null);
+			return this.root.requestAsync((CookieStore) this.httpContext.getAttribute(ClientContext.COOKIE_STORE), this, request).thenApply(new Function<R, Void>() {
+				public Void apply(R value) {
+					ContextImpl.this.response = value;
+					return null;
+				}
+			});
+		}
+		public CompletableFuture<Void> submitAsync(PageFactory pages) {
+			CompletableFuture<Void> done = new CompletableFuture<Void>();
+			this.submitAsync(pages, 0, done);
+			return done;
+		}
+		private void submitAsync(final PageFactory pages, final int index, final CompletableFuture<Void> done) {
+			HttpRequestBase request;
+			try {
+				request = this.completed ? null : pages.createRequest(index);
+			} catch (IOException e) {
+				done.completeExceptionally(e);
+				return;
+			}
+			if (request == null) {
+				done.complete(null);
+				return;
+			}
+			this.submitAsync(request).whenComplete(new BiConsumer<Void, Throwable>() {
+				public void accept(Void ignored, Throwable error) {
+					if (error != null)
+						done.completeExceptionally(error);
+					else
+						ContextImpl.this.submitAsync(pages, index + 1, done);
+				}
+			});
+		}
+		private static final class Page<R> {
+			private final int index;
+			private final HttpRequestBase request;
+			private final ContextImpl<R> context;
+			private Future<Page<R>> future = null;
+			private IOException error = null;
+			private Page(int index, HttpRequestBase request, ContextImpl<R> context) {
+				this.index = index;
+				this.request = request;
+				this.context = context;
+			}
+			private void cancel() {
+				this.request.abort();
+				this.future.cancel(true);
+			}
+		}
+		@SuppressWarnings("unchecked")
+		public <T> void submitPages(PageFactory pages, PageMerger<T> pageMerger, int parallelism) throws IOException {
+			if (pageMerger == null)
+				throw new IllegalArgumentException("merger may not be null");
+			if (parallelism < 1)
+				throw new IllegalArgumentException("parallelism must be positive");
+			// the merger is written by the same request and therefore works on its result type
+			PageMerger<R> merger = (PageMerger<R>) pageMerger;
+			CompletionService<Page<R>> service = new ExecutorCompletionService<Page<R>>(MultiRequest.PAGE_EXECUTOR);
+			Map<Integer, Page<R>> running = new HashMap<Integer, Page<R>>();
+			Map<Integer, Page<R>> finished = new HashMap<Integer, Page<R>>();
+			int next = 0;
+			int merged = 0;
+			int last = Integer.MAX_VALUE;
+			try {
+				while (!this.completed && merged <= last) {
+					while (running.size() < parallelism && next <= last) {
+						HttpRequestBase request = pages.createRequest(next);
+						if (request == null) {
+							last = next - 1;
+							break;
+						}
+						final Page<R> page = new Page<R>(next, request, new ContextImpl<R>(this));
+						page.future = service.submit(new Callable<Page<R>>() {
+							public Page<R> call() {
+								try {
+									page.context.submit(page.request);
+								} catch (IOException e) {
+									page.error = e;
+								} catch (RuntimeException e) {
+									page.error = new IOException(e);
+								}
+								return page;
+							}
+						});
+						running.put(page.index, page);
+						next++;
+					}
+					if (running.isEmpty())
+						break;
+					Page<R> page;
+					try {
+						page = service.take().get();
+					} catch (CancellationException e) {
+						continue;
+					} catch (ExecutionException e) {
+						throw new IOException(e.getCause());
+					}
+					running.remove(page.index);
+					if (page.index > last)
+						continue;
+					if (page.error == null && page.context.completed && page.index < last) {
+						last = page.index;
+						for (Page<R> other : running.values())
+							if (other.index > last)
+								other.cancel();
+					}
+					finished.put(page.index, page);
+					while (!this.completed && merged <= last && (page = finished.remove(merged)) != null) {
+						if (page.error != null)
+							throw page.error;
+						if (page.context.response != null) {
+							if (this.response == null)
+								this.response = page.context.response;
+							else
+								this.response = merger.merge(this.response, page.context.response, this);
+						}
+						merged++;
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			} finally {
+				for (Page<R> page : running.values())
+					page.cancel();
 			}
 		}
+		public void complete() {
+			this.completed = true;
+		}
 		public boolean isCompleted() {
-			return this.client == null;
+			return this.completed;
 		}
 		public R getResponse() {
 			return this.response;
 		}
 		public R handleResponse(HttpResponse response) throws IOException {
-			return this.root.handleResponse(response, this.response, this);
+			long start = System.nanoTime();
+			try {
+				R value = this.root.handleResponse(response, this.response, this);
+				this.root.pages.increment();
+				return value;
+			} finally {
+				this.root.parseTime.record((System.nanoTime() - start) / 1000);
+			}
 		}
-		private Map<String, Object> params = new HashMap<String, Object>();
-		private Object getParamAsObject(String key) {
-			Object value = this.params.get(key);
+		private static final Object[] NO_SLOTS = new Object[0];
+		private Object[] slots = ContextImpl.NO_SLOTS;
+		private Map<String, Object> params = null;
+		@SuppressWarnings("unchecked")
+		public <T> T getParam(ContextKey<T> key) {
+			return key.index < this.slots.length ? (T) this.slots[key.index] : null;
+		}
+		public <T> T getParam(ContextKey<T> key, T defaultValue) {
+			T value = this.getParam(key);
+			return value != null ? value : defaultValue;
+		}
+		public <T> void setParam(ContextKey<T> key, T value) {
 			if (value == null)
-				throw new NoSuchElementException();
-			return value;
+				throw new IllegalArgumentException();
+			if (key.index >= this.slots.length) {
+				Object[] slots = new Object[Math.max(key.index + 1, ContextKey.COUNT.get())];
+				System.arraycopy(this.slots, 0, slots, 0, this.slots.length);
+				this.slots = slots;
+			}
+			this.slots[key.index] = value;
+		}
+		public void removeParam(ContextKey<?> key) {
+			if (key.index < this.slots.length)
+				this.slots[key.index] = null;
+		}
+		private Object getParamAsObject(String key) {
+			return this.params != null ? this.params.get(key) : null;
 		}
 		public String getParamAsString(String key) {
 			Object value = this.getParamAsObject(key);
@@ -244,29 +679,22 @@ public abstract class MultiRequest<R> {
 				throw new NoSuchElementException();
 		}
 		public String getParamAsString(String key, String defaultValue) {
-			try {
-				return this.getParamAsString(key);
-			} catch (Exception e) {
-				return defaultValue;
-			}
+			Object value = this.getParamAsObject(key);
+			return value instanceof String ? (String) value : defaultValue;
 		}
 		public Integer getParamAsInteger(String key, Integer defaultValue) {
-			try {
-				return this.getParamAsInteger(key);
-			} catch (Exception e) {
-				return defaultValue;
-			}
+			Object value = this.getParamAsObject(key);
+			return value instanceof Integer ? (Integer) value : defaultValue;
 		}
 		public Boolean getParamAsBoolean(String key, Boolean defaultValue) {
-			try {
-				return this.getParamAsBoolean(key);
-			} catch (Exception e) {
-				return defaultValue;
-			}
+			Object value = this.getParamAsObject(key);
+			return value instanceof Boolean ? (Boolean) value : defaultValue;
 		}
 		private void setParamAsObject(String key, Object value) {
 			if (value == null)
 				throw new IllegalArgumentException();
+			if (this.params == null)
+				this.params = new HashMap<String, Object>();
 			this.params.put(key, value);
 		}
 		public void setParamAsString(String key, String value) {
@@ -279,20 +707,185 @@ public abstract class MultiRequest<R> {
 			this.setParamAsObject(key, value);
 		}
 		public void removeParam(String key) {
-			this.params.remove(key);
+			if (this.params != null)
+				this.params.remove(key);
 		}
 	}
-	private final R request(HttpClient client, ResponseHandler<R> responseHandler, HttpRequestBase request) throws IOException {
-		if (this.ps != null) {
-			return this.ps.request(client, responseHandler, request);
-		} else {
+	private final R request(HttpClient client, HttpContext httpContext, ResponseHandler<R> responseHandler, HttpRequestBase request) throws IOException {
+		final ResponseCache cache = MultiRequest.cache;
+		if (cache != null) {
+			final String key = this.getCacheKey(request);
+			if (key != null) {
+				HttpResponse response = cache.get(key);
+				if (response != null)
+					return responseHandler.handleResponse(response);
+				responseHandler = MultiRequest.caching(cache, key, responseHandler);
+			}
+		}
+		Semaphore permits = this.getConcurrencyLimit();
+		if (permits != null) {
 			try {
-				return client.execute(request, responseHandler);
-			} finally {
-				request.reset();
+				permits.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+		try {
+			if (this.ps != null) {
+				return this.ps.request(client, httpContext, responseHandler, request, this.getRateLimit());
+			} else {
+				try {
+					return client.execute(request, responseHandler, httpContext);
+				} finally {
+					request.reset();
+				}
 			}
+		} finally {
+			if (permits != null)
+				MultiRequest.release(permits);
 		}
 	}
+	private final CompletableFuture<R> requestAsync(CookieStore cookieStore, final ResponseHandler<R> responseHandler, HttpRequestBase request) {
+		ResponseHandler<R> handler = responseHandler;
+		final ResponseCache cache = MultiRequest.cache;
+		if (cache != null) {
+			final String key = this.getCacheKey(request);
+			if (key != null) {
+				try {
+					HttpResponse response = cache.get(key);
+					if (response != null)
+						return CompletableFuture.completedFuture(responseHandler.handleResponse(response));
+				} catch (IOException e) {
+					return CompletableFuture.failedFuture(e);
+				}
+				handler = MultiRequest.caching(cache, key, responseHandler);
+			}
+		}
+		final Semaphore permits = this.getConcurrencyLimit();
+		if (permits == null)
+			return this.sendAsync(cookieStore, handler, request);
+		final CookieStore cookies = cookieStore;
+		final ResponseHandler<R> limited = handler;
+		final HttpRequestBase send = request;
+		// sent on the executor, so a released permit does not start the next request on the releasing thread
+		return MultiRequest.acquireAsync(permits).thenComposeAsync(new Function<Void, CompletableFuture<R>>() {
+			public CompletableFuture<R> apply(Void ignored) {
+				return MultiRequest.this.sendAsync(cookies, limited, send);
+			}
+		}, AsyncHttpClient.getExecutor()).whenComplete(new BiConsumer<R, Throwable>() {
+			public void accept(R value, Throwable failure) {
+				MultiRequest.release(permits);
+			}
+		});
+	}
+	private final CompletableFuture<R> sendAsync(CookieStore cookieStore, final ResponseHandler<R> handler, HttpRequestBase request) {
+		if (this.ps != null)
+			return this.ps.requestAsync(cookieStore, handler, request, this.getRateLimit());
+		return AsyncHttpClient.execute(request, null, cookieStore, new long[] { -1 }).thenApply(new Function<HttpResponse, R>() {
+			public R apply(HttpResponse response) {
+				try {
+					return handler.handleResponse(response);
+				} catch (IOException e) {
+					throw new CompletionException(e);
+				}
+			}
+		});
+	}
+	/**
+	 * Erhlt eine Genehmigung, ohne den aufrufenden Thread zu blockieren.
+	 * 
+	 * @param permits
+	 *            die Genehmigungen
+	 * @return erfllt, sobald die Genehmigung erhalten wurde
+	 */
+	private static CompletableFuture<Void> acquireAsync(Semaphore permits) {
+		if (permits.tryAcquire())
+			return CompletableFuture.completedFuture(null);
+		CompletableFuture<Void> waiter = new CompletableFuture<Void>();
+		MultiRequest.waiting.computeIfAbsent(permits, new Function<Semaphore, Queue<CompletableFuture<Void>>>() {
+			public Queue<CompletableFuture<Void>> apply(Semaphore key) {
+				return new ConcurrentLinkedQueue<CompletableFuture<Void>>();
+			}
+		}).add(waiter);
+		// a permit released before the waiter was queued is handed over here
+		MultiRequest.grant(permits);
+		return waiter;
+	}
+	/**
+	 * Gibt eine Genehmigung zurck und reicht sie an eine wartende
+	 * asynchrone Anfrage weiter.
+	 * 
+	 * @param permits
+	 *            die Genehmigungen
+	 */
+	private static void release(Semaphore permits) {
+		permits.release();
+		MultiRequest.grant(permits);
+	}
+	private static void grant(Semaphore permits) {
+		Queue<CompletableFuture<Void>> queue = MultiRequest.waiting.get(permits);
+		if (queue == null)
+			return;
+		while (!queue.isEmpty() && permits.tryAcquire()) {
+			CompletableFuture<Void> waiter = queue.poll();
+			if (waiter == null || !waiter.complete(null))
+				permits.release();
+		}
+	}
+	private static <R> ResponseHandler<R> caching(final ResponseCache cache, final String key, final ResponseHandler<R> handler) {
+		final Date requestDate = new Date();
+		return new ResponseHandler<R>() {
+			public R handleResponse(HttpResponse response) throws IOException {
+				HttpEntity entity = response.getEntity();
+				if (entity != null && !entity.isRepeatable())
+					response.setEntity(new BufferedHttpEntity(entity));
+				R value = handler.handleResponse(response);
+				cache.put(key, response, requestDate);
+				return value;
+			}
+		};
+	}
+	/**
+	 * Gibt den Schlssel zurck, unter dem die Antwort einer Anfrage im
+	 * {@link ResponseCache} abgelegt wird. Der Schlssel muss die Suchmaschine,
+	 * die Anfrage und die Seite eindeutig bestimmen. Standartmig wird
+	 * <code>null</code> geliefert, sodass keine Antwort zwischengespeichert
+	 * wird.
+	 * 
+	 * @param request
+	 *            die auszufhrende Anfrage
+	 * @return der Schlssel oder <code>null</code>, falls die Antwort nicht
+	 *         zwischengespeichert werden darf
+	 */
+	protected String getCacheKey(HttpRequestBase request) {
+		return null;
+	}
+	/**
+	 * Gibt die Grenzen der Anfragerate zurck, die fr diese Art von Anfragen
+	 * im ProxySwitcher gelten. Standartmig wird <code>null</code> geliefert,
+	 * sodass die Grenzen des ProxySwitchers unverndert bleiben.
+	 * 
+	 * @return die Grenzen der Anfragerate oder <code>null</code>
+	 */
+	protected RateLimit getRateLimit() {
+		return null;
+	}
+	/**
+	 * Gibt die Begrenzung der gleichzeitigen Anfragen an die Suchmaschine
+	 * zurck, die sich alle Anfragen dieser Art teilen. Eine Anfrage hlt
+	 * eine Genehmigung, solange sie auf eine Proxy wartet oder gesendet
+	 * wird, sodass auch viele wartende Threads nur so viele Verbindungen
+	 * ffnen. Bei {@link #submitAsync()} wartet eine Anfrage ohne
+	 * Genehmigung, ohne einen Thread zu blockieren.
+	 * Standartmig wird <code>null</code> geliefert und die Anfragen werden
+	 * nicht begrenzt.
+	 * 
+	 * @return die Genehmigungen oder <code>null</code>
+	 */
+	protected Semaphore getConcurrencyLimit() {
+		return null;
+	}
 	/**
 	 * Parst das Ergebnis, das direkt vom Client geliert wurde, und gibt das
 	 * geparste Ergebnis zurck.
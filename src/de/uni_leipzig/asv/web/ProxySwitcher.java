@@ -1,13 +1,51 @@
 package de.uni_leipzig.asv.web;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.CookieStore;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.conn.params.ConnRoutePNames;
+import org.apache.http.entity.BufferedHttpEntity;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import de.uni_leipzig.asv.web.metrics.Counter;
+import de.uni_leipzig.asv.web.metrics.Gauge;
+import de.uni_leipzig.asv.web.metrics.Histogram;
+import de.uni_leipzig.asv.web.metrics.MetricsRegistry;
 import de.uni_leipzig.asv.web.proxy.Proxy;
+import de.uni_leipzig.asv.web.proxy.ProxyPool;
+import de.uni_leipzig.asv.web.proxy.TokenBucket;
 /**
  * Das Objekt fr die Ausfhrung einer Anfrage unter der Verwendung einer Proxy.
  * 
+ * Latenz, Zeit bis zum ersten Byte, Erfolge und Fehlschlge werden je
+ * ProxySwitcher und je Proxy in der {@link MetricsRegistry} erfasst, die
+ * Gre des Pools wird als Messwert verffentlicht. Die Messgren tragen den
+ * Namen des ProxySwitchers als Merkmal <code>engine</code>.
+ * 
  * @author Sergej Sintschilin
  * @author Quan Nguyen
  * 
@@ -15,47 +53,603 @@ import de.uni_leipzig.asv.web.proxy.Proxy;
  *            ein der durch die Antwort der Anfrage bestimmter Wert
  */
 public abstract class ProxySwitcher<R> {
-	private Proxy currProxy = null;
-	private int currProxyCounter = 0;
+	private static final ExecutorService HEDGE_EXECUTOR = VirtualThreads.newExecutor("proxy-hedge");
+	private static final ExecutorService AWAIT_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "proxy-await");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	private final ProxyPool pool = new ProxyPool();
+	private volatile HedgePolicy hedgePolicy = null;
+	private volatile RateLimit rateLimit = null;
+	private volatile TokenBucket engineBucket = null;
+	private final String name;
+	private final Histogram latency;
+	private final Histogram timeToFirstByte;
+	private final Counter successes;
+	private final Counter failures;
+	private final Counter hedges;
+	private final ConcurrentMap<Proxy, ProxyMetrics> proxyMetrics = new ConcurrentHashMap<Proxy, ProxyMetrics>();
+	// asynchronous leases waiting for new proxies, served by a single waiting thread
+	private final Queue<CompletableFuture<ProxyPool.Lease>> waiting = new ConcurrentLinkedQueue<CompletableFuture<ProxyPool.Lease>>();
+	private final AtomicBoolean awaiting = new AtomicBoolean(false);
+	private static final class ProxyMetrics {
+		private final Histogram latency;
+		private final Counter successes;
+		private final Counter failures;
+		private ProxyMetrics(String name, Proxy proxy) {
+			MetricsRegistry registry = MetricsRegistry.getInstance();
+			String address = ProxyMetrics.address(proxy);
+			this.latency = registry.histogram("proxy.latency.ms", "engine", name, "proxy", address);
+			this.successes = registry.counter("proxy.success", "engine", name, "proxy", address);
+			this.failures = registry.counter("proxy.failure", "engine", name, "proxy", address);
+			registry.gauge("proxy.success.ratio", new Ratio(this.successes, this.failures), "engine", name, "proxy", address);
+		}
+		private static String address(Proxy proxy) {
+			return proxy.getHost() + ":" + proxy.getPort();
+		}
+	}
+	private static final class Ratio implements Gauge {
+		private final Counter successes;
+		private final Counter failures;
+		private Ratio(Counter successes, Counter failures) {
+			this.successes = successes;
+			this.failures = failures;
+		}
+		public double getValue() {
+			long successes = this.successes.getCount();
+			long total = successes + this.failures.getCount();
+			return total == 0 ? 1 : (double) successes / total;
+		}
+	}
+	/**
+	 * Standardmiger Konstruktor. Die Messgren werden unter dem Namen
+	 * <code>default</code> erfasst.
+	 */
+	public ProxySwitcher() {
+		this("default");
+	}
+	/**
+	 * Erstellt einen ProxySwitcher, dessen Messgren unter dem bergebenen
+	 * Namen erfasst werden, etwa dem Namen der Suchmaschine.
+	 * 
+	 * @param name
+	 *            der Name
+	 */
+	public ProxySwitcher(String name) {
+		if (name == null)
+			throw new IllegalArgumentException("name may not be null");
+		this.name = name;
+		MetricsRegistry registry = MetricsRegistry.getInstance();
+		this.latency = registry.histogram("request.latency.ms", "engine", name);
+		this.timeToFirstByte = registry.histogram("request.ttfb.ms", "engine", name);
+		this.successes = registry.counter("request.success", "engine", name);
+		this.failures = registry.counter("request.failure", "engine", name);
+		this.hedges = registry.counter("request.hedged", "engine", name);
+		registry.gauge("request.success.ratio", new Ratio(this.successes, this.failures), "engine", name);
+		registry.gauge("pool.size", new Gauge() {
+			public double getValue() {
+				return ProxySwitcher.this.pool.size();
+			}
+		}, "engine", name);
+		registry.gauge("pool.available", new Gauge() {
+			public double getValue() {
+				return ProxySwitcher.this.pool.getAvailableCount();
+			}
+		}, "engine", name);
+		this.pool.setListener(new ProxyPool.Listener() {
+			public void onProxyRemoved(Proxy proxy) {
+				ProxySwitcher.this.removeProxyMetrics(proxy);
+				AsyncHttpClient.remove(proxy);
+			}
+		});
+	}
+	/**
+	 * Gibt den Namen zurck, unter dem die Messgren erfasst werden.
+	 * 
+	 * @return der Name
+	 */
+	public final String getName() {
+		return this.name;
+	}
 	/**
-	 * Standardmiger Konstruktor.
+	 * Gibt den Pool der Proxies zurck, die von diesem ProxySwitcher verwendet
+	 * werden.
+	 * 
+	 * @return der Pool der Proxies
 	 */
-	public ProxySwitcher() {}
+	public final ProxyPool getProxyPool() {
+		return this.pool;
+	}
+	/**
+	 * Setzt die Richtlinie fr abgesicherte Anfragen. Ohne Richtlinie wird
+	 * jede Anfrage nur ber eine Proxy gesendet.
+	 * 
+	 * @param hedgePolicy
+	 *            die Richtlinie oder <code>null</code>
+	 */
+	public final void setHedgePolicy(HedgePolicy hedgePolicy) {
+		this.hedgePolicy = hedgePolicy;
+	}
+	/**
+	 * Gibt die Richtlinie fr abgesicherte Anfragen zurck.
+	 * 
+	 * @return die Richtlinie oder <code>null</code>
+	 */
+	public final HedgePolicy getHedgePolicy() {
+		return this.hedgePolicy;
+	}
+	/**
+	 * Setzt die Grenzen der Anfragerate. Jede Proxy des Pools wird hchstens
+	 * mit der Rate je Proxy verliehen, und alle Anfragen zusammen werden
+	 * hchstens mit der Rate der Suchmaschine gesendet. Ohne Grenzen wird die
+	 * Rate nicht begrenzt.
+	 * 
+	 * @param rateLimit
+	 *            die Grenzen oder <code>null</code>
+	 */
+	public final synchronized void setRateLimit(RateLimit rateLimit) {
+		if (rateLimit == this.rateLimit)
+			return;
+		this.pool.setRateLimit(rateLimit == null ? 0 : rateLimit.getProxyRate(), rateLimit == null ? 1 : rateLimit.getProxyBurst());
+		this.engineBucket = rateLimit == null || rateLimit.getEngineRate() == 0 ? null : new TokenBucket(rateLimit.getEngineRate(), rateLimit.getEngineBurst());
+		this.rateLimit = rateLimit;
+	}
+	/**
+	 * Gibt die Grenzen der Anfragerate zurck.
+	 * 
+	 * @return die Grenzen oder <code>null</code>
+	 */
+	public final RateLimit getRateLimit() {
+		return this.rateLimit;
+	}
+	/**
+	 * Fhrt eine Anfrage wie {@link #request(HttpClient, HttpContext,
+	 * ResponseHandler, HttpRequestBase)} aus und bernimmt zuvor die Grenzen
+	 * der Anfragerate, falls sie sich gendert haben.
+	 * 
+	 * @param rateLimit
+	 *            die Grenzen der Anfragerate oder <code>null</code>, um die
+	 *            bisherigen Grenzen beizubehalten
+	 */
+	protected final R request(HttpClient client, HttpContext httpContext, ResponseHandler<R> responseHandler, HttpRequestBase request, RateLimit rateLimit) throws IOException {
+		if (rateLimit != null && rateLimit != this.rateLimit)
+			this.setRateLimit(rateLimit);
+		return this.request(client, httpContext, responseHandler, request);
+	}
 	/**
 	 * Fhrt eine Anfrage unter der Verwendung einer Proxy aus, bergibt die
 	 * final gelieferte Antwort dem Antwortbehandler und gibt den resultierten
-	 * Wert zurck.
+	 * Wert zurck. Die Methode kann nebenlufig aufgerufen werden, jede
+	 * Ausfhrung leiht sich dabei eine eigene Proxy aus dem Pool aus.
 	 * 
 	 * @param client
 	 *            der Ausfhrer der Anfrage
+	 * @param httpContext
+	 *            der Ausfhrungskontext der Anfrage
 	 * @param responseHandler
 	 *            der Antwortbehandler
 	 * @param request
 	 *            die auszufhrende Anfrage
 	 * @return der Wert, der vom Antwortbehandler generiert wurde
 	 */
-	protected final R request(HttpClient client, ResponseHandler<R> responseHandler, HttpRequestBase request) throws IOException {
+	protected final R request(HttpClient client, HttpContext httpContext, final ResponseHandler<R> responseHandler, HttpRequestBase request) throws IOException {
+		HedgePolicy hedgePolicy = this.hedgePolicy;
+		if (hedgePolicy != null)
+			return this.requestHedged(client, httpContext, responseHandler, request, hedgePolicy);
 		while (true) {
-			if (this.currProxy == null) {
-				this.currProxy = this.getNextProxy();
-				if (this.currProxy == null)
-					throw new IOException("all proxies exhausted");
-				this.currProxyCounter = 0;
-			} else
-				this.currProxyCounter++;
-			client.getParams().setParameter(ConnRoutePNames.DEFAULT_PROXY, this.currProxy.toHttpHost());
+			ProxyPool.Lease lease = this.lease();
+			request.getParams().setParameter(ConnRoutePNames.DEFAULT_PROXY, lease.getProxy().toHttpHost());
+			final long start = System.currentTimeMillis();
+			final long[] timeToFirstByte = { -1 };
 			try {
-				R response = client.execute(request, responseHandler);
-				this.onRequestSucceed(this.currProxy, this.currProxyCounter);
+				R response = client.execute(request, new ResponseHandler<R>() {
+					public R handleResponse(HttpResponse response) throws IOException {
+						timeToFirstByte[0] = System.currentTimeMillis() - start;
+						return responseHandler.handleResponse(response);
+					}
+				}, httpContext);
+				long latency = System.currentTimeMillis() - start;
+				lease.succeed(latency, timeToFirstByte[0]);
+				this.recordSuccess(lease.getProxy(), latency, timeToFirstByte[0]);
+				this.onRequestSucceed(lease.getProxy(), lease.getCounter());
 				return response;
 			} catch (Exception e) {
-				this.onRequestFailed(this.currProxy, this.currProxyCounter, e.getMessage());
-				this.currProxy = null;
+				if (request.isAborted()) {
+					lease.cancel();
+					throw new InterruptedIOException("request aborted");
+				}
+				RequestException.Type type = RequestException.classify(e);
+				this.recordFailure(lease.getProxy());
+				lease.fail(type);
+				this.onRequestFailed(lease.getProxy(), lease.getCounter(), type + ": " + e.getMessage());
 			} finally {
 				request.reset();
 			}
 		}
 	}
+	/**
+	 * Fhrt eine Anfrage wie {@link #request(HttpClient, HttpContext,
+	 * ResponseHandler, HttpRequestBase, RateLimit)} aus, ohne den aufrufenden
+	 * Thread zu blockieren. Die Anfrage wird ber den {@link AsyncHttpClient}
+	 * gesendet; das Warten auf eine Proxy oder die Anfragerate wird
+	 * eingeplant statt abgewartet, und die Antwort wird auf einem Thread des
+	 * {@link AsyncHttpClient} behandelt. Abgesicherte Anfragen werden dabei
+	 * nicht untersttzt, eine Richtlinie bleibt ohne Wirkung. Wird das
+	 * gelieferte Ergebnis abgebrochen, wird kein weiterer Versuch gestartet.
+	 * 
+	 * @param cookieStore
+	 *            die Cookies der Anfrage oder <code>null</code>
+	 * @param responseHandler
+	 *            der Antwortbehandler
+	 * @param request
+	 *            die auszufhrende Anfrage
+	 * @param rateLimit
+	 *            die Grenzen der Anfragerate oder <code>null</code>, um die
+	 *            bisherigen Grenzen beizubehalten
+	 * @return der Wert, der vom Antwortbehandler generiert wird
+	 */
+	protected final CompletableFuture<R> requestAsync(CookieStore cookieStore, ResponseHandler<R> responseHandler, HttpRequestBase request, RateLimit rateLimit) {
+		if (rateLimit != null && rateLimit != this.rateLimit)
+			this.setRateLimit(rateLimit);
+		CompletableFuture<R> result = new CompletableFuture<R>();
+		this.attemptAsync(cookieStore, responseHandler, request, result);
+		return result;
+	}
+	private void attemptAsync(final CookieStore cookieStore, final ResponseHandler<R> responseHandler, final HttpRequestBase request, final CompletableFuture<R> result) {
+		this.leaseAsync().whenComplete(new BiConsumer<ProxyPool.Lease, Throwable>() {
+			public void accept(final ProxyPool.Lease lease, Throwable error) {
+				if (error != null) {
+					result.completeExceptionally(error);
+					return;
+				}
+				if (result.isDone()) {
+					lease.cancel();
+					return;
+				}
+				final long start = System.currentTimeMillis();
+				final long[] timeToFirstByte = { -1 };
+				AsyncHttpClient.execute(request, lease.getProxy(), cookieStore, timeToFirstByte).whenComplete(new BiConsumer<HttpResponse, Throwable>() {
+					public void accept(HttpResponse response, Throwable error) {
+						if (result.isDone()) {
+							lease.cancel();
+							return;
+						}
+						R value = null;
+						if (error == null) {
+							try {
+								value = responseHandler.handleResponse(response);
+							} catch (Exception e) {
+								error = e;
+							}
+						}
+						if (error == null) {
+							long latency = System.currentTimeMillis() - start;
+							lease.succeed(latency, timeToFirstByte[0]);
+							ProxySwitcher.this.recordSuccess(lease.getProxy(), latency, timeToFirstByte[0]);
+							ProxySwitcher.this.onRequestSucceed(lease.getProxy(), lease.getCounter());
+							result.complete(value);
+						} else {
+							RequestException.Type type = RequestException.classify(error);
+							ProxySwitcher.this.recordFailure(lease.getProxy());
+							lease.fail(type);
+							ProxySwitcher.this.onRequestFailed(lease.getProxy(), lease.getCounter(), type + ": " + error.getMessage());
+							ProxySwitcher.this.attemptAsync(cookieStore, responseHandler, request, result);
+						}
+					}
+				});
+			}
+		});
+	}
+	/**
+	 * Leiht eine Proxy wie {@link #lease()} aus, ohne zu blockieren. Steht
+	 * noch keine Proxy oder Anfrage der Suchmaschine zur Verfgung, wird ein
+	 * neuer Versuch nach der Wartezeit eingeplant. Ist der Pool leer, wartet
+	 * ein einziger Thread je ProxySwitcher ber {@link #awaitProxies(long)}
+	 * fr alle wartenden Anfragen.
+	 */
+	private CompletableFuture<ProxyPool.Lease> leaseAsync() {
+		CompletableFuture<ProxyPool.Lease> future = new CompletableFuture<ProxyPool.Lease>();
+		this.tryLeaseAsync(future, false);
+		return future;
+	}
+	private void tryLeaseAsync(final CompletableFuture<ProxyPool.Lease> future, boolean admitted) {
+		long now = System.currentTimeMillis();
+		TokenBucket engineBucket = this.engineBucket;
+		if (!admitted && engineBucket != null && !engineBucket.tryAcquire(now)) {
+			this.scheduleLease(future, false, Math.max(1, engineBucket.getDelay(now)));
+			return;
+		}
+		long version = this.pool.getVersion();
+		ProxyPool.Lease lease = this.pool.acquire();
+		if (lease == null) {
+			long delay = this.pool.getThrottleDelay();
+			if (delay >= 0) {
+				this.scheduleLease(future, true, Math.max(1, delay));
+				return;
+			}
+			Proxy proxy = this.getNextProxy();
+			if (proxy != null)
+				lease = this.pool.addAndAcquire(proxy);
+		}
+		if (lease != null)
+			future.complete(lease);
+		else
+			this.awaitAsync(version, future);
+	}
+	private void scheduleLease(final CompletableFuture<ProxyPool.Lease> future, final boolean admitted, long delay) {
+		AsyncHttpClient.getExecutor().schedule(new Runnable() {
+			public void run() {
+				ProxySwitcher.this.tryLeaseAsync(future, admitted);
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+	private void awaitAsync(final long version, CompletableFuture<ProxyPool.Lease> future) {
+		this.waiting.add(future);
+		if (!this.awaiting.compareAndSet(false, true))
+			return;
+		ProxySwitcher.AWAIT_EXECUTOR.execute(new Runnable() {
+			public void run() {
+				boolean available;
+				try {
+					available = ProxySwitcher.this.awaitProxies(version);
+				} catch (InterruptedException e) {
+					available = false;
+				}
+				ProxySwitcher.this.awaiting.set(false);
+				// leases that fail again are queued for the next waiting thread
+				List<CompletableFuture<ProxyPool.Lease>> futures = new ArrayList<CompletableFuture<ProxyPool.Lease>>();
+				CompletableFuture<ProxyPool.Lease> future;
+				while ((future = ProxySwitcher.this.waiting.poll()) != null)
+					futures.add(future);
+				for (CompletableFuture<ProxyPool.Lease> f : futures) {
+					if (available)
+						ProxySwitcher.this.tryLeaseAsync(f, true);
+					else
+						f.completeExceptionally(new IOException("all proxies exhausted"));
+				}
+			}
+		});
+	}
+	/**
+	 * Fhrt eine Anfrage abgesichert aus. Liegt nach der Wartezeit der
+	 * Richtlinie noch keine Antwort vor, wird eine Kopie der Anfrage ber eine
+	 * zweite Proxy gesendet. Die erste vollstndig empfangene Antwort wird dem
+	 * Antwortbehandler bergeben, die andere Anfrage wird abgebrochen.
+	 */
+	private R requestHedged(HttpClient client, HttpContext httpContext, ResponseHandler<R> responseHandler, HttpRequestBase request, HedgePolicy hedgePolicy) throws IOException {
+		while (true) {
+			ProxyPool.Lease lease = this.lease();
+			long delay = hedgePolicy.onRequest();
+			CompletionService<Attempt> completion = new ExecutorCompletionService<Attempt>(ProxySwitcher.HEDGE_EXECUTOR);
+			List<Attempt> attempts = new ArrayList<Attempt>(2);
+			attempts.add(new Attempt(lease, request, new BasicHttpContext(httpContext)).submit(client, completion));
+			Attempt winner = null;
+			try {
+				Future<Attempt> done = delay < 0 ? completion.take() : completion.poll(delay, TimeUnit.MILLISECONDS);
+				if (done == null) {
+					Attempt hedge = this.hedge(request, httpContext, hedgePolicy);
+					if (hedge != null) {
+						this.hedges.increment();
+						attempts.add(hedge.submit(client, completion));
+					}
+					done = completion.take();
+				}
+				for (int running = attempts.size(); running > 0; running--) {
+					if (done == null)
+						done = completion.take();
+					Attempt attempt = done.get();
+					done = null;
+					if (attempt.error == null) {
+						winner = attempt;
+						break;
+					}
+					if (request.isAborted())
+						throw new InterruptedIOException("request aborted");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			} catch (ExecutionException e) {
+				throw new IOException(e.getCause());
+			} finally {
+				for (Attempt attempt : attempts)
+					if (attempt != winner)
+						attempt.discard();
+				request.reset();
+			}
+			if (winner == null)
+				continue;
+			try {
+				R response = responseHandler.handleResponse(winner.response);
+				winner.lease.succeed(winner.latency, winner.timeToFirstByte);
+				this.recordSuccess(winner.lease.getProxy(), winner.latency, winner.timeToFirstByte);
+				hedgePolicy.onLatency(winner.latency);
+				this.onRequestSucceed(winner.lease.getProxy(), winner.lease.getCounter());
+				return response;
+			} catch (Exception e) {
+				RequestException.Type type = RequestException.classify(e);
+				this.recordFailure(winner.lease.getProxy());
+				winner.lease.fail(type);
+				this.onRequestFailed(winner.lease.getProxy(), winner.lease.getCounter(), type + ": " + e.getMessage());
+			}
+		}
+	}
+	private Attempt hedge(HttpRequestBase request, HttpContext httpContext, HedgePolicy hedgePolicy) {
+		TokenBucket engineBucket = this.engineBucket;
+		if (engineBucket != null && engineBucket.getDelay(System.currentTimeMillis()) > 0)
+			return null;
+		ProxyPool.Lease lease = this.pool.acquire();
+		if (lease == null)
+			return null;
+		if (!hedgePolicy.tryHedge() || engineBucket != null && !engineBucket.tryAcquire(System.currentTimeMillis())) {
+			lease.cancel();
+			return null;
+		}
+		try {
+			return new Attempt(lease, (HttpRequestBase) request.clone(), new BasicHttpContext(httpContext));
+		} catch (CloneNotSupportedException e) {
+			lease.cancel();
+			return null;
+		}
+	}
+	private ProxyPool.Lease lease() throws IOException {
+		try {
+			TokenBucket engineBucket = this.engineBucket;
+			if (engineBucket != null) {
+				while (!engineBucket.tryAcquire(System.currentTimeMillis()))
+					Thread.sleep(Math.max(1, engineBucket.getDelay(System.currentTimeMillis())));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+		while (true) {
+			long version = this.pool.getVersion();
+			ProxyPool.Lease lease = this.pool.acquire();
+			if (lease != null)
+				return lease;
+			long delay = this.pool.getThrottleDelay();
+			if (delay >= 0) {
+				try {
+					this.pool.awaitChange(version, Math.max(1, delay), TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				}
+				continue;
+			}
+			Proxy proxy = this.getNextProxy();
+			if (proxy != null)
+				lease = this.pool.addAndAcquire(proxy);
+			else {
+				try {
+					if (!this.awaitProxies(version))
+						throw new IOException("all proxies exhausted");
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				}
+			}
+			if (lease != null)
+				return lease;
+		}
+	}
+	/**
+	 * Ein Versuch einer abgesicherten Anfrage ber eine ausgeliehene Proxy.
+	 * Die Antwort wird vollstndig gepuffert, damit sie nach dem Ende des
+	 * Versuchs an den Antwortbehandler bergeben werden kann.
+	 */
+	private final class Attempt implements Callable<Attempt> {
+		private static final int RUNNING = 0;
+		private static final int DONE = 1;
+		private static final int DISCARDED = 2;
+		private final ProxyPool.Lease lease;
+		private final HttpRequestBase request;
+		private final HttpContext httpContext;
+		private final AtomicInteger state = new AtomicInteger(Attempt.RUNNING);
+		private HttpClient client;
+		private Future<Attempt> future;
+		private volatile HttpResponse response = null;
+		private volatile Exception error = null;
+		private volatile long latency = -1;
+		private volatile long timeToFirstByte = -1;
+		private Attempt(ProxyPool.Lease lease, HttpRequestBase request, HttpContext httpContext) {
+			this.lease = lease;
+			this.request = request;
+			this.httpContext = httpContext;
+			request.getParams().setParameter(ConnRoutePNames.DEFAULT_PROXY, lease.getProxy().toHttpHost());
+		}
+		private Attempt submit(HttpClient client, CompletionService<Attempt> completion) {
+			this.client = client;
+			this.future = completion.submit(this);
+			return this;
+		}
+		public Attempt call() {
+			final long start = System.currentTimeMillis();
+			try {
+				this.response = this.client.execute(this.request, new ResponseHandler<HttpResponse>() {
+					public HttpResponse handleResponse(HttpResponse response) throws IOException {
+						Attempt.this.timeToFirstByte = System.currentTimeMillis() - start;
+						HttpEntity entity = response.getEntity();
+						if (entity != null)
+							response.setEntity(new BufferedHttpEntity(entity));
+						return response;
+					}
+				}, this.httpContext);
+				this.latency = System.currentTimeMillis() - start;
+				if (!this.state.compareAndSet(Attempt.RUNNING, Attempt.DONE))
+					this.lease.cancel();
+			} catch (Exception e) {
+				this.error = e;
+				if (this.state.getAndSet(Attempt.DONE) == Attempt.DISCARDED || this.request.isAborted())
+					this.lease.cancel();
+				else {
+					RequestException.Type type = RequestException.classify(e);
+					ProxySwitcher.this.recordFailure(this.lease.getProxy());
+					this.lease.fail(type);
+					ProxySwitcher.this.onRequestFailed(this.lease.getProxy(), this.lease.getCounter(), type + ": " + e.getMessage());
+				}
+			}
+			return this;
+		}
+		/**
+		 * Verwirft den Versuch. Ein laufender Versuch wird abgebrochen, und es
+		 * wird gewartet, bis er beendet ist, damit die Anfrage anschlieend
+		 * wiederverwendet werden kann.
+		 */
+		private void discard() {
+			if (this.state.compareAndSet(Attempt.RUNNING, Attempt.DISCARDED))
+				this.request.abort();
+			else if (this.error == null && this.state.compareAndSet(Attempt.DONE, Attempt.DISCARDED))
+				this.lease.cancel();
+			boolean interrupted = false;
+			while (true) {
+				try {
+					this.future.get();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					break;
+				} catch (CancellationException e) {
+					break;
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+	private ProxyMetrics getProxyMetrics(Proxy proxy) {
+		ProxyMetrics metrics = this.proxyMetrics.get(proxy);
+		if (metrics == null) {
+			metrics = new ProxyMetrics(this.name, proxy);
+			ProxyMetrics previous = this.proxyMetrics.putIfAbsent(proxy, metrics);
+			if (previous != null)
+				metrics = previous;
+		}
+		return metrics;
+	}
+	// the failure that removed a proxy is recorded before its lease is released
+	private void removeProxyMetrics(Proxy proxy) {
+		if (this.proxyMetrics.remove(proxy) != null)
+			MetricsRegistry.getInstance().remove("engine", this.name, "proxy", ProxyMetrics.address(proxy));
+	}
+	private void recordSuccess(Proxy proxy, long latency, long timeToFirstByte) {
+		this.latency.record(latency);
+		if (timeToFirstByte >= 0)
+			this.timeToFirstByte.record(timeToFirstByte);
+		this.successes.increment();
+		ProxyMetrics metrics = this.getProxyMetrics(proxy);
+		metrics.latency.record(latency);
+		metrics.successes.increment();
+	}
+	private void recordFailure(Proxy proxy) {
+		this.failures.increment();
+		this.getProxyMetrics(proxy).failures.increment();
+	}
 	/**
 	 * Wird bei einer erfolgreichen Ausfhrung einer Anfrage aufgerufen.
 	 * Standartmig tut die Methode nichts. Der Benutzer kann diese Methode
@@ -83,10 +677,31 @@ public abstract class ProxySwitcher<R> {
 	 */
 	protected void onRequestFailed(Proxy proxy, int counter, String message) {}
 	/**
-	 * Fordert eine neue Proxy an.
+	 * Fordert eine neue Proxy an. Die Methode wird aufgerufen, wenn der Pool
+	 * keine freie Proxy mehr enthlt, und muss nebenlufig aufrufbar sein.
+	 * Standartmig liefert die Methode keine Proxy, sodass auf
+	 * {@link #awaitProxies(long)} ausgewichen wird.
 	 * 
 	 * @return eine neue Proxy oder <code>null</code> falls keine Proxy
 	 *         vorhanden ist
 	 */
-	protected abstract Proxy getNextProxy();
+	protected Proxy getNextProxy() {
+		return null;
+	}
+	/**
+	 * Wartet, bis der Pool neue oder freigegebene Proxies enthlt. Die Methode
+	 * wird aufgerufen, wenn der Pool keine freie Proxy enthlt und
+	 * {@link #getNextProxy()} keine Proxy geliefert hat. Standartmig wird
+	 * nicht gewartet und der Pool gilt als erschpft.
+	 * 
+	 * @param version
+	 *            der nderungsstand des Pools vor dem gescheiterten Ausleihen
+	 * @return <code>false</code>, falls keine weiteren Proxies zu erwarten
+	 *         sind, sonst <code>true</code>
+	 * @throws InterruptedException
+	 *             falls der wartende Thread unterbrochen wurde
+	 */
+	protected boolean awaitProxies(long version) throws InterruptedException {
+		return false;
+	}
 }
@@ -0,0 +1,80 @@
+package de.uni_leipzig.asv.web;
+/**
+ * Die Grenzen der Anfragerate an eine Suchmaschine. Jede Proxy darf hchstens
+ * mit der Rate je Proxy angefragt werden, alle Proxies zusammen hchstens mit
+ * der Rate der Suchmaschine. Eine Rate von <code>0</code> hebt die jeweilige
+ * Grenze auf.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class RateLimit {
+	private final double proxyRate;
+	private final int proxyBurst;
+	private final double engineRate;
+	private final int engineBurst;
+	/**
+	 * Erstellt die Grenzen der Anfragerate.
+	 * 
+	 * @param proxyRate
+	 *            die Anzahl der Anfragen je Sekunde und Proxy oder
+	 *            <code>0</code>
+	 * @param proxyBurst
+	 *            die Anzahl der Anfragen, die eine Proxy nach einer Pause
+	 *            direkt hintereinander senden darf
+	 * @param engineRate
+	 *            die Anzahl der Anfragen je Sekunde ber alle Proxies oder
+	 *            <code>0</code>
+	 * @param engineBurst
+	 *            die Anzahl der Anfragen, die ber alle Proxies nach einer
+	 *            Pause direkt hintereinander gesendet werden drfen
+	 */
+	public RateLimit(double proxyRate, int proxyBurst, double engineRate, int engineBurst) {
+		if (proxyRate < 0 || engineRate < 0)
+			throw new IllegalArgumentException("rate may not be negative");
+		if (proxyBurst < 1 || engineBurst < 1)
+			throw new IllegalArgumentException("burst must be positive");
+		this.proxyRate = proxyRate;
+		this.proxyBurst = proxyBurst;
+		this.engineRate = engineRate;
+		this.engineBurst = engineBurst;
+	}
+	/**
+	 * Gibt die Anzahl der Anfragen je Sekunde und Proxy zurck.
+	 * 
+	 * @return die Rate je Proxy oder <code>0</code>, falls unbegrenzt
+	 */
+	public double getProxyRate() {
+		return this.proxyRate;
+	}
+	/**
+	 * Gibt die Anzahl der Anfragen zurck, die eine Proxy nach einer Pause
+	 * direkt hintereinander senden darf.
+	 * 
+	 * @return die Kapazitt je Proxy
+	 */
+	public int getProxyBurst() {
+		return this.proxyBurst;
+	}
+	/**
+	 * Gibt die Anzahl der Anfragen je Sekunde ber alle Proxies zurck.
+	 * 
+	 * @return die Rate der Suchmaschine oder <code>0</code>, falls unbegrenzt
+	 */
+	public double getEngineRate() {
+		return this.engineRate;
+	}
+	/**
+	 * Gibt die Anzahl der Anfragen zurck, die ber alle Proxies nach einer
+	 * Pause direkt hintereinander gesendet werden drfen.
+	 * 
+	 * @return die Kapazitt der Suchmaschine
+	 */
+	public int getEngineBurst() {
+		return this.engineBurst;
+	}
+	@Override
+	public String toString() {
+		return String.format("proxy=%.2f/s(%d) engine=%.2f/s(%d)", this.proxyRate, this.proxyBurst, this.engineRate, this.engineBurst);
+	}
+}
@@ -0,0 +1,120 @@
+package de.uni_leipzig.asv.web;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpTimeoutException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.conn.ConnectTimeoutException;
+/**
+ * Eine gescheiterte Anfrage, deren Ursache einer Fehlerklasse zugeordnet ist.
+ * Die Fehlerklasse entscheidet darber, wie mit der verwendeten Proxy weiter
+ * verfahren wird.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public class RequestException extends IOException {
+	private static final long serialVersionUID = 1L;
+	/**
+	 * Die Fehlerklassen einer Anfrage.
+	 */
+	public static enum Type {
+		/**
+		 * Die Verbindung konnte nicht aufgebaut werden oder wurde abgebrochen.
+		 */
+		CONNECT,
+		/**
+		 * Die Antwort ist nicht rechtzeitig eingetroffen.
+		 */
+		TIMEOUT,
+		/**
+		 * Die Antwort hat einen unerwarteten Status.
+		 */
+		HTTP_STATUS,
+		/**
+		 * Die Suchmaschine hat den Zugriff gesperrt.
+		 */
+		BANNED,
+		/**
+		 * Die Antwort konnte nicht geparst werden.
+		 */
+		PARSE
+	}
+	private final Type type;
+	private final int statusCode;
+	/**
+	 * Erstellt eine gescheiterte Anfrage der bergebenen Fehlerklasse.
+	 * 
+	 * @param type
+	 *            die Fehlerklasse
+	 * @param message
+	 *            die Fehlernachricht
+	 */
+	public RequestException(Type type, String message) {
+		this(type, -1, message);
+	}
+	/**
+	 * Erstellt eine gescheiterte Anfrage der bergebenen Fehlerklasse mit
+	 * dem Status der Antwort.
+	 * 
+	 * @param type
+	 *            die Fehlerklasse
+	 * @param statusCode
+	 *            der Status der Antwort
+	 * @param message
+	 *            die Fehlernachricht
+	 */
+	public RequestException(Type type, int statusCode, String message) {
+		super(message);
+		if (type == null)
+			throw new IllegalArgumentException("type may not be null");
+		this.type = type;
+		this.statusCode = statusCode;
+	}
+	/**
+	 * Gibt die Fehlerklasse zurck.
+	 * 
+	 * @return die Fehlerklasse
+	 */
+	public Type getType() {
+		return this.type;
+	}
+	/**
+	 * Gibt den Status der Antwort zurck.
+	 * 
+	 * @return der Status oder <code>-1</code>, falls keine Antwort vorliegt
+	 */
+	public int getStatusCode() {
+		return this.statusCode;
+	}
+	/**
+	 * Ordnet eine beliebige Ausnahme einer Fehlerklasse zu.
+	 * 
+	 * @param e
+	 *            die Ausnahme
+	 * @return die Fehlerklasse
+	 */
+	public static Type classify(Throwable e) {
+		while ((e instanceof CompletionException || e instanceof ExecutionException) && e.getCause() != null)
+			e = e.getCause();
+		if (e instanceof RequestException)
+			return ((RequestException) e).getType();
+		if (e instanceof ConnectTimeoutException)
+			return Type.CONNECT;
+		if (e instanceof HttpConnectTimeoutException)
+			return Type.CONNECT;
+		if (e instanceof SocketTimeoutException || e instanceof HttpTimeoutException)
+			return Type.TIMEOUT;
+		if (e instanceof ConnectException || e instanceof NoRouteToHostException || e instanceof UnknownHostException || e instanceof NoHttpResponseException || e instanceof SocketException)
+			return Type.CONNECT;
+		if (e instanceof IOException)
+			return Type.CONNECT;
+		return Type.PARSE;
+	}
+}
@@ -0,0 +1,112 @@
+package de.uni_leipzig.asv.web;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.client.HttpClient;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+/**
+ * Der gemeinsame HttpClient aller Anfragen. Die Verbindungen werden von einem
+ * Pool verwaltet, sodass Keep-Alive-Verbindungen zu einer Proxy ber mehrere
+ * Anfragen und Seiten hinweg wiederverwendet werden.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class SharedHttpClient {
+	/**
+	 * Standartmige Anzahl aller Verbindungen ist <code>200</code>.
+	 */
+	public static final int DEFAULT_MAX_TOTAL = 200;
+	/**
+	 * Standartmige Anzahl der Verbindungen pro Route ist <code>4</code>.
+	 */
+	public static final int DEFAULT_MAX_PER_ROUTE = 4;
+	/**
+	 * Standartmiges Timeout fr den Verbindungsaufbau ist
+	 * <code>5</code> Sekunden.
+	 */
+	public static final int DEFAULT_CONNECTION_TIMEOUT = 5 * 1000;
+	/**
+	 * Standartmiges Timeout fr das Lesen ist <code>10</code> Sekunden.
+	 */
+	public static final int DEFAULT_SO_TIMEOUT = 10 * 1000;
+	/**
+	 * Verbindungen, die lnger als <code>30</code> Sekunden unbenutzt sind,
+	 * werden geschlossen.
+	 */
+	public static final int IDLE_TIMEOUT = 30 * 1000;
+	private static int maxTotal = SharedHttpClient.DEFAULT_MAX_TOTAL;
+	private static int maxPerRoute = SharedHttpClient.DEFAULT_MAX_PER_ROUTE;
+	// read without the lock by every request, which may run on a virtual thread
+	private static volatile DefaultHttpClient instance = null;
+	private static Thread evictor = null;
+	private SharedHttpClient() {}
+	/**
+	 * Setzt die Grenzen des Verbindungspools. Die Grenzen werden erst bei der
+	 * nchsten Erstellung des Clients bernommen.
+	 * 
+	 * @param maxTotal
+	 *            die Anzahl aller Verbindungen
+	 * @param maxPerRoute
+	 *            die Anzahl der Verbindungen pro Route
+	 */
+	public static synchronized void configure(int maxTotal, int maxPerRoute) {
+		if (maxTotal < 1 || maxPerRoute < 1)
+			throw new IllegalArgumentException();
+		SharedHttpClient.maxTotal = maxTotal;
+		SharedHttpClient.maxPerRoute = maxPerRoute;
+		if (SharedHttpClient.instance != null) {
+			PoolingClientConnectionManager manager = (PoolingClientConnectionManager) SharedHttpClient.instance.getConnectionManager();
+			manager.setMaxTotal(maxTotal);
+			manager.setDefaultMaxPerRoute(maxPerRoute);
+		}
+	}
+	/**
+	 * Gibt den gemeinsamen Client zurck und erstellt ihn bei Bedarf.
+	 * 
+	 * @return der gemeinsame Client
+	 */
+	public static HttpClient getInstance() {
+		HttpClient instance = SharedHttpClient.instance;
+		return instance != null ? instance : SharedHttpClient.createInstance();
+	}
+	private static synchronized HttpClient createInstance() {
+		if (SharedHttpClient.instance == null) {
+			final PoolingClientConnectionManager manager = new PoolingClientConnectionManager();
+			manager.setMaxTotal(SharedHttpClient.maxTotal);
+			manager.setDefaultMaxPerRoute(SharedHttpClient.maxPerRoute);
+			final HttpParams httpParams = new BasicHttpParams();
+			HttpConnectionParams.setConnectionTimeout(httpParams, SharedHttpClient.DEFAULT_CONNECTION_TIMEOUT);
+			HttpConnectionParams.setSoTimeout(httpParams, SharedHttpClient.DEFAULT_SO_TIMEOUT);
+			SharedHttpClient.instance = new DefaultHttpClient(manager, httpParams);
+			SharedHttpClient.evictor = new Thread(new Runnable() {
+				public void run() {
+					try {
+						while (!Thread.currentThread().isInterrupted()) {
+							Thread.sleep(SharedHttpClient.IDLE_TIMEOUT / 2);
+							manager.closeExpiredConnections();
+							manager.closeIdleConnections(SharedHttpClient.IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+						}
+					} catch (InterruptedException e) {}
+				}
+			}, "http-connection-evictor");
+			SharedHttpClient.evictor.setDaemon(true);
+			SharedHttpClient.evictor.start();
+		}
+		return SharedHttpClient.instance;
+	}
+	/**
+	 * Schliet alle Verbindungen des gemeinsamen Clients. Ein spterer Aufruf
+	 * von {@link #getInstance()} erstellt einen neuen Client.
+	 */
+	public static synchronized void shutdown() {
+		if (SharedHttpClient.instance != null) {
+			SharedHttpClient.evictor.interrupt();
+			SharedHttpClient.instance.getConnectionManager().shutdown();
+			SharedHttpClient.instance = null;
+			SharedHttpClient.evictor = null;
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package de.uni_leipzig.asv.web;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+/**
+ * Erstellt die Threads fr Suchanfragen, Seiten und Prfungen von Proxies.
+ * Ist der Modus eingeschaltet und bietet das JDK virtuelle Threads an (ab
+ * Java 21), wird jede Aufgabe auf einem eigenen virtuellen Thread
+ * ausgefhrt. Ein blockierender Thread belegt dann keinen Thread des
+ * Betriebssystems, sodass auch zehntausende gleichzeitig wartende Anfragen
+ * mit der blockierenden {@link MultiRequest#submit()} mglich sind. Sonst
+ * werden gewhnliche Threads erstellt.
+ * <p>
+ * Die virtuellen Threads werden ber Reflexion erstellt, damit der Code
+ * weiterhin mit lteren JDKs bersetzt werden kann.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class VirtualThreads {
+	private static final Method OF_VIRTUAL;
+	private static final Method NAME;
+	private static final Method FACTORY;
+	private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+	static {
+		Method ofVirtual = null;
+		Method name = null;
+		Method factory = null;
+		Method newThreadPerTaskExecutor = null;
+		try {
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			name = builder.getMethod("name", String.class, long.class);
+			factory = builder.getMethod("factory");
+			newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+			// preview builds of the jdk reject the builder at runtime
+			ofVirtual.invoke(null);
+		} catch (Throwable e) {
+			ofVirtual = null;
+		}
+		OF_VIRTUAL = ofVirtual;
+		NAME = name;
+		FACTORY = factory;
+		NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+	}
+	private static volatile boolean enabled = false;
+	private VirtualThreads() {}
+	/**
+	 * berprft, ob das JDK virtuelle Threads anbietet.
+	 * 
+	 * @return <code>true</code>, falls virtuelle Threads erstellt werden
+	 *         knnen
+	 */
+	public static boolean isSupported() {
+		return VirtualThreads.OF_VIRTUAL != null;
+	}
+	/**
+	 * Schaltet die virtuellen Threads ein oder aus. Wirkt sich nur auf
+	 * Threads und Pools aus, die nach dem Aufruf erstellt werden; die Pools
+	 * von {@link MultiRequest} und {@link ProxySwitcher} werden beim ersten
+	 * Zugriff auf die Klassen erstellt. Bietet das JDK keine virtuellen
+	 * Threads an, bleibt der Modus ausgeschaltet.
+	 * 
+	 * @param enabled
+	 *            <code>true</code>, um virtuelle Threads zu verwenden
+	 * @return <code>true</code>, falls virtuelle Threads verwendet werden
+	 */
+	public static boolean setEnabled(boolean enabled) {
+		VirtualThreads.enabled = enabled && VirtualThreads.isSupported();
+		return VirtualThreads.enabled;
+	}
+	/**
+	 * berprft, ob virtuelle Threads verwendet werden.
+	 * 
+	 * @return <code>true</code>, falls virtuelle Threads verwendet werden
+	 */
+	public static boolean isEnabled() {
+		return VirtualThreads.enabled;
+	}
+	/**
+	 * Erstellt eine Fabrik fr Threads mit dem bergebenen Namen. Je nach
+	 * Modus werden virtuelle Threads oder gewhnliche Daemon-Threads
+	 * erstellt.
+	 * 
+	 * @param name
+	 *            der Name der Threads
+	 * @return die Fabrik
+	 */
+	public static ThreadFactory newThreadFactory(String name) {
+		return VirtualThreads.newThreadFactory(name, VirtualThreads.enabled);
+	}
+	/**
+	 * Erstellt eine Fabrik fr Threads mit dem bergebenen Namen unabhngig
+	 * vom eingeschalteten Modus.
+	 * 
+	 * @param name
+	 *            der Name der Threads
+	 * @param virtual
+	 *            <code>true</code> fr virtuelle Threads
+	 * @return die Fabrik
+	 * @throws UnsupportedOperationException
+	 *             falls virtuelle Threads verlangt werden, aber nicht
+	 *             angeboten werden
+	 */
+	public static ThreadFactory newThreadFactory(final String name, boolean virtual) {
+		if (!virtual) {
+			return new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, name);
+					thread.setDaemon(true);
+					return thread;
+				}
+			};
+		}
+		if (!VirtualThreads.isSupported())
+			throw new UnsupportedOperationException("virtual threads require java 21");
+		try {
+			Object builder = VirtualThreads.OF_VIRTUAL.invoke(null);
+			builder = VirtualThreads.NAME.invoke(builder, name + "-", 0L);
+			return (ThreadFactory) VirtualThreads.FACTORY.invoke(builder);
+		} catch (Exception e) {
+			throw new UnsupportedOperationException(e);
+		}
+	}
+	/**
+	 * Erstellt einen Pool, der jede Aufgabe sofort auf einem Thread ausfhrt.
+	 * Im eingeschalteten Modus erhlt jede Aufgabe einen eigenen virtuellen
+	 * Thread, sonst werden Daemon-Threads wiederverwendet.
+	 * 
+	 * @param name
+	 *            der Name der Threads
+	 * @return der Pool
+	 */
+	public static ExecutorService newExecutor(String name) {
+		return VirtualThreads.newExecutor(name, VirtualThreads.enabled);
+	}
+	/**
+	 * Erstellt einen Pool wie {@link #newExecutor(String)} unabhngig vom
+	 * eingeschalteten Modus.
+	 * 
+	 * @param name
+	 *            der Name der Threads
+	 * @param virtual
+	 *            <code>true</code> fr virtuelle Threads
+	 * @return der Pool
+	 * @throws UnsupportedOperationException
+	 *             falls virtuelle Threads verlangt werden, aber nicht
+	 *             angeboten werden
+	 */
+	public static ExecutorService newExecutor(String name, boolean virtual) {
+		ThreadFactory factory = VirtualThreads.newThreadFactory(name, virtual);
+		if (!virtual)
+			return Executors.newCachedThreadPool(factory);
+		try {
+			return (ExecutorService) VirtualThreads.NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, factory);
+		} catch (Exception e) {
+			throw new UnsupportedOperationException(e);
+		}
+	}
+}
@@ -0,0 +1,199 @@
+package de.uni_leipzig.asv.web.cache;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.cache.HttpCacheEntrySerializer;
+import org.apache.http.client.cache.HttpCacheStorage;
+import org.apache.http.client.cache.HttpCacheUpdateCallback;
+import org.apache.http.impl.client.cache.DefaultHttpCacheEntrySerializer;
+/**
+ * Ein Speicher fr Cache-Eintrge in einem Verzeichnis. Jeder Eintrag liegt
+ * in einer eigenen Datei, deren Name aus dem Schlssel berechnet wird, und
+ * bersteht damit einen Neustart. berschreitet die Gesamtgre der Eintrge
+ * die Obergrenze, werden die am lngsten nicht verwendeten Eintrge gelscht.
+ * Die Reihenfolge der Verwendung wird ber die nderungszeit der Dateien
+ * festgehalten.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class FileCacheStorage implements HttpCacheStorage {
+	private static final String SUFFIX = ".entry";
+	private final File directory;
+	private final long maxSize;
+	private final HttpCacheEntrySerializer serializer = new DefaultHttpCacheEntrySerializer();
+	private final LinkedHashMap<String, Long> index = new LinkedHashMap<String, Long>(16, 0.75f, true);
+	// a lock instead of a monitor keeps virtual threads from pinning their carrier during file operations
+	private final ReentrantLock lock = new ReentrantLock();
+	private long size = 0;
+	/**
+	 * Erstellt einen Speicher im bergebenen Verzeichnis und liest die dort
+	 * vorhandenen Eintrge ein.
+	 * 
+	 * @param directory
+	 *            das Verzeichnis, wird bei Bedarf angelegt
+	 * @param maxSize
+	 *            die Obergrenze der Gesamtgre in Bytes
+	 * @throws IOException
+	 *             falls das Verzeichnis nicht angelegt werden konnte
+	 */
+	public FileCacheStorage(File directory, long maxSize) throws IOException {
+		if (directory == null)
+			throw new IllegalArgumentException("directory may not be null");
+		if (maxSize < 1)
+			throw new IllegalArgumentException("max size must be positive");
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("cannot create cache directory " + directory);
+		this.directory = directory;
+		this.maxSize = maxSize;
+		File[] files = directory.listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.endsWith(FileCacheStorage.SUFFIX);
+			}
+		});
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File a, File b) {
+				return Long.valueOf(a.lastModified()).compareTo(b.lastModified());
+			}
+		});
+		this.lock.lock();
+		try {
+			for (File file : files) {
+				this.index.put(file.getName(), file.length());
+				this.size += file.length();
+			}
+			this.evict();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	public void putEntry(String key, HttpCacheEntry entry) throws IOException {
+		String name = FileCacheStorage.fileName(key);
+		File temp = File.createTempFile("entry", ".tmp", this.directory);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			try {
+				out.writeUTF(key);
+				this.serializer.writeTo(entry, out);
+			} finally {
+				out.close();
+			}
+			File file = new File(this.directory, name);
+			this.lock.lock();
+			try {
+				if (!temp.renameTo(file)) {
+					file.delete();
+					if (!temp.renameTo(file))
+						throw new IOException("cannot write cache entry " + file);
+				}
+				Long previous = this.index.put(name, file.length());
+				if (previous != null)
+					this.size -= previous;
+				this.size += file.length();
+				this.evict();
+			} finally {
+				this.lock.unlock();
+			}
+		} finally {
+			temp.delete();
+		}
+	}
+	public HttpCacheEntry getEntry(String key) throws IOException {
+		String name = FileCacheStorage.fileName(key);
+		this.lock.lock();
+		try {
+			if (this.index.get(name) == null)
+				return null;
+		} finally {
+			this.lock.unlock();
+		}
+		File file = new File(this.directory, name);
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if (!in.readUTF().equals(key))
+					return null;
+				HttpCacheEntry entry = this.serializer.readFrom(in);
+				file.setLastModified(System.currentTimeMillis());
+				return entry;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			this.removeEntry(key);
+			return null;
+		}
+	}
+	public void removeEntry(String key) throws IOException {
+		String name = FileCacheStorage.fileName(key);
+		this.lock.lock();
+		try {
+			Long length = this.index.remove(name);
+			if (length != null) {
+				this.size -= length;
+				new File(this.directory, name).delete();
+			}
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	public void updateEntry(String key, HttpCacheUpdateCallback callback) throws IOException {
+		HttpCacheEntry entry = callback.update(this.getEntry(key));
+		if (entry != null)
+			this.putEntry(key, entry);
+		else
+			this.removeEntry(key);
+	}
+	/**
+	 * Gibt die Anzahl der Eintrge zurck.
+	 * 
+	 * @return die Anzahl der Eintrge
+	 */
+	public int getEntryCount() {
+		this.lock.lock();
+		try {
+			return this.index.size();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	/**
+	 * Gibt die Gesamtgre der Eintrge zurck.
+	 * 
+	 * @return die Gesamtgre in Bytes
+	 */
+	public long getSize() {
+		this.lock.lock();
+		try {
+			return this.size;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	private void evict() {
+		Iterator<Map.Entry<String, Long>> iterator = this.index.entrySet().iterator();
+		while (this.size > this.maxSize && iterator.hasNext()) {
+			Map.Entry<String, Long> entry = iterator.next();
+			this.size -= entry.getValue();
+			new File(this.directory, entry.getKey()).delete();
+			iterator.remove();
+		}
+	}
+	private static String fileName(String key) {
+		return DigestUtils.shaHex(key) + FileCacheStorage.SUFFIX;
+	}
+}
@@ -0,0 +1,127 @@
+package de.uni_leipzig.asv.web.cache;
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.client.cache.HeapResource;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+/**
+ * Ein dauerhafter Cache fr die Antworten einzelner Seiten. Die Antworten
+ * werden unter einem von der Anfrage bestimmten Schlssel in einem
+ * {@link FileCacheStorage} abgelegt und sind bis zum Ablauf ihrer
+ * Lebensdauer gltig. Treffer und Fehlschlge werden gezhlt.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class ResponseCache {
+	/**
+	 * Standartmige Lebensdauer eines Eintrags ist <code>24</code> Stunden.
+	 */
+	public static final long DEFAULT_TTL = 24 * 60 * 60 * 1000L;
+	/**
+	 * Standartmige Obergrenze der Gesamtgre ist <code>256</code> MB.
+	 */
+	public static final long DEFAULT_MAX_SIZE = 256 * 1024 * 1024L;
+	private static final Log LOG = LogFactory.getLog(ResponseCache.class);
+	private final FileCacheStorage storage;
+	private final long ttl;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	/**
+	 * Erstellt einen Cache im bergebenen Verzeichnis.
+	 * 
+	 * @param directory
+	 *            das Verzeichnis der Eintrge
+	 * @param ttl
+	 *            die Lebensdauer eines Eintrags in Millisekunden
+	 * @param maxSize
+	 *            die Obergrenze der Gesamtgre in Bytes
+	 * @throws IOException
+	 *             falls das Verzeichnis nicht angelegt werden konnte
+	 */
+	public ResponseCache(File directory, long ttl, long maxSize) throws IOException {
+		if (ttl < 1)
+			throw new IllegalArgumentException("ttl must be positive");
+		this.storage = new FileCacheStorage(directory, maxSize);
+		this.ttl = ttl;
+	}
+	/**
+	 * Gibt die zwischengespeicherte Antwort zum bergebenen Schlssel zurck.
+	 * 
+	 * @param key
+	 *            der Schlssel
+	 * @return die Antwort mit wiederholt lesbarem Inhalt oder
+	 *         <code>null</code>, falls kein gltiger Eintrag existiert
+	 */
+	public HttpResponse get(String key) {
+		try {
+			HttpCacheEntry entry = this.storage.getEntry(key);
+			if (entry != null && System.currentTimeMillis() - entry.getResponseDate().getTime() > this.ttl) {
+				this.storage.removeEntry(key);
+				entry = null;
+			}
+			if (entry == null) {
+				this.misses.incrementAndGet();
+				return null;
+			}
+			HttpResponse response = new BasicHttpResponse(entry.getStatusLine());
+			response.setHeaders(entry.getAllHeaders());
+			response.setEntity(new ByteArrayEntity(EntityUtils.toByteArray(new InputStreamEntity(entry.getResource().getInputStream(), entry.getResource().length()))));
+			this.hits.incrementAndGet();
+			return response;
+		} catch (IOException e) {
+			this.misses.incrementAndGet();
+			return null;
+		}
+	}
+	/**
+	 * Legt eine Antwort unter dem bergebenen Schlssel ab. Es werden nur
+	 * Antworten mit dem Status <code>200</code> abgelegt. Der Inhalt der
+	 * Antwort muss wiederholt lesbar sein.
+	 * 
+	 * @param key
+	 *            der Schlssel
+	 * @param response
+	 *            die Antwort
+	 * @param requestDate
+	 *            der Zeitpunkt der Anfrage
+	 */
+	public void put(String key, HttpResponse response, Date requestDate) {
+		if (response.getStatusLine().getStatusCode() != 200 || response.getEntity() == null)
+			return;
+		try {
+			byte[] content = EntityUtils.toByteArray(response.getEntity());
+			this.storage.putEntry(key, new HttpCacheEntry(requestDate, new Date(), response.getStatusLine(), response.getAllHeaders(), new HeapResource(content)));
+		} catch (IOException e) {
+			ResponseCache.LOG.warn("cannot cache response: " + e.getMessage());
+		}
+	}
+	/**
+	 * Gibt die Anzahl der Treffer zurck.
+	 * 
+	 * @return die Anzahl der Treffer
+	 */
+	public long getHitCount() {
+		return this.hits.get();
+	}
+	/**
+	 * Gibt die Anzahl der Fehlschlge zurck.
+	 * 
+	 * @return die Anzahl der Fehlschlge
+	 */
+	public long getMissCount() {
+		return this.misses.get();
+	}
+	@Override
+	public String toString() {
+		return String.format("hits=%d misses=%d entries=%d size=%dKB", this.hits.get(), this.misses.get(), this.storage.getEntryCount(), this.storage.getSize() / 1024);
+	}
+}
@@ -0,0 +1,514 @@
+package de.uni_leipzig.asv.web.html;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.jsoup.parser.Parser;
+/**
+ * Ein ereignisbasierter HTML-Leser. Die Eingabe wird in einem Durchgang in
+ * Elemente und Texte zerlegt und an einen {@link Handler} gemeldet, ohne dass
+ * ein Dokumentbaum aufgebaut wird. Offene Elemente werden auf einem Stapel
+ * gefhrt und nach den gngigen Regeln des HTML-Parsers von Jsoup implizit
+ * geschlossen, sodass jeder Start eines Elements ein passendes Ende erhlt.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class HtmlScanner {
+	/**
+	 * Empfngt die Ereignisse des Lesers.
+	 * 
+	 * @author Sergej Sintschilin
+	 * @author Quan Nguyen
+	 */
+	public static interface Handler {
+		/**
+		 * Meldet den Start eines Elements.
+		 * 
+		 * @param tag
+		 *            das Element, gltig nur bis zur Rckkehr der Methode
+		 * @param depth
+		 *            die Anzahl der offenen Vorfahren des Elements
+		 * @throws IOException
+		 *             falls das Lesen abgebrochen werden soll
+		 */
+		public void startElement(Tag tag, int depth) throws IOException;
+		/**
+		 * Meldet das Ende eines Elements.
+		 * 
+		 * @param name
+		 *            der Name des Elements in Kleinbuchstaben
+		 * @param depth
+		 *            die Anzahl der offenen Vorfahren des Elements
+		 * @throws IOException
+		 *             falls das Lesen abgebrochen werden soll
+		 */
+		public void endElement(String name, int depth) throws IOException;
+		/**
+		 * Meldet einen Text mit aufgelsten Entitten.
+		 * 
+		 * @param text
+		 *            der Text
+		 * @param preformatted
+		 *            <code>true</code>, falls der Text in einem Element liegt,
+		 *            dessen Leerraum erhalten bleibt
+		 * @throws IOException
+		 *             falls das Lesen abgebrochen werden soll
+		 */
+		public void text(String text, boolean preformatted) throws IOException;
+	}
+	/**
+	 * Der Start eines Elements mit seinen Attributen. Das Objekt wird vom
+	 * Leser wiederverwendet.
+	 * 
+	 * @author Sergej Sintschilin
+	 * @author Quan Nguyen
+	 */
+	public static final class Tag {
+		private String name = null;
+		private String[] attributes = new String[16];
+		private int attributeCount = 0;
+		private Tag() {}
+		/**
+		 * Gibt den Namen des Elements zurck.
+		 * 
+		 * @return der Name in Kleinbuchstaben
+		 */
+		public String getName() {
+			return this.name;
+		}
+		/**
+		 * Gibt den Wert eines Attributs zurck.
+		 * 
+		 * @param name
+		 *            der Name des Attributs in Kleinbuchstaben
+		 * @return der Wert oder <code>null</code>, falls das Attribut fehlt
+		 */
+		public String getAttribute(String name) {
+			for (int i = 0; i < this.attributeCount; i++)
+				if (this.attributes[2 * i].equals(name))
+					return this.attributes[2 * i + 1];
+			return null;
+		}
+		/**
+		 * berprft, ob das Element die bergebene Klasse besitzt.
+		 * 
+		 * @param className
+		 *            die Klasse
+		 * @return <code>true</code>, falls das Element die Klasse besitzt
+		 */
+		public boolean hasClass(String className) {
+			String value = this.getAttribute("class");
+			if (value == null)
+				return false;
+			int length = className.length();
+			int i = 0;
+			while (i < value.length()) {
+				while (i < value.length() && HtmlScanner.isWhitespace(value.charAt(i)))
+					i++;
+				int start = i;
+				while (i < value.length() && !HtmlScanner.isWhitespace(value.charAt(i)))
+					i++;
+				if (i - start == length && value.regionMatches(true, start, className, 0, length))
+					return true;
+			}
+			return false;
+		}
+		/**
+		 * berprft, ob das Element die bergebene Id besitzt.
+		 * 
+		 * @param id
+		 *            die Id
+		 * @return <code>true</code>, falls das Element die Id besitzt
+		 */
+		public boolean hasId(String id) {
+			return id.equals(this.getAttribute("id"));
+		}
+		private void put(String name, String value) {
+			for (int i = 0; i < this.attributeCount; i++) {
+				if (this.attributes[2 * i].equals(name)) {
+					this.attributes[2 * i + 1] = value;
+					return;
+				}
+			}
+			if (2 * this.attributeCount == this.attributes.length)
+				this.attributes = Arrays.copyOf(this.attributes, 2 * this.attributes.length);
+			this.attributes[2 * this.attributeCount] = name;
+			this.attributes[2 * this.attributeCount + 1] = value;
+			this.attributeCount++;
+		}
+	}
+	private static final Set<String> VOID_ELEMENTS = HtmlScanner.set("area", "base", "basefont", "bgsound", "br", "col", "command", "embed", "frame", "hr", "img", "input", "keygen", "link", "meta", "param", "source", "track", "wbr");
+	private static final Set<String> DATA_ELEMENTS = HtmlScanner.set("script", "style", "xmp", "iframe", "noembed", "noframes");
+	private static final Set<String> RCDATA_ELEMENTS = HtmlScanner.set("title", "textarea");
+	private static final Set<String> PARAGRAPH_CLOSERS = HtmlScanner.set("address", "article", "aside", "blockquote", "center", "details", "dir", "div", "dl", "fieldset", "figcaption", "figure", "footer", "header", "hgroup", "menu", "nav", "ol", "p", "section", "summary", "ul", "h1", "h2", "h3", "h4", "h5", "h6", "pre", "listing", "form", "hr", "plaintext");
+	private static final Set<String> PREFORMATTED_ELEMENTS = HtmlScanner.set("pre", "plaintext", "textarea");
+	private static final Set<String> HEADINGS = HtmlScanner.set("h1", "h2", "h3", "h4", "h5", "h6");
+	private static final Set<String> BUTTON_SCOPE = HtmlScanner.set("applet", "caption", "html", "table", "td", "th", "marquee", "object", "button");
+	private static final Set<String> LIST_SCOPE = HtmlScanner.set("ul", "ol", "menu", "table", "td", "th", "body", "html");
+	private static final Set<String> FORMATTING_SCOPE = HtmlScanner.set("applet", "caption", "html", "marquee", "object", "table", "td", "th");
+	private static final Set<String> TABLE_SCOPE = HtmlScanner.set("table", "html");
+	private static final Set<String> CELLS = HtmlScanner.set("td", "th");
+	private static final Set<String> SECTIONS = HtmlScanner.set("tbody", "thead", "tfoot");
+	private static final Pattern CHARSET_PATTERN = Pattern.compile("<meta[^>]*charset\\s*=\\s*[\"']?\\s*([-\\w.:]+)", Pattern.CASE_INSENSITIVE);
+	private static final int SNIFF_LIMIT = 1024;
+	private final Reader in;
+	private final char[] buffer = new char[8192];
+	private int position = 0;
+	private int limit = 0;
+	private final List<String> stack = new ArrayList<String>();
+	private final StringBuilder text = new StringBuilder();
+	private final Tag tag = new Tag();
+	private int preformatted = 0;
+	private Handler handler = null;
+	/**
+	 * Erstellt einen Leser fr die bergebene Eingabe.
+	 * 
+	 * @param in
+	 *            die Eingabe
+	 */
+	public HtmlScanner(Reader in) {
+		if (in == null)
+			throw new IllegalArgumentException();
+		this.in = in;
+	}
+	/**
+	 * Erstellt einen Leser fr einen Bytestrom. Ist keine Zeichenkodierung
+	 * angegeben, wird sie wie bei Jsoup aus einem <code>meta</code>-Element am
+	 * Anfang des Dokuments bestimmt und sonst UTF-8 verwendet.
+	 * 
+	 * @param in
+	 *            der Bytestrom
+	 * @param charsetName
+	 *            die Zeichenkodierung oder <code>null</code>
+	 * @return der Leser
+	 * @throws IOException
+	 *             falls der Bytestrom nicht gelesen werden konnte
+	 */
+	public static HtmlScanner open(InputStream in, String charsetName) throws IOException {
+		if (charsetName == null) {
+			BufferedInputStream buffered = new BufferedInputStream(in, HtmlScanner.SNIFF_LIMIT);
+			buffered.mark(HtmlScanner.SNIFF_LIMIT);
+			byte[] head = new byte[HtmlScanner.SNIFF_LIMIT];
+			int length = 0;
+			for (int n; length < head.length && (n = buffered.read(head, length, head.length - length)) > 0;)
+				length += n;
+			buffered.reset();
+			charsetName = "UTF-8";
+			Matcher matcher = HtmlScanner.CHARSET_PATTERN.matcher(new String(head, 0, length, "ISO-8859-1"));
+			if (matcher.find() && Charset.isSupported(matcher.group(1)))
+				charsetName = matcher.group(1);
+			in = buffered;
+		}
+		return new HtmlScanner(new InputStreamReader(in, charsetName));
+	}
+	/**
+	 * Liest die Eingabe vollstndig und meldet die Ereignisse an den
+	 * bergebenen Empfnger. Am Ende der Eingabe werden alle offenen Elemente
+	 * geschlossen.
+	 * 
+	 * @param handler
+	 *            der Empfnger der Ereignisse
+	 * @throws IOException
+	 *             falls die Eingabe nicht gelesen werden konnte oder der
+	 *             Empfnger das Lesen abgebrochen hat
+	 */
+	public void scan(Handler handler) throws IOException {
+		this.handler = handler;
+		try {
+			if (this.peek() == '\uFEFF')
+				this.read();
+			int c;
+			while ((c = this.read()) != -1) {
+				if (c != '<') {
+					this.text.append((char) c);
+					continue;
+				}
+				int next = this.peek();
+				if (next == '/') {
+					this.read();
+					this.flushText();
+					this.readEndTag();
+				} else if (next == '!' || next == '?') {
+					this.flushText();
+					this.skipMarkup();
+				} else if (HtmlScanner.isLetter(next)) {
+					this.flushText();
+					this.readStartTag();
+				} else
+					this.text.append('<');
+			}
+			this.flushText();
+			this.popTo(0);
+		} finally {
+			this.handler = null;
+			this.in.close();
+		}
+	}
+	private void readStartTag() throws IOException {
+		Tag tag = this.tag;
+		tag.name = this.readName();
+		tag.attributeCount = 0;
+		boolean selfClosing = false;
+		while (true) {
+			int c = this.read();
+			if (c == -1)
+				return;
+			if (c == '>')
+				break;
+			if (c == '/') {
+				if (this.peek() == '>') {
+					this.read();
+					selfClosing = true;
+					break;
+				}
+				continue;
+			}
+			if (HtmlScanner.isWhitespace(c))
+				continue;
+			StringBuilder name = new StringBuilder();
+			name.append(Character.toLowerCase((char) c));
+			while ((c = this.peek()) != -1 && !HtmlScanner.isWhitespace(c) && c != '=' && c != '>' && c != '/') {
+				this.read();
+				name.append(Character.toLowerCase((char) c));
+			}
+			this.skipWhitespace();
+			String value = "";
+			if (this.peek() == '=') {
+				this.read();
+				this.skipWhitespace();
+				value = this.readAttributeValue();
+			}
+			tag.put(name.toString(), value);
+		}
+		String name = tag.name;
+		this.closeImplied(name);
+		int depth = this.stack.size();
+		this.handler.startElement(tag, depth);
+		if (selfClosing || HtmlScanner.VOID_ELEMENTS.contains(name)) {
+			this.handler.endElement(name, depth);
+			return;
+		}
+		this.push(name);
+		if (HtmlScanner.DATA_ELEMENTS.contains(name)) {
+			this.readRawText(name, false);
+			this.popTo(depth);
+		} else if (HtmlScanner.RCDATA_ELEMENTS.contains(name)) {
+			this.readRawText(name, true);
+			this.flushText();
+			this.popTo(depth);
+		}
+	}
+	private void readEndTag() throws IOException {
+		if (!HtmlScanner.isLetter(this.peek())) {
+			this.skipTo('>');
+			return;
+		}
+		String name = this.readName();
+		this.skipTo('>');
+		if (name.equals("br")) {
+			this.tag.name = name;
+			this.tag.attributeCount = 0;
+			this.handler.startElement(this.tag, this.stack.size());
+			this.handler.endElement(name, this.stack.size());
+			return;
+		}
+		int i = this.stack.lastIndexOf(name);
+		if (i >= 0)
+			this.popTo(i);
+		else if (name.equals("p")) {
+			this.tag.name = name;
+			this.tag.attributeCount = 0;
+			this.handler.startElement(this.tag, this.stack.size());
+			this.handler.endElement(name, this.stack.size());
+		}
+	}
+	private void closeImplied(String name) throws IOException {
+		if (HtmlScanner.PARAGRAPH_CLOSERS.contains(name)) {
+			int i = this.find("p", HtmlScanner.BUTTON_SCOPE);
+			if (i >= 0)
+				this.popTo(i);
+			if (HtmlScanner.HEADINGS.contains(name) && !this.stack.isEmpty() && HtmlScanner.HEADINGS.contains(this.stack.get(this.stack.size() - 1)))
+				this.popTo(this.stack.size() - 1);
+		}
+		if (name.equals("a")) {
+			int i = this.find("a", HtmlScanner.FORMATTING_SCOPE);
+			if (i >= 0)
+				this.popTo(i);
+		} else if (name.equals("li")) {
+			int i = this.find("li", HtmlScanner.LIST_SCOPE);
+			if (i >= 0)
+				this.popTo(i);
+		} else if (HtmlScanner.CELLS.contains(name)) {
+			for (int i = this.stack.size() - 1; i >= 0; i--) {
+				String open = this.stack.get(i);
+				if (HtmlScanner.CELLS.contains(open)) {
+					this.popTo(i);
+					break;
+				}
+				if (open.equals("tr") || HtmlScanner.TABLE_SCOPE.contains(open))
+					break;
+			}
+		} else if (name.equals("tr")) {
+			int i = this.find("tr", HtmlScanner.TABLE_SCOPE);
+			if (i >= 0)
+				this.popTo(i);
+		} else if (HtmlScanner.SECTIONS.contains(name)) {
+			for (int i = this.stack.size() - 1; i >= 0; i--) {
+				String open = this.stack.get(i);
+				if (HtmlScanner.SECTIONS.contains(open)) {
+					this.popTo(i);
+					break;
+				}
+				if (HtmlScanner.TABLE_SCOPE.contains(open))
+					break;
+			}
+		}
+	}
+	private int find(String name, Set<String> scope) {
+		for (int i = this.stack.size() - 1; i >= 0; i--) {
+			String open = this.stack.get(i);
+			if (open.equals(name))
+				return i;
+			if (scope.contains(open))
+				return -1;
+		}
+		return -1;
+	}
+	private void push(String name) {
+		this.stack.add(name);
+		if (HtmlScanner.PREFORMATTED_ELEMENTS.contains(name))
+			this.preformatted++;
+	}
+	private void popTo(int depth) throws IOException {
+		for (int i = this.stack.size() - 1; i >= depth; i--) {
+			String name = this.stack.remove(i);
+			if (HtmlScanner.PREFORMATTED_ELEMENTS.contains(name))
+				this.preformatted--;
+			this.handler.endElement(name, i);
+		}
+	}
+	private void readRawText(String name, boolean keep) throws IOException {
+		int start = this.text.length();
+		char last = name.charAt(name.length() - 1);
+		int c;
+		while ((c = this.read()) != -1) {
+			this.text.append((char) c);
+			if (Character.toLowerCase((char) c) != last)
+				continue;
+			int end = this.text.length() - name.length() - 2;
+			if (end >= start && this.text.charAt(end) == '<' && this.text.charAt(end + 1) == '/' && this.endsWith(name)) {
+				this.text.setLength(end);
+				this.skipTo('>');
+				break;
+			}
+		}
+		if (!keep)
+			this.text.setLength(start);
+	}
+	private boolean endsWith(String name) {
+		int offset = this.text.length() - name.length();
+		for (int i = 0; i < name.length(); i++)
+			if (Character.toLowerCase(this.text.charAt(offset + i)) != name.charAt(i))
+				return false;
+		return true;
+	}
+	private void flushText() throws IOException {
+		if (this.text.length() == 0)
+			return;
+		String text = this.text.toString();
+		this.text.setLength(0);
+		if (text.indexOf('&') >= 0)
+			text = Parser.unescapeEntities(text, false);
+		this.handler.text(text, this.preformatted > 0);
+	}
+	private String readName() throws IOException {
+		StringBuilder name = new StringBuilder();
+		int c;
+		while ((c = this.peek()) != -1 && !HtmlScanner.isWhitespace(c) && c != '>' && c != '/') {
+			this.read();
+			name.append(Character.toLowerCase((char) c));
+		}
+		return name.toString();
+	}
+	private String readAttributeValue() throws IOException {
+		StringBuilder value = new StringBuilder();
+		int c = this.peek();
+		if (c == '"' || c == '\'') {
+			int quote = this.read();
+			while ((c = this.read()) != -1 && c != quote)
+				value.append((char) c);
+		} else {
+			while ((c = this.peek()) != -1 && !HtmlScanner.isWhitespace(c) && c != '>') {
+				this.read();
+				value.append((char) c);
+			}
+		}
+		String result = value.toString();
+		if (result.indexOf('&') >= 0)
+			result = Parser.unescapeEntities(result, true);
+		return result;
+	}
+	private void skipMarkup() throws IOException {
+		this.read();
+		if (this.peek() == '-') {
+			this.read();
+			if (this.peek() == '-') {
+				this.read();
+				int dashes = 0;
+				int c;
+				while ((c = this.read()) != -1) {
+					if (c == '>' && dashes >= 2)
+						return;
+					dashes = c == '-' ? dashes + 1 : 0;
+				}
+				return;
+			}
+		}
+		this.skipTo('>');
+	}
+	private void skipTo(char end) throws IOException {
+		int c;
+		while ((c = this.read()) != -1 && c != end) {}
+	}
+	private void skipWhitespace() throws IOException {
+		while (HtmlScanner.isWhitespace(this.peek()))
+			this.read();
+	}
+	private int read() throws IOException {
+		if (this.position == this.limit && !this.fill())
+			return -1;
+		return this.buffer[this.position++];
+	}
+	private int peek() throws IOException {
+		if (this.position == this.limit && !this.fill())
+			return -1;
+		return this.buffer[this.position];
+	}
+	private boolean fill() throws IOException {
+		int n = this.in.read(this.buffer, 0, this.buffer.length);
+		if (n <= 0)
+			return false;
+		this.position = 0;
+		this.limit = n;
+		return true;
+	}
+	static boolean isWhitespace(int c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\f' || c == '\r';
+	}
+	private static boolean isLetter(int c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+	private static Set<String> set(String... values) {
+		return new HashSet<String>(Arrays.asList(values));
+	}
+}
@@ -0,0 +1,77 @@
+package de.uni_leipzig.asv.web.html;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+/**
+ * Sammelt den Text eines Elements aus den Ereignissen eines
+ * {@link HtmlScanner}. Leerraum wird wie bei <code>Element.text()</code> von
+ * Jsoup zusammengefasst, auer in vorformatierten Elementen, und vor
+ * Blockelementen und Zeilenumbrchen wird ein Leerzeichen eingefgt.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class TextCollector {
+	private static final Set<String> BLOCK_ELEMENTS = new HashSet<String>(Arrays.asList("html", "head", "body", "frameset", "script", "noscript", "style", "meta", "link", "title", "frame", "noframes", "section", "nav", "aside", "hgroup", "header", "footer", "p", "h1", "h2", "h3", "h4", "h5", "h6", "ul", "ol", "pre", "div", "blockquote", "hr", "address", "figure", "figcaption", "form", "fieldset", "ins", "del", "s", "dl", "dt", "dd", "li", "table", "caption", "thead", "tfoot", "tbody", "colgroup", "col", "tr", "th", "td", "video", "audio", "canvas", "details", "menu", "plaintext"));
+	private final StringBuilder text = new StringBuilder();
+	/**
+	 * Meldet den Start eines Nachfahren des gesammelten Elements.
+	 * 
+	 * @param name
+	 *            der Name des Nachfahren
+	 */
+	public void startElement(String name) {
+		if (this.text.length() > 0 && !this.endsWithSpace() && (TextCollector.BLOCK_ELEMENTS.contains(name) || name.equals("br")))
+			this.text.append(' ');
+	}
+	/**
+	 * Fgt einen Text an.
+	 * 
+	 * @param text
+	 *            der Text
+	 * @param preformatted
+	 *            <code>true</code>, falls der Leerraum des Textes erhalten
+	 *            bleiben soll
+	 */
+	public void append(String text, boolean preformatted) {
+		if (preformatted) {
+			this.text.append(text);
+			return;
+		}
+		boolean space = this.endsWithSpace();
+		boolean whitespace = false;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (HtmlScanner.isWhitespace(c)) {
+				whitespace = true;
+				continue;
+			}
+			if (whitespace && !space)
+				this.text.append(' ');
+			whitespace = false;
+			space = false;
+			this.text.append(c);
+		}
+		if (whitespace && !space)
+			this.text.append(' ');
+	}
+	/**
+	 * Leert den gesammelten Text.
+	 */
+	public void clear() {
+		this.text.setLength(0);
+	}
+	private boolean endsWithSpace() {
+		return this.text.length() > 0 && this.text.charAt(this.text.length() - 1) == ' ';
+	}
+	/**
+	 * Gibt den gesammelten Text ohne fhrenden und abschlieenden Leerraum
+	 * zurck.
+	 * 
+	 * @return der Text
+	 */
+	@Override
+	public String toString() {
+		return this.text.toString().trim();
+	}
+}
@@ -0,0 +1,39 @@
+package de.uni_leipzig.asv.web.metrics;
+import java.util.concurrent.atomic.AtomicLong;
+/**
+ * Ein nebenlufig verwendbarer Zhler, der ohne Sperren hochgezhlt wird.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class Counter implements CounterMBean {
+	private final AtomicLong count = new AtomicLong();
+	private final long created = System.currentTimeMillis();
+	Counter() {}
+	/**
+	 * Zhlt den Zhler um eins hoch.
+	 */
+	public void increment() {
+		this.count.incrementAndGet();
+	}
+	/**
+	 * Zhlt den Zhler um den bergebenen Wert hoch.
+	 * 
+	 * @param n
+	 *            der Wert
+	 */
+	public void add(long n) {
+		this.count.addAndGet(n);
+	}
+	public long getCount() {
+		return this.count.get();
+	}
+	public double getMeanRate() {
+		long elapsed = System.currentTimeMillis() - this.created;
+		return elapsed <= 0 ? 0 : this.count.get() * 1000.0 / elapsed;
+	}
+	@Override
+	public String toString() {
+		return String.format("count=%d rate=%.2f/s", this.count.get(), this.getMeanRate());
+	}
+}
@@ -0,0 +1,21 @@
+package de.uni_leipzig.asv.web.metrics;
+/**
+ * Die Verwaltungsschnittstelle eines {@link Counter}.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public interface CounterMBean {
+	/**
+	 * Gibt den Stand des Zhlers zurck.
+	 * 
+	 * @return der Stand des Zhlers
+	 */
+	public long getCount();
+	/**
+	 * Gibt die mittlere Rate seit dem Erstellen des Zhlers zurck.
+	 * 
+	 * @return die Rate je Sekunde
+	 */
+	public double getMeanRate();
+}
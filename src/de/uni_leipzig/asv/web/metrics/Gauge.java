@@ -0,0 +1,17 @@
+package de.uni_leipzig.asv.web.metrics;
+/**
+ * Ein Messwert, der bei jeder Abfrage neu bestimmt wird, etwa die Gre
+ * eines Pools. Die Schnittstelle dient zugleich als Verwaltungsschnittstelle.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public interface Gauge {
+	/**
+	 * Gibt den aktuellen Wert zurck. Die Methode muss nebenlufig aufrufbar
+	 * sein.
+	 * 
+	 * @return der Wert
+	 */
+	public double getValue();
+}
@@ -0,0 +1,111 @@
+package de.uni_leipzig.asv.web.metrics;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+/**
+ * Ein nebenlufig verwendbares Histogramm mit logarithmisch-linearen
+ * Klassen. Werte unter <code>64</code> werden exakt gezhlt, darber wird
+ * jede Zweierpotenz in <code>32</code> gleich breite Klassen geteilt, sodass
+ * der relative Fehler eines Perzentils hchstens gut drei Prozent betrgt.
+ * Das Erfassen eines Wertes kommt ohne Sperren und ohne Speicheranforderung
+ * aus. Werte ab <code>2^40</code> werden als grte Klasse gezhlt, negative
+ * Werte als <code>0</code>.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class Histogram implements HistogramMBean {
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final int SUB_BUCKET_COUNT = 1 << Histogram.SUB_BUCKET_BITS;
+	private static final int HALF_SUB_BUCKET_COUNT = Histogram.SUB_BUCKET_COUNT / 2;
+	private static final int MAX_EXPONENT = 40;
+	private static final long MAX_VALUE = (1L << Histogram.MAX_EXPONENT) - 1;
+	private static final int BUCKET_COUNT = Histogram.SUB_BUCKET_COUNT + (Histogram.MAX_EXPONENT - Histogram.SUB_BUCKET_BITS) * Histogram.HALF_SUB_BUCKET_COUNT;
+	private final AtomicLongArray counts = new AtomicLongArray(Histogram.BUCKET_COUNT);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+	Histogram() {}
+	/**
+	 * Erfasst einen Wert.
+	 * 
+	 * @param value
+	 *            der Wert
+	 */
+	public void record(long value) {
+		value = Math.max(0, Math.min(value, Histogram.MAX_VALUE));
+		this.counts.incrementAndGet(Histogram.index(value));
+		this.count.incrementAndGet();
+		this.sum.addAndGet(value);
+		long max;
+		while (value > (max = this.max.get()) && !this.max.compareAndSet(max, value));
+	}
+	public long getCount() {
+		return this.count.get();
+	}
+	public double getMean() {
+		long count = this.count.get();
+		return count == 0 ? 0 : (double) this.sum.get() / count;
+	}
+	public long getMax() {
+		return this.max.get();
+	}
+	/**
+	 * Gibt das Perzentil der erfassten Werte zurck. Geliefert wird die obere
+	 * Grenze der Klasse, in die das Perzentil fllt, hchstens aber der
+	 * grte erfasste Wert.
+	 * 
+	 * @param percentile
+	 *            das Perzentil zwischen <code>0</code> und <code>1</code>
+	 * @return der Wert des Perzentils oder <code>0</code>, falls kein Wert
+	 *         erfasst wurde
+	 */
+	public long getPercentile(double percentile) {
+		if (percentile < 0 || percentile > 1)
+			throw new IllegalArgumentException("percentile must be between 0 and 1");
+		long[] counts = new long[Histogram.BUCKET_COUNT];
+		long total = 0;
+		for (int i = 0; i < counts.length; i++)
+			total += counts[i] = this.counts.get(i);
+		if (total == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(percentile * total));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank)
+				return Math.min(Histogram.upperBound(i), this.max.get());
+		}
+		return this.max.get();
+	}
+	public long getMedian() {
+		return this.getPercentile(0.5);
+	}
+	public long get90thPercentile() {
+		return this.getPercentile(0.9);
+	}
+	public long get99thPercentile() {
+		return this.getPercentile(0.99);
+	}
+	public long get999thPercentile() {
+		return this.getPercentile(0.999);
+	}
+	private static int index(long value) {
+		if (value < Histogram.SUB_BUCKET_COUNT)
+			return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - Histogram.SUB_BUCKET_BITS + 1;
+		return Histogram.SUB_BUCKET_COUNT + (exponent - Histogram.SUB_BUCKET_BITS) * Histogram.HALF_SUB_BUCKET_COUNT + (int) (value >>> shift) - Histogram.HALF_SUB_BUCKET_COUNT;
+	}
+	private static long upperBound(int index) {
+		if (index < Histogram.SUB_BUCKET_COUNT)
+			return index;
+		int offset = index - Histogram.SUB_BUCKET_COUNT;
+		int shift = offset / Histogram.HALF_SUB_BUCKET_COUNT + 1;
+		long lower = (long) (offset % Histogram.HALF_SUB_BUCKET_COUNT + Histogram.HALF_SUB_BUCKET_COUNT) << shift;
+		return lower + (1L << shift) - 1;
+	}
+	@Override
+	public String toString() {
+		return String.format("count=%d mean=%.1f p50=%d p90=%d p99=%d p999=%d max=%d", this.count.get(), this.getMean(), this.getMedian(), this.get90thPercentile(), this.get99thPercentile(), this.get999thPercentile(), this.max.get());
+	}
+}
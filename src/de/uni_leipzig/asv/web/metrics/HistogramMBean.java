@@ -0,0 +1,51 @@
+package de.uni_leipzig.asv.web.metrics;
+/**
+ * Die Verwaltungsschnittstelle eines {@link Histogram}.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public interface HistogramMBean {
+	/**
+	 * Gibt die Anzahl der erfassten Werte zurck.
+	 * 
+	 * @return die Anzahl der Werte
+	 */
+	public long getCount();
+	/**
+	 * Gibt den Mittelwert der erfassten Werte zurck.
+	 * 
+	 * @return der Mittelwert
+	 */
+	public double getMean();
+	/**
+	 * Gibt den grten erfassten Wert zurck.
+	 * 
+	 * @return der grte Wert
+	 */
+	public long getMax();
+	/**
+	 * Gibt den Median der erfassten Werte zurck.
+	 * 
+	 * @return der Median
+	 */
+	public long getMedian();
+	/**
+	 * Gibt das 90. Perzentil der erfassten Werte zurck.
+	 * 
+	 * @return das 90. Perzentil
+	 */
+	public long get90thPercentile();
+	/**
+	 * Gibt das 99. Perzentil der erfassten Werte zurck.
+	 * 
+	 * @return das 99. Perzentil
+	 */
+	public long get99thPercentile();
+	/**
+	 * Gibt das 99,9. Perzentil der erfassten Werte zurck.
+	 * 
+	 * @return das 99,9. Perzentil
+	 */
+	public long get999thPercentile();
+}
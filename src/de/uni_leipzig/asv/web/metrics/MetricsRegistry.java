@@ -0,0 +1,176 @@
+package de.uni_leipzig.asv.web.metrics;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+/**
+ * Die gemeinsame Ablage aller Messgren. Eine Messgre wird ber ihren
+ * Namen und eine Folge von Schlssel-Wert-Paaren, etwa Suchmaschine und
+ * Proxy, bestimmt und beim ersten Abruf angelegt. Jede angelegte Messgre
+ * wird als MBean unter der Domne {@link #DOMAIN} im MBeanServer der
+ * Plattform verffentlicht und kann z.B. mit JConsole beobachtet werden.
+ * <p>
+ * Das Abrufen einer Messgre baut ihren Namen zusammen und sollte daher
+ * nicht bei jeder Messung wiederholt werden; die Messgren selbst sind
+ * ohne Sperren beschreibbar.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class MetricsRegistry {
+	/**
+	 * Die Domne der verffentlichten MBeans.
+	 */
+	public static final String DOMAIN = "de.uni_leipzig.asv";
+	private static final Log LOG = LogFactory.getLog(MetricsRegistry.class);
+	private static final MetricsRegistry instance = new MetricsRegistry();
+	/**
+	 * Gibt die gemeinsame Ablage zurck.
+	 * 
+	 * @return die Ablage
+	 */
+	public static MetricsRegistry getInstance() {
+		return MetricsRegistry.instance;
+	}
+	private final ConcurrentMap<String, Object> metrics = new ConcurrentHashMap<String, Object>();
+	private MetricsRegistry() {}
+	/**
+	 * Gibt den Zhler mit dem bergebenen Namen zurck und legt ihn bei
+	 * Bedarf an.
+	 * 
+	 * @param name
+	 *            der Name, z.B. <code>request.success</code>
+	 * @param tags
+	 *            abwechselnd Schlssel und Wert der Merkmale
+	 * @return der Zhler
+	 */
+	public Counter counter(String name, String... tags) {
+		String key = MetricsRegistry.key("Counter", name, tags);
+		Object metric = this.metrics.get(key);
+		if (metric == null)
+			metric = this.register(key, new Counter(), CounterMBean.class);
+		return (Counter) metric;
+	}
+	/**
+	 * Gibt das Histogramm mit dem bergebenen Namen zurck und legt es bei
+	 * Bedarf an.
+	 * 
+	 * @param name
+	 *            der Name mit Einheit, z.B. <code>request.latency.ms</code>
+	 * @param tags
+	 *            abwechselnd Schlssel und Wert der Merkmale
+	 * @return das Histogramm
+	 */
+	public Histogram histogram(String name, String... tags) {
+		String key = MetricsRegistry.key("Histogram", name, tags);
+		Object metric = this.metrics.get(key);
+		if (metric == null)
+			metric = this.register(key, new Histogram(), HistogramMBean.class);
+		return (Histogram) metric;
+	}
+	/**
+	 * Legt einen Messwert mit dem bergebenen Namen an. Existiert bereits ein
+	 * Messwert mit diesem Namen, bleibt er erhalten.
+	 * 
+	 * @param name
+	 *            der Name, z.B. <code>pool.size</code>
+	 * @param gauge
+	 *            der Messwert
+	 * @param tags
+	 *            abwechselnd Schlssel und Wert der Merkmale
+	 */
+	public void gauge(String name, Gauge gauge, String... tags) {
+		String key = MetricsRegistry.key("Gauge", name, tags);
+		if (!this.metrics.containsKey(key))
+			this.register(key, gauge, Gauge.class);
+	}
+	/**
+	 * Entfernt alle Messgren, die smtliche bergebenen Merkmale tragen, und
+	 * nimmt ihre MBeans aus dem MBeanServer, etwa wenn eine Proxy nicht mehr
+	 * verwendet wird. Wird eine entfernte Messgre erneut abgerufen, wird sie
+	 * neu angelegt.
+	 * 
+	 * @param tags
+	 *            abwechselnd Schlssel und Wert der Merkmale
+	 * @return die Anzahl der entfernten Messgren
+	 */
+	public int remove(String... tags) {
+		if (tags.length == 0 || tags.length % 2 != 0)
+			throw new IllegalArgumentException("tags must be key-value pairs");
+		int removed = 0;
+		for (String key : this.metrics.keySet()) {
+			try {
+				ObjectName name = new ObjectName(key);
+				boolean matches = true;
+				for (int i = 0; i < tags.length && matches; i += 2)
+					matches = MetricsRegistry.quote(tags[i + 1]).equals(name.getKeyProperty(tags[i]));
+				if (!matches || this.metrics.remove(key) == null)
+					continue;
+				removed++;
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				if (server.isRegistered(name))
+					server.unregisterMBean(name);
+			} catch (JMException e) {
+				MetricsRegistry.LOG.debug("cannot unregister " + key, e);
+			}
+		}
+		return removed;
+	}
+	/**
+	 * Gibt alle Messgren nach ihren Namen sortiert zurck.
+	 * 
+	 * @return die Messgren unter den Namen ihrer MBeans
+	 */
+	public SortedMap<String, Object> getMetrics() {
+		return new TreeMap<String, Object>(this.metrics);
+	}
+	private <T> Object register(String key, T metric, Class<T> type) {
+		Object previous = this.metrics.putIfAbsent(key, metric);
+		if (previous != null)
+			return previous;
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			server.registerMBean(new StandardMBean(metric, type), new ObjectName(key));
+		} catch (JMException e) {
+			MetricsRegistry.LOG.debug("cannot register " + key, e);
+		}
+		return metric;
+	}
+	private static String key(String type, String name, String[] tags) {
+		if (tags.length % 2 != 0)
+			throw new IllegalArgumentException("tags must be key-value pairs");
+		StringBuilder key = new StringBuilder(MetricsRegistry.DOMAIN);
+		key.append(":type=").append(type).append(",name=").append(MetricsRegistry.quote(name));
+		for (int i = 0; i < tags.length; i += 2)
+			key.append(',').append(tags[i]).append('=').append(MetricsRegistry.quote(tags[i + 1]));
+		return key.toString();
+	}
+	private static String quote(String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '.' || c == '-' || c == '_'))
+				return ObjectName.quote(value);
+		}
+		return value;
+	}
+	static String format(Object metric) {
+		if (metric instanceof Gauge)
+			return String.format("value=%.2f", ((Gauge) metric).getValue());
+		return metric.toString();
+	}
+	@Override
+	public String toString() {
+		StringBuilder string = new StringBuilder();
+		for (Map.Entry<String, Object> metric : this.getMetrics().entrySet())
+			string.append(metric.getKey()).append(' ').append(MetricsRegistry.format(metric.getValue())).append('\n');
+		return string.toString();
+	}
+}
@@ -0,0 +1,111 @@
+package de.uni_leipzig.asv.web.metrics;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+/**
+ * Hngt den Stand aller Messgren in festen Abstnden an eine Datei an.
+ * Jeder Bericht beginnt mit einer Zeile mit dem Zeitpunkt, gefolgt von einer
+ * Zeile je Messgre. Fr Zhler wird zustzlich die Rate seit dem letzten
+ * Bericht angegeben.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class MetricsReporter {
+	/**
+	 * Standartmiger Abstand der Berichte ist <code>60</code> Sekunden.
+	 */
+	public static final long DEFAULT_INTERVAL = 60 * 1000;
+	private static final Log LOG = LogFactory.getLog(MetricsReporter.class);
+	private final MetricsRegistry registry;
+	private final File file;
+	private final long interval;
+	private final Map<String, Long> previousCounts = new HashMap<String, Long>();
+	private long previousReport = System.currentTimeMillis();
+	private Thread thread = null;
+	/**
+	 * Erstellt einen Berichterstatter fr die bergebene Datei.
+	 * 
+	 * @param registry
+	 *            die Ablage der Messgren
+	 * @param file
+	 *            die Datei, an die die Berichte angehngt werden
+	 * @param interval
+	 *            der Abstand der Berichte in Millisekunden
+	 */
+	public MetricsReporter(MetricsRegistry registry, File file, long interval) {
+		if (registry == null || file == null)
+			throw new IllegalArgumentException();
+		if (interval < 1)
+			throw new IllegalArgumentException("interval must be positive");
+		this.registry = registry;
+		this.file = file;
+		this.interval = interval;
+	}
+	/**
+	 * Startet die Berichte, falls sie noch nicht laufen.
+	 */
+	public synchronized void start() {
+		if (this.thread != null)
+			return;
+		this.thread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					while (true) {
+						Thread.sleep(MetricsReporter.this.interval);
+						MetricsReporter.this.report();
+					}
+				} catch (InterruptedException e) {}
+			}
+		}, "metrics-reporter");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+	/**
+	 * Hlt die Berichte an und schreibt einen letzten Bericht.
+	 */
+	public synchronized void stop() {
+		if (this.thread != null) {
+			this.thread.interrupt();
+			this.thread = null;
+		}
+		this.report();
+	}
+	/**
+	 * Hngt den aktuellen Stand aller Messgren an die Datei an.
+	 */
+	public synchronized void report() {
+		long now = System.currentTimeMillis();
+		double seconds = Math.max(1, now - this.previousReport) / 1000.0;
+		StringBuilder report = new StringBuilder();
+		report.append("# ").append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(now))).append('\n');
+		for (Map.Entry<String, Object> metric : this.registry.getMetrics().entrySet()) {
+			report.append(metric.getKey()).append(' ').append(MetricsRegistry.format(metric.getValue()));
+			if (metric.getValue() instanceof Counter) {
+				long count = ((Counter) metric.getValue()).getCount();
+				Long previous = this.previousCounts.put(metric.getKey(), count);
+				report.append(String.format(" current=%.2f/s", (count - (previous == null ? 0 : previous)) / seconds));
+			}
+			report.append('\n');
+		}
+		this.previousReport = now;
+		try {
+			Writer out = new OutputStreamWriter(new FileOutputStream(this.file, true), "UTF-8");
+			try {
+				out.write(report.toString());
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			MetricsReporter.LOG.warn("cannot write metrics to " + this.file + ": " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package de.uni_leipzig.asv.web.proxy;
+import de.uni_leipzig.asv.web.RequestException;
+/**
+ * Der Schutzschalter einer Proxy. Nach wiederholten Fehlschlgen oder einer
+ * Sperre durch die Suchmaschine wird die Proxy fr eine Abkhlzeit aus dem
+ * Verkehr gezogen. Danach darf eine einzelne Probeanfrage ber die Proxy
+ * laufen. Ist sie erfolgreich, wird die Proxy wieder freigegeben, sonst
+ * verdoppelt sich die Abkhlzeit. Nach zu vielen Auslsungen in Folge wird
+ * die Proxy verworfen.
+ * 
+ * Der Zustand wird nur vom jeweiligen Ausleiher einer Proxy verndert, da
+ * eine Proxy nie gleichzeitig an mehrere Anfragen verliehen wird.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class CircuitBreaker {
+	/**
+	 * Die Zustnde des Schutzschalters.
+	 */
+	public static enum State {
+		/**
+		 * Die Proxy wird normal verwendet.
+		 */
+		CLOSED,
+		/**
+		 * Die Proxy khlt ab und wird nicht verwendet.
+		 */
+		OPEN,
+		/**
+		 * Die Abkhlzeit ist abgelaufen, die nchste Anfrage ist eine Probe.
+		 */
+		HALF_OPEN
+	}
+	/**
+	 * Anzahl der aufeinanderfolgenden Fehlschlge, nach der der Schalter
+	 * auslst.
+	 */
+	public static final int FAILURE_THRESHOLD = 3;
+	/**
+	 * Erste Abkhlzeit nach Verbindungs-, Zeit- oder Statusfehlern in
+	 * Millisekunden.
+	 */
+	public static final long COOLDOWN = 60 * 1000;
+	/**
+	 * Erste Abkhlzeit nach einer Sperre durch die Suchmaschine in
+	 * Millisekunden.
+	 */
+	public static final long BAN_COOLDOWN = 10 * 60 * 1000;
+	/**
+	 * Anzahl der Auslsungen in Folge, nach der die Proxy verworfen wird. Die
+	 * letzte Auslsung fhrt zu keiner Abkhlzeit mehr.
+	 */
+	public static final int MAX_TRIPS = 5;
+	private volatile State state = State.CLOSED;
+	private volatile long openUntil = 0;
+	private volatile int failures = 0;
+	private volatile int trips = 0;
+	private volatile RequestException.Type lastFailure = null;
+	CircuitBreaker() {}
+	/**
+	 * berprft, ob ber die Proxy eine Anfrage laufen darf.
+	 * 
+	 * @param now
+	 *            die aktuelle Zeit in Millisekunden
+	 * @return <code>true</code>, falls der Schalter geschlossen oder die
+	 *         Abkhlzeit abgelaufen ist
+	 */
+	boolean isAvailable(long now) {
+		return this.state != State.OPEN || this.openUntil <= now;
+	}
+	/**
+	 * Wird beim Ausleihen aufgerufen. Ist die Abkhlzeit abgelaufen, wird die
+	 * Ausleihe zur Probe.
+	 */
+	void onAcquire() {
+		if (this.state == State.OPEN)
+			this.state = State.HALF_OPEN;
+	}
+	void onSuccess() {
+		this.state = State.CLOSED;
+		this.failures = 0;
+		this.trips = 0;
+		this.lastFailure = null;
+	}
+	/**
+	 * Wird nach einem Fehlschlag aufgerufen.
+	 * 
+	 * @param type
+	 *            die Fehlerklasse
+	 * @param now
+	 *            die aktuelle Zeit in Millisekunden
+	 * @return <code>false</code>, falls die Proxy verworfen werden soll
+	 */
+	boolean onFailure(RequestException.Type type, long now) {
+		this.lastFailure = type;
+		if (type == RequestException.Type.PARSE)
+			return true;
+		this.failures++;
+		if (this.state == State.HALF_OPEN || type == RequestException.Type.BANNED || this.failures >= CircuitBreaker.FAILURE_THRESHOLD) {
+			if (++this.trips >= CircuitBreaker.MAX_TRIPS)
+				return false;
+			long cooldown = type == RequestException.Type.BANNED ? CircuitBreaker.BAN_COOLDOWN : CircuitBreaker.COOLDOWN;
+			this.state = State.OPEN;
+			this.openUntil = now + (cooldown << (this.trips - 1));
+			this.failures = 0;
+		}
+		return true;
+	}
+	/**
+	 * Gibt den Zustand des Schalters zurck.
+	 * 
+	 * @return der Zustand
+	 */
+	public State getState() {
+		return this.state;
+	}
+	/**
+	 * Gibt das Ende der Abkhlzeit zurck.
+	 * 
+	 * @return das Ende der Abkhlzeit in Millisekunden
+	 */
+	public long getOpenUntil() {
+		return this.openUntil;
+	}
+	/**
+	 * Gibt die Fehlerklasse des letzten Fehlschlags zurck.
+	 * 
+	 * @return die Fehlerklasse oder <code>null</code>
+	 */
+	public RequestException.Type getLastFailure() {
+		return this.lastFailure;
+	}
+	@Override
+	public String toString() {
+		return this.state + (this.lastFailure != null ? "(" + this.lastFailure + ")" : "");
+	}
+}
@@ -5,47 +5,165 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import de.uni_leipzig.asv.web.MultiRequest;
+import de.uni_leipzig.asv.web.RequestException;
 public final class HideMyAssProxyRequest extends MultiRequest<List<Proxy>> {
+	/**
+	 * Wird über die Proxies jeder eingelesenen Seite benachrichtigt, noch
+	 * bevor die gesamte Anfrage abgeschlossen ist.
+	 */
+	public static interface Listener {
+		public void onProxiesFound(List<Proxy> proxies);
+	}
 	public static final int PAGE_PROXY_LIMIT = 50;
+	public static final String DEFAULT_BASE_URI = "http://www.hidemyass.com/proxy-list/";
+	public static final int DEFAULT_PARALLELISM = 4;
+	private static final Pattern HIDDEN_CLASS_PATTERN = Pattern.compile("[.](-?[_a-zA-Z]+[_a-zA-Z0-9-]*)\\s*[{]display\\s*[:]\\s*none[}]");
 	private int proxyCount;
+	private String baseURI;
+	private int parallelism = HideMyAssProxyRequest.DEFAULT_PARALLELISM;
+	private Listener listener = null;
+	private int firstPage = 1;
+	private int lastPage = 0;
+	private int merged = 0;
+	// pages are handled concurrently when they are fetched in parallel
+	private volatile boolean endReached = false;
+	private Set<Proxy> found = Collections.newSetFromMap(new ConcurrentHashMap<Proxy, Boolean>());
 	public HideMyAssProxyRequest(int proxyCount) {
+		this(proxyCount, HideMyAssProxyRequest.DEFAULT_BASE_URI);
+	}
+	/**
+	 * Bereitet eine Anfrage an eine Proxyliste vor, deren Seiten unter
+	 * <code>[baseURI][Seite]</code> erreichbar sind.
+	 * 
+	 * @param proxyCount
+	 *            die angeforderte Anzahl der Proxies
+	 * @param baseURI
+	 *            die Adresse der Proxyliste ohne Seitennummer
+	 */
+	public HideMyAssProxyRequest(int proxyCount, String baseURI) {
 		if (proxyCount < 1)
 			throw new IllegalArgumentException();
 		this.proxyCount = proxyCount;
+		if (baseURI == null)
+			throw new IllegalArgumentException();
+		this.baseURI = baseURI;
+	}
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+	/**
+	 * Setzt die Anzahl der Seiten, die gleichzeitig angefordert werden. Bei
+	 * <code>1</code> werden die Seiten nacheinander angefordert.
+	 * 
+	 * @param parallelism
+	 *            die Anzahl der gleichzeitig angeforderten Seiten
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException();
+		this.parallelism = parallelism;
+	}
+	/**
+	 * Setzt die Seite, mit der das Einlesen beginnt, etwa um das Einlesen
+	 * hinter der letzten Seite einer vorherigen Anfrage fortzusetzen.
+	 * Standartmäßig wird mit der ersten Seite begonnen.
+	 * 
+	 * @param page
+	 *            die Nummer der ersten Seite
+	 */
+	public void setFirstPage(int page) {
+		if (page < 1)
+			throw new IllegalArgumentException();
+		this.firstPage = page;
+	}
+	/**
+	 * Setzt die bereits bekannten Proxies, die nicht erneut geliefert werden.
+	 * Die gefundenen Proxies werden der Menge hinzugefügt, sodass sich
+	 * mehrere Anfragen nacheinander eine Menge teilen können. Die Menge muss
+	 * nebenläufig verwendet werden können.
+	 * 
+	 * @param known
+	 *            die bekannten Proxies
+	 */
+	public void setKnownProxies(Set<Proxy> known) {
+		if (known == null)
+			throw new IllegalArgumentException();
+		this.found = known;
+	}
+	/**
+	 * Gibt die Nummer der letzten behandelten Seite zurück. Wurde die
+	 * angeforderte Anzahl erreicht, kann die Seite noch weitere Proxies
+	 * enthalten.
+	 * 
+	 * @return die Nummer der letzten Seite
+	 */
+	public int getLastPage() {
+		return this.lastPage;
+	}
+	/**
+	 * Überprüft, ob das Ende der Proxyliste erreicht wurde, also eine Seite
+	 * ohne Proxies geliefert wurde.
+	 * 
+	 * @return <code>true</code>, falls das Ende erreicht wurde
+	 */
+	public boolean isEndReached() {
+		return this.endReached;
 	}
 	protected void start(Context context) throws IOException {
+		this.endReached = false;
+		if (this.parallelism > 1) {
+			// pages are merged in order, so the merged pages end at the last handled page
+			this.merged = 0;
+			context.submitPages(new PageFactory() {
+				public HttpRequestBase createRequest(int index) throws IOException {
+					return new HttpGet(HideMyAssProxyRequest.buildURI(HideMyAssProxyRequest.this.baseURI, HideMyAssProxyRequest.this.firstPage + index));
+				}
+			}, new PageMerger<List<Proxy>>() {
+				public List<Proxy> merge(List<Proxy> value, List<Proxy> page, Context context) throws IOException {
+					HideMyAssProxyRequest.this.merged++;
+					return HideMyAssProxyRequest.this.mergeResponse(value, page, context);
+				}
+			}, this.parallelism);
+			this.lastPage = this.firstPage + this.merged;
+			return;
+		}
 		HttpGet request = new HttpGet();
-		int page = 1;
+		int page = this.firstPage;
 		while (true) {
 			if (context.isCompleted())
 				break;
-			request.setURI(HideMyAssProxyRequest.buildURI(page));
+			request.setURI(HideMyAssProxyRequest.buildURI(this.baseURI, page));
 			context.submit(request);
 			page++;
 		}
+		this.lastPage = page - 1;
 	}
-	private static final URI buildURI(int page) throws IOException {
-		final String uri = "http://www.hidemyass.com/proxy-list/{0}";
+	private static final URI buildURI(String baseURI, int page) throws IOException {
+		final String uri = "{0}{1}";
 		try {
-			return new URI(MessageFormat.format(uri, String.valueOf(page)));
+			return new URI(MessageFormat.format(uri, baseURI, String.valueOf(page)));
 		} catch (URISyntaxException e) {
 			throw new IOException();
 		}
 	}
 	protected List<Proxy> handleResponse(HttpResponse response, List<Proxy> value, Context context) throws IOException {
-		if (response.getStatusLine().getStatusCode() != 200)
-			throw new IOException();
+		int statusCode = response.getStatusLine().getStatusCode();
+		if (statusCode != 200)
+			throw new RequestException(RequestException.Type.HTTP_STATUS, statusCode, "status is not OK");
 		if (value == null) {
 			value = new ArrayList<Proxy>();
 		}
@@ -55,26 +173,50 @@ public final class HideMyAssProxyRequest extends MultiRequest<List<Proxy>> {
 			doc = Jsoup.parse(response.getEntity().getContent(), null, "");
 			in.close();
 		}
+		List<Proxy> page = new ArrayList<Proxy>();
+		int listed = 0;
 		for (Element element : doc.select("table#listtable > tbody > tr")) {
 			try {
 				String host = HideMyAssProxyRequest.extractHost(element.child(1));
 				int port = HideMyAssProxyRequest.extractPort(element.child(2));
 				Proxy.Type type = HideMyAssProxyRequest.extractType(element.child(6));
-				value.add(new Proxy(host, port, type));
+				Proxy proxy = new Proxy(host, port, type);
+				listed++;
+				if (this.found.add(proxy))
+					page.add(proxy);
 			} catch (Exception e) {}
+			if (value.size() + page.size() >= this.proxyCount) {
+				context.complete();
+				break;
+			}
+		}
+		value.addAll(page);
+		// a page that only repeats known proxies does not end the listing
+		if (listed == 0) {
+			this.endReached = true;
+			context.complete();
+		}
+		else if (this.listener != null && !page.isEmpty())
+			this.listener.onProxiesFound(page);
+		return value;
+	}
+	private List<Proxy> mergeResponse(List<Proxy> value, List<Proxy> page, Context context) throws IOException {
+		for (Proxy proxy : page) {
 			if (value.size() >= this.proxyCount) {
 				context.complete();
 				break;
 			}
+			value.add(proxy);
 		}
+		if (value.size() >= this.proxyCount)
+			context.complete();
 		return value;
 	}
 	public static String extractHost(Element e) {
 		Set<String> classNames = new HashSet<String>();
 		{
-			final String regex = "[.](-?[_a-zA-Z]+[_a-zA-Z0-9-]*)\\s*[{]display\\s*[:]\\s*none[}]";
 			final String input = e.child(0).child(0).html();
-			Matcher matcher = Pattern.compile(regex).matcher(input);
+			Matcher matcher = HideMyAssProxyRequest.HIDDEN_CLASS_PATTERN.matcher(input);
 			while (matcher.find())
 				classNames.add(matcher.group(1));
 		}
@@ -110,6 +110,19 @@ public final class Proxy {
 		return new HttpHost(this.host, this.port, this.type.toString());
 	}
 	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof Proxy))
+			return false;
+		Proxy other = (Proxy) obj;
+		return this.port == other.port && this.type == other.type && this.host.equals(other.host);
+	}
+	@Override
+	public int hashCode() {
+		return (this.host.hashCode() * 31 + this.port) * 31 + this.type.hashCode();
+	}
+	@Override
 	public String toString() {
 		StringBuilder buffer = new StringBuilder();
 		buffer.append(this.type.toString());
@@ -0,0 +1,463 @@
+package de.uni_leipzig.asv.web.proxy;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import de.uni_leipzig.asv.web.RequestException;
+/**
+ * Ein nebenlufig verwendbarer Pool von Proxies. Jede Anfrage leiht sich eine
+ * Proxy aus und gibt sie mit dem Ergebnis der Anfrage zurck. Eine
+ * ausgeliehene Proxy wird keiner anderen Anfrage zugeteilt, bis sie
+ * zurckgegeben wurde. Das Ausleihen und Zurckgeben kommt ohne Sperren aus.
+ * 
+ * Fr jede Proxy wird eine {@link ProxyStatistics} gefhrt. Beim Ausleihen
+ * werden zwei zufllige freie Proxies gezogen und die mit der besseren
+ * Bewertung genommen, sodass schnelle Proxies den Groteil der Anfragen
+ * erhalten und langsame oder unzuverlssige Proxies ausgednnt werden.
+ * 
+ * Jede Proxy besitzt auerdem einen {@link CircuitBreaker}. Gesperrte oder
+ * wiederholt gescheiterte Proxies bleiben im Pool, werden aber erst nach
+ * einer Abkhlzeit wieder verliehen.
+ * 
+ * ber einen {@link Listener} kann verfolgt werden, welche Proxies aus dem
+ * Pool entfernt werden, etwa um ihre Messgren zu verwerfen.
+ * 
+ * Ist eine Rate je Proxy gesetzt, besitzt jede Proxy zustzlich einen
+ * {@link TokenBucket}. Eine Proxy ohne Token wird beim Ausleihen bergangen,
+ * sodass Anfragen auf die Proxies verteilt werden, die noch Tokens haben.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class ProxyPool {
+	/**
+	 * Wird benachrichtigt, wenn eine Proxy aus dem Pool entfernt wird.
+	 * 
+	 * @author Sergej Sintschilin
+	 * @author Quan Nguyen
+	 */
+	public static interface Listener {
+		public void onProxyRemoved(Proxy proxy);
+	}
+	private static final int CHOICE_ATTEMPTS = 4;
+	private static final class Entry {
+		private final Proxy proxy;
+		private final ProxyStatistics statistics;
+		private final CircuitBreaker breaker = new CircuitBreaker();
+		private final AtomicBoolean leased = new AtomicBoolean(false);
+		private final AtomicInteger counter = new AtomicInteger(0);
+		private volatile TokenBucket bucket;
+		private volatile boolean removed = false;
+		private Entry(Proxy proxy, ProxyStatistics statistics, TokenBucket bucket) {
+			this.proxy = proxy;
+			this.statistics = statistics;
+			this.bucket = bucket;
+		}
+	}
+	/**
+	 * Eine ausgeliehene Proxy.
+	 * 
+	 * @author Sergej Sintschilin
+	 * @author Quan Nguyen
+	 */
+	public static final class Lease {
+		private final ProxyPool pool;
+		private final Entry entry;
+		private final int counter;
+		private final AtomicBoolean released = new AtomicBoolean(false);
+		private Lease(ProxyPool pool, Entry entry) {
+			this.pool = pool;
+			this.entry = entry;
+			this.counter = entry.counter.get();
+		}
+		/**
+		 * Gibt die ausgeliehene Proxy zurck.
+		 * 
+		 * @return die Proxy
+		 */
+		public Proxy getProxy() {
+			return this.entry.proxy;
+		}
+		/**
+		 * Gibt die Statistik der ausgeliehenen Proxy zurck.
+		 * 
+		 * @return die Statistik der Proxy
+		 */
+		public ProxyStatistics getStatistics() {
+			return this.entry.statistics;
+		}
+		/**
+		 * Gibt zurck, wie oft die Proxy vor dieser Ausleihe bereits
+		 * erfolgreich verwendet wurde.
+		 * 
+		 * @return der Zhler der erfolgreichen Verwendungen
+		 */
+		public int getCounter() {
+			return this.counter;
+		}
+		/**
+		 * Gibt die Proxy nach einer erfolgreichen Anfrage an den Pool zurck.
+		 * Weitere Aufrufe haben keine Wirkung.
+		 * 
+		 * @param latency
+		 *            die Dauer der Anfrage in Millisekunden
+		 * @param timeToFirstByte
+		 *            die Dauer bis zum Empfang der Antwortkpfe in
+		 *            Millisekunden oder <code>-1</code>, falls unbekannt
+		 */
+		public void succeed(long latency, long timeToFirstByte) {
+			if (!this.released.compareAndSet(false, true))
+				return;
+			this.entry.statistics.onSuccess(latency, timeToFirstByte);
+			this.entry.breaker.onSuccess();
+			this.entry.counter.incrementAndGet();
+			this.entry.leased.set(false);
+			this.pool.signal();
+		}
+		/**
+		 * Gibt die Proxy ohne Bewertung an den Pool zurck, etwa weil die
+		 * Anfrage abgebrochen wurde. Weitere Aufrufe haben keine Wirkung.
+		 */
+		public void cancel() {
+			if (!this.released.compareAndSet(false, true))
+				return;
+			this.entry.leased.set(false);
+			this.pool.signal();
+		}
+		/**
+		 * Gibt die Proxy nach einer gescheiterten Anfrage an den Pool zurck.
+		 * Je nach Fehlerklasse lst der Schutzschalter der Proxy aus. Nach zu
+		 * vielen Auslsungen in Folge wird die Proxy aus dem Pool entfernt.
+		 * Weitere Aufrufe haben keine Wirkung.
+		 * 
+		 * @param type
+		 *            die Fehlerklasse
+		 */
+		public void fail(RequestException.Type type) {
+			if (!this.released.compareAndSet(false, true))
+				return;
+			this.entry.statistics.onFailure();
+			if (!this.entry.breaker.onFailure(type, System.currentTimeMillis()))
+				this.pool.remove(this.entry);
+			else {
+				this.entry.leased.set(false);
+				this.pool.signal();
+			}
+		}
+	}
+	private final ConcurrentMap<Proxy, Entry> index = new ConcurrentHashMap<Proxy, Entry>();
+	private static final Entry[] NO_ENTRIES = new Entry[0];
+	// replaced as a whole on every change, so a lease can index into it without copying
+	private volatile Entry[] entries = ProxyPool.NO_ENTRIES;
+	private final AtomicLong version = new AtomicLong(0);
+	private final AtomicInteger waiters = new AtomicInteger(0);
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = this.lock.newCondition();
+	private volatile double rate = 0;
+	private volatile int burst = 1;
+	private volatile Listener listener = null;
+	/**
+	 * Erstellt einen leeren Pool.
+	 */
+	public ProxyPool() {}
+	/**
+	 * Fgt eine Proxy dem Pool hinzu. Ist die Proxy bereits im Pool, hat der
+	 * Aufruf keine Wirkung.
+	 * 
+	 * @param proxy
+	 *            die Proxy
+	 * @return <code>true</code>, falls die Proxy hinzugefgt wurde
+	 */
+	public boolean add(Proxy proxy) {
+		return this.add(proxy, new ProxyStatistics());
+	}
+	/**
+	 * Fgt eine bereits berprfte Proxy dem Pool hinzu. Ihre Statistik wird
+	 * mit der gemessenen Latenz vorbelegt. Ist die Proxy bereits im Pool, hat
+	 * der Aufruf keine Wirkung.
+	 * 
+	 * @param proxy
+	 *            die Proxy
+	 * @param latency
+	 *            die gemessene Latenz in Millisekunden
+	 * @return <code>true</code>, falls die Proxy hinzugefgt wurde
+	 */
+	public boolean add(Proxy proxy, long latency) {
+		return this.add(proxy, new ProxyStatistics(latency));
+	}
+	private boolean add(Proxy proxy, ProxyStatistics statistics) {
+		if (proxy == null)
+			throw new IllegalArgumentException("proxy may not be null");
+		Entry entry = new Entry(proxy, statistics, this.createBucket());
+		if (this.index.putIfAbsent(proxy, entry) != null)
+			return false;
+		this.addEntry(entry);
+		this.signal();
+		return true;
+	}
+	/**
+	 * Fgt eine Proxy dem Pool hinzu und leiht sie sofort aus.
+	 * 
+	 * @param proxy
+	 *            die Proxy
+	 * @return die ausgeliehene Proxy oder <code>null</code>, falls die Proxy
+	 *         bereits im Pool ist
+	 */
+	public Lease addAndAcquire(Proxy proxy) {
+		if (proxy == null)
+			throw new IllegalArgumentException("proxy may not be null");
+		Entry entry = new Entry(proxy, new ProxyStatistics(), this.createBucket());
+		entry.leased.set(true);
+		if (entry.bucket != null)
+			entry.bucket.tryAcquire(System.currentTimeMillis());
+		if (this.index.putIfAbsent(proxy, entry) != null)
+			return null;
+		this.addEntry(entry);
+		return new Lease(this, entry);
+	}
+	/**
+	 * Leiht eine freie Proxy aus. Von zwei zufllig gezogenen freien Proxies
+	 * wird die mit der besseren Bewertung genommen.
+	 * 
+	 * @return die ausgeliehene Proxy oder <code>null</code>, falls alle
+	 *         Proxies ausgeliehen sind oder der Pool leer ist
+	 */
+	public Lease acquire() {
+		Entry[] snapshot = this.entries;
+		int n = snapshot.length;
+		if (n == 0)
+			return null;
+		long now = System.currentTimeMillis();
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int attempt = 0; attempt < ProxyPool.CHOICE_ATTEMPTS; attempt++) {
+			Entry a = snapshot[random.nextInt(n)];
+			Entry b = snapshot[random.nextInt(n)];
+			if (!ProxyPool.isFree(a, now))
+				a = b;
+			else if (ProxyPool.isFree(b, now) && b.statistics.getScore() < a.statistics.getScore())
+				a = b;
+			if (ProxyPool.isFree(a, now)) {
+				Lease lease = this.tryAcquire(a, now);
+				if (lease != null)
+					return lease;
+			}
+		}
+		int start = random.nextInt(n);
+		for (int i = 0; i < n; i++) {
+			Lease lease = this.tryAcquire(snapshot[(start + i) % n], now);
+			if (lease != null)
+				return lease;
+		}
+		return null;
+	}
+	private static boolean isFree(Entry entry, long now) {
+		TokenBucket bucket = entry.bucket;
+		return !entry.removed && !entry.leased.get() && entry.breaker.isAvailable(now) && (bucket == null || bucket.getDelay(now) == 0);
+	}
+	private Lease tryAcquire(Entry entry, long now) {
+		if (entry.removed || !entry.breaker.isAvailable(now) || !entry.leased.compareAndSet(false, true))
+			return null;
+		TokenBucket bucket = entry.bucket;
+		if (entry.removed || !entry.breaker.isAvailable(now) || bucket != null && !bucket.tryAcquire(now)) {
+			entry.leased.set(false);
+			return null;
+		}
+		entry.breaker.onAcquire();
+		return new Lease(this, entry);
+	}
+	/**
+	 * Setzt die Rate, mit der jede Proxy hchstens verliehen wird. Die Rate
+	 * gilt auch fr Proxies, die bereits im Pool sind.
+	 * 
+	 * @param rate
+	 *            die Anzahl der Ausleihen je Sekunde und Proxy oder
+	 *            <code>0</code>, um die Rate nicht zu begrenzen
+	 * @param burst
+	 *            die Anzahl der Ausleihen, die nach einer Pause direkt
+	 *            hintereinander erlaubt sind
+	 */
+	public void setRateLimit(double rate, int burst) {
+		if (rate < 0)
+			throw new IllegalArgumentException("rate may not be negative");
+		if (burst < 1)
+			throw new IllegalArgumentException("burst must be positive");
+		this.rate = rate;
+		this.burst = burst;
+		for (Entry entry : this.entries)
+			entry.bucket = this.createBucket();
+		this.signal();
+	}
+	private TokenBucket createBucket() {
+		return this.rate > 0 ? new TokenBucket(this.rate, this.burst) : null;
+	}
+	/**
+	 * Gibt die Zeit zurck, bis eine freie Proxy wieder ein Token hat. Die
+	 * Zeit ist nur von Bedeutung, wenn {@link #acquire()} keine Proxy geliefert
+	 * hat.
+	 * 
+	 * @return die Wartezeit in Millisekunden oder <code>-1</code>, falls keine
+	 *         freie Proxy durch ihre Rate zurckgehalten wird
+	 */
+	public long getThrottleDelay() {
+		long now = System.currentTimeMillis();
+		long delay = -1;
+		for (Entry entry : this.entries) {
+			TokenBucket bucket = entry.bucket;
+			if (bucket == null || entry.removed || entry.leased.get() || !entry.breaker.isAvailable(now))
+				continue;
+			long d = bucket.getDelay(now);
+			if (delay < 0 || d < delay)
+				delay = d;
+		}
+		return delay;
+	}
+	/**
+	 * Gibt den Token-Bucket einer Proxy im Pool zurck.
+	 * 
+	 * @param proxy
+	 *            die Proxy
+	 * @return der Token-Bucket der Proxy oder <code>null</code>, falls die
+	 *         Proxy nicht im Pool ist oder ihre Rate nicht begrenzt ist
+	 */
+	public TokenBucket getTokenBucket(Proxy proxy) {
+		Entry entry = this.index.get(proxy);
+		return entry == null ? null : entry.bucket;
+	}
+	/**
+	 * Gibt die Statistik einer Proxy im Pool zurck.
+	 * 
+	 * @param proxy
+	 *            die Proxy
+	 * @return die Statistik der Proxy oder <code>null</code>, falls die Proxy
+	 *         nicht im Pool ist
+	 */
+	public ProxyStatistics getStatistics(Proxy proxy) {
+		Entry entry = this.index.get(proxy);
+		return entry == null ? null : entry.statistics;
+	}
+	/**
+	 * Setzt den Empfnger der Benachrichtigungen ber entfernte Proxies.
+	 * 
+	 * @param listener
+	 *            der Empfnger oder <code>null</code>
+	 */
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+	private void remove(Entry entry) {
+		entry.removed = true;
+		this.index.remove(entry.proxy, entry);
+		this.removeEntry(entry);
+		this.signal();
+		Listener listener = this.listener;
+		if (listener != null)
+			listener.onProxyRemoved(entry.proxy);
+	}
+	private synchronized void addEntry(Entry entry) {
+		Entry[] entries = new Entry[this.entries.length + 1];
+		System.arraycopy(this.entries, 0, entries, 0, this.entries.length);
+		entries[entries.length - 1] = entry;
+		this.entries = entries;
+	}
+	private synchronized void removeEntry(Entry entry) {
+		Entry[] entries = this.entries;
+		for (int i = 0; i < entries.length; i++) {
+			if (entries[i] == entry) {
+				Entry[] copy = new Entry[entries.length - 1];
+				System.arraycopy(entries, 0, copy, 0, i);
+				System.arraycopy(entries, i + 1, copy, i, entries.length - i - 1);
+				this.entries = copy;
+				return;
+			}
+		}
+	}
+	private void signal() {
+		this.version.incrementAndGet();
+		if (this.waiters.get() > 0) {
+			this.lock.lock();
+			try {
+				this.changed.signalAll();
+			} finally {
+				this.lock.unlock();
+			}
+		}
+	}
+	/**
+	 * Gibt den nderungsstand des Pools zurck. Der Stand wird bei jedem
+	 * Hinzufgen, Zurckgeben und Entfernen einer Proxy erhht.
+	 * 
+	 * @return der nderungsstand
+	 */
+	public long getVersion() {
+		return this.version.get();
+	}
+	/**
+	 * Wartet, bis sich der Pool seit dem bergebenen nderungsstand verndert
+	 * hat oder die Wartezeit abgelaufen ist.
+	 * 
+	 * @param version
+	 *            der zuletzt beobachtete nderungsstand
+	 * @param timeout
+	 *            die maximale Wartezeit
+	 * @param unit
+	 *            die Einheit der Wartezeit
+	 * @return <code>true</code>, falls sich der Pool verndert hat
+	 * @throws InterruptedException
+	 *             falls der wartende Thread unterbrochen wurde
+	 */
+	public boolean awaitChange(long version, long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		this.waiters.incrementAndGet();
+		this.lock.lock();
+		try {
+			while (this.version.get() == version) {
+				if (nanos <= 0)
+					return false;
+				nanos = this.changed.awaitNanos(nanos);
+			}
+			return true;
+		} finally {
+			this.lock.unlock();
+			this.waiters.decrementAndGet();
+		}
+	}
+	/**
+	 * Gibt den Schutzschalter einer Proxy im Pool zurck.
+	 * 
+	 * @param proxy
+	 *            die Proxy
+	 * @return der Schutzschalter der Proxy oder <code>null</code>, falls die
+	 *         Proxy nicht im Pool ist
+	 */
+	public CircuitBreaker getCircuitBreaker(Proxy proxy) {
+		Entry entry = this.index.get(proxy);
+		return entry == null ? null : entry.breaker;
+	}
+	/**
+	 * Gibt die Anzahl der Proxies zurck, deren Schutzschalter nicht
+	 * ausgelst ist, ausgeliehene eingeschlossen.
+	 * 
+	 * @return die Anzahl der verwendbaren Proxies
+	 */
+	public int getAvailableCount() {
+		long now = System.currentTimeMillis();
+		int count = 0;
+		for (Entry entry : this.entries)
+			if (entry.breaker.isAvailable(now))
+				count++;
+		return count;
+	}
+	/**
+	 * Gibt die Anzahl der Proxies im Pool zurck, ausgeliehene eingeschlossen.
+	 * 
+	 * @return die Anzahl der Proxies
+	 */
+	public int size() {
+		return this.entries.length;
+	}
+}
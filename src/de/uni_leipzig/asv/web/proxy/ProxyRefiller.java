@@ -0,0 +1,183 @@
+package de.uni_leipzig.asv.web.proxy;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import de.uni_leipzig.asv.web.metrics.Histogram;
+import de.uni_leipzig.asv.web.metrics.MetricsRegistry;
+/**
+ * Fllt einen Pool im Hintergrund mit neuen Proxies auf, sobald die Anzahl
+ * der verwendbaren Proxies im Pool unter eine Mindestgrenze fllt. Die
+ * Quelle verffentlicht die gefundenen Proxies direkt im Pool, sodass
+ * anfragende Threads nicht auf das vollstndige Einlesen einer Proxyliste
+ * warten mssen. Die Dauer jedes Auffllens wird in der
+ * {@link MetricsRegistry} erfasst.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class ProxyRefiller {
+	/**
+	 * Eine Quelle neuer Proxies.
+	 * 
+	 * @author Sergej Sintschilin
+	 * @author Quan Nguyen
+	 */
+	public static interface Source {
+		/**
+		 * Liest neue Proxies ein und fgt sie dem Pool hinzu, sobald sie
+		 * gefunden wurden. Ein weiterer Aufruf liefert weitere Proxies und
+		 * keine, die bereits geliefert wurden.
+		 * 
+		 * @param pool
+		 *            der aufzufllende Pool
+		 * @return <code>false</code>, falls die Quelle erschpft ist und keine
+		 *         weiteren Proxies liefern kann, sonst <code>true</code>
+		 * @throws IOException
+		 *             falls die Proxies nicht eingelesen werden konnten
+		 */
+		public boolean fetch(ProxyPool pool) throws IOException;
+	}
+	/**
+	 * Standartmige Mindestgrenze ist <code>20</code> Proxies.
+	 */
+	public static final int DEFAULT_LOW_WATERMARK = 20;
+	/**
+	 * Nach so vielen aufeinanderfolgenden gescheiterten Versuchen gilt die
+	 * Quelle als erschpft.
+	 */
+	public static final int MAX_FETCH_FAILURES = 5;
+	/**
+	 * Wartezeit in Millisekunden, falls ein Versuch gescheitert ist oder
+	 * keine neuen Proxies geliefert hat.
+	 */
+	public static final long BACKOFF = 10 * 1000;
+	private static final long POLL_INTERVAL = 1000;
+	private static final Log LOG = LogFactory.getLog(ProxyRefiller.class);
+	private final ProxyPool pool;
+	private final Source source;
+	private final int lowWatermark;
+	private Thread thread = null;
+	private volatile boolean exhausted = false;
+	private final Histogram refillTime;
+	/**
+	 * Erstellt einen Auffller fr den bergebenen Pool.
+	 * 
+	 * @param pool
+	 *            der aufzufllende Pool
+	 * @param source
+	 *            die Quelle neuer Proxies
+	 * @param lowWatermark
+	 *            die Mindestanzahl der Proxies im Pool
+	 */
+	public ProxyRefiller(ProxyPool pool, Source source, int lowWatermark) {
+		this(pool, source, lowWatermark, "default");
+	}
+	/**
+	 * Erstellt einen Auffller fr den bergebenen Pool, dessen Messgren
+	 * unter dem bergebenen Namen erfasst werden.
+	 * 
+	 * @param pool
+	 *            der aufzufllende Pool
+	 * @param source
+	 *            die Quelle neuer Proxies
+	 * @param lowWatermark
+	 *            die Mindestanzahl der Proxies im Pool
+	 * @param name
+	 *            der Name, etwa der Name der Suchmaschine
+	 */
+	public ProxyRefiller(ProxyPool pool, Source source, int lowWatermark, String name) {
+		if (pool == null || source == null || name == null)
+			throw new IllegalArgumentException();
+		if (lowWatermark < 1)
+			throw new IllegalArgumentException("low watermark must be positive");
+		this.pool = pool;
+		this.source = source;
+		this.lowWatermark = lowWatermark;
+		this.refillTime = MetricsRegistry.getInstance().histogram("proxy.refill.ms", "engine", name);
+	}
+	/**
+	 * Startet den Auffller, falls er noch nicht luft.
+	 */
+	public synchronized void start() {
+		if (this.thread != null)
+			return;
+		this.thread = new Thread(new Runnable() {
+			public void run() {
+				ProxyRefiller.this.run();
+			}
+		}, "proxy-refiller");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+	/**
+	 * Hlt den Auffller an.
+	 */
+	public synchronized void stop() {
+		if (this.thread != null) {
+			this.thread.interrupt();
+			this.thread = null;
+		}
+	}
+	/**
+	 * berprft, ob die Quelle erschpft ist.
+	 * 
+	 * @return <code>true</code>, falls die Quelle keine weiteren Proxies
+	 *         liefern kann
+	 */
+	public boolean isExhausted() {
+		return this.exhausted;
+	}
+	/**
+	 * Wartet, bis der Pool neue oder freigegebene Proxies enthlt. Startet den
+	 * Auffller, falls er noch nicht luft.
+	 * 
+	 * @param version
+	 *            der zuletzt beobachtete nderungsstand des Pools
+	 * @return <code>false</code>, falls der Pool leer und die Quelle
+	 *         erschpft ist, sonst <code>true</code>
+	 * @throws InterruptedException
+	 *             falls der wartende Thread unterbrochen wurde
+	 */
+	public boolean await(long version) throws InterruptedException {
+		this.start();
+		while (!this.pool.awaitChange(version, ProxyRefiller.POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+			if (this.exhausted && this.pool.size() == 0)
+				return false;
+			if (this.pool.getAvailableCount() > 0)
+				return true;
+		}
+		return !(this.exhausted && this.pool.size() == 0);
+	}
+	private void run() {
+		int failures = 0;
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				long version = this.pool.getVersion();
+				if (this.exhausted || this.pool.getAvailableCount() >= this.lowWatermark) {
+					this.pool.awaitChange(version, ProxyRefiller.POLL_INTERVAL, TimeUnit.MILLISECONDS);
+					continue;
+				}
+				int size = this.pool.getAvailableCount();
+				long start = System.currentTimeMillis();
+				try {
+					if (!this.source.fetch(this.pool))
+						this.exhausted = true;
+					this.refillTime.record(System.currentTimeMillis() - start);
+					failures = 0;
+					if (!this.exhausted && this.pool.getAvailableCount() <= size)
+						Thread.sleep(ProxyRefiller.BACKOFF);
+				} catch (IOException e) {
+					ProxyRefiller.LOG.warn("cannot fetch proxies: " + e.getMessage());
+					if (++failures >= ProxyRefiller.MAX_FETCH_FAILURES && this.pool.size() == 0)
+						this.exhausted = true;
+					else
+						Thread.sleep(ProxyRefiller.BACKOFF);
+				} catch (RuntimeException e) {
+					ProxyRefiller.LOG.warn("cannot fetch proxies: " + e.getMessage(), e);
+					this.exhausted = true;
+				}
+			}
+		} catch (InterruptedException e) {}
+	}
+}
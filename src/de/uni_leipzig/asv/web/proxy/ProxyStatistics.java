@@ -0,0 +1,106 @@
+package de.uni_leipzig.asv.web.proxy;
+/**
+ * Die laufende Statistik einer Proxy. Latenz, Zeit bis zum ersten Byte und
+ * Erfolgsquote werden als exponentiell gewichtete gleitende Mittelwerte
+ * gefhrt, sodass jngere Anfragen strker zhlen als ltere.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class ProxyStatistics {
+	/**
+	 * Gewicht einer neuen Messung im gleitenden Mittelwert.
+	 */
+	public static final double ALPHA = 0.3;
+	/**
+	 * Angenommene Latenz einer Proxy ohne Messung in Millisekunden.
+	 */
+	public static final double INITIAL_LATENCY = 1000;
+	private volatile double latency = ProxyStatistics.INITIAL_LATENCY;
+	private volatile double timeToFirstByte = ProxyStatistics.INITIAL_LATENCY;
+	private volatile double successRate = 1;
+	private volatile int successes = 0;
+	private volatile int failures = 0;
+	private volatile int consecutiveFailures = 0;
+	ProxyStatistics() {}
+	ProxyStatistics(long latency) {
+		this.latency = latency;
+		this.timeToFirstByte = latency;
+	}
+	synchronized void onSuccess(long latency, long timeToFirstByte) {
+		this.latency += ProxyStatistics.ALPHA * (latency - this.latency);
+		if (timeToFirstByte >= 0)
+			this.timeToFirstByte += ProxyStatistics.ALPHA * (timeToFirstByte - this.timeToFirstByte);
+		this.successRate += ProxyStatistics.ALPHA * (1 - this.successRate);
+		this.successes++;
+		this.consecutiveFailures = 0;
+	}
+	synchronized void onFailure() {
+		this.successRate += ProxyStatistics.ALPHA * (0 - this.successRate);
+		this.failures++;
+		this.consecutiveFailures++;
+	}
+	/**
+	 * Gibt die gemittelte Latenz einer vollstndigen Anfrage zurck.
+	 * 
+	 * @return die Latenz in Millisekunden
+	 */
+	public double getLatency() {
+		return this.latency;
+	}
+	/**
+	 * Gibt die gemittelte Zeit bis zum Empfang der Antwortkpfe zurck.
+	 * 
+	 * @return die Zeit bis zum ersten Byte in Millisekunden
+	 */
+	public double getTimeToFirstByte() {
+		return this.timeToFirstByte;
+	}
+	/**
+	 * Gibt die gemittelte Erfolgsquote zurck.
+	 * 
+	 * @return die Erfolgsquote zwischen <code>0</code> und <code>1</code>
+	 */
+	public double getSuccessRate() {
+		return this.successRate;
+	}
+	/**
+	 * Gibt die Anzahl der erfolgreichen Anfragen zurck.
+	 * 
+	 * @return die Anzahl der erfolgreichen Anfragen
+	 */
+	public int getSuccesses() {
+		return this.successes;
+	}
+	/**
+	 * Gibt die Anzahl der gescheiterten Anfragen zurck.
+	 * 
+	 * @return die Anzahl der gescheiterten Anfragen
+	 */
+	public int getFailures() {
+		return this.failures;
+	}
+	/**
+	 * Gibt die Anzahl der unmittelbar aufeinanderfolgenden gescheiterten
+	 * Anfragen zurck.
+	 * 
+	 * @return die Anzahl der gescheiterten Anfragen seit dem letzten Erfolg
+	 */
+	public int getConsecutiveFailures() {
+		return this.consecutiveFailures;
+	}
+	/**
+	 * Gibt die Bewertung der Proxy zurck. Die Bewertung entspricht der
+	 * erwarteten Zeit bis zu einer erfolgreichen Antwort, kleinere Werte sind
+	 * besser.
+	 * 
+	 * @return die Bewertung
+	 */
+	public double getScore() {
+		return this.latency / Math.max(this.successRate, 0.01);
+	}
+	@Override
+	public String toString() {
+		return String.format("latency=%.0fms ttfb=%.0fms success=%.2f (%d/%d)", this.latency, this.timeToFirstByte, this.successRate, this.successes, this.successes + this.failures);
+	}
+}
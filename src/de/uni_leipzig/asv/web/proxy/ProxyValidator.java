@@ -0,0 +1,185 @@
+package de.uni_leipzig.asv.web.proxy;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.params.ConnRoutePNames;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.util.EntityUtils;
+import de.uni_leipzig.asv.web.VirtualThreads;
+/**
+ * berprft Proxies, bevor sie in einen Pool aufgenommen werden. ber jede
+ * Proxy wird nebenlufig eine Anfrage an eine Prfadresse gesendet. Nur
+ * Proxies, die innerhalb der Frist mit dem Status <code>200</code>
+ * antworten, gelten als gltig und werden mit ihrer gemessenen Latenz
+ * gemeldet. Mit {@link VirtualThreads} erhlt jede Prfung einen eigenen
+ * virtuellen Thread; die Anzahl gleichzeitiger Prfungen bleibt begrenzt.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class ProxyValidator {
+	/**
+	 * Wird ber jede gltige Proxy benachrichtigt, sobald ihre Prfung
+	 * abgeschlossen ist.
+	 * 
+	 * @author Sergej Sintschilin
+	 * @author Quan Nguyen
+	 */
+	public static interface Listener {
+		/**
+		 * Meldet eine gltige Proxy.
+		 * 
+		 * @param proxy
+		 *            die Proxy
+		 * @param latency
+		 *            die Dauer der Prfanfrage in Millisekunden
+		 */
+		public void onProxyValidated(Proxy proxy, long latency);
+	}
+	/**
+	 * Standartmige Frist einer Prfung ist <code>3</code> Sekunden.
+	 */
+	public static final int DEFAULT_TIMEOUT = 3 * 1000;
+	/**
+	 * Standartmige Anzahl gleichzeitiger Prfungen ist <code>200</code>.
+	 */
+	public static final int DEFAULT_CONCURRENCY = 200;
+	private final URI checkURI;
+	private final DefaultHttpClient client;
+	private final ExecutorService executor;
+	private final Semaphore permits;
+	/**
+	 * Erstellt eine berprfung mit der bergebenen Prfadresse.
+	 * 
+	 * @param checkURI
+	 *            die Adresse, die ber jede Proxy angefragt wird
+	 * @param concurrency
+	 *            die Anzahl gleichzeitiger Prfungen
+	 * @param timeout
+	 *            die Frist fr den Verbindungsaufbau und das Lesen in
+	 *            Millisekunden
+	 */
+	public ProxyValidator(String checkURI, int concurrency, int timeout) {
+		if (checkURI == null)
+			throw new IllegalArgumentException("check uri may not be null");
+		if (concurrency < 1 || timeout < 1)
+			throw new IllegalArgumentException();
+		this.checkURI = URI.create(checkURI);
+		PoolingClientConnectionManager manager = new PoolingClientConnectionManager();
+		manager.setMaxTotal(concurrency);
+		manager.setDefaultMaxPerRoute(1);
+		HttpParams httpParams = new BasicHttpParams();
+		HttpConnectionParams.setConnectionTimeout(httpParams, timeout);
+		HttpConnectionParams.setSoTimeout(httpParams, timeout);
+		this.client = new DefaultHttpClient(manager, httpParams);
+		if (VirtualThreads.isEnabled())
+			this.executor = VirtualThreads.newExecutor("proxy-validator");
+		else {
+			this.executor = Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "proxy-validator");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		// waiting for a connection must not count towards the measured latency
+		this.permits = new Semaphore(concurrency);
+	}
+	/**
+	 * berprft die bergebenen Proxies nebenlufig und wartet, bis alle
+	 * Prfungen abgeschlossen sind. Gltige Proxies werden dem Listener
+	 * gemeldet, sobald ihre Prfung abgeschlossen ist.
+	 * 
+	 * @param proxies
+	 *            die zu berprfenden Proxies
+	 * @param listener
+	 *            der Empfnger der gltigen Proxies
+	 * @return die Anzahl der gltigen Proxies
+	 * @throws IOException
+	 *             falls das Warten unterbrochen wurde
+	 */
+	public int validate(Collection<Proxy> proxies, final Listener listener) throws IOException {
+		List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(proxies.size());
+		for (final Proxy proxy : proxies) {
+			futures.add(this.executor.submit(new Callable<Boolean>() {
+				public Boolean call() throws InterruptedException {
+					long latency;
+					ProxyValidator.this.permits.acquire();
+					try {
+						latency = ProxyValidator.this.probe(proxy);
+					} finally {
+						ProxyValidator.this.permits.release();
+					}
+					if (latency < 0)
+						return false;
+					listener.onProxyValidated(proxy, latency);
+					return true;
+				}
+			}));
+		}
+		int valid = 0;
+		try {
+			for (Future<Boolean> future : futures)
+				if (future.get())
+					valid++;
+		} catch (InterruptedException e) {
+			for (Future<Boolean> future : futures)
+				future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+		return valid;
+	}
+	/**
+	 * Sendet eine Prfanfrage ber die bergebene Proxy.
+	 * 
+	 * @param proxy
+	 *            die Proxy
+	 * @return die Dauer der Anfrage in Millisekunden oder <code>-1</code>,
+	 *         falls die Proxy ungltig ist
+	 */
+	public long probe(Proxy proxy) {
+		HttpGet request = new HttpGet(this.checkURI);
+		request.getParams().setParameter(ConnRoutePNames.DEFAULT_PROXY, proxy.toHttpHost());
+		request.setHeader("Connection", "close");
+		long start = System.currentTimeMillis();
+		try {
+			boolean ok = this.client.execute(request, new ResponseHandler<Boolean>() {
+				public Boolean handleResponse(HttpResponse response) throws IOException {
+					EntityUtils.consume(response.getEntity());
+					return response.getStatusLine().getStatusCode() == 200;
+				}
+			});
+			return ok ? System.currentTimeMillis() - start : -1;
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+	/**
+	 * Beendet die berprfung und schliet alle Verbindungen.
+	 */
+	public void shutdown() {
+		this.executor.shutdownNow();
+		this.client.getConnectionManager().shutdown();
+	}
+}
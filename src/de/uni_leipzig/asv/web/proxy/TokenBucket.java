@@ -0,0 +1,73 @@
+package de.uni_leipzig.asv.web.proxy;
+/**
+ * Ein Token-Bucket zur Begrenzung der Anfragerate. Der Bucket fllt sich mit
+ * einer festen Rate bis zu seiner Kapazitt, und jede Anfrage verbraucht ein
+ * Token. Die Kapazitt bestimmt, wie viele Anfragen nach einer Pause direkt
+ * hintereinander gesendet werden drfen.
+ * 
+ * @author Sergej Sintschilin
+ * @author Quan Nguyen
+ */
+public final class TokenBucket {
+	private final double rate;
+	private final double capacity;
+	private double tokens;
+	private long last;
+	/**
+	 * Erstellt einen vollen Bucket.
+	 * 
+	 * @param rate
+	 *            die Anzahl der Tokens je Sekunde
+	 * @param capacity
+	 *            die Kapazitt des Buckets
+	 */
+	public TokenBucket(double rate, int capacity) {
+		if (rate <= 0)
+			throw new IllegalArgumentException("rate must be positive");
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be positive");
+		this.rate = rate / 1000;
+		this.capacity = capacity;
+		this.tokens = capacity;
+		this.last = System.currentTimeMillis();
+	}
+	private void refill(long now) {
+		if (now > this.last) {
+			this.tokens = Math.min(this.capacity, this.tokens + (now - this.last) * this.rate);
+			this.last = now;
+		}
+	}
+	/**
+	 * Verbraucht ein Token, falls eines vorhanden ist.
+	 * 
+	 * @param now
+	 *            die aktuelle Zeit in Millisekunden
+	 * @return <code>true</code>, falls ein Token verbraucht wurde
+	 */
+	public synchronized boolean tryAcquire(long now) {
+		this.refill(now);
+		if (this.tokens < 1)
+			return false;
+		this.tokens--;
+		return true;
+	}
+	/**
+	 * Gibt die Zeit zurck, bis wieder ein Token vorhanden ist.
+	 * 
+	 * @param now
+	 *            die aktuelle Zeit in Millisekunden
+	 * @return die Wartezeit in Millisekunden, <code>0</code> falls ein Token
+	 *         vorhanden ist
+	 */
+	public synchronized long getDelay(long now) {
+		this.refill(now);
+		if (this.tokens >= 1)
+			return 0;
+		return (long) Math.ceil((1 - this.tokens) / this.rate);
+	}
+	@Override
+	public synchronized String toString() {
+		this.refill(System.currentTimeMillis());
+		return String.format("tokens=%.1f/%.0f", this.tokens, this.capacity);
+	}
+}
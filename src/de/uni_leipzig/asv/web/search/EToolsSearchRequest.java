@@ -4,12 +4,22 @@ import java.io.InputStream;
 import java.net.URI;
 import java.net.URLEncoder;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import org.apache.http.Header;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import de.uni_leipzig.asv.web.MultiRequest;
+import de.uni_leipzig.asv.web.RateLimit;
+import de.uni_leipzig.asv.web.RequestException;
+import de.uni_leipzig.asv.web.html.HtmlScanner;
+import de.uni_leipzig.asv.web.html.TextCollector;
 import de.uni_leipzig.asv.web.search.SearchResponse.Result;
 /**
  * Eine Anfrage an die Suchmaschine ETools.
@@ -32,8 +42,90 @@ public final class EToolsSearchRequest extends MultiRequest<EToolsSearchRequest.
 	}
 	public static final int PAGE_RESULT_LIMIT = 40;
 	public static final int GENERAL_RESULT_LIMIT = 400;
+	public static final String DEFAULT_BASE_URI = "http://www.etools.ch/";
+	/**
+	 * Empfohlene Grenzen der Anfragerate sind eine Anfrage je Proxy alle
+	 * <code>2</code> Sekunden mit bis zu <code>3</code> direkt
+	 * hintereinander und <code>5</code> Anfragen je Sekunde über alle
+	 * Proxies. Sie gelten nur, wenn sie mit
+	 * {@link #setRateLimit(RateLimit)} gesetzt werden.
+	 */
+	public static final RateLimit DEFAULT_RATE_LIMIT = new RateLimit(0.5, 3, 5, 5);
+	private static final ContextKey<String> JSESSIONID = new ContextKey<String>("jsessionid");
+	private static volatile boolean streaming = true;
+	private static volatile RateLimit rateLimit = null;
+	private static volatile Semaphore concurrencyLimit = null;
+	private static volatile int parallelism = 1;
+	private static volatile String baseURI = EToolsSearchRequest.DEFAULT_BASE_URI;
 	private String query;
 	private int resultCount;
+	/**
+	 * Legt fest, ob die Suchergebnisse beim Lesen der Seite erkannt werden,
+	 * ohne dass ein vollständiger Dokumentbaum aufgebaut wird. Standartmäßig
+	 * eingeschaltet.
+	 * 
+	 * @param streaming
+	 *            <code>false</code>, um jede Seite mit Jsoup zu parsen
+	 */
+	public static void setStreaming(boolean streaming) {
+		EToolsSearchRequest.streaming = streaming;
+	}
+	/**
+	 * Setzt die Grenzen der Anfragerate für alle folgenden Anfragen.
+	 * Standartmäßig ist die Rate nicht begrenzt.
+	 * 
+	 * @param rateLimit
+	 *            die Grenzen
+	 */
+	public static void setRateLimit(RateLimit rateLimit) {
+		if (rateLimit == null)
+			throw new IllegalArgumentException("rate limit may not be null");
+		EToolsSearchRequest.rateLimit = rateLimit;
+	}
+	/**
+	 * Begrenzt die Anzahl der gleichzeitigen Anfragen an die Suchmaschine
+	 * für alle folgenden Anfragen.
+	 * 
+	 * @param permits
+	 *            die Anzahl der gleichzeitigen Anfragen oder <code>0</code>,
+	 *            um die Anfragen nicht zu begrenzen
+	 */
+	public static void setConcurrencyLimit(int permits) {
+		if (permits < 0)
+			throw new IllegalArgumentException("concurrency limit may not be negative");
+		EToolsSearchRequest.concurrencyLimit = permits == 0 ? null : new Semaphore(permits);
+	}
+	/**
+	 * Setzt die Anzahl der Seiten einer Suchanfrage, die gleichzeitig über
+	 * verschiedene Proxies angefordert werden. Die erste Seite eröffnet die
+	 * Sitzung und wird immer allein angefordert; die weiteren Seiten hängen
+	 * nur von der Sitzung ab und werden bei mehr als <code>1</code> bis zur
+	 * angeforderten Anzahl der Suchergebnisse nebenläufig angefordert und in
+	 * der Reihenfolge der Seiten zusammengeführt. Liefert eine Seite keine
+	 * Suchergebnisse mehr, werden die Anfragen späterer Seiten abgebrochen.
+	 * Standartmäßig werden die Seiten nacheinander angefordert.
+	 * 
+	 * @param parallelism
+	 *            die Anzahl der gleichzeitig angeforderten Seiten
+	 */
+	public static void setParallelism(int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("parallelism must be positive");
+		EToolsSearchRequest.parallelism = parallelism;
+	}
+	/**
+	 * Setzt die Adresse, unter der die Seiten der Suche liegen, für alle
+	 * folgenden Anfragen, etwa um eine nachgebildete Suchmaschine anzufragen.
+	 * 
+	 * @param baseURI
+	 *            die Adresse mit abschließendem <code>/</code>, standartmäßig
+	 *            {@link #DEFAULT_BASE_URI}
+	 */
+	public static void setBaseURI(String baseURI) {
+		if (baseURI == null)
+			throw new IllegalArgumentException("base uri may not be null");
+		EToolsSearchRequest.baseURI = baseURI;
+	}
 	/**
 	 * Bereitet eine Anfrage für die Suchmaschine ETools vor.
 	 * 
@@ -51,6 +143,28 @@ public final class EToolsSearchRequest extends MultiRequest<EToolsSearchRequest.
 		this.resultCount = resultCount;
 	}
 	protected void start(Context context) throws IOException {
+		int parallelism = EToolsSearchRequest.parallelism;
+		if (parallelism > 1) {
+			context.submit(new HttpGet(EToolsSearchRequest.buildURI(this.query, "web", "all", 40, 40)));
+			final String jsessionid = context.getParam(EToolsSearchRequest.JSESSIONID);
+			// without a session the following pages cannot return any results
+			if (context.isCompleted() || jsessionid == null)
+				return;
+			final int pages = (Math.min(this.resultCount, EToolsSearchRequest.GENERAL_RESULT_LIMIT) + EToolsSearchRequest.PAGE_RESULT_LIMIT - 1) / EToolsSearchRequest.PAGE_RESULT_LIMIT;
+			context.submitPages(new PageFactory() {
+				public HttpRequestBase createRequest(int index) throws IOException {
+					int page = index + 2;
+					if (page > pages)
+						return null;
+					return new HttpGet(EToolsSearchRequest.buildURI(jsessionid, page));
+				}
+			}, new PageMerger<EToolsSearchResponse>() {
+				public EToolsSearchResponse merge(EToolsSearchResponse value, EToolsSearchResponse page, Context context) throws IOException {
+					return EToolsSearchRequest.this.mergeResponse(value, page, context);
+				}
+			}, parallelism);
+			return;
+		}
 		HttpGet request = new HttpGet();
 		int page = 1;
 		int count = 0;
@@ -62,62 +176,170 @@ public final class EToolsSearchRequest extends MultiRequest<EToolsSearchRequest.
 			if (page == 1)
 				request.setURI(EToolsSearchRequest.buildURI(this.query, "web", "all", 40, 40));
 			else
-				request.setURI(EToolsSearchRequest.buildURI(context.getParamAsString("jsessionid", ""), page));
+				request.setURI(EToolsSearchRequest.buildURI(context.getParam(EToolsSearchRequest.JSESSIONID, ""), page));
 			context.submit(request);
 			page++;
 			count += EToolsSearchRequest.PAGE_RESULT_LIMIT;
 		}
 	}
+	protected CompletableFuture<?> startAsync(final Context context) {
+		return context.submitAsync(new PageFactory() {
+			public HttpRequestBase createRequest(int index) throws IOException {
+				if (index * EToolsSearchRequest.PAGE_RESULT_LIMIT >= EToolsSearchRequest.GENERAL_RESULT_LIMIT)
+					return null;
+				if (index == 0)
+					return new HttpGet(EToolsSearchRequest.buildURI(EToolsSearchRequest.this.query, "web", "all", 40, 40));
+				return new HttpGet(EToolsSearchRequest.buildURI(context.getParam(EToolsSearchRequest.JSESSIONID, ""), index + 1));
+			}
+		});
+	}
 	private static final URI buildURI(String query, String country, String language, int dataSourceResults, int pageResults) throws IOException {
-		final String uri = "http://www.etools.ch/searchAdvancedSubmit.do?query={0}&country={1}&language={2}&dataSourceResults={3}&pageResults={4}";
+		final String uri = "{0}searchAdvancedSubmit.do?query={1}&country={2}&language={3}&dataSourceResults={4}&pageResults={5}";
 		try {
-			return new URI(MessageFormat.format(uri, URLEncoder.encode(query, "UTF-8"), country, language, String.valueOf(dataSourceResults), String.valueOf(pageResults)));
+			return new URI(MessageFormat.format(uri, EToolsSearchRequest.baseURI, URLEncoder.encode(query, "UTF-8"), country, language, String.valueOf(dataSourceResults), String.valueOf(pageResults)));
 		} catch (Exception e) {
 			throw new IOException();
 		}
 	}
 	private static final URI buildURI(String jsessionid, int page) throws IOException {
-		final String uri = "http://www.etools.ch/searchAdvanced.do;jsessionid={0}?page={1}";
+		final String uri = "{0}searchAdvanced.do;jsessionid={1}?page={2}";
 		try {
-			return new URI(MessageFormat.format(uri, jsessionid, String.valueOf(page)));
+			return new URI(MessageFormat.format(uri, EToolsSearchRequest.baseURI, jsessionid, String.valueOf(page)));
 		} catch (Exception e) {
 			throw new IOException();
 		}
 	}
+	protected RateLimit getRateLimit() {
+		return EToolsSearchRequest.rateLimit;
+	}
+	protected Semaphore getConcurrencyLimit() {
+		return EToolsSearchRequest.concurrencyLimit;
+	}
 	protected EToolsSearchResponse handleResponse(HttpResponse response, EToolsSearchResponse value, Context context) throws IOException {
-		if (response.getStatusLine().getStatusCode() != 200)
-			throw new IOException("status is not OK");
+		int statusCode = response.getStatusLine().getStatusCode();
+		if (statusCode != 200)
+			throw new RequestException(RequestException.Type.HTTP_STATUS, statusCode, "status is not OK");
+		ResultPage page = EToolsSearchRequest.streaming ? EToolsSearchRequest.scan(response) : EToolsSearchRequest.parse(response);
+		if (page.title.equalsIgnoreCase("Access Banned"))
+			throw new RequestException(RequestException.Type.BANNED, "access banned");
+		if (page.title.equalsIgnoreCase("Access Denied"))
+			throw new RequestException(RequestException.Type.BANNED, "access denied");
+		if (value == null) {
+			value = new EToolsSearchResponse();
+			value.requestedQuery = this.query;
+			value.requestedResultCount = this.resultCount;
+			Header cookie = response.getFirstHeader("Set-Cookie");
+			String jsessionid = cookie != null ? MultiRequest.extractCookies(cookie.getValue()).get("JSESSIONID") : null;
+			if (jsessionid != null)
+				context.setParam(EToolsSearchRequest.JSESSIONID, jsessionid);
+		}
+		for (Result result : page.results) {
+			value.results.add(result);
+			if (value.results.size() >= this.resultCount) {
+				context.complete();
+				break;
+			}
+		}
+		if (page.results.isEmpty())
+			context.complete();
+		return value;
+	}
+	private EToolsSearchResponse mergeResponse(EToolsSearchResponse value, EToolsSearchResponse page, Context context) throws IOException {
+		for (Result result : page.results) {
+			if (value.results.size() >= this.resultCount)
+				break;
+			value.results.add(result);
+		}
+		if (value.results.size() >= this.resultCount)
+			context.complete();
+		return value;
+	}
+	/**
+	 * Der Titel und die Suchergebnisse einer einzelnen Seite.
+	 */
+	private static final class ResultPage {
+		private String title = "";
+		private final List<Result> results = new ArrayList<Result>(EToolsSearchRequest.PAGE_RESULT_LIMIT);
+	}
+	private static ResultPage parse(HttpResponse response) throws IOException {
 		Document doc;
 		{
 			InputStream in = response.getEntity().getContent();
 			doc = Jsoup.parse(response.getEntity().getContent(), null, "");
 			in.close();
 		}
-		if (doc.title().equalsIgnoreCase("Access Banned"))
-			throw new IOException("access banned");
-		if (doc.title().equalsIgnoreCase("Access Denied"))
-			throw new IOException("access denied");
-		if (value == null) {
-			value = new EToolsSearchResponse();
-			value.requestedQuery = this.query;
-			value.requestedResultCount = this.resultCount;
-			try {
-				context.setParamAsString("jsessionid", MultiRequest.extractCookies(response.getFirstHeader("Set-Cookie").getValue()).get("JSESSIONID"));
-			} catch (Exception e) {}
-		}
+		ResultPage page = new ResultPage();
+		page.title = doc.title();
 		for (Element element : doc.getElementsByClass("record")) {
 			try {
 				Result result = new Result();
 				result.title = element.children().get(0).text();
 				result.link = element.children().get(0).attr("href");
 				result.snippet = element.children().get(1).text();
-				value.results.add(result);
+				page.results.add(result);
 			} catch (Exception e) {}
-			if (value.results.size() >= this.resultCount) {
-				context.complete();
-				break;
+		}
+		return page;
+	}
+	private static ResultPage scan(HttpResponse response) throws IOException {
+		ScanHandler handler = new ScanHandler();
+		HtmlScanner.open(response.getEntity().getContent(), null).scan(handler);
+		return handler.page;
+	}
+	/**
+	 * Erkennt den Titel und die Suchergebnisse einer Seite während des
+	 * Lesens. Ein Suchergebnis ist ein Element der Klasse <code>record</code>,
+	 * dessen erstes Kind den Titel und den Link und dessen zweites Kind den
+	 * Ausschnitt enthält.
+	 */
+	private static final class ScanHandler implements HtmlScanner.Handler {
+		private final ResultPage page = new ResultPage();
+		private final TextCollector text = new TextCollector();
+		private boolean title = false;
+		private int titleDepth = -1;
+		private int recordDepth = -1;
+		private int children = 0;
+		private Result result = null;
+		public void startElement(HtmlScanner.Tag tag, int depth) {
+			String name = tag.getName();
+			if (this.titleDepth >= 0 || (this.recordDepth >= 0 && depth > this.recordDepth + 1))
+				this.text.startElement(name);
+			if (this.recordDepth < 0) {
+				if (tag.hasClass("record")) {
+					this.recordDepth = depth;
+					this.children = 0;
+					this.result = new Result();
+				} else if (!this.title && name.equals("title")) {
+					this.titleDepth = depth;
+					this.text.clear();
+				}
+			} else if (depth == this.recordDepth + 1) {
+				if (this.children == 0)
+					this.result.link = tag.getAttribute("href") != null ? tag.getAttribute("href") : "";
+				this.children++;
+				this.text.clear();
 			}
 		}
-		return value;
+		public void endElement(String name, int depth) {
+			if (depth == this.titleDepth) {
+				this.page.title = this.text.toString();
+				this.title = true;
+				this.titleDepth = -1;
+			} else if (this.recordDepth >= 0 && depth == this.recordDepth + 1) {
+				if (this.children == 1)
+					this.result.title = this.text.toString();
+				else if (this.children == 2)
+					this.result.snippet = this.text.toString();
+			} else if (depth == this.recordDepth) {
+				if (this.children >= 2)
+					this.page.results.add(this.result);
+				this.recordDepth = -1;
+				this.result = null;
+			}
+		}
+		public void text(String text, boolean preformatted) {
+			if (this.titleDepth >= 0 || (this.recordDepth >= 0 && this.children > 0))
+				this.text.append(text, preformatted);
+		}
 	}
 }
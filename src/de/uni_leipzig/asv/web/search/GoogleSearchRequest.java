@@ -5,15 +5,24 @@ import java.net.URI;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
 import de.uni_leipzig.asv.web.MultiRequest;
+import de.uni_leipzig.asv.web.RateLimit;
+import de.uni_leipzig.asv.web.RequestException;
+import de.uni_leipzig.asv.web.html.HtmlScanner;
+import de.uni_leipzig.asv.web.html.TextCollector;
 import de.uni_leipzig.asv.web.search.SearchResponse.Result;
 /**
  * Eine Anfrage an die Suchmaschine Google.
@@ -24,6 +33,7 @@ import de.uni_leipzig.asv.web.search.SearchResponse.Result;
 public final class GoogleSearchRequest extends MultiRequest<GoogleSearchRequest.GoogleSearchResponse> {
 	public static final int PAGE_RESULT_LIMIT = 100;
 	public static final int GENERAL_RESULT_LIMIT = 1000;
+	public static final String DEFAULT_BASE_URI = "https://www.google.com/search";
 	/**
 	 * Die Antwort der Suchmaschine Google. Erweitert die standardmige Antwort
 	 * um die Statistik der von Google gelieferten Ergebnisse.
@@ -47,8 +57,87 @@ public final class GoogleSearchRequest extends MultiRequest<GoogleSearchRequest.
 			return this.totalResultCount;
 		}
 	}
+	private static final Pattern LINK_PATTERN = Pattern.compile("q=([^&]*)");
+	/**
+	 * Empfohlene Grenzen der Anfragerate sind eine Anfrage je Proxy alle
+	 * <code>5</code> Sekunden mit bis zu <code>2</code> direkt
+	 * hintereinander und <code>10</code> Anfragen je Sekunde ber alle
+	 * Proxies. Sie gelten nur, wenn sie mit
+	 * {@link #setRateLimit(RateLimit)} gesetzt werden.
+	 */
+	public static final RateLimit DEFAULT_RATE_LIMIT = new RateLimit(0.2, 2, 10, 10);
+	private static volatile boolean streaming = true;
+	private static volatile RateLimit rateLimit = null;
+	private static volatile Semaphore concurrencyLimit = null;
+	private static volatile int parallelism = 1;
+	private static volatile String baseURI = GoogleSearchRequest.DEFAULT_BASE_URI;
 	private String query;
 	private int resultCount;
+	/**
+	 * Legt fest, ob die Suchergebnisse beim Lesen der Seite erkannt werden,
+	 * ohne dass ein vollstndiger Dokumentbaum aufgebaut wird. Standartmig
+	 * eingeschaltet.
+	 * 
+	 * @param streaming
+	 *            <code>false</code>, um jede Seite mit Jsoup zu parsen
+	 */
+	public static void setStreaming(boolean streaming) {
+		GoogleSearchRequest.streaming = streaming;
+	}
+	/**
+	 * Setzt die Grenzen der Anfragerate fr alle folgenden Anfragen.
+	 * Standartmig ist die Rate nicht begrenzt.
+	 * 
+	 * @param rateLimit
+	 *            die Grenzen
+	 */
+	public static void setRateLimit(RateLimit rateLimit) {
+		if (rateLimit == null)
+			throw new IllegalArgumentException("rate limit may not be null");
+		GoogleSearchRequest.rateLimit = rateLimit;
+	}
+	/**
+	 * Begrenzt die Anzahl der gleichzeitigen Anfragen an die Suchmaschine
+	 * fr alle folgenden Anfragen.
+	 * 
+	 * @param permits
+	 *            die Anzahl der gleichzeitigen Anfragen oder <code>0</code>,
+	 *            um die Anfragen nicht zu begrenzen
+	 */
+	public static void setConcurrencyLimit(int permits) {
+		if (permits < 0)
+			throw new IllegalArgumentException("concurrency limit may not be negative");
+		GoogleSearchRequest.concurrencyLimit = permits == 0 ? null : new Semaphore(permits);
+	}
+	/**
+	 * Setzt die Anzahl der Seiten einer Suchanfrage, die gleichzeitig ber
+	 * verschiedene Proxies angefordert werden. Da die Adresse jeder Seite im
+	 * Voraus bekannt ist, werden bei mehr als <code>1</code> die Seiten bis
+	 * zur angeforderten Anzahl der Suchergebnisse nebenlufig angefordert und
+	 * in der Reihenfolge der Seiten zusammengefhrt. Zeigt eine Seite, dass
+	 * keine weiteren Ergebnisse folgen, werden die Anfragen spterer Seiten
+	 * abgebrochen. Standartmig werden die Seiten nacheinander angefordert.
+	 * 
+	 * @param parallelism
+	 *            die Anzahl der gleichzeitig angeforderten Seiten
+	 */
+	public static void setParallelism(int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("parallelism must be positive");
+		GoogleSearchRequest.parallelism = parallelism;
+	}
+	/**
+	 * Setzt die Adresse der Suche ohne Parameter fr alle folgenden Anfragen,
+	 * etwa um eine nachgebildete Suchmaschine anzufragen.
+	 * 
+	 * @param baseURI
+	 *            die Adresse, standartmig {@link #DEFAULT_BASE_URI}
+	 */
+	public static void setBaseURI(String baseURI) {
+		if (baseURI == null)
+			throw new IllegalArgumentException("base uri may not be null");
+		GoogleSearchRequest.baseURI = baseURI;
+	}
 	/**
 	 * Bereitet eine Anfrage fr die Suchmaschine Google vor.
 	 * 
@@ -66,6 +155,24 @@ public final class GoogleSearchRequest extends MultiRequest<GoogleSearchRequest.
 		this.resultCount = resultCount;
 	}
 	protected void start(Context context) throws IOException {
+		int parallelism = GoogleSearchRequest.parallelism;
+		if (parallelism > 1) {
+			// the page count is known upfront, so only pages up to the requested result count are fetched
+			final int end = Math.min(this.resultCount, GoogleSearchRequest.GENERAL_RESULT_LIMIT);
+			context.submitPages(new PageFactory() {
+				public HttpRequestBase createRequest(int index) throws IOException {
+					int start = index * GoogleSearchRequest.PAGE_RESULT_LIMIT;
+					if (start >= end)
+						return null;
+					return new HttpGet(GoogleSearchRequest.buildURI(GoogleSearchRequest.this.query, start, GoogleSearchRequest.PAGE_RESULT_LIMIT));
+				}
+			}, new PageMerger<GoogleSearchResponse>() {
+				public GoogleSearchResponse merge(GoogleSearchResponse value, GoogleSearchResponse page, Context context) throws IOException {
+					return GoogleSearchRequest.this.mergeResponse(value, page, context);
+				}
+			}, parallelism);
+			return;
+		}
 		HttpGet request = new HttpGet();
 		// request.setHeader("User-Agent", "Mozilla/5.0 (compatible; Googlebot/2.1; +http://www.google.com/bot.html)");
 		int start = 0;
@@ -81,55 +188,221 @@ public final class GoogleSearchRequest extends MultiRequest<GoogleSearchRequest.
 			start += num;
 		}
 	}
+	protected CompletableFuture<?> startAsync(Context context) {
+		return context.submitAsync(new PageFactory() {
+			public HttpRequestBase createRequest(int index) throws IOException {
+				int start = index * GoogleSearchRequest.PAGE_RESULT_LIMIT;
+				if (start >= GoogleSearchRequest.GENERAL_RESULT_LIMIT)
+					return null;
+				return new HttpGet(GoogleSearchRequest.buildURI(GoogleSearchRequest.this.query, start, GoogleSearchRequest.PAGE_RESULT_LIMIT));
+			}
+		});
+	}
+	protected String getCacheKey(HttpRequestBase request) {
+		return "google " + request.getURI();
+	}
 	private static final URI buildURI(String query, int start, int num) throws IOException {
-		final String uri = "https://www.google.com/search?q={0}&start={1}&num={2}";
+		final String uri = "{0}?q={1}&start={2}&num={3}";
 		try {
-			return new URI(MessageFormat.format(uri, URLEncoder.encode(query, "UTF-8"), String.valueOf(start), String.valueOf(num)));
+			return new URI(MessageFormat.format(uri, GoogleSearchRequest.baseURI, URLEncoder.encode(query, "UTF-8"), String.valueOf(start), String.valueOf(num)));
 		} catch (Exception e) {
 			throw new IOException();
 		}
 	}
+	protected RateLimit getRateLimit() {
+		return GoogleSearchRequest.rateLimit;
+	}
+	protected Semaphore getConcurrencyLimit() {
+		return GoogleSearchRequest.concurrencyLimit;
+	}
 	protected GoogleSearchResponse handleResponse(HttpResponse response, GoogleSearchResponse value, Context context) throws IOException {
-		if (response.getStatusLine().getStatusCode() != 200)
-			throw new IOException("status is not OK");
-		Document doc;
-		{
-			InputStream in = response.getEntity().getContent();
-			doc = Jsoup.parse(response.getEntity().getContent(), "CP1252", "");
-			in.close();
-		}
+		int statusCode = response.getStatusLine().getStatusCode();
+		if (statusCode == 429 || statusCode == 503)
+			throw new RequestException(RequestException.Type.BANNED, statusCode, "access banned");
+		if (statusCode != 200)
+			throw new RequestException(RequestException.Type.HTTP_STATUS, statusCode, "status is not OK");
+		ResultPage page = GoogleSearchRequest.streaming ? GoogleSearchRequest.scan(response) : GoogleSearchRequest.parse(response);
 		if (value == null) {
 			value = new GoogleSearchResponse();
 			value.requestedQuery = this.query;
 			value.requestedResultCount = this.resultCount;
-			try {
-				value.totalResultCount = Integer.valueOf(doc.select("div#resultStats").first().text().replaceAll("[^\\d]", ""));
-			} catch (Exception e) {}
+			value.totalResultCount = page.totalResultCount;
 		}
-		for (Element element : doc.select("li.g")) {
-			try {
-				Result result = new Result();
-				result.title = element.select("h3.r").first().text();
-				Matcher matcher = Pattern.compile("q=([^&]*)").matcher(element.select("a[href^=/url]").first().attr("href"));
-				matcher.find();
-				result.link = URLDecoder.decode(matcher.group(1), "UTF-8");
-				result.snippet = element.select("span.st").first().text();
-				value.results.add(result);
-			} catch (Exception e) {}
+		for (Result result : page.results) {
+			value.results.add(result);
 			if (value.results.size() >= this.resultCount) {
 				context.complete();
 				break;
 			}
 		}
-		if (!doc.select("p#ofr").isEmpty())
+		if (page.last)
+			context.complete();
+		return value;
+	}
+	private GoogleSearchResponse mergeResponse(GoogleSearchResponse value, GoogleSearchResponse page, Context context) throws IOException {
+		if (value.totalResultCount == null)
+			value.totalResultCount = page.totalResultCount;
+		for (Result result : page.results) {
+			if (value.results.size() >= this.resultCount)
+				break;
+			value.results.add(result);
+		}
+		if (value.results.size() >= this.resultCount)
 			context.complete();
+		return value;
+	}
+	/**
+	 * Die Suchergebnisse einer einzelnen Seite.
+	 */
+	private static final class ResultPage {
+		private Integer totalResultCount = null;
+		private final List<Result> results = new ArrayList<Result>(GoogleSearchRequest.PAGE_RESULT_LIMIT);
+		private boolean last = false;
+	}
+	private static ResultPage parse(HttpResponse response) throws IOException {
+		Document doc;
+		{
+			InputStream in = response.getEntity().getContent();
+			doc = Jsoup.parse(response.getEntity().getContent(), "CP1252", "");
+			in.close();
+		}
+		ResultPage page = new ResultPage();
+		try {
+			page.totalResultCount = Integer.valueOf(doc.select("div#resultStats").first().text().replaceAll("[^\\d]", ""));
+		} catch (Exception e) {}
+		for (Element element : doc.select("li.g")) {
+			try {
+				Result result = GoogleSearchRequest.createResult(element.select("h3.r").first().text(), element.select("a[href^=/url]").first().attr("href"), element.select("span.st").first().text());
+				if (result != null)
+					page.results.add(result);
+			} catch (Exception e) {}
+		}
+		if (!doc.select("p#ofr").isEmpty())
+			page.last = true;
 		else {
 			Elements select = doc.select("table#nav td:not(.b)");
 			if (select.isEmpty())
-				context.complete();
+				page.last = true;
 			else if (select.last().select("a").isEmpty())
-				context.complete();
+				page.last = true;
+		}
+		return page;
+	}
+	private static ResultPage scan(HttpResponse response) throws IOException {
+		ScanHandler handler = new ScanHandler();
+		HtmlScanner.open(response.getEntity().getContent(), "CP1252").scan(handler);
+		ResultPage page = handler.page;
+		try {
+			if (handler.totalResultCount != null)
+				page.totalResultCount = Integer.valueOf(handler.totalResultCount.replaceAll("[^\\d]", ""));
+		} catch (Exception e) {}
+		page.last = handler.lastPage || !handler.navigation || !handler.navigationLink;
+		return page;
+	}
+	private static Result createResult(String title, String href, String snippet) throws IOException {
+		Matcher matcher = GoogleSearchRequest.LINK_PATTERN.matcher(href);
+		if (!matcher.find())
+			return null;
+		Result result = new Result();
+		result.title = title;
+		result.link = URLDecoder.decode(matcher.group(1), "UTF-8");
+		result.snippet = snippet;
+		return result;
+	}
+	/**
+	 * Erkennt die Suchergebnisse einer Seite whrend des Lesens. Entspricht
+	 * den Selektoren <code>li.g</code>, <code>h3.r</code>,
+	 * <code>a[href^=/url]</code>, <code>span.st</code>,
+	 * <code>div#resultStats</code>, <code>p#ofr</code> und
+	 * <code>table#nav td:not(.b)</code>.
+	 */
+	private static final class ScanHandler implements HtmlScanner.Handler {
+		private static final int TITLE = 0;
+		private static final int SNIPPET = 1;
+		private static final int STATISTICS = 2;
+		private final ResultPage page = new ResultPage();
+		private final TextCollector text = new TextCollector();
+		private int captureDepth = -1;
+		private int capture = -1;
+		private int resultDepth = -1;
+		private String title = null;
+		private String href = null;
+		private String snippet = null;
+		private String totalResultCount = null;
+		private boolean lastPage = false;
+		private int navigationDepth = -1;
+		private int cellDepth = -1;
+		private boolean navigation = false;
+		private boolean navigationLink = false;
+		public void startElement(HtmlScanner.Tag tag, int depth) {
+			String name = tag.getName();
+			if (this.captureDepth >= 0)
+				this.text.startElement(name);
+			if (name.equals("li")) {
+				if (this.resultDepth < 0 && tag.hasClass("g")) {
+					this.resultDepth = depth;
+					this.title = null;
+					this.href = null;
+					this.snippet = null;
+				}
+			} else if (name.equals("a")) {
+				if (this.resultDepth >= 0 && this.href == null) {
+					String href = tag.getAttribute("href");
+					if (href != null && href.regionMatches(true, 0, "/url", 0, 4))
+						this.href = href;
+				}
+				if (this.cellDepth >= 0)
+					this.navigationLink = true;
+			} else if (this.captureDepth < 0 && this.resultDepth >= 0 && this.title == null && name.equals("h3") && tag.hasClass("r"))
+				this.capture(ScanHandler.TITLE, depth);
+			else if (this.captureDepth < 0 && this.resultDepth >= 0 && this.snippet == null && name.equals("span") && tag.hasClass("st"))
+				this.capture(ScanHandler.SNIPPET, depth);
+			else if (this.captureDepth < 0 && this.totalResultCount == null && name.equals("div") && tag.hasId("resultStats"))
+				this.capture(ScanHandler.STATISTICS, depth);
+			else if (name.equals("p") && tag.hasId("ofr"))
+				this.lastPage = true;
+			else if (name.equals("table") && this.navigationDepth < 0 && tag.hasId("nav"))
+				this.navigationDepth = depth;
+			else if (name.equals("td") && this.navigationDepth >= 0 && !tag.hasClass("b")) {
+				this.cellDepth = depth;
+				this.navigation = true;
+				this.navigationLink = false;
+			}
+		}
+		private void capture(int capture, int depth) {
+			this.capture = capture;
+			this.captureDepth = depth;
+			this.text.clear();
+		}
+		public void endElement(String name, int depth) {
+			if (depth == this.captureDepth) {
+				String text = this.text.toString();
+				if (this.capture == ScanHandler.TITLE)
+					this.title = text;
+				else if (this.capture == ScanHandler.SNIPPET)
+					this.snippet = text;
+				else
+					this.totalResultCount = text;
+				this.captureDepth = -1;
+			}
+			if (depth == this.resultDepth) {
+				if (this.title != null && this.href != null && this.snippet != null) {
+					try {
+						Result result = GoogleSearchRequest.createResult(this.title, this.href, this.snippet);
+						if (result != null)
+							this.page.results.add(result);
+					} catch (Exception e) {}
+				}
+				this.resultDepth = -1;
+			}
+			if (depth == this.cellDepth)
+				this.cellDepth = -1;
+			if (depth == this.navigationDepth)
+				this.navigationDepth = -1;
+		}
+		public void text(String text, boolean preformatted) {
+			if (this.captureDepth >= 0)
+				this.text.append(text, preformatted);
 		}
-		return value;
 	}
 }
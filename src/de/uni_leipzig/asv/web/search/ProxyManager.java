@@ -8,48 +8,310 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 import de.uni_leipzig.asv.WebSearchLauncher;
+import de.uni_leipzig.asv.web.HedgePolicy;
+import de.uni_leipzig.asv.web.MultiRequest;
 import de.uni_leipzig.asv.web.ProxySwitcher;
+import de.uni_leipzig.asv.web.metrics.Histogram;
+import de.uni_leipzig.asv.web.metrics.MetricsRegistry;
 import de.uni_leipzig.asv.web.proxy.HideMyAssProxyRequest;
 import de.uni_leipzig.asv.web.proxy.Proxy;
 import de.uni_leipzig.asv.web.proxy.Proxy.Type;
+import de.uni_leipzig.asv.web.proxy.ProxyPool;
+import de.uni_leipzig.asv.web.proxy.ProxyRefiller;
+import de.uni_leipzig.asv.web.proxy.ProxyValidator;
 import de.uni_leipzig.asv.web.search.EToolsSearchRequest.EToolsSearchResponse;
 import de.uni_leipzig.asv.web.search.GoogleSearchRequest.GoogleSearchResponse;
 
 public final class ProxyManager {
-	private static ProxyManager instance = null;
+	/**
+	 * Standartmäßige Anzahl der Suchergebnisse, die in den Antworten der
+	 * zuletzt abgeschlossenen Suchanfragen für identische Suchanfragen
+	 * vorgehalten werden, ist <code>10000</code>. Bei etwa einem halben
+	 * Kilobyte je Suchergebnis belegen sie rund 5 MB, das sind z.B. die
+	 * Antworten von 100 Google-Suchanfragen mit je 100 Suchergebnissen.
+	 */
+	public static final int DEFAULT_RECENT_LIMIT = 10000;
+
+	private static final Log LOG = LogFactory.getLog(ProxyManager.class);
+
+	private static volatile ProxyManager instance = null;
 
 	// location of proxy list file
-	private static boolean useLocalProxyFile = false;
-	private static String proxyFile = null;
+	private static volatile boolean useLocalProxyFile = false;
+	private static volatile String proxyFile = null;
+
+	// minimum number of proxies kept in each pool
+	private static int lowWatermark = ProxyRefiller.DEFAULT_LOW_WATERMARK;
+
+	// probe for new proxies, null if proxies are admitted unchecked
+	private static ProxyValidator validator = null;
+
+	// hedging of slow requests, disabled if the percentile is not positive
+	private static double hedgePercentile = 0;
+	private static double hedgeBudget = HedgePolicy.DEFAULT_BUDGET;
+
+	// number of results in the completed responses kept for identical queries
+	private static volatile int recentLimit = DEFAULT_RECENT_LIMIT;
+
+	// send the requests of a query without blocking a thread per request
+	private static volatile boolean async = false;
 
 	public static void setLocalProxyFile(String file) {
 		proxyFile = file;
 		useLocalProxyFile = true;
 	}
 
+	/**
+	 * Setzt die Mindestanzahl der Proxies, die im Hintergrund in jedem Pool
+	 * vorgehalten werden. Wirkt sich nur auf Pools aus, die nach dem Aufruf
+	 * erstellt werden.
+	 * 
+	 * @param count
+	 *            die Mindestanzahl der Proxies
+	 */
+	public static void setLowWatermark(int count) {
+		if (count < 1)
+			throw new IllegalArgumentException("low watermark must be positive");
+		lowWatermark = count;
+	}
+
+	/**
+	 * Schaltet die Überprüfung neuer Proxies ein. Jede Proxy wird vor der
+	 * Aufnahme in einen Pool über eine Anfrage an die Prüfadresse getestet,
+	 * nur erfolgreich getestete Proxies werden aufgenommen.
+	 * 
+	 * @param checkURI
+	 *            die Prüfadresse
+	 * @param concurrency
+	 *            die Anzahl gleichzeitiger Prüfungen
+	 * @param timeout
+	 *            die Frist einer Prüfung in Millisekunden
+	 */
+	public static synchronized void setProxyCheck(String checkURI,
+			int concurrency, int timeout) {
+		if (validator != null)
+			validator.shutdown();
+		validator = new ProxyValidator(checkURI, concurrency, timeout);
+	}
+
+	/**
+	 * Schaltet abgesicherte Anfragen ein. Liegt nach dem Perzentil der
+	 * zuletzt gemessenen Latenzen keine Antwort vor, wird die Anfrage
+	 * zusätzlich über eine zweite Proxy gesendet. Wirkt sich nur auf Pools
+	 * aus, die nach dem Aufruf erstellt werden.
+	 * 
+	 * @param percentile
+	 *            das Perzentil der Latenz
+	 * @param budget
+	 *            der höchste Anteil zusätzlicher Anfragen
+	 */
+	public static void setHedging(double percentile, double budget) {
+		if (percentile <= 0 || percentile >= 1)
+			throw new IllegalArgumentException(
+					"percentile must be between 0 and 1");
+		if (budget <= 0 || budget > 1)
+			throw new IllegalArgumentException(
+					"budget must be between 0 and 1");
+		hedgePercentile = percentile;
+		hedgeBudget = budget;
+	}
+
+	/**
+	 * Setzt die Anzahl der Suchergebnisse, die in den Antworten der zuletzt
+	 * abgeschlossenen Suchanfragen für identische Suchanfragen vorgehalten
+	 * werden. Eine Antwort ohne Suchergebnisse zählt wie eine mit einem
+	 * Suchergebnis. Werden es mehr, werden die am längsten nicht gelieferten
+	 * Antworten verworfen. Bei <code>0</code> teilen sich nur gleichzeitig
+	 * laufende identische Suchanfragen eine Antwort.
+	 * 
+	 * @param count
+	 *            die Anzahl der vorgehaltenen Suchergebnisse
+	 */
+	public static void setRecentLimit(int count) {
+		if (count < 0)
+			throw new IllegalArgumentException(
+					"recent limit may not be negative");
+		recentLimit = count;
+	}
+
+	/**
+	 * Schaltet das asynchrone Senden der Suchanfragen ein. Die Anfragen
+	 * werden dann über {@link MultiRequest#submitAsync()} gesendet, sodass
+	 * die Seiten einer Suchanfrage und die Anfragen über verschiedene
+	 * Proxies keinen Thread blockieren. Der aufrufende Thread wartet weiter
+	 * auf die Antwort.
+	 * 
+	 * @param enabled
+	 *            <code>true</code>, um asynchron zu senden
+	 */
+	public static void setAsync(boolean enabled) {
+		async = enabled;
+	}
+
 	public static final ProxyManager getInstance(String file) {
-		if (ProxyManager.instance == null)
-			ProxyManager.instance = new ProxyManager();
-		setLocalProxyFile(file);
-		return ProxyManager.instance;
+		ProxyManager instance = getInstance();
+		if (!useLocalProxyFile || !file.equals(proxyFile))
+			setLocalProxyFile(file);
+		return instance;
 	}
-	
+
+	// called for every query; only the first call takes the lock, so that
+	// thousands of virtual query threads do not queue up on the monitor
 	public static final ProxyManager getInstance() {
-		if (ProxyManager.instance == null)
-			ProxyManager.instance = new ProxyManager();
-		return ProxyManager.instance;
+		ProxyManager instance = ProxyManager.instance;
+		if (instance != null)
+			return instance;
+		synchronized (ProxyManager.class) {
+			if (ProxyManager.instance == null)
+				ProxyManager.instance = new ProxyManager();
+			return ProxyManager.instance;
+		}
 	}
 
-	private ProxySwitcher<GoogleSearchResponse> googleProxySwitcher = new ProxySwitcherImpl<GoogleSearchResponse>();
-	private ProxySwitcher<EToolsSearchResponse> etoolsProxySwitcher = new ProxySwitcherImpl<EToolsSearchResponse>();
+	private ProxySwitcher<GoogleSearchResponse> googleProxySwitcher = new ProxySwitcherImpl<GoogleSearchResponse>(
+			"google");
+	private ProxySwitcher<EToolsSearchResponse> etoolsProxySwitcher = new ProxySwitcherImpl<EToolsSearchResponse>(
+			"etools");
+
+	// number of results per query actually sent to the search engine
+	private final Histogram googleResults = MetricsRegistry.getInstance()
+			.histogram("query.results", "engine", "google");
+	private final Histogram etoolsResults = MetricsRegistry.getInstance()
+			.histogram("query.results", "engine", "etools");
+
+	// identical queries share a single request while it is running
+	private final ConcurrentMap<String, FutureTask<? extends SearchResponse>> running = new ConcurrentHashMap<String, FutureTask<? extends SearchResponse>>();
+	// a few large responses must not pin more results than the limit allows
+	private final Map<String, SearchResponse> recent = new LinkedHashMap<String, SearchResponse>(
+			16, 0.75f, true);
+	private int recentResults = 0;
+	private final AtomicLong coalesced = new AtomicLong();
+	private final AtomicLong recentHits = new AtomicLong();
 
 	private ProxyManager() {
 	}
 
+	/**
+	 * Gibt die Anzahl der Suchanfragen zurück, die sich die Antwort einer
+	 * gleichzeitig laufenden identischen Suchanfrage geteilt haben.
+	 * 
+	 * @return die Anzahl der zusammengelegten Suchanfragen
+	 */
+	public long getCoalescedCount() {
+		return this.coalesced.get();
+	}
+
+	/**
+	 * Gibt die Anzahl der Suchanfragen zurück, die mit der vorgehaltenen
+	 * Antwort einer zuvor abgeschlossenen identischen Suchanfrage beantwortet
+	 * wurden.
+	 * 
+	 * @return die Anzahl der vorgehaltenen Antworten, die geliefert wurden
+	 */
+	public long getRecentHitCount() {
+		return this.recentHits.get();
+	}
+
+	private static int weigh(SearchResponse response) {
+		return Math.max(1, response.getResultCount());
+	}
+
+	private void keep(String key, SearchResponse response) {
+		int limit = recentLimit;
+		int weight = weigh(response);
+		synchronized (this.recent) {
+			if (weight > limit)
+				return;
+			SearchResponse previous = this.recent.put(key, response);
+			if (previous != null)
+				this.recentResults -= weigh(previous);
+			this.recentResults += weight;
+			Iterator<SearchResponse> eldest = this.recent.values().iterator();
+			while (this.recentResults > limit) {
+				this.recentResults -= weigh(eldest.next());
+				eldest.remove();
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T extends SearchResponse> T coalesce(final String key,
+			final Callable<T> request) throws IOException {
+		FutureTask<T> task = new FutureTask<T>(new Callable<T>() {
+			public T call() throws Exception {
+				T response;
+				synchronized (ProxyManager.this.recent) {
+					response = (T) ProxyManager.this.recent.get(key);
+				}
+				if (response != null) {
+					ProxyManager.this.recentHits.incrementAndGet();
+					return response;
+				}
+				response = request.call();
+				ProxyManager.this.keep(key, response);
+				return response;
+			}
+		});
+		FutureTask<T> running = (FutureTask<T>) this.running.putIfAbsent(key,
+				task);
+		if (running == null) {
+			try {
+				task.run();
+			} finally {
+				this.running.remove(key);
+			}
+		} else {
+			this.coalesced.incrementAndGet();
+			task = running;
+		}
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private static <R> R submit(MultiRequest<R> request) throws IOException {
+		if (!async)
+			return request.submit();
+		try {
+			return request.submitAsync().get();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
 	/**
 	 * Sendet eine Anfrage an die Suchmaschine Google und wandelt die
 	 * gelieferten Suchergebnisse in die standardm��ige Darstellung um.
@@ -63,12 +325,20 @@ public final class ProxyManager {
 	 *             falls die Anfrage nicht versendet werden konnte oder eine
 	 *             Fehler beim Parsen der Suchergebnisse auftrat
 	 */
-	public GoogleSearchResponse requestGoogle(String query, int resultCount)
-			throws IOException {
-		GoogleSearchRequest request = new GoogleSearchRequest(query,
-				resultCount);
-		request.setProxySwitcher(this.googleProxySwitcher);
-		return request.submit();
+	public GoogleSearchResponse requestGoogle(final String query,
+			final int resultCount) throws IOException {
+		return this.coalesce("google " + resultCount + " " + query,
+				new Callable<GoogleSearchResponse>() {
+					public GoogleSearchResponse call() throws IOException {
+						GoogleSearchRequest request = new GoogleSearchRequest(
+								query, resultCount);
+						request.setProxySwitcher(ProxyManager.this.googleProxySwitcher);
+						GoogleSearchResponse response = submit(request);
+						ProxyManager.this.googleResults.record(response
+								.getResultCount());
+						return response;
+					}
+				});
 	}
 
 	/**
@@ -84,82 +354,144 @@ public final class ProxyManager {
 	 *             falls die Anfrage nicht versendet werden konnte oder eine
 	 *             Fehler beim Parsen der Suchergebnisse auftrat
 	 */
-	public EToolsSearchResponse requestETools(String query, int resultCount)
-			throws IOException {
-		EToolsSearchRequest request = new EToolsSearchRequest(query,
-				resultCount);
-		request.setProxySwitcher(this.etoolsProxySwitcher);
-		return request.submit();
+	public EToolsSearchResponse requestETools(final String query,
+			final int resultCount) throws IOException {
+		return this.coalesce("etools " + resultCount + " " + query,
+				new Callable<EToolsSearchResponse>() {
+					public EToolsSearchResponse call() throws IOException {
+						EToolsSearchRequest request = new EToolsSearchRequest(
+								query, resultCount);
+						request.setProxySwitcher(ProxyManager.this.etoolsProxySwitcher);
+						EToolsSearchResponse response = submit(request);
+						ProxyManager.this.etoolsResults.record(response
+								.getResultCount());
+						return response;
+					}
+				});
 	}
 
 	private static final class ProxySwitcherImpl<T> extends ProxySwitcher<T> {
-		private final List<Proxy> proxies = new ArrayList<Proxy>();
+		private final ProxyRefiller refiller;
+
+		public ProxySwitcherImpl(String name) {
+			super(name);
+			this.refiller = new ProxyRefiller(this.getProxyPool(),
+					new ProxySourceImpl(), lowWatermark, name);
+			if (hedgePercentile > 0)
+				this.setHedgePolicy(new HedgePolicy(hedgePercentile,
+						hedgeBudget));
+		}
+
+		protected boolean awaitProxies(long version)
+				throws InterruptedException {
+			return this.refiller.await(version);
+		}
+
+		protected void onRequestSucceed(Proxy proxy, int counter) {
+			if (LOG.isDebugEnabled())
+				LOG.debug("PROXY SUCCEED : " + counter + " " + this.getProxyPool().getStatistics(proxy));
+		}
 
-		public ProxySwitcherImpl() {
-			super();
+		protected void onRequestFailed(Proxy proxy, int counter, String message) {
+			if (LOG.isDebugEnabled())
+				LOG.debug("PROXY FAILED : " + message + " " + this.getProxyPool().getStatistics(proxy) + " " + this.getProxyPool().getCircuitBreaker(proxy));
 		}
+	}
+
+	private static final class ProxySourceImpl implements
+			ProxyRefiller.Source {
+		// proxies delivered by earlier fetches, including those evicted from
+		// the pool since, are not admitted again
+		private final Set<Proxy> seen = Collections
+				.newSetFromMap(new ConcurrentHashMap<Proxy, Boolean>());
 
-		boolean first = true;
+		// page of the proxy list at which the next fetch continues
+		private int nextPage = 1;
+
+		private static void admit(final ProxyPool pool, List<Proxy> proxies)
+				throws IOException {
+			ProxyValidator validator = ProxyManager.validator;
+			if (validator == null) {
+				for (Proxy proxy : proxies)
+					pool.add(proxy);
+			} else {
+				int valid = validator.validate(proxies,
+						new ProxyValidator.Listener() {
+							public void onProxyValidated(Proxy proxy,
+									long latency) {
+								pool.add(proxy, latency);
+							}
+						});
+				LOG.info("VALID PROXIES : " + valid + "/" + proxies.size());
+			}
+		}
 
-		protected Proxy getNextProxy() {
-			if (this.proxies.isEmpty()) {
-				System.out.println(">>> GET NEW PROXIES: ");
+		public boolean fetch(final ProxyPool pool) throws IOException {
+			LOG.info("GET NEW PROXIES");
+			if (useLocalProxyFile) { // Local Proxy List
+				if (proxyFile == null)
+					return false;
+				File in = new File(proxyFile);
+				if (!in.isFile())
+					throw new IOException("proxy list must be a file");
+				BufferedReader reader = null;
 				try {
-					if (useLocalProxyFile) { // Local Proxy List
-						if (proxyFile == null)
-							return null;
-						File in = new File(proxyFile);
-						if (!in.isFile())
-							throw new IllegalArgumentException("input must be a file");
-						BufferedReader reader = null;
-						try {
-							reader = new BufferedReader(new InputStreamReader(
-									new FileInputStream(in), "UTF-8"));
-
-						// Parse proxies
-						String line = null;
-						String host = null;
-						int port;
-						Type type = null;
-						while ((line = reader.readLine()) != null) {
-							host = line.substring(0, line.indexOf(':') - 1);
-							port = Integer.parseInt(line.substring(line
-									.indexOf(':') + 1));
-							type = Type.HTTP;
-							Proxy proxy = new Proxy(host, port, type);
-							System.out.println("host: "+host+" port: "+port);
-							proxies.add(proxy);
-						}
-						proxyFile = null;
+					reader = new BufferedReader(new InputStreamReader(
+							new FileInputStream(in), "UTF-8"));
 
-						} finally {
-							if (reader != null)
-								reader.close();
+					// Parse proxies
+					List<Proxy> proxies = new ArrayList<Proxy>();
+					String line = null;
+					String host = null;
+					int port;
+					Type type = null;
+					while ((line = reader.readLine()) != null) {
+						line = line.trim();
+						if (line.isEmpty())
+							continue;
+						host = line.substring(0, line.indexOf(':'));
+						port = Integer.parseInt(line.substring(line
+								.indexOf(':') + 1));
+						type = Type.HTTP;
+						Proxy proxy = new Proxy(host, port, type);
+						LOG.debug("host: " + host + " port: " + port);
+						proxies.add(proxy);
+					}
+					admit(pool, proxies);
+				} finally {
+					if (reader != null)
+						reader.close();
+				}
+				// a local proxy list is read only once
+				return false;
+			} else { // Get Proxies from HideMyAss
+				int count = Math.max(2 * lowWatermark,
+						HideMyAssProxyRequest.PAGE_PROXY_LIMIT);
+				HideMyAssProxyRequest request = new HideMyAssProxyRequest(
+						count);
+				request.setFirstPage(this.nextPage);
+				request.setKnownProxies(this.seen);
+				request.setListener(new HideMyAssProxyRequest.Listener() {
+					public void onProxiesFound(List<Proxy> proxies) {
+						try {
+							admit(pool, proxies);
+						} catch (IOException e) {
+							LOG.warn("cannot admit proxies: " + e.getMessage());
 						}
-					} else { // Get Proxies from HideMyAss
-						HideMyAssProxyRequest request = new HideMyAssProxyRequest(
-								this.first ? 1000
-										: HideMyAssProxyRequest.PAGE_PROXY_LIMIT);
-						this.first = false;
-						this.proxies.addAll(request.submit());
 					}
-				} catch (IOException e) {
-					System.out.println(">>> EXCEPTION : " + e.getMessage());
+				});
+				List<Proxy> proxies = request.submit();
+				if (proxies.size() >= count || !request.isEndReached()) {
+					// the last page may hold further proxies
+					this.nextPage = request.getLastPage();
+					return true;
 				}
+				// a whole pass over the list without a new proxy
+				if (this.nextPage == 1 && proxies.isEmpty())
+					return false;
+				this.nextPage = 1;
+				return true;
 			}
-			if (this.proxies.isEmpty())
-				return null;
-			Proxy proxy = this.proxies.remove(0);
-			System.out.println(">>> USE PROXY : " + proxy);
-			return proxy;
-		}
-
-		protected void onRequestSucceed(Proxy proxy, int counter) {
-			System.out.println(">>> PROXY SUCCEED : " + counter);
-		}
-
-		protected void onRequestFailed(Proxy proxy, int counter, String message) {
-			System.out.println(">>> PROXY FAILED : " + message);
 		}
 	}
 }
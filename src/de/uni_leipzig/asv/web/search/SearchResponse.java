@@ -84,4 +84,25 @@ public class SearchResponse {
 	public List<Result> getResults() {
 		return new ArrayList<Result>(this.results);
 	}
+	/**
+	 * Gibt die Anzahl der von der Suchmaschine gelieferten Ergebnisse zurck,
+	 * ohne die Ergebnisse zu kopieren.
+	 * 
+	 * @return die Anzahl der Suchergebnisse
+	 */
+	public int getResultCount() {
+		return this.results.size();
+	}
+	/**
+	 * Gibt ein einzelnes der von der Suchmaschine gelieferten Ergebnisse
+	 * zurck, ohne die Ergebnisse zu kopieren.
+	 * 
+	 * @param index
+	 *            die Position des Suchergebnisses, beginnend bei
+	 *            <code>0</code>
+	 * @return das Suchergebnis
+	 */
+	public Result getResult(int index) {
+		return this.results.get(index);
+	}
 }
\ No newline at end of file